@@ -0,0 +1,110 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The covariance work of one {@link OrientationEKF} measurement update:
+ * propagation through the motion since the last update, innovation
+ * covariance, Kalman gain and Joseph update. Each operation starts from the
+ * same covariance, once with {@link CovarianceKernels} and once with
+ * general {@link Matrix3x3d} products.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CovarianceKernelsBenchmark {
+	private static final double Q = 1.0E-5D;
+	private static final double R = 0.5625D;
+
+	private final double[] initialP = new double[CovarianceKernels.SIZE];
+	private final Matrix3x3d motion = new Matrix3x3d();
+	private final Matrix3x3d h = new Matrix3x3d();
+
+	private final double[] p = new double[CovarianceKernels.SIZE];
+	private final double[] s = new double[CovarianceKernels.SIZE];
+	private final Matrix3x3d k = new Matrix3x3d();
+
+	private final Matrix3x3d fullP = new Matrix3x3d();
+	private final Matrix3x3d fullS = new Matrix3x3d();
+	private final Matrix3x3d fullK = new Matrix3x3d();
+	private final Matrix3x3d temp1 = new Matrix3x3d();
+	private final Matrix3x3d temp2 = new Matrix3x3d();
+	private final Matrix3x3d temp3 = new Matrix3x3d();
+
+	@Setup
+	public void setUp() {
+		Matrix3x3d covariance = new Matrix3x3d(2.0D, 0.3D, -0.1D, 0.3D, 1.5D,
+				0.2D, -0.1D, 0.2D, 0.8D);
+		CovarianceKernels.pack(covariance, this.initialP);
+		So3Util.sO3FromMu(new Vector3d(0.01D, -0.02D, 0.005D), this.motion);
+		Vector3d a = new Vector3d(0.1D, 0.2D, 0.97D);
+		a.normalize();
+		this.h.set(1.0D - a.x * a.x, -a.x * a.y, -a.x * a.z, -a.y * a.x,
+				1.0D - a.y * a.y, -a.y * a.z, -a.z * a.x, -a.z * a.y, 1.0D
+						- a.z * a.z);
+	}
+
+	@Benchmark
+	public double[] packedUpdate() {
+		System.arraycopy(this.initialP, 0, this.p, 0, CovarianceKernels.SIZE);
+		CovarianceKernels.propagate(this.p, this.motion, Q, this.p);
+		CovarianceKernels.innovationCovariance(this.p, this.h, R, this.s);
+		if (CovarianceKernels.kalmanGain(this.p, this.h, this.s, this.k)) {
+			CovarianceKernels.josephUpdate(this.p, this.k, this.h, R, this.p);
+		}
+		return this.p;
+	}
+
+	@Benchmark
+	public Matrix3x3d matrixUpdate() {
+		CovarianceKernels.unpack(this.initialP, this.fullP);
+		sandwich(this.motion, this.fullP, Q, this.fullP);
+		sandwich(this.h, this.fullP, R, this.fullS);
+		if (this.fullS.invert(this.temp1)) {
+			// K = P H^T S^-1
+			this.h.transpose(this.temp2);
+			Matrix3x3d.mult(this.fullP, this.temp2, this.temp3);
+			Matrix3x3d.mult(this.temp3, this.temp1, this.fullK);
+
+			// P = (I - K H) P (I - K H)^T + r K K^T
+			Matrix3x3d.mult(this.fullK, this.h, this.temp1);
+			this.temp1.scale(-1.0D);
+			this.temp1.m00 += 1.0D;
+			this.temp1.m11 += 1.0D;
+			this.temp1.m22 += 1.0D;
+			sandwich(this.temp1, this.fullP, 0.0D, this.fullP);
+			this.fullK.transpose(this.temp2);
+			Matrix3x3d.mult(this.fullK, this.temp2, this.temp3);
+			this.temp3.scale(R);
+			this.fullP.plusEquals(this.temp3);
+		}
+		return this.fullP;
+	}
+
+	/**
+	 * result = A P A^T + noise I; result may alias p.
+	 */
+	private void sandwich(Matrix3x3d a, Matrix3x3d p, double noise,
+			Matrix3x3d result) {
+		a.transpose(this.temp2);
+		Matrix3x3d.mult(p, this.temp2, this.temp3);
+		Matrix3x3d.mult(a, this.temp3, result);
+		result.m00 += noise;
+		result.m11 += noise;
+		result.m22 += noise;
+	}
+}
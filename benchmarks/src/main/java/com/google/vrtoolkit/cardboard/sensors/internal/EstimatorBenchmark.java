@@ -0,0 +1,60 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-sample cost of the low-pass filter and the gyroscope bias estimator
+ * on a device at rest, where the estimator updates its bias.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EstimatorBenchmark {
+	private static final long GYRO_PERIOD_NS = 2500000L;
+
+	private final LowPassFilter lowPassFilter = new LowPassFilter(1.0D);
+	private final GyroscopeBiasEstimator biasEstimator = new GyroscopeBiasEstimator();
+	private final Vector3d sample = new Vector3d(0.01D, -0.02D, 0.005D);
+	private final Vector3d accel = new Vector3d(0.0D, 0.0D, 9.81D);
+	private long timestampNs;
+
+	@Setup
+	public void setUp() {
+		this.timestampNs = 1000000000L;
+		for (int i = 0; i < 1000; i++) {
+			this.timestampNs += GYRO_PERIOD_NS;
+			this.biasEstimator.processAccelerometer(this.accel,
+					this.timestampNs);
+			this.biasEstimator.processGyroscope(this.sample, this.timestampNs);
+		}
+	}
+
+	@Benchmark
+	public Vector3d addWeightedSample() {
+		this.timestampNs += GYRO_PERIOD_NS;
+		this.lowPassFilter.addWeightedSample(this.sample, this.timestampNs,
+				0.5D);
+		return this.lowPassFilter.getFilteredData();
+	}
+
+	@Benchmark
+	public GyroscopeBiasEstimator processGyroscope() {
+		this.timestampNs += GYRO_PERIOD_NS;
+		this.biasEstimator.processGyroscope(this.sample, this.timestampNs);
+		return this.biasEstimator;
+	}
+}
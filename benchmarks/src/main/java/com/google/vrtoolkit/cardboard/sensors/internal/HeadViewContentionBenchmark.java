@@ -0,0 +1,124 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Wait time of the render thread while the sensor thread keeps fusing:
+ * one thread replays the synthetic trace through processGyro and
+ * processAcc while another reads the head view as HeadTracker does. The
+ * locked group reads like HeadTracker did before the snapshot buffer, by
+ * predicting inside synchronized (tracker); the snapshot group reads the
+ * latest published snapshot. Sampled, so the percentiles of the reader
+ * are the interesting scores.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class HeadViewContentionBenchmark {
+	private static final double PREDICTION_SECONDS = 0.05799999833106995D;
+
+	private OrientationEKF ekf;
+	private SyntheticTrace trace;
+	private long traceDurationNs;
+	private int next;
+	private long timestampOffsetNs;
+	private final Vector3d vector = new Vector3d();
+	private final float[] headView = new float[16];
+	private final double[] glMatrix = new double[16];
+
+	@Setup
+	public void setUp() {
+		this.trace = new SyntheticTrace(10, 3L, 0.01D);
+		this.traceDurationNs = this.trace.timestamps[(this.trace.count - 1)]
+				- this.trace.timestamps[0] + 2500000L;
+		this.ekf = new OrientationEKF();
+		this.trace.feedAll(this.ekf);
+		this.timestampOffsetNs = this.traceDurationNs;
+	}
+
+	@Benchmark
+	@Group("locked")
+	@GroupThreads(1)
+	public OrientationEKF lockedFuse() {
+		return fuse();
+	}
+
+	@Benchmark
+	@Group("locked")
+	@GroupThreads(1)
+	public float[] lockedHeadView() {
+		synchronized (this.ekf) {
+			if (!this.ekf.isReady()) {
+				return this.headView;
+			}
+			double[] mat = this.ekf.getPredictedGLMatrix(PREDICTION_SECONDS);
+			for (int i = 0; i < this.headView.length; i++) {
+				this.headView[i] = (float) mat[i];
+			}
+		}
+		return this.headView;
+	}
+
+	@Benchmark
+	@Group("snapshot")
+	@GroupThreads(1)
+	public OrientationEKF snapshotFuse() {
+		return fuse();
+	}
+
+	@Benchmark
+	@Group("snapshot")
+	@GroupThreads(1)
+	public float[] snapshotHeadView() {
+		OrientationSnapshot snapshot = this.ekf.getLatestSnapshot();
+		if (!snapshot.ready) {
+			return this.headView;
+		}
+		snapshot.getPredictedGLMatrix(PREDICTION_SECONDS, this.glMatrix);
+		for (int i = 0; i < this.headView.length; i++) {
+			this.headView[i] = (float) this.glMatrix[i];
+		}
+		return this.headView;
+	}
+
+	/**
+	 * Feeds the next gyroscope or accelerometer sample of the trace,
+	 * shifting the timestamps forward each time the trace wraps around.
+	 * Skips the magnetometer, which HeadTracker does not fuse.
+	 */
+	private OrientationEKF fuse() {
+		int i;
+		do {
+			i = this.next++;
+			if (this.next == this.trace.count) {
+				this.next = 0;
+				this.timestampOffsetNs += this.traceDurationNs;
+			}
+		} while (this.trace.types[i] == FusionEngine.SAMPLE_TYPE_MAGNETOMETER);
+		double[] xyz = this.trace.xyz;
+		this.vector.set(xyz[(3 * i)], xyz[(3 * i + 1)], xyz[(3 * i + 2)]);
+		long timestampNs = this.trace.timestamps[i] + this.timestampOffsetNs;
+		if (this.trace.types[i] == FusionEngine.SAMPLE_TYPE_GYROSCOPE) {
+			this.ekf.processGyro(this.vector, timestampNs);
+		} else {
+			this.ekf.processAcc(this.vector, timestampNs);
+		}
+		return this.ekf;
+	}
+}
@@ -0,0 +1,135 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sensor event dispatch of DeviceSensorLooper to three listeners while
+ * another thread keeps registering and unregistering a fourth. The locked
+ * group dispatches like DeviceSensorLooper did before, iterating an
+ * ArrayList under its monitor; the copyOnWrite group reads the volatile
+ * listener array it uses now. Android's SensorEventListener is not on the
+ * desktop classpath, so both strategies are reproduced on Listener.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ListenerDispatchBenchmark {
+	private static final int LISTENERS = 3;
+	private static final Listener[] NO_LISTENERS = new Listener[0];
+
+	private final ArrayList<Listener> lockedListeners = new ArrayList<Listener>();
+	private final Object registeredListenersMutex = new Object();
+	private volatile Listener[] registeredListeners = NO_LISTENERS;
+	private final Listener churn = new Listener();
+	private long timestampNs;
+
+	@Setup
+	public void setUp() {
+		for (int i = 0; i < LISTENERS; i++) {
+			Listener listener = new Listener();
+			this.lockedListeners.add(listener);
+			registerCopyOnWrite(listener);
+		}
+	}
+
+	@Benchmark
+	@Group("locked")
+	@GroupThreads(1)
+	public long lockedDispatch() {
+		long timestampNs = ++this.timestampNs;
+		synchronized (this.lockedListeners) {
+			for (Listener listener : this.lockedListeners) {
+				listener.onSensorChanged(timestampNs);
+			}
+		}
+		return timestampNs;
+	}
+
+	@Benchmark
+	@Group("locked")
+	@GroupThreads(1)
+	public int lockedRegister() {
+		synchronized (this.lockedListeners) {
+			this.lockedListeners.add(this.churn);
+		}
+		synchronized (this.lockedListeners) {
+			this.lockedListeners.remove(this.churn);
+			return this.lockedListeners.size();
+		}
+	}
+
+	@Benchmark
+	@Group("copyOnWrite")
+	@GroupThreads(1)
+	public long copyOnWriteDispatch() {
+		long timestampNs = ++this.timestampNs;
+		Listener[] listeners = this.registeredListeners;
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i].onSensorChanged(timestampNs);
+		}
+		return timestampNs;
+	}
+
+	@Benchmark
+	@Group("copyOnWrite")
+	@GroupThreads(1)
+	public int copyOnWriteRegister() {
+		registerCopyOnWrite(this.churn);
+		return unregisterCopyOnWrite(this.churn);
+	}
+
+	private void registerCopyOnWrite(Listener listener) {
+		synchronized (this.registeredListenersMutex) {
+			Listener[] listeners = this.registeredListeners;
+			Listener[] newListeners = new Listener[listeners.length + 1];
+			System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+			newListeners[listeners.length] = listener;
+			this.registeredListeners = newListeners;
+		}
+	}
+
+	private int unregisterCopyOnWrite(Listener listener) {
+		synchronized (this.registeredListenersMutex) {
+			Listener[] listeners = this.registeredListeners;
+			for (int i = 0; i < listeners.length; i++) {
+				if (listeners[i].equals(listener)) {
+					Listener[] newListeners = new Listener[listeners.length - 1];
+					System.arraycopy(listeners, 0, newListeners, 0, i);
+					System.arraycopy(listeners, i + 1, newListeners, i,
+							listeners.length - i - 1);
+					this.registeredListeners = newListeners;
+					return newListeners.length;
+				}
+			}
+			return listeners.length;
+		}
+	}
+
+	/**
+	 * Stands in for a SensorEventListener that records the event.
+	 */
+	static class Listener {
+		private volatile long lastTimestampNs;
+
+		void onSensorChanged(long timestampNs) {
+			this.lastTimestampNs = timestampNs;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Matrix3x3dBenchmark {
+	private final Matrix3x3d a = new Matrix3x3d();
+	private final Matrix3x3d b = new Matrix3x3d();
+	private final Matrix3x3d result = new Matrix3x3d();
+
+	@Setup
+	public void setUp() {
+		So3Util.sO3FromMu(new Vector3d(0.3D, -0.2D, 0.9D), this.a);
+		this.a.scale(1.5D);
+		this.a.m01 += 0.25D;
+		So3Util.sO3FromMu(new Vector3d(-0.7D, 0.1D, 0.4D), this.b);
+	}
+
+	@Benchmark
+	public Matrix3x3d mult() {
+		Matrix3x3d.mult(this.a, this.b, this.result);
+		return this.result;
+	}
+
+	@Benchmark
+	public boolean invert() {
+		return this.a.invert(this.result);
+	}
+
+	@Benchmark
+	public Matrix3x3d transpose() {
+		this.a.transpose(this.result);
+		return this.result;
+	}
+}
@@ -0,0 +1,94 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-sample cost of the filter updates on a filter that was aligned by
+ * two seconds of the synthetic trace. Each call advances the timestamp by
+ * one gyroscope period and takes the next sample of its type from the
+ * trace.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrientationEKFBenchmark {
+	private static final long GYRO_PERIOD_NS = 2500000L;
+
+	@Param({ "true", "false" })
+	public boolean analyticJacobian;
+
+	private OrientationEKF ekf;
+	private double[][] samples;
+	private int[] sampleCount;
+	private int next;
+	private long timestampNs;
+	private final Vector3d vector = new Vector3d();
+	private final float[] mag = new float[3];
+
+	@Setup
+	public void setUp() {
+		SyntheticTrace trace = new SyntheticTrace(2, 1L, 0.01D);
+		this.ekf = new OrientationEKF();
+		this.ekf.setAnalyticJacobianEnabled(this.analyticJacobian);
+		trace.feedAll(this.ekf);
+		this.timestampNs = trace.timestamps[(trace.count - 1)];
+
+		this.samples = new double[5][];
+		this.sampleCount = new int[5];
+		for (int type = 0; type < 5; type++) {
+			this.samples[type] = new double[3 * trace.count];
+		}
+		for (int i = 0; i < trace.count; i++) {
+			int type = trace.types[i];
+			System.arraycopy(trace.xyz, 3 * i, this.samples[type],
+					3 * this.sampleCount[type], 3);
+			this.sampleCount[type] += 1;
+		}
+	}
+
+	@Benchmark
+	public OrientationEKF processGyro() {
+		nextSample(FusionEngine.SAMPLE_TYPE_GYROSCOPE);
+		this.ekf.processGyro(this.vector, this.timestampNs);
+		return this.ekf;
+	}
+
+	@Benchmark
+	public OrientationEKF processAcc() {
+		nextSample(FusionEngine.SAMPLE_TYPE_ACCELEROMETER);
+		this.ekf.processAcc(this.vector, this.timestampNs);
+		return this.ekf;
+	}
+
+	@Benchmark
+	public OrientationEKF processMag() {
+		nextSample(FusionEngine.SAMPLE_TYPE_MAGNETOMETER);
+		this.mag[0] = (float) this.vector.x;
+		this.mag[1] = (float) this.vector.y;
+		this.mag[2] = (float) this.vector.z;
+		this.ekf.processMag(this.mag, this.timestampNs);
+		return this.ekf;
+	}
+
+	private void nextSample(int type) {
+		int i = this.next++ % this.sampleCount[type];
+		double[] xyz = this.samples[type];
+		this.vector.set(xyz[(3 * i)], xyz[(3 * i + 1)], xyz[(3 * i + 2)]);
+		this.timestampNs += GYRO_PERIOD_NS;
+	}
+}
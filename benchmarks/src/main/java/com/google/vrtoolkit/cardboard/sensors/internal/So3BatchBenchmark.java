@@ -0,0 +1,85 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converts ROTATIONS rotations with random axes and angles in [0, pi)
+ * through a {@link So3Batch} and through a loop over the {@link So3Util}
+ * methods on one Vector3d and Matrix3x3d per rotation. Scores are per
+ * rotation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class So3BatchBenchmark {
+	private static final int ROTATIONS = 256;
+
+	private final So3Batch batch = new So3Batch(ROTATIONS);
+	private final Vector3d[] mus = new Vector3d[ROTATIONS];
+	private final Matrix3x3d[] so3s = new Matrix3x3d[ROTATIONS];
+	private final So3Util.Workspace workspace = new So3Util.Workspace();
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(1L);
+		for (int i = 0; i < ROTATIONS; i++) {
+			Vector3d mu = new Vector3d(random.nextGaussian(),
+					random.nextGaussian(), random.nextGaussian());
+			mu.normalize();
+			mu.scale(Math.PI * random.nextDouble());
+			this.mus[i] = mu;
+			this.so3s[i] = new Matrix3x3d();
+			So3Util.sO3FromMu(mu, this.so3s[i]);
+			this.batch.setMu(i, mu);
+			this.batch.setSO3(i, this.so3s[i]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROTATIONS)
+	public So3Batch batchSO3FromMu() {
+		this.batch.sO3FromMu(0, ROTATIONS);
+		return this.batch;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROTATIONS)
+	public Matrix3x3d[] loopSO3FromMu() {
+		for (int i = 0; i < ROTATIONS; i++) {
+			So3Util.sO3FromMu(this.mus[i], this.so3s[i]);
+		}
+		return this.so3s;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROTATIONS)
+	public So3Batch batchMuFromSO3() {
+		this.batch.muFromSO3(0, ROTATIONS);
+		return this.batch;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROTATIONS)
+	public Vector3d[] loopMuFromSO3() {
+		for (int i = 0; i < ROTATIONS; i++) {
+			So3Util.muFromSO3(this.so3s[i], this.mus[i], this.workspace);
+		}
+		return this.mus;
+	}
+}
@@ -0,0 +1,66 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The rotation angle selects the branch: 1e-4 takes the series expansion
+ * of sO3FromMu, 0.5 the trigonometric one and 3.0 the near-pi path of
+ * muFromSO3.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class So3UtilBenchmark {
+	@Param({ "1.0E-4", "0.5", "3.0" })
+	public double angle;
+
+	private final So3Util.Workspace workspace = new So3Util.Workspace();
+	private final Vector3d mu = new Vector3d();
+	private final Vector3d from = new Vector3d();
+	private final Vector3d to = new Vector3d();
+	private final Vector3d resultVector = new Vector3d();
+	private final Matrix3x3d so3 = new Matrix3x3d();
+	private final Matrix3x3d result = new Matrix3x3d();
+
+	@Setup
+	public void setUp() {
+		this.mu.set(0.48D, -0.6D, 0.64D);
+		this.mu.scale(this.angle);
+		So3Util.sO3FromMu(this.mu, this.so3);
+		this.from.set(0.0D, 0.0D, 9.81D);
+		Matrix3x3d.mult(this.so3, this.from, this.to);
+	}
+
+	@Benchmark
+	public Matrix3x3d sO3FromMu() {
+		So3Util.sO3FromMu(this.mu, this.result);
+		return this.result;
+	}
+
+	@Benchmark
+	public Vector3d muFromSO3() {
+		So3Util.muFromSO3(this.so3, this.resultVector, this.workspace);
+		return this.resultVector;
+	}
+
+	@Benchmark
+	public Matrix3x3d sO3FromTwoVec() {
+		So3Util.sO3FromTwoVec(this.from, this.to, this.result, this.workspace);
+		return this.result;
+	}
+}
@@ -0,0 +1,87 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end fusion throughput: replays ten seconds of interleaved
+ * gyroscope, accelerometer and magnetometer samples through a new engine,
+ * once sample by sample and once in batches of BATCH_SIZE as the fusion
+ * thread of HeadTracker passes them. Scores are per sample.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceReplayBenchmark {
+	private static final int SECONDS = 10;
+	private static final int SAMPLES = 6500;
+	private static final int BATCH_SIZE = 32;
+
+	@Param({ "ekf", "ekf-preintegrated", "quaternion", "float" })
+	public String engine;
+
+	private SyntheticTrace trace;
+
+	@Setup
+	public void setUp() {
+		this.trace = new SyntheticTrace(SECONDS, 7L, 0.01D);
+		if (this.trace.count != SAMPLES) {
+			throw new IllegalStateException("Trace has " + this.trace.count
+					+ " samples, expected " + SAMPLES);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public FusionEngine replaySamples() {
+		FusionEngine fusion = createEngine();
+		this.trace.feedAll(fusion);
+		return fusion;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public FusionEngine replayBatches() {
+		FusionEngine fusion = createEngine();
+		int[] types = new int[BATCH_SIZE];
+		double[] xyz = new double[3 * BATCH_SIZE];
+		long[] timestamps = new long[BATCH_SIZE];
+		for (int start = 0; start < SAMPLES; start += BATCH_SIZE) {
+			int count = Math.min(BATCH_SIZE, SAMPLES - start);
+			System.arraycopy(this.trace.types, start, types, 0, count);
+			System.arraycopy(this.trace.xyz, 3 * start, xyz, 0, 3 * count);
+			System.arraycopy(this.trace.timestamps, start, timestamps, 0,
+					count);
+			fusion.processSampleBatch(types, xyz, timestamps, count);
+		}
+		return fusion;
+	}
+
+	private FusionEngine createEngine() {
+		if ("quaternion".equals(this.engine)) {
+			return new QuaternionFusionEngine();
+		}
+		if ("float".equals(this.engine)) {
+			return new FloatOrientationEKF();
+		}
+		OrientationEKF ekf = new OrientationEKF();
+		ekf.setGyroPreintegrationEnabled("ekf-preintegrated"
+				.equals(this.engine));
+		return ekf;
+	}
+}
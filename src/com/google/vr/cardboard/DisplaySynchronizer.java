@@ -6,6 +6,7 @@ public class DisplaySynchronizer implements Choreographer.FrameCallback {
 	private static final long FRAME_TIME_NS = 16666666L;
 	private Choreographer choreographer;
 	private final long nativeDisplaySynchronizer;
+	private volatile long lastVsyncNs;
 
 	public DisplaySynchronizer() {
 		this.nativeDisplaySynchronizer = nativeInit(FRAME_TIME_NS);
@@ -28,6 +29,7 @@ public class DisplaySynchronizer implements Choreographer.FrameCallback {
 	}
 
 	public void doFrame(long vsync) {
+		this.lastVsyncNs = vsync;
 		nativeAddSyncTime(this.nativeDisplaySynchronizer, vsync);
 		this.choreographer.postFrameCallback(this);
 	}
@@ -36,6 +38,22 @@ public class DisplaySynchronizer implements Choreographer.FrameCallback {
 		return nativeSyncToNextVsync(this.nativeDisplaySynchronizer);
 	}
 
+	/**
+	 * Returns the first vsync after nowNs, extrapolated from the last
+	 * Choreographer frame time. Both are in the System.nanoTime() time base.
+	 * Returns nowNs if no frame has been seen yet.
+	 */
+	public long getNextVsyncTimeNs(long nowNs) {
+		long vsync = this.lastVsyncNs;
+		if (vsync == 0L) {
+			return nowNs;
+		}
+		if (vsync > nowNs) {
+			return vsync;
+		}
+		return vsync + ((nowNs - vsync) / FRAME_TIME_NS + 1L) * FRAME_TIME_NS;
+	}
+
 	private native long nativeInit(long paramLong);
 
 	private native void nativeDestroy(long paramLong);
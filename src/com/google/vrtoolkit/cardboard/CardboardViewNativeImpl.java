@@ -577,6 +577,34 @@ public class CardboardViewNativeImpl implements CardboardViewApi {
 		}
 	}
 
+	/**
+	 * Eye parameter read queued to the GL thread. If the caller is interrupted
+	 * the request stays pending and is reused, with the latest targets, by
+	 * the next call instead of being queued again.
+	 */
+	private class EyeParamsRequest implements Runnable {
+		HeadTransform head;
+		Eye leftEye;
+		Eye rightEye;
+		Eye monocular;
+		Eye leftEyeNoDistortionCorrection;
+		Eye rightEyeNoDistortionCorrection;
+		boolean pending;
+
+		public synchronized void run() {
+			if (!this.pending) {
+				return;
+			}
+			CardboardViewNativeImpl.this.nativeGetCurrentEyeParams(
+					CardboardViewNativeImpl.this.nativeCardboardView,
+					this.head, this.leftEye, this.rightEye, this.monocular,
+					this.leftEyeNoDistortionCorrection,
+					this.rightEyeNoDistortionCorrection);
+			this.pending = false;
+			notifyAll();
+		}
+	}
+
 	private class RendererHelper implements GLSurfaceView.Renderer {
 		private CardboardView.Renderer renderer;
 		private CardboardView.StereoRenderer stereoRenderer;
@@ -585,6 +613,8 @@ public class CardboardViewNativeImpl implements CardboardViewApi {
 		private boolean surfaceCreated;
 		private boolean invalidSurfaceSizeWarningShown;
 		private EGLDisplay eglDisplay;
+		private final Object eyeParamsCallMutex = new Object();
+		private final CardboardViewNativeImpl.EyeParamsRequest eyeParamsRequest = new CardboardViewNativeImpl.EyeParamsRequest();
 
 		public RendererHelper() {
 			this.hmd = new HeadMountedDisplay(
@@ -643,31 +673,38 @@ public class CardboardViewNativeImpl implements CardboardViewApi {
 			});
 		}
 
-		public void getCurrentEyeParams(final HeadTransform head,
-				final Eye leftEye, final Eye rightEye, final Eye monocular,
-				final Eye leftEyeNoDistortionCorrection,
-				final Eye rightEyeNoDistortionCorrection) {
-			try {
-				final CountDownLatch finished;
-				finished = new CountDownLatch(1);
-				queueEvent(new Runnable() {
-
-					public void run() {
-						nativeGetCurrentEyeParams(nativeCardboardView, head,
-								leftEye, rightEye, monocular,
-								leftEyeNoDistortionCorrection,
-								rightEyeNoDistortionCorrection);
-						finished.countDown();
+		/**
+		 * Reads the eye parameters on the GL thread and waits for the result.
+		 * Calls are serialized and reuse a single queued request, so polling
+		 * this every frame does not allocate.
+		 */
+		public void getCurrentEyeParams(HeadTransform head, Eye leftEye,
+				Eye rightEye, Eye monocular, Eye leftEyeNoDistortionCorrection,
+				Eye rightEyeNoDistortionCorrection) {
+			synchronized (this.eyeParamsCallMutex) {
+				CardboardViewNativeImpl.EyeParamsRequest request = this.eyeParamsRequest;
+				synchronized (request) {
+					request.head = head;
+					request.leftEye = leftEye;
+					request.rightEye = rightEye;
+					request.monocular = monocular;
+					request.leftEyeNoDistortionCorrection = leftEyeNoDistortionCorrection;
+					request.rightEyeNoDistortionCorrection = rightEyeNoDistortionCorrection;
+					if (!request.pending) {
+						request.pending = true;
+						queueEvent(request);
 					}
-
-				});
-				finished.await();
-			} catch (InterruptedException e) {
-				Log.e(CardboardViewNativeImpl.TAG,
-						"Interrupted while reading frame params: "
-								+ String.valueOf(e.toString()));
+					try {
+						while (request.pending) {
+							request.wait();
+						}
+					} catch (InterruptedException e) {
+						Log.e(CardboardViewNativeImpl.TAG,
+								"Interrupted while reading frame params: "
+										+ String.valueOf(e.toString()));
+					}
+				}
 			}
-
 		}
 
 		public void onDrawFrame(GL10 gl) {
@@ -11,6 +11,7 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import android.os.Build;
 import android.util.Log;
@@ -22,6 +23,7 @@ import com.google.vrtoolkit.cardboard.proto.Phone;
 public class PhoneParams {
 	private static final String TAG = PhoneParams.class.getSimpleName();
 	private static final int STREAM_SENTINEL = 779508118;
+	private static final long GYRO_BIAS_MAX_AGE_MS = TimeUnit.DAYS.toMillis(7L);
 	private static final List<PpiOverride> PPI_OVERRIDES = Arrays
 			.asList(new PpiOverride[] {
 					new PpiOverride("Micromax", null, "4560MMX", null, 217, 217),
@@ -85,6 +87,54 @@ public class PhoneParams {
 				Build.DEVICE, Build.MODEL, Build.HARDWARE);
 	}
 
+	/**
+	 * Returns the gyroscope bias stored by
+	 * {@link #writeGyroBiasToExternalStorage} as {x, y, z, confidence}, or
+	 * null if there is none or it is too old to be trusted.
+	 */
+	public static float[] readGyroBiasFromExternalStorage() {
+		return getGyroBias(readFromExternalStorage(),
+				System.currentTimeMillis());
+	}
+
+	static float[] getGyroBias(Phone.PhoneParams params, long nowMs) {
+		if ((params == null) || (params.dEPRECATEDGyroBias == null)
+				|| (params.dEPRECATEDGyroBias.length != 3)
+				|| (!params.hasGyroBiasConfidence())
+				|| (!params.hasGyroBiasTimestampMs())) {
+			return null;
+		}
+		long ageMs = nowMs - params.getGyroBiasTimestampMs();
+		if ((ageMs < 0L) || (ageMs > GYRO_BIAS_MAX_AGE_MS)) {
+			return null;
+		}
+		return new float[] { params.dEPRECATEDGyroBias[0],
+				params.dEPRECATEDGyroBias[1], params.dEPRECATEDGyroBias[2],
+				params.getGyroBiasConfidence() };
+	}
+
+	public static boolean writeGyroBiasToExternalStorage(float[] bias,
+			float confidence) {
+		Phone.PhoneParams currentParams = readFromExternalStorage();
+		Phone.PhoneParams newParams = currentParams == null ? new Phone.PhoneParams()
+				: currentParams.clone();
+		newParams.dEPRECATEDGyroBias = new float[] { bias[0], bias[1], bias[2] };
+		newParams.setGyroBiasConfidence(confidence);
+		newParams.setGyroBiasTimestampMs(System.currentTimeMillis());
+		return writeToExternalStorage(newParams);
+	}
+
+	public static boolean clearGyroBiasInExternalStorage() {
+		Phone.PhoneParams currentParams = readFromExternalStorage();
+		if ((currentParams == null) || (!currentParams.hasGyroBiasConfidence())) {
+			return true;
+		}
+		Phone.PhoneParams newParams = currentParams.clone();
+		newParams.clearGyroBiasConfidence();
+		newParams.clearGyroBiasTimestampMs();
+		return writeToExternalStorage(newParams);
+	}
+
 	public static com.google.vrtoolkit.cardboard.proto.Phone.PhoneParams readFromInputStream(
 			InputStream inputStream) {
 		if (inputStream == null)
@@ -92,20 +142,20 @@ public class PhoneParams {
 		ByteBuffer header;
 		header = ByteBuffer.allocate(8);
 		try {
-			if (inputStream.read(header.array(), 0, header.array().length) != -1) {
+			if (inputStream.read(header.array(), 0, header.array().length) == -1) {
 				Log.e(TAG, "Error parsing param record: end of stream.");
 				return null;
 			}
 			int length;
 			int sentinel = header.getInt();
 			length = header.getInt();
-			if (sentinel == 0x2e765996) {
+			if (sentinel != STREAM_SENTINEL) {
 				Log.e(TAG, "Error parsing param record: incorrect sentinel.");
 				return null;
 			}
 			byte protoBytes[];
 			protoBytes = new byte[length];
-			if (inputStream.read(protoBytes, 0, protoBytes.length) != -1) {
+			if (inputStream.read(protoBytes, 0, protoBytes.length) == -1) {
 				Log.e(TAG, "Error parsing param record: end of stream.");
 				return null;
 			}
@@ -17,6 +17,8 @@ public abstract interface Phone {
 		private float yPpi_;
 		private float bottomBezelHeight_;
 		public float[] dEPRECATEDGyroBias;
+		private float gyroBiasConfidence_;
+		private long gyroBiasTimestampMs_;
 
 		public static PhoneParams[] emptyArray() {
 			if (_emptyArray == null) {
@@ -89,6 +91,46 @@ public abstract interface Phone {
 			return this;
 		}
 
+		public float getGyroBiasConfidence() {
+			return this.gyroBiasConfidence_;
+		}
+
+		public PhoneParams setGyroBiasConfidence(float value) {
+			this.gyroBiasConfidence_ = value;
+			this.bitField0_ |= 8;
+			return this;
+		}
+
+		public boolean hasGyroBiasConfidence() {
+			return (this.bitField0_ & 0x8) != 0;
+		}
+
+		public PhoneParams clearGyroBiasConfidence() {
+			this.gyroBiasConfidence_ = 0.0F;
+			this.bitField0_ &= -9;
+			return this;
+		}
+
+		public long getGyroBiasTimestampMs() {
+			return this.gyroBiasTimestampMs_;
+		}
+
+		public PhoneParams setGyroBiasTimestampMs(long value) {
+			this.gyroBiasTimestampMs_ = value;
+			this.bitField0_ |= 16;
+			return this;
+		}
+
+		public boolean hasGyroBiasTimestampMs() {
+			return (this.bitField0_ & 0x10) != 0;
+		}
+
+		public PhoneParams clearGyroBiasTimestampMs() {
+			this.gyroBiasTimestampMs_ = 0L;
+			this.bitField0_ &= -17;
+			return this;
+		}
+
 		public PhoneParams() {
 			clear();
 		}
@@ -99,6 +141,8 @@ public abstract interface Phone {
 			this.yPpi_ = 0.0F;
 			this.bottomBezelHeight_ = 0.0F;
 			this.dEPRECATEDGyroBias = WireFormatNano.EMPTY_FLOAT_ARRAY;
+			this.gyroBiasConfidence_ = 0.0F;
+			this.gyroBiasTimestampMs_ = 0L;
 			this.cachedSize = -1;
 			return this;
 		}
@@ -138,6 +182,12 @@ public abstract interface Phone {
 					output.writeFloatNoTag(this.dEPRECATEDGyroBias[i]);
 				}
 			}
+			if ((this.bitField0_ & 0x8) != 0) {
+				output.writeFloat(5, this.gyroBiasConfidence_);
+			}
+			if ((this.bitField0_ & 0x10) != 0) {
+				output.writeInt64(6, this.gyroBiasTimestampMs_);
+			}
 			super.writeTo(output);
 		}
 
@@ -172,6 +222,18 @@ public abstract interface Phone {
 								.computeRawVarint32Size(dataSize);
 			}
 
+			if ((this.bitField0_ & 0x8) != 0) {
+				size = size
+						+ CodedOutputByteBufferNano.computeFloatSize(5,
+								this.gyroBiasConfidence_);
+			}
+
+			if ((this.bitField0_ & 0x10) != 0) {
+				size = size
+						+ CodedOutputByteBufferNano.computeInt64Size(6,
+								this.gyroBiasTimestampMs_);
+			}
+
 			return size;
 		}
 
@@ -236,6 +298,14 @@ public abstract interface Phone {
 					}
 					this.dEPRECATEDGyroBias = newArray;
 					input.popLimit(limit);
+					break;
+				case 45:
+					this.gyroBiasConfidence_ = input.readFloat();
+					this.bitField0_ |= 8;
+					break;
+				case 48:
+					this.gyroBiasTimestampMs_ = input.readInt64();
+					this.bitField0_ |= 16;
 				}
 			}
 		}
@@ -5,23 +5,46 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Build;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
 import android.util.Log;
-import java.util.ArrayList;
 
 public class DeviceSensorLooper implements SensorEventProvider {
 	private static final String LOG_TAG = DeviceSensorLooper.class
 			.getSimpleName();
 	private boolean isRunning;
 	private SensorManager sensorManager;
-	private Looper sensorLooper;
-	private SensorEventListener sensorEventListener;
-	private final ArrayList<SensorEventListener> registeredListeners = new ArrayList();
+	private final SensorHub sensorHub;
+	private final SensorEventListener sensorEventListener;
+	private int gyroscopeType;
+	private boolean magnetometerEnabled;
+	private boolean magnetometerRegistered;
+	private static final SensorEventListener[] NO_LISTENERS = new SensorEventListener[0];
+	private final Object registeredListenersMutex = new Object();
+	private volatile SensorEventListener[] registeredListeners = NO_LISTENERS;
 
 	public DeviceSensorLooper(SensorManager sensorManager) {
+		this(sensorManager, SensorHub.getInstance(sensorManager));
+	}
+
+	/**
+	 * Creates a provider that receives its events through sensorHub, sharing
+	 * the hub's sensor thread and registrations with other consumers.
+	 */
+	public DeviceSensorLooper(SensorManager sensorManager, SensorHub sensorHub) {
 		this.sensorManager = sensorManager;
+		this.sensorHub = sensorHub;
+		this.sensorEventListener = new SensorEventListener() {
+			public void onSensorChanged(SensorEvent event) {
+				SensorEventListener[] listeners = DeviceSensorLooper.this.registeredListeners;
+				for (int i = 0; i < listeners.length; i++)
+					listeners[i].onSensorChanged(event);
+			}
+
+			public void onAccuracyChanged(Sensor sensor, int accuracy) {
+				SensorEventListener[] listeners = DeviceSensorLooper.this.registeredListeners;
+				for (int i = 0; i < listeners.length; i++)
+					listeners[i].onAccuracyChanged(sensor, accuracy);
+			}
+		};
 	}
 
 	private Sensor getUncalibratedGyro() {
@@ -31,52 +54,36 @@ public class DeviceSensorLooper implements SensorEventProvider {
 		return this.sensorManager.getDefaultSensor(16);
 	}
 
+	/**
+	 * Also delivers magnetometer events, e.g. for heading correction. Takes
+	 * effect at the next {@link #start()}.
+	 */
+	public void setMagnetometerEnabled(boolean enabled) {
+		this.magnetometerEnabled = enabled;
+	}
+
+	public boolean getMagnetometerEnabled() {
+		return this.magnetometerEnabled;
+	}
+
 	public void start() {
 		if (this.isRunning) {
 			return;
 		}
 
-		this.sensorEventListener = new SensorEventListener() {
-			public void onSensorChanged(SensorEvent event) {
-				synchronized (DeviceSensorLooper.this.registeredListeners) {
-					for (SensorEventListener listener : DeviceSensorLooper.this.registeredListeners)
-						listener.onSensorChanged(event);
-				}
-			}
+		this.sensorHub.registerListener(1, this.sensorEventListener);
 
-			public void onAccuracyChanged(Sensor sensor, int accuracy) {
-				synchronized (DeviceSensorLooper.this.registeredListeners) {
-					for (SensorEventListener listener : DeviceSensorLooper.this.registeredListeners)
-						listener.onAccuracyChanged(sensor, accuracy);
-				}
-			}
-		};
-		HandlerThread sensorThread = new HandlerThread("sensor") {
-			protected void onLooperPrepared() {
-				Handler handler = new Handler(Looper.myLooper());
-
-				Sensor accelerometer = DeviceSensorLooper.this.sensorManager
-						.getDefaultSensor(1);
-				DeviceSensorLooper.this.sensorManager.registerListener(
-						DeviceSensorLooper.this.sensorEventListener,
-						accelerometer, 0, handler);
-
-				Sensor gyroscope = DeviceSensorLooper.this
-						.getUncalibratedGyro();
-				if (gyroscope == null) {
-					Log.i(DeviceSensorLooper.LOG_TAG,
-							"Uncalibrated gyroscope unavailable, default to regular gyroscope.");
-					gyroscope = DeviceSensorLooper.this.sensorManager
-							.getDefaultSensor(4);
-				}
+		this.gyroscopeType = 16;
+		if (getUncalibratedGyro() == null) {
+			Log.i(LOG_TAG,
+					"Uncalibrated gyroscope unavailable, default to regular gyroscope.");
+			this.gyroscopeType = 4;
+		}
+		this.sensorHub.registerListener(this.gyroscopeType,
+				this.sensorEventListener);
 
-				DeviceSensorLooper.this.sensorManager.registerListener(
-						DeviceSensorLooper.this.sensorEventListener, gyroscope,
-						0, handler);
-			}
-		};
-		sensorThread.start();
-		this.sensorLooper = sensorThread.getLooper();
+		this.magnetometerRegistered = this.magnetometerEnabled
+				&& this.sensorHub.registerListener(2, this.sensorEventListener);
 		this.isRunning = true;
 	}
 
@@ -85,23 +92,44 @@ public class DeviceSensorLooper implements SensorEventProvider {
 			return;
 		}
 
-		this.sensorManager.unregisterListener(this.sensorEventListener);
-		this.sensorEventListener = null;
-
-		this.sensorLooper.quit();
-		this.sensorLooper = null;
+		this.sensorHub.unregisterListener(1, this.sensorEventListener);
+		this.sensorHub.unregisterListener(this.gyroscopeType,
+				this.sensorEventListener);
+		if (this.magnetometerRegistered) {
+			this.sensorHub.unregisterListener(2, this.sensorEventListener);
+			this.magnetometerRegistered = false;
+		}
 		this.isRunning = false;
 	}
 
+	/**
+	 * Listeners are kept in a copy-on-write array, so that dispatch on the
+	 * sensor thread reads a snapshot without locking or allocating and is
+	 * never blocked by a concurrent registration.
+	 */
 	public void registerListener(SensorEventListener listener) {
-		synchronized (this.registeredListeners) {
-			this.registeredListeners.add(listener);
+		synchronized (this.registeredListenersMutex) {
+			SensorEventListener[] listeners = this.registeredListeners;
+			SensorEventListener[] newListeners = new SensorEventListener[listeners.length + 1];
+			System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+			newListeners[listeners.length] = listener;
+			this.registeredListeners = newListeners;
 		}
 	}
 
 	public void unregisterListener(SensorEventListener listener) {
-		synchronized (this.registeredListeners) {
-			this.registeredListeners.remove(listener);
+		synchronized (this.registeredListenersMutex) {
+			SensorEventListener[] listeners = this.registeredListeners;
+			for (int i = 0; i < listeners.length; i++) {
+				if (listeners[i].equals(listener)) {
+					SensorEventListener[] newListeners = new SensorEventListener[listeners.length - 1];
+					System.arraycopy(listeners, 0, newListeners, 0, i);
+					System.arraycopy(listeners, i + 1, newListeners, i,
+							listeners.length - i - 1);
+					this.registeredListeners = newListeners;
+					return;
+				}
+			}
 		}
 	}
 }
\ No newline at end of file
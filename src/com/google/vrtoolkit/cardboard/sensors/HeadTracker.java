@@ -5,20 +5,39 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.hardware.display.DisplayManager;
 import android.opengl.Matrix;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.Display;
 import android.view.WindowManager;
+import com.google.vrtoolkit.cardboard.PhoneParams;
+import com.google.vrtoolkit.cardboard.sensors.internal.AccelerometerUpdatePolicy;
+import com.google.vrtoolkit.cardboard.sensors.internal.ClockDomainEstimator;
 import com.google.vrtoolkit.cardboard.sensors.internal.GyroscopeBiasEstimator;
 import com.google.vrtoolkit.cardboard.sensors.internal.Matrix3x3d;
+import com.google.vrtoolkit.cardboard.sensors.internal.MotionPredictor;
+import com.google.vrtoolkit.cardboard.sensors.internal.FusionEngine;
 import com.google.vrtoolkit.cardboard.sensors.internal.OrientationEKF;
-import com.google.vrtoolkit.cardboard.sensors.internal.Vector3d;
+import com.google.vrtoolkit.cardboard.sensors.internal.PoseHistory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-public class HeadTracker implements SensorEventListener {
+public class HeadTracker implements SensorEventListener,
+		SensorSampleListener {
 	private static final float DEFAULT_NECK_HORIZONTAL_OFFSET = 0.08F;
 	private static final float DEFAULT_NECK_VERTICAL_OFFSET = 0.075F;
 	private static final float DEFAULT_NECK_MODEL_FACTOR = 1.0F;
 	private static final float PREDICTION_TIME_IN_SECONDS = 0.058F;
+	private static final long PREDICTION_TIME_NS = 58000000L;
+	private static final long WARM_START_WINDOW_NS = 5000000000L;
+	public static final int FUSION_MODE_DIRECT = SensorFusion.FUSION_MODE_DIRECT;
+	public static final int FUSION_MODE_QUEUED = SensorFusion.FUSION_MODE_QUEUED;
+	public static final int FUSION_MODE_QUEUED_BATCH = SensorFusion.FUSION_MODE_QUEUED_BATCH;
 	private final Display display;
 	private final float[] ekfToHeadTracker = new float[16];
 
@@ -26,30 +45,40 @@ public class HeadTracker implements SensorEventListener {
 
 	private float displayRotation = (0.0F / 0.0F);
 
+	private DisplayManager displayManager;
+	private DisplayManager.DisplayListener displayListener;
+	private volatile boolean displayRotationCached;
+	private volatile int cachedDisplayRotation;
+
 	private final float[] neckModelTranslation = new float[16];
 
 	private final float[] tmpHeadView = new float[16];
 	private final float[] tmpHeadView2 = new float[16];
 
+	private final double[] predictedGLMatrix = new double[16];
+
 	private float neckModelFactor = 1.0F;
 
 	private final Object neckModelFactorMutex = new Object();
 	private volatile boolean tracking;
-	private final OrientationEKF tracker;
-	private final Object gyroBiasEstimatorMutex = new Object();
-	private GyroscopeBiasEstimator gyroBiasEstimator;
+	private final FusionEngine tracker;
+	private final SensorFusion fusion;
+	private volatile boolean gyroBiasPersistenceEnabled;
+	private final Executor gyroBiasStorageExecutor = new ThreadPoolExecutor(0,
+			1, 1L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+			new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "gyro bias storage");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	private volatile boolean warmStartEnabled;
+	private long stopTrackingTimeNs;
 	private SensorEventProvider sensorEventProvider;
 	private Clock clock;
-	private long latestGyroEventClockTimeNs;
-	private volatile boolean firstGyroValue = true;
-
-	private float[] initialSystemGyroBias = new float[3];
-
-	private final Vector3d gyroBias = new Vector3d();
-
-	private final Vector3d latestGyro = new Vector3d();
 
-	private final Vector3d latestAcc = new Vector3d();
+	private final float[] eventExtraValues = new float[3];
 
 	public static HeadTracker createFromContext(Context context) {
 		SensorManager sensorManager = (SensorManager) context
@@ -58,67 +87,109 @@ public class HeadTracker implements SensorEventListener {
 		Display display = ((WindowManager) context.getSystemService("window"))
 				.getDefaultDisplay();
 
-		return new HeadTracker(new DeviceSensorLooper(sensorManager),
-				new SystemClock(), display);
+		HeadTracker headTracker = new HeadTracker(new DeviceSensorLooper(
+				sensorManager), new SystemClock(), display);
+		headTracker.setGyroBiasPersistenceEnabled(true);
+		headTracker.setWarmStartEnabled(true);
+		headTracker.setFusionMode(FUSION_MODE_QUEUED);
+		headTracker.setGyroPreintegrationEnabled(true);
+		if (Build.VERSION.SDK_INT >= 17) {
+			headTracker.displayManager = ((DisplayManager) context
+					.getSystemService("display"));
+		}
+		return headTracker;
 	}
 
 	public HeadTracker(SensorEventProvider sensorEventProvider, Clock clock,
 			Display display) {
+		this(sensorEventProvider, clock, display, new OrientationEKF());
+	}
+
+	/**
+	 * Creates a tracker that fuses the samples with fusionEngine instead of
+	 * an {@link OrientationEKF}. The engine must not be shared.
+	 */
+	public HeadTracker(SensorEventProvider sensorEventProvider, Clock clock,
+			Display display, FusionEngine fusionEngine) {
 		this.clock = clock;
 		this.sensorEventProvider = sensorEventProvider;
 
-		this.tracker = new OrientationEKF();
+		this.fusion = new SensorFusion(fusionEngine, clock);
+		this.tracker = fusionEngine;
 		this.display = display;
+	}
 
-		setGyroBiasEstimationEnabled(true);
+	public void onSensorChanged(SensorEvent event) {
+		float[] values = event.values;
+		float[] extra = null;
+		if (values.length == 6) {
+			this.eventExtraValues[0] = values[3];
+			this.eventExtraValues[1] = values[4];
+			this.eventExtraValues[2] = values[5];
+			extra = this.eventExtraValues;
+		}
+		onSample(event.sensor.getType(), event.timestamp, values[0],
+				values[1], values[2], extra);
+	}
 
-		Matrix.setIdentityM(this.neckModelTranslation, 0);
+	/**
+	 * Primitive entry point behind {@link #onSensorChanged}. The fusion path
+	 * itself is {@link SensorFusion}, which has no Android dependencies and
+	 * can be used directly to run recorded traces on a desktop JVM.
+	 */
+	public void onSample(int type, long timestampNs, float x, float y,
+			float z, float[] extra) {
+		this.fusion.onSample(type, timestampNs, x, y, z, extra);
 	}
 
-	public void onSensorChanged(SensorEvent event) {
-		if (event.sensor.getType() == 1) {
-			this.latestAcc.set(event.values[0], event.values[1],
-					event.values[2]);
-			this.tracker.processAcc(this.latestAcc, event.timestamp);
-
-			synchronized (this.gyroBiasEstimatorMutex) {
-				if (this.gyroBiasEstimator != null)
-					this.gyroBiasEstimator.processAccelerometer(this.latestAcc,
-							event.timestamp);
-			}
-		} else if ((event.sensor.getType() == 4)
-				|| (event.sensor.getType() == 16)) {
-			this.latestGyroEventClockTimeNs = this.clock.nanoTime();
-
-			if (event.sensor.getType() == 16) {
-				if ((this.firstGyroValue) && (event.values.length == 6)) {
-					this.initialSystemGyroBias[0] = event.values[3];
-					this.initialSystemGyroBias[1] = event.values[4];
-					this.initialSystemGyroBias[2] = event.values[5];
-				}
-				this.latestGyro.set(event.values[0]
-						- this.initialSystemGyroBias[0], event.values[1]
-						- this.initialSystemGyroBias[1], event.values[2]
-						- this.initialSystemGyroBias[2]);
-			} else {
-				this.latestGyro.set(event.values[0], event.values[1],
-						event.values[2]);
-			}
+	/**
+	 * Selects where sensor samples are fused, see
+	 * {@link SensorFusion#setFusionMode}. Takes effect at the next
+	 * {@link #startTracking()}; trackers created with
+	 * {@link #createFromContext} use FUSION_MODE_QUEUED.
+	 */
+	public void setFusionMode(int mode) {
+		this.fusion.setFusionMode(mode);
+	}
 
-			this.firstGyroValue = false;
+	public int getFusionMode() {
+		return this.fusion.getFusionMode();
+	}
 
-			synchronized (this.gyroBiasEstimatorMutex) {
-				if (this.gyroBiasEstimator != null) {
-					this.gyroBiasEstimator.processGyroscope(this.latestGyro,
-							event.timestamp);
+	/**
+	 * Returns the estimator that maps gyroscope event timestamps to this
+	 * tracker's {@link Clock}, e.g. to read the estimated clock offset,
+	 * drift and delivery delay.
+	 */
+	public ClockDomainEstimator getClockDomainEstimator() {
+		return this.fusion.getClockDomainEstimator();
+	}
 
-					this.gyroBiasEstimator.getGyroBias(this.gyroBias);
-					Vector3d.sub(this.latestGyro, this.gyroBias,
-							this.latestGyro);
-				}
-			}
-			this.tracker.processGyro(this.latestGyro, event.timestamp);
-		}
+	/**
+	 * Returns a snapshot of the delivery statistics of this tracker, see
+	 * {@link SensorFusion#getSensorStatistics()}.
+	 */
+	public SensorStatistics getSensorStatistics() {
+		return this.fusion.getSensorStatistics();
+	}
+
+	public void resetSensorStatistics() {
+		this.fusion.resetSensorStatistics();
+	}
+
+	/**
+	 * Returns the number of samples dropped because the fusion thread fell
+	 * behind and the sample queue was full.
+	 */
+	public long getDroppedSampleCount() {
+		return this.fusion.getDroppedSampleCount();
+	}
+
+	/**
+	 * Returns how many separate times the sample queue overflowed.
+	 */
+	public long getSampleQueueOverrunCount() {
+		return this.fusion.getSampleQueueOverrunCount();
 	}
 
 	public void onAccuracyChanged(Sensor sensor, int accuracy) {
@@ -128,17 +199,21 @@ public class HeadTracker implements SensorEventListener {
 		if (this.tracking) {
 			return;
 		}
-		this.tracker.reset();
+		if (this.warmStartEnabled && (this.stopTrackingTimeNs != 0L)
+				&& (this.clock.nanoTime() - this.stopTrackingTimeNs <= WARM_START_WINDOW_NS))
+			this.tracker.resetWithWarmStart();
+		else {
+			this.tracker.reset();
+		}
 
-		synchronized (this.gyroBiasEstimatorMutex) {
-			if (this.gyroBiasEstimator != null) {
-				this.gyroBiasEstimator.reset();
-			}
+		this.fusion.start();
+		if (this.gyroBiasPersistenceEnabled) {
+			loadGyroBias();
 		}
 
-		this.firstGyroValue = true;
 		this.sensorEventProvider.registerListener(this);
 		this.sensorEventProvider.start();
+		startDisplayRotationUpdates();
 		this.tracking = true;
 	}
 
@@ -153,7 +228,119 @@ public class HeadTracker implements SensorEventListener {
 
 		this.sensorEventProvider.unregisterListener(this);
 		this.sensorEventProvider.stop();
+		this.fusion.stop();
+		stopDisplayRotationUpdates();
 		this.tracking = false;
+		this.stopTrackingTimeNs = this.clock.nanoTime();
+
+		if (this.gyroBiasPersistenceEnabled) {
+			persistGyroBias();
+		}
+	}
+
+	/**
+	 * Display.getRotation() queries the display manager and allocates on
+	 * every call, so while tracking the rotation is cached and refreshed only
+	 * when the display changes. Without a DisplayManager (API < 17 or a
+	 * tracker not created from a Context) it is still queried per frame.
+	 */
+	private void startDisplayRotationUpdates() {
+		if (this.displayManager == null) {
+			return;
+		}
+		this.cachedDisplayRotation = this.display.getRotation();
+		this.displayListener = new DisplayManager.DisplayListener() {
+			public void onDisplayAdded(int displayId) {
+			}
+
+			public void onDisplayRemoved(int displayId) {
+			}
+
+			public void onDisplayChanged(int displayId) {
+				if (displayId == HeadTracker.this.display.getDisplayId())
+					HeadTracker.this.cachedDisplayRotation = HeadTracker.this.display
+							.getRotation();
+			}
+		};
+		this.displayManager.registerDisplayListener(this.displayListener,
+				new Handler(Looper.getMainLooper()));
+		this.displayRotationCached = true;
+	}
+
+	private void stopDisplayRotationUpdates() {
+		if (this.displayListener == null) {
+			return;
+		}
+		this.displayRotationCached = false;
+		this.displayManager.unregisterDisplayListener(this.displayListener);
+		this.displayListener = null;
+	}
+
+	/**
+	 * Enables storing the converged gyroscope bias with the phone parameters
+	 * when tracking stops, and seeding the estimator from it when tracking
+	 * starts. The storage is accessed on a background thread. Enabled for
+	 * trackers created with {@link #createFromContext}.
+	 */
+	public void setGyroBiasPersistenceEnabled(boolean enabled) {
+		this.gyroBiasPersistenceEnabled = enabled;
+	}
+
+	public boolean getGyroBiasPersistenceEnabled() {
+		return this.gyroBiasPersistenceEnabled;
+	}
+
+	/**
+	 * Enables resuming from the last orientation, including its heading,
+	 * when tracking restarts within WARM_START_WINDOW_NS of stopping and the
+	 * measured gravity confirms it; see
+	 * {@link FusionEngine#resetWithWarmStart}. Enabled for trackers created
+	 * with {@link #createFromContext}.
+	 */
+	public void setWarmStartEnabled(boolean enabled) {
+		this.warmStartEnabled = enabled;
+	}
+
+	public boolean getWarmStartEnabled() {
+		return this.warmStartEnabled;
+	}
+
+	/**
+	 * Reads the stored bias on the storage thread. The estimator is seeded
+	 * with it by the next gyroscope sample, once the system bias of an
+	 * uncalibrated gyroscope is known.
+	 */
+	private void loadGyroBias() {
+		final int session = this.fusion.getGyroBiasSession();
+		this.gyroBiasStorageExecutor.execute(new Runnable() {
+			public void run() {
+				float[] stored = PhoneParams.readGyroBiasFromExternalStorage();
+				if (stored != null)
+					HeadTracker.this.fusion.setStoredGyroBias(session, stored);
+			}
+		});
+	}
+
+	/**
+	 * Stores the absolute bias, the estimate plus the system bias of an
+	 * uncalibrated gyroscope, on the storage thread.
+	 */
+	private void persistGyroBias() {
+		final float[] bias = new float[4];
+		if (!this.fusion.getAbsoluteGyroBias(bias)) {
+			return;
+		}
+		final boolean rejected = this.fusion.isStoredGyroBiasRejected();
+
+		this.gyroBiasStorageExecutor.execute(new Runnable() {
+			public void run() {
+				if (bias[3] > 0.0F) {
+					PhoneParams.writeGyroBiasToExternalStorage(bias, bias[3]);
+				} else if (rejected) {
+					PhoneParams.clearGyroBiasInExternalStorage();
+				}
+			}
+		});
 	}
 
 	public void setNeckModelEnabled(boolean enabled) {
@@ -180,28 +367,84 @@ public class HeadTracker implements SensorEventListener {
 	}
 
 	public void setGyroBiasEstimationEnabled(boolean enabled) {
-		synchronized (this.gyroBiasEstimatorMutex) {
-			if (!enabled) {
-				this.gyroBiasEstimator = null;
-			} else if (this.gyroBiasEstimator == null)
-				this.gyroBiasEstimator = new GyroscopeBiasEstimator();
-		}
+		this.fusion.setGyroBiasEstimationEnabled(enabled);
 	}
 
 	public boolean getGyroBiasEstimationEnabled() {
-		synchronized (this.gyroBiasEstimatorMutex) {
-			return this.gyroBiasEstimator != null;
+		return this.fusion.getGyroBiasEstimationEnabled();
+	}
+
+	/**
+	 * Defers the covariance update of gyroscope samples to the next
+	 * accelerometer or magnetometer sample, see
+	 * {@link OrientationEKF#setGyroPreintegrationEnabled}. Enabled for
+	 * trackers created with {@link #createFromContext}. Only applies to an
+	 * {@link OrientationEKF}; other engines decide this themselves.
+	 */
+	public void setGyroPreintegrationEnabled(boolean enabled) {
+		if ((this.tracker instanceof OrientationEKF)) {
+			((OrientationEKF) this.tracker)
+					.setGyroPreintegrationEnabled(enabled);
 		}
 	}
 
+	public boolean getGyroPreintegrationEnabled() {
+		return ((this.tracker instanceof OrientationEKF))
+				&& (((OrientationEKF) this.tracker)
+						.getGyroPreintegrationEnabled());
+	}
+
+	/**
+	 * Returns the fusion engine of this tracker, e.g. to compare engines on
+	 * the same sensor stream.
+	 */
+	public FusionEngine getFusionEngine() {
+		return this.tracker;
+	}
+
+	/**
+	 * Lets policy skip accelerometer corrections while the filter has
+	 * converged or the device accelerates heavily; null, the default,
+	 * corrects with every sample. The policy reports the skip ratio. Only
+	 * applies to an {@link OrientationEKF}.
+	 */
+	public void setAccelerometerUpdatePolicy(AccelerometerUpdatePolicy policy) {
+		if ((this.tracker instanceof OrientationEKF)) {
+			((OrientationEKF) this.tracker)
+					.setAccelerometerUpdatePolicy(policy);
+		}
+	}
+
+	public AccelerometerUpdatePolicy getAccelerometerUpdatePolicy() {
+		if ((this.tracker instanceof OrientationEKF)) {
+			return ((OrientationEKF) this.tracker)
+					.getAccelerometerUpdatePolicy();
+		}
+		return null;
+	}
+
 	public void getLastHeadView(float[] headView, int offset) {
+		getHeadViewAt(this.clock.nanoTime() + PREDICTION_TIME_NS, headView,
+				offset);
+	}
+
+	/**
+	 * Writes the head view predicted for targetDisplayTimeNs, given in the
+	 * time base of this tracker's {@link Clock}. Pass the time the frame
+	 * will reach the display, e.g. the next vsync from
+	 * {@link com.google.vr.cardboard.DisplaySynchronizer#getNextVsyncTimeNs},
+	 * so the prediction horizon follows the actual motion-to-photon latency.
+	 */
+	public void getHeadViewAt(long targetDisplayTimeNs, float[] headView,
+			int offset) {
 		if (offset + 16 > headView.length) {
 			throw new IllegalArgumentException(
 					"Not enough space to write the result");
 		}
 
 		float rotation = 0.0F;
-		switch (this.display.getRotation()) {
+		switch (this.displayRotationCached ? this.cachedDisplayRotation
+				: this.display.getRotation()) {
 		case 0:
 			rotation = 0.0F;
 			break;
@@ -223,21 +466,12 @@ public class HeadTracker implements SensorEventListener {
 					rotation);
 		}
 
-		synchronized (this.tracker) {
-			if (!this.tracker.isReady()) {
-				return;
-			}
-
-			double secondsSinceLastGyroEvent = TimeUnit.NANOSECONDS
-					.toSeconds(this.clock.nanoTime()
-							- this.latestGyroEventClockTimeNs);
-			double secondsToPredictForward = secondsSinceLastGyroEvent + 0.05799999833106995D;
-			double[] mat = this.tracker
-					.getPredictedGLMatrix(secondsToPredictForward);
-			for (int i = 0; i < headView.length; i++) {
-				this.tmpHeadView[i] = (float) mat[i];
-			}
-
+		if (!this.fusion.getPredictedGLMatrix(targetDisplayTimeNs,
+				this.predictedGLMatrix)) {
+			return;
+		}
+		for (int i = 0; i < 16; i++) {
+			this.tmpHeadView[i] = (float) this.predictedGLMatrix[i];
 		}
 
 		Matrix.multiplyMM(this.tmpHeadView2, 0, this.sensorToDisplay, 0,
@@ -256,13 +490,33 @@ public class HeadTracker implements SensorEventListener {
 				this.neckModelFactor * 0.075F, 0.0F);
 	}
 
+	/**
+	 * Selects how the head view is extrapolated to the display time, e.g. a
+	 * ConstantAccelerationPredictor or a DampedVelocityPredictor. See
+	 * {@link PredictionEvaluator} to compare them on recorded traces.
+	 */
+	public void setMotionPredictor(MotionPredictor predictor) {
+		this.tracker.setMotionPredictor(predictor);
+	}
+
+	public MotionPredictor getMotionPredictor() {
+		return this.tracker.getMotionPredictor();
+	}
+
+	/**
+	 * Returns the tracker's orientation history, indexed by sensor event
+	 * timestamps. It can be queried from any thread, e.g. to reproject a
+	 * frame to the pose at its sensor time.
+	 */
+	public PoseHistory getPoseHistory() {
+		return this.tracker.getPoseHistory();
+	}
+
 	Matrix3x3d getCurrentPoseForTest() {
 		return new Matrix3x3d(this.tracker.getRotationMatrix());
 	}
 
 	void setGyroBiasEstimator(GyroscopeBiasEstimator estimator) {
-		synchronized (this.gyroBiasEstimatorMutex) {
-			this.gyroBiasEstimator = estimator;
-		}
+		this.fusion.setGyroBiasEstimator(estimator);
 	}
 }
\ No newline at end of file
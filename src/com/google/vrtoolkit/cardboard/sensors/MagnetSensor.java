@@ -7,15 +7,11 @@ import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Build;
 import android.os.Handler;
-import android.os.Looper;
-import java.util.ArrayList;
-import java.util.Arrays;
 
 public class MagnetSensor {
 	private static final String HTC_ONE_MODEL = "HTC One";
 	private static final String HTC_ONE_M8_MODEL = "HTC_M8x";
 	private TriggerDetector detector;
-	private Thread detectorThread;
 
 	public MagnetSensor(Context context) {
 		if ((HTC_ONE_MODEL.equals(Build.MODEL)) || (HTC_ONE_M8_MODEL.equals(Build.MODEL)))
@@ -24,16 +20,16 @@ public class MagnetSensor {
 			this.detector = new ThresholdTriggerDetector(context);
 	}
 
+	/**
+	 * Starts listening to the magnetometer through the shared
+	 * {@link SensorHub}, so no thread of its own is created.
+	 */
 	public void start() {
-		this.detectorThread = new Thread(this.detector);
-		this.detectorThread.start();
+		this.detector.start();
 	}
 
 	public void stop() {
-		if (this.detectorThread != null) {
-			this.detectorThread.interrupt();
-			this.detector.stop();
-		}
+		this.detector.stop();
 	}
 
 	public void setOnCardboardTriggerListener(
@@ -50,15 +46,11 @@ public class MagnetSensor {
 		private static int xThreshold;
 		private static int yThreshold;
 		private static int zThreshold;
-		private ArrayList<float[]> sensorData;
-		private ArrayList<Long> sensorTimes;
+		private final MagnetSensor.SampleWindow sensorData = new MagnetSensor.SampleWindow();
 
 		public VectorTriggerDetector(Context context) {
 			super(context);
 
-			this.sensorData = new ArrayList<float[]>();
-			this.sensorTimes = new ArrayList<Long>();
-
 			xThreshold = -3;
 			yThreshold = 15;
 			zThreshold = 6;
@@ -67,8 +59,6 @@ public class MagnetSensor {
 		public VectorTriggerDetector(Context context, int xThreshold,
 				int yThreshold, int zThreshold) {
 			super(context);
-			this.sensorData = new ArrayList<float[]>();
-			this.sensorTimes = new ArrayList<Long>();
 
 			this.xThreshold = xThreshold;
 			this.yThreshold = yThreshold;
@@ -76,12 +66,8 @@ public class MagnetSensor {
 		}
 
 		private void addData(float[] values, long time) {
-			this.sensorData.add(values);
-			this.sensorTimes.add(Long.valueOf(time));
-			while (((Long) this.sensorTimes.get(0)).longValue() < time - NS_THROWAWAY_SIZE) {
-				this.sensorData.remove(0);
-				this.sensorTimes.remove(0);
-			}
+			this.sensorData.add(values, time);
+			this.sensorData.removeOlderThan(time - NS_THROWAWAY_SIZE);
 
 			evaluateModel(time);
 		}
@@ -93,20 +79,21 @@ public class MagnetSensor {
 			}
 
 			int baseIndex = 0;
-			for (int i = 1; i < this.sensorTimes.size(); i++) {
-				if (time - ((Long) this.sensorTimes.get(i)).longValue() < NS_WAIT_SIZE) {
+			for (int i = 1; i < this.sensorData.size(); i++) {
+				if (time - this.sensorData.getTime(i) < NS_WAIT_SIZE) {
 					baseIndex = i;
 					break;
 				}
 
 			}
 
-			float[] oldValues = (float[]) this.sensorData.get(baseIndex);
-			float[] currentValues = (float[]) this.sensorData
-					.get(this.sensorData.size() - 1);
-			if ((currentValues[0] - oldValues[0] < xThreshold)
-					&& (currentValues[1] - oldValues[1] > yThreshold)
-					&& (currentValues[2] - oldValues[2] > zThreshold)) {
+			MagnetSensor.SampleWindow data = this.sensorData;
+			int currentIndex = data.size() - 1;
+			if ((data.getValue(currentIndex, 0) - data.getValue(baseIndex, 0) < xThreshold)
+					&& (data.getValue(currentIndex, 1)
+							- data.getValue(baseIndex, 1) > yThreshold)
+					&& (data.getValue(currentIndex, 2)
+							- data.getValue(baseIndex, 2) > zThreshold)) {
 				this.lastFiring = time;
 				handleButtonPressed();
 			}
@@ -120,7 +107,7 @@ public class MagnetSensor {
 						&& (values[2] == 0.0F)) {
 					return;
 				}
-				addData((float[]) event.values.clone(), event.timestamp);
+				addData(values, event.timestamp);
 			}
 		}
 
@@ -136,31 +123,23 @@ public class MagnetSensor {
 		private long lastFiring = 0L;
 		private static int t1 = 30;
 		private static int t2 = 60;
-		private ArrayList<float[]> sensorData;
-		private ArrayList<Long> sensorTimes;
+		private final MagnetSensor.SampleWindow sensorData = new MagnetSensor.SampleWindow();
+		private float[] offsets = new float[0];
 
 		public ThresholdTriggerDetector(Context context) {
 			super(context);
-			this.sensorData = new ArrayList<float[]>();
-			this.sensorTimes = new ArrayList<Long>();
 		}
 
 		public ThresholdTriggerDetector(Context context, int t1, int t2) {
 			super(context);
-			this.sensorData = new ArrayList<float[]>();
-			this.sensorTimes = new ArrayList<Long>();
 
 			t1 = t1;
 			t2 = t2;
 		}
 
 		private void addData(float[] values, long time) {
-			this.sensorData.add(values);
-			this.sensorTimes.add(Long.valueOf(time));
-			while (((Long) this.sensorTimes.get(0)).longValue() < time - NS_WINDOW_SIZE) {
-				this.sensorData.remove(0);
-				this.sensorTimes.remove(0);
-			}
+			this.sensorData.add(values, time);
+			this.sensorData.removeOlderThan(time - NS_WINDOW_SIZE);
 
 			evaluateModel(time);
 		}
@@ -171,23 +150,22 @@ public class MagnetSensor {
 				return;
 			}
 
-			float[] baseline = (float[]) this.sensorData.get(this.sensorData
-					.size() - 1);
+			int size = this.sensorData.size();
 
 			int startSecondSegment = 0;
-			for (int i = 0; i < this.sensorTimes.size(); i++) {
-				if (time - ((Long) this.sensorTimes.get(i)).longValue() < NS_SEGMENT_SIZE) {
+			for (int i = 0; i < size; i++) {
+				if (time - this.sensorData.getTime(i) < NS_SEGMENT_SIZE) {
 					startSecondSegment = i;
 					break;
 				}
 			}
 
-			float[] offsets = new float[this.sensorData.size()];
-			computeOffsets(offsets, baseline);
-			float min1 = computeMinimum(Arrays.copyOfRange(offsets, 0,
-					startSecondSegment));
-			float max2 = computeMaximum(Arrays.copyOfRange(offsets,
-					startSecondSegment, this.sensorData.size()));
+			if (this.offsets.length < size) {
+				this.offsets = new float[this.sensorData.getCapacity()];
+			}
+			computeOffsets(this.offsets, size - 1);
+			float min1 = computeMinimum(this.offsets, 0, startSecondSegment);
+			float max2 = computeMaximum(this.offsets, startSecondSegment, size);
 
 			if ((min1 < t1) && (max2 > t2)) {
 				this.lastFiring = time;
@@ -195,30 +173,34 @@ public class MagnetSensor {
 			}
 		}
 
-		private void computeOffsets(float[] offsets, float[] baseline) {
-			for (int i = 0; i < this.sensorData.size(); i++) {
-				float[] point = (float[]) this.sensorData.get(i);
-				float[] o = { point[0] - baseline[0], point[1] - baseline[1],
-						point[2] - baseline[2] };
-
-				float magnitude = (float) Math.sqrt(o[0] * o[0] + o[1] * o[1]
-						+ o[2] * o[2]);
+		private void computeOffsets(float[] offsets, int baselineIndex) {
+			MagnetSensor.SampleWindow data = this.sensorData;
+			float baseline0 = data.getValue(baselineIndex, 0);
+			float baseline1 = data.getValue(baselineIndex, 1);
+			float baseline2 = data.getValue(baselineIndex, 2);
+			for (int i = 0; i < data.size(); i++) {
+				float o0 = data.getValue(i, 0) - baseline0;
+				float o1 = data.getValue(i, 1) - baseline1;
+				float o2 = data.getValue(i, 2) - baseline2;
+
+				float magnitude = (float) Math.sqrt(o0 * o0 + o1 * o1 + o2
+						* o2);
 				offsets[i] = magnitude;
 			}
 		}
 
-		private float computeMaximum(float[] offsets) {
+		private float computeMaximum(float[] offsets, int from, int to) {
 			float max = (1.0F / -1.0F);
-			for (float o : offsets) {
-				max = Math.max(o, max);
+			for (int i = from; i < to; i++) {
+				max = Math.max(offsets[i], max);
 			}
 			return max;
 		}
 
-		private float computeMinimum(float[] offsets) {
+		private float computeMinimum(float[] offsets, int from, int to) {
 			float min = (1.0F / 1.0F);
-			for (float o : offsets) {
-				min = Math.min(o, min);
+			for (int i = from; i < to; i++) {
+				min = Math.min(offsets[i], min);
 			}
 			return min;
 		}
@@ -231,7 +213,7 @@ public class MagnetSensor {
 						&& (values[2] == 0.0F)) {
 					return;
 				}
-				addData((float[]) event.values.clone(), event.timestamp);
+				addData(values, event.timestamp);
 			}
 		}
 
@@ -239,19 +221,27 @@ public class MagnetSensor {
 		}
 	}
 
-	private static abstract class TriggerDetector implements Runnable,
+	private static abstract class TriggerDetector implements
 			SensorEventListener {
 		protected static final String TAG = "TriggerDetector";
 		protected SensorManager sensorManager;
+		protected SensorHub sensorHub;
 		protected Sensor magnetometer;
 		protected MagnetSensor.OnCardboardTriggerListener listener;
 		protected Handler handler;
-		private Looper looper;
+		private final Runnable triggerRunnable = new Runnable() {
+			public void run() {
+				if (MagnetSensor.TriggerDetector.this.listener != null)
+					MagnetSensor.TriggerDetector.this.listener
+							.onCardboardTrigger();
+			}
+		};
 
 		public TriggerDetector(Context context) {
 			this.sensorManager = ((SensorManager) context
 					.getSystemService("sensor"));
 			this.magnetometer = this.sensorManager.getDefaultSensor(2);
+			this.sensorHub = SensorHub.getInstance(this.sensorManager);
 		}
 
 		public synchronized void setOnCardboardTriggerListener(
@@ -264,28 +254,16 @@ public class MagnetSensor {
 		protected void handleButtonPressed() {
 			synchronized (this) {
 				if (this.listener != null)
-					this.handler.post(new Runnable() {
-						public void run() {
-							if (MagnetSensor.TriggerDetector.this.listener != null)
-								MagnetSensor.TriggerDetector.this.listener
-										.onCardboardTrigger();
-						}
-					});
+					this.handler.post(this.triggerRunnable);
 			}
 		}
 
-		public void run() {
-			Looper.prepare();
-			this.looper = Looper.myLooper();
-			this.sensorManager.registerListener(this, this.magnetometer, 0);
-
-			Looper.loop();
+		public void start() {
+			this.sensorHub.registerListener(2, this);
 		}
 
 		public void stop() {
-			this.sensorManager.unregisterListener(this);
-
-			this.looper.quit();
+			this.sensorHub.unregisterListener(2, this);
 		}
 
 		public void onSensorChanged(SensorEvent event) {
@@ -295,6 +273,67 @@ public class MagnetSensor {
 		}
 	}
 
+	/**
+	 * Time-ordered window of magnetometer samples in primitive ring buffers,
+	 * so that adding and expiring samples does not allocate once the window
+	 * has reached its steady-state size.
+	 */
+	private static class SampleWindow {
+		private static final int INITIAL_CAPACITY = 64;
+		private float[] values = new float[3 * INITIAL_CAPACITY];
+		private long[] times = new long[INITIAL_CAPACITY];
+		private int start;
+		private int size;
+
+		int size() {
+			return this.size;
+		}
+
+		int getCapacity() {
+			return this.times.length;
+		}
+
+		long getTime(int i) {
+			return this.times[((this.start + i) % this.times.length)];
+		}
+
+		float getValue(int i, int axis) {
+			return this.values[(3 * ((this.start + i) % this.times.length) + axis)];
+		}
+
+		void add(float[] sample, long time) {
+			if (this.size == this.times.length) {
+				grow();
+			}
+			int slot = (this.start + this.size) % this.times.length;
+			this.values[(3 * slot)] = sample[0];
+			this.values[(3 * slot + 1)] = sample[1];
+			this.values[(3 * slot + 2)] = sample[2];
+			this.times[slot] = time;
+			this.size += 1;
+		}
+
+		void removeOlderThan(long time) {
+			while ((this.size > 0) && (this.times[this.start] < time)) {
+				this.start = ((this.start + 1) % this.times.length);
+				this.size -= 1;
+			}
+		}
+
+		private void grow() {
+			float[] newValues = new float[2 * this.values.length];
+			long[] newTimes = new long[2 * this.times.length];
+			for (int i = 0; i < this.size; i++) {
+				int slot = (this.start + i) % this.times.length;
+				System.arraycopy(this.values, 3 * slot, newValues, 3 * i, 3);
+				newTimes[i] = this.times[slot];
+			}
+			this.values = newValues;
+			this.times = newTimes;
+			this.start = 0;
+		}
+	}
+
 	public static abstract interface OnCardboardTriggerListener {
 		public abstract void onCardboardTrigger();
 	}
@@ -0,0 +1,361 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+import com.google.vrtoolkit.cardboard.sensors.internal.Matrix3x3d;
+import com.google.vrtoolkit.cardboard.sensors.internal.MotionPredictor;
+import com.google.vrtoolkit.cardboard.sensors.internal.OrientationEKF;
+import com.google.vrtoolkit.cardboard.sensors.internal.OrientationSnapshot;
+import com.google.vrtoolkit.cardboard.sensors.internal.PoseHistory;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Offline comparison of {@link MotionPredictor}s on a trace recorded by
+ * {@link SensorTraceRecorder}. The trace is fused once through a
+ * {@link SensorFusion}, the path {@link HeadTracker} feeds, and at every
+ * gyroscope sample each predictor extrapolates the fused orientation by
+ * each horizon. A prediction is scored by the angle between the motion it
+ * predicts from its time t to the target time t + h and the reference
+ * motion over the same interval. The reference is the trace's truth poses
+ * (see {@link SensorTraceWriter}) if it has any, and otherwise the fused
+ * orientation, so the results show which model and horizon suit the
+ * sensors of the recording device.
+ */
+public class PredictionEvaluator implements SensorSampleListener {
+	private static final double MAX_HORIZON_SECONDS = 1.0D;
+	private static final int MAX_PENDING = 1024;
+	private static final int TRUTH_HISTORY_CAPACITY = 4096;
+	private final MotionPredictor[] predictors;
+	private final long[] horizonsNs;
+	private final OrientationEKF tracker = new OrientationEKF();
+	private long latestTimestampNs;
+	private final Clock replayClock = new Clock() {
+		public long nanoTime() {
+			return PredictionEvaluator.this.latestTimestampNs;
+		}
+	};
+	private final SensorFusion fusion = new SensorFusion(this.tracker,
+			this.replayClock);
+	private final PoseHistory truthHistory = new PoseHistory(
+			TRUTH_HISTORY_CAPACITY);
+	private boolean hasTruth;
+	private final OrientationSnapshot predictionState = new OrientationSnapshot();
+	private final Matrix3x3d predictedRotation = new Matrix3x3d();
+	private final Matrix3x3d fusedTranspose = new Matrix3x3d();
+	private final float[] referenceStart = new float[4];
+	private final float[] referenceEnd = new float[4];
+	private final float[] referenceMotion = new float[4];
+
+	private final long[][] pendingTargetsNs;
+	private final double[][] pendingRotations;
+	private final int[] pendingStart;
+	private final int[] pendingCount;
+
+	private final long[] counts;
+	private final double[] errorSums;
+	private final double[] squaredErrorSums;
+	private final double[] maxErrors;
+
+	/**
+	 * @param predictors models to compare. They are reset and fed by this
+	 *            evaluator and should not be used by a tracker at the same
+	 *            time.
+	 * @param horizonsSeconds prediction horizons, up to one second each.
+	 */
+	public PredictionEvaluator(MotionPredictor[] predictors,
+			double[] horizonsSeconds) {
+		for (int i = 0; i < horizonsSeconds.length; i++) {
+			if ((horizonsSeconds[i] < 0.0D)
+					|| (horizonsSeconds[i] > MAX_HORIZON_SECONDS)) {
+				throw new IllegalArgumentException(
+						"Horizons should be between 0 and 1 seconds");
+			}
+		}
+		this.predictors = predictors.clone();
+		this.horizonsNs = new long[horizonsSeconds.length];
+		for (int i = 0; i < horizonsSeconds.length; i++) {
+			this.horizonsNs[i] = ((long) (horizonsSeconds[i] * 1.0E9D));
+		}
+
+		int numHorizons = this.horizonsNs.length;
+		this.pendingTargetsNs = new long[numHorizons][MAX_PENDING];
+		this.pendingRotations = new double[numHorizons][MAX_PENDING
+				* this.predictors.length * 9];
+		this.pendingStart = new int[numHorizons];
+		this.pendingCount = new int[numHorizons];
+
+		int numResults = this.predictors.length * numHorizons;
+		this.counts = new long[numResults];
+		this.errorSums = new double[numResults];
+		this.squaredErrorSums = new double[numResults];
+		this.maxErrors = new double[numResults];
+	}
+
+	/**
+	 * Clears all results and evaluates the predictors on a trace. Returns
+	 * the number of sensor samples replayed.
+	 */
+	public int evaluate(File traceFile) throws IOException {
+		this.hasTruth = hasTruthPoses(traceFile);
+		this.tracker.reset();
+		this.fusion.start();
+		this.truthHistory.clear();
+		this.latestTimestampNs = 0L;
+		for (int p = 0; p < this.predictors.length; p++) {
+			this.predictors[p].reset();
+		}
+		for (int h = 0; h < this.horizonsNs.length; h++) {
+			this.pendingStart[h] = 0;
+			this.pendingCount[h] = 0;
+		}
+		for (int i = 0; i < this.counts.length; i++) {
+			this.counts[i] = 0L;
+			this.errorSums[i] = 0.0D;
+			this.squaredErrorSums[i] = 0.0D;
+			this.maxErrors[i] = 0.0D;
+		}
+
+		SensorTraceReader reader = new SensorTraceReader(traceFile);
+		try {
+			float[] extra = new float[3];
+			int samples = 0;
+			while (reader.next()) {
+				if (reader.type == SensorTraceWriter.TYPE_TRUTH_POSE) {
+					if (reader.count == 4) {
+						addTruthPose(reader.timestampNs, reader.values);
+					}
+					continue;
+				}
+				if (reader.count < 3) {
+					continue;
+				}
+				boolean hasExtra = reader.count == 6;
+				if (hasExtra) {
+					System.arraycopy(reader.values, 3, extra, 0, 3);
+				}
+				onSample(reader.type, reader.timestampNs, reader.values[0],
+						reader.values[1], reader.values[2], hasExtra ? extra
+								: null);
+				samples++;
+			}
+			return samples;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Passes a sensor sample to the fusion path. After a gyroscope sample
+	 * it predicts from the fused orientation, and without truth poses it
+	 * scores the predictions the fused orientation has reached.
+	 */
+	public void onSample(int type, long timestampNs, float x, float y,
+			float z, float[] extra) {
+		this.latestTimestampNs = timestampNs;
+		this.fusion.onSample(type, timestampNs, x, y, z, extra);
+		if ((type == 4) || (type == 16)) {
+			if (!this.hasTruth) {
+				scorePending(this.tracker.getPoseHistory(), timestampNs);
+			}
+			predict(timestampNs);
+		}
+	}
+
+	private void addTruthPose(long timestampNs, float[] q) {
+		this.truthHistory.add(timestampNs, q[0], q[1], q[2], q[3], 0.0D,
+				0.0D, 0.0D);
+		scorePending(this.truthHistory, timestampNs);
+	}
+
+	/**
+	 * Stores for each predictor and horizon the predicted motion from the
+	 * fused orientation F(t), P(t + h) * F(t)^T.
+	 */
+	private void predict(long timestampNs) {
+		OrientationSnapshot snapshot = this.tracker.getLatestSnapshot();
+		boolean ready = snapshot.ready;
+		if (ready) {
+			this.predictionState.so3SensorFromWorld
+					.set(snapshot.so3SensorFromWorld);
+			snapshot.so3SensorFromWorld.transpose(this.fusedTranspose);
+		}
+		for (int p = 0; p < this.predictors.length; p++) {
+			MotionPredictor predictor = this.predictors[p];
+			predictor.addGyroSample(snapshot.lastGyro.x, snapshot.lastGyro.y,
+					snapshot.lastGyro.z, timestampNs);
+			if (!ready) {
+				continue;
+			}
+			predictor.getState(this.predictionState.predictedVelocity,
+					this.predictionState.predictedAcceleration);
+			for (int h = 0; h < this.horizonsNs.length; h++) {
+				int slot = (this.pendingStart[h] + this.pendingCount[h])
+						% MAX_PENDING;
+				this.predictionState.getPredictedRotation(
+						this.horizonsNs[h] * 1.0E-009D, this.predictedRotation);
+				Matrix3x3d.mult(this.predictedRotation, this.fusedTranspose,
+						this.predictedRotation);
+				this.predictedRotation.get(this.pendingRotations[h],
+						(slot * this.predictors.length + p) * 9);
+			}
+		}
+		if (!ready) {
+			return;
+		}
+
+		for (int h = 0; h < this.horizonsNs.length; h++) {
+			int slot = (this.pendingStart[h] + this.pendingCount[h])
+					% MAX_PENDING;
+			this.pendingTargetsNs[h][slot] = (timestampNs + this.horizonsNs[h]);
+			if (this.pendingCount[h] == MAX_PENDING)
+				this.pendingStart[h] = ((this.pendingStart[h] + 1) % MAX_PENDING);
+			else
+				this.pendingCount[h] += 1;
+		}
+	}
+
+	/**
+	 * Scores the predictions whose target time the reference has reached
+	 * against its motion R(t + h) * R(t)^T.
+	 */
+	private void scorePending(PoseHistory reference, long timestampNs) {
+		for (int h = 0; h < this.horizonsNs.length; h++) {
+			while (this.pendingCount[h] > 0) {
+				int slot = this.pendingStart[h];
+				long targetNs = this.pendingTargetsNs[h][slot];
+				if (targetNs > timestampNs) {
+					break;
+				}
+				this.pendingStart[h] = ((slot + 1) % MAX_PENDING);
+				this.pendingCount[h] -= 1;
+
+				if ((!reference.poseAt(targetNs - this.horizonsNs[h],
+						this.referenceStart))
+						|| (!reference.poseAt(targetNs, this.referenceEnd))) {
+					continue;
+				}
+				multiplyByConjugate(this.referenceEnd, this.referenceStart,
+						this.referenceMotion);
+				for (int p = 0; p < this.predictors.length; p++) {
+					double error = angleToQuaternion(this.pendingRotations[h],
+							(slot * this.predictors.length + p) * 9,
+							this.referenceMotion);
+					int result = p * this.horizonsNs.length + h;
+					this.counts[result] += 1L;
+					this.errorSums[result] += error;
+					this.squaredErrorSums[result] += error * error;
+					this.maxErrors[result] = Math.max(this.maxErrors[result],
+							error);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a * b^-1 for unit quaternions (x, y, z, w) to result, the
+	 * quaternion of R(a) * R(b)^T.
+	 */
+	private static void multiplyByConjugate(float[] a, float[] b,
+			float[] result) {
+		result[0] = (-a[3] * b[0] + a[0] * b[3] - a[1] * b[2] + a[2] * b[1]);
+		result[1] = (-a[3] * b[1] + a[0] * b[2] + a[1] * b[3] - a[2] * b[0]);
+		result[2] = (-a[3] * b[2] - a[0] * b[1] + a[1] * b[0] + a[2] * b[3]);
+		result[3] = (a[3] * b[3] + a[0] * b[0] + a[1] * b[1] + a[2] * b[2]);
+	}
+
+	/**
+	 * Returns whether the trace holds any TYPE_TRUTH_POSE records.
+	 */
+	private static boolean hasTruthPoses(File traceFile) throws IOException {
+		SensorTraceReader reader = new SensorTraceReader(traceFile);
+		try {
+			while (reader.next()) {
+				if (reader.type == SensorTraceWriter.TYPE_TRUTH_POSE) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Returns the angle in radians between the row-major rotation matrix at
+	 * offset in m and the rotation of the unit quaternion q (x, y, z, w).
+	 */
+	private static double angleToQuaternion(double[] m, int offset, float[] q) {
+		double x = q[0];
+		double y = q[1];
+		double z = q[2];
+		double w = q[3];
+		double trace = m[offset] * (1.0D - 2.0D * (y * y + z * z))
+				+ m[(offset + 1)] * 2.0D * (x * y - z * w) + m[(offset + 2)]
+				* 2.0D * (x * z + y * w) + m[(offset + 3)] * 2.0D
+				* (x * y + z * w) + m[(offset + 4)]
+				* (1.0D - 2.0D * (x * x + z * z)) + m[(offset + 5)] * 2.0D
+				* (y * z - x * w) + m[(offset + 6)] * 2.0D * (x * z - y * w)
+				+ m[(offset + 7)] * 2.0D * (y * z + x * w) + m[(offset + 8)]
+				* (1.0D - 2.0D * (x * x + y * y));
+		double cos = Math.max(-1.0D, Math.min(1.0D, 0.5D * (trace - 1.0D)));
+		return Math.acos(cos);
+	}
+
+	public int getNumPredictors() {
+		return this.predictors.length;
+	}
+
+	public int getNumHorizons() {
+		return this.horizonsNs.length;
+	}
+
+	public long getCount(int predictor, int horizon) {
+		return this.counts[(predictor * this.horizonsNs.length + horizon)];
+	}
+
+	public double getMeanErrorDegrees(int predictor, int horizon) {
+		int result = predictor * this.horizonsNs.length + horizon;
+		if (this.counts[result] == 0L) {
+			return 0.0D;
+		}
+		return Math.toDegrees(this.errorSums[result] / this.counts[result]);
+	}
+
+	public double getRmsErrorDegrees(int predictor, int horizon) {
+		int result = predictor * this.horizonsNs.length + horizon;
+		if (this.counts[result] == 0L) {
+			return 0.0D;
+		}
+		return Math.toDegrees(Math.sqrt(this.squaredErrorSums[result]
+				/ this.counts[result]));
+	}
+
+	public double getMaxErrorDegrees(int predictor, int horizon) {
+		return Math.toDegrees(this.maxErrors[(predictor
+				* this.horizonsNs.length + horizon)]);
+	}
+
+	/**
+	 * Returns one line per predictor and horizon with the number of scored
+	 * predictions and their mean, RMS and maximum error in degrees.
+	 */
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+		for (int p = 0; p < this.predictors.length; p++) {
+			for (int h = 0; h < this.horizonsNs.length; h++) {
+				report.append(this.predictors[p].getClass().getSimpleName())
+						.append(" ").append(this.horizonsNs[h] / 1000000L)
+						.append(" ms: n=").append(getCount(p, h))
+						.append(String.format(
+								" mean=%.3f rms=%.3f max=%.3f deg\n",
+								new Object[] {
+										Double.valueOf(getMeanErrorDegrees(p,
+												h)),
+										Double.valueOf(getRmsErrorDegrees(p,
+												h)),
+										Double.valueOf(getMaxErrorDegrees(p,
+												h)) }));
+			}
+		}
+		return report.toString();
+	}
+}
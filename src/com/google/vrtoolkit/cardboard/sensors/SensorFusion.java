@@ -0,0 +1,495 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+import com.google.vrtoolkit.cardboard.sensors.internal.ClockDomainEstimator;
+import com.google.vrtoolkit.cardboard.sensors.internal.FusionEngine;
+import com.google.vrtoolkit.cardboard.sensors.internal.GyroscopeBiasEstimator;
+import com.google.vrtoolkit.cardboard.sensors.internal.OrientationSnapshot;
+import com.google.vrtoolkit.cardboard.sensors.internal.SensorSampleQueue;
+import com.google.vrtoolkit.cardboard.sensors.internal.Vector3d;
+
+/**
+ * The sensor fusion path of {@link HeadTracker}, without any Android
+ * dependencies: gyroscope bias correction, the uncalibrated gyroscope
+ * handling, the optional fusion thread, the clock domain estimate and the
+ * delivery statistics. HeadTracker passes every Android sensor event to
+ * {@link #onSample}; replay, benchmarks and validation can construct one
+ * directly and feed it recorded samples on a desktop JVM.
+ */
+public class SensorFusion implements SensorSampleListener {
+	public static final int FUSION_MODE_DIRECT = 0;
+	public static final int FUSION_MODE_QUEUED = 1;
+	public static final int FUSION_MODE_QUEUED_BATCH = 2;
+	private static final int SAMPLE_QUEUE_CAPACITY = 256;
+	private final FusionEngine tracker;
+	private final Clock clock;
+	private final Object gyroBiasEstimatorMutex = new Object();
+	private GyroscopeBiasEstimator gyroBiasEstimator;
+	private int gyroBiasSession;
+	private float[] storedGyroBias;
+	private volatile long latestGyroEventClockTimeNs;
+	private final ClockDomainEstimator clockDomainEstimator = new ClockDomainEstimator();
+	private volatile boolean firstGyroValue = true;
+
+	/**
+	 * The system bias of the first uncalibrated gyroscope sample, or null
+	 * for a calibrated gyroscope. Written once per stream by the sensor
+	 * thread and never modified afterwards, so readers on other threads see
+	 * either null or the complete bias.
+	 */
+	private volatile float[] initialSystemGyroBias;
+
+	private final Vector3d gyroBias = new Vector3d();
+
+	private final Vector3d latestGyro = new Vector3d();
+
+	private final Vector3d latestAcc = new Vector3d();
+
+	private final float[] latestMag = new float[3];
+
+	private int fusionMode = FUSION_MODE_DIRECT;
+	private final SensorSampleQueue sampleQueue = new SensorSampleQueue(
+			SAMPLE_QUEUE_CAPACITY);
+	private final SensorSampleQueue.Consumer sampleConsumer = new SensorSampleQueue.Consumer() {
+		public void onSample(int type, long timestampNs, long clockTimeNs,
+				float x, float y, float z) {
+			SensorFusion.this.processSample(type, timestampNs, clockTimeNs, x,
+					y, z);
+		}
+	};
+	private volatile Thread fusionThread;
+	private final SensorStatisticsRecorder sensorStatistics;
+	private final int[] batchTypes = new int[SAMPLE_QUEUE_CAPACITY];
+	private final long[] batchTimestampsNs = new long[SAMPLE_QUEUE_CAPACITY];
+	private final long[] batchClockTimesNs = new long[SAMPLE_QUEUE_CAPACITY];
+	private final float[] batchValues = new float[3 * SAMPLE_QUEUE_CAPACITY];
+	private final double[] batchXyz = new double[3 * SAMPLE_QUEUE_CAPACITY];
+
+	/**
+	 * Creates a fusion path that feeds fusionEngine and stamps the samples
+	 * with their arrival time on clock. The engine must not be shared.
+	 */
+	public SensorFusion(FusionEngine fusionEngine, Clock clock) {
+		if (fusionEngine == null) {
+			throw new IllegalArgumentException("fusionEngine should not be null");
+		}
+		this.tracker = fusionEngine;
+		this.clock = clock;
+		this.sensorStatistics = new SensorStatisticsRecorder(this.tracker,
+				this.sampleQueue);
+
+		setGyroBiasEstimationEnabled(true);
+	}
+
+	/**
+	 * Called on the sensor thread; in the queued fusion modes the sample is
+	 * only copied to the sample queue here and the filters run on the fusion
+	 * thread.
+	 */
+	public void onSample(int type, long timestampNs, float x, float y,
+			float z, float[] extra) {
+		if (type == 1) {
+			long clockTimeNs = this.clock.nanoTime();
+			this.sensorStatistics.recordSample(
+					SensorStatistics.SENSOR_ACCELEROMETER, timestampNs,
+					clockTimeNs);
+			dispatchSample(FusionEngine.SAMPLE_TYPE_ACCELEROMETER,
+					timestampNs, clockTimeNs, x, y, z);
+		} else if (type == 2) {
+			long clockTimeNs = this.clock.nanoTime();
+			this.sensorStatistics.recordSample(
+					SensorStatistics.SENSOR_MAGNETOMETER, timestampNs,
+					clockTimeNs);
+			dispatchSample(FusionEngine.SAMPLE_TYPE_MAGNETOMETER,
+					timestampNs, clockTimeNs, x, y, z);
+		} else if ((type == 4) || (type == 16)) {
+			long clockTimeNs = this.clock.nanoTime();
+			this.sensorStatistics.recordSample(
+					SensorStatistics.SENSOR_GYROSCOPE, timestampNs,
+					clockTimeNs);
+			this.clockDomainEstimator.addSample(timestampNs, clockTimeNs);
+
+			if (type == 16) {
+				float[] systemBias = this.initialSystemGyroBias;
+				if (this.firstGyroValue) {
+					systemBias = new float[3];
+					if (extra != null) {
+						systemBias[0] = extra[0];
+						systemBias[1] = extra[1];
+						systemBias[2] = extra[2];
+					}
+					this.initialSystemGyroBias = systemBias;
+				}
+				if (systemBias != null) {
+					x -= systemBias[0];
+					y -= systemBias[1];
+					z -= systemBias[2];
+				}
+			}
+
+			this.firstGyroValue = false;
+
+			dispatchSample(FusionEngine.SAMPLE_TYPE_GYROSCOPE, timestampNs,
+					clockTimeNs, x, y, z);
+		}
+	}
+
+	private void dispatchSample(int type, long timestampNs, long clockTimeNs,
+			float x, float y, float z) {
+		if (this.fusionThread != null)
+			this.sampleQueue.offer(type, timestampNs, clockTimeNs, x, y, z);
+		else
+			processSample(type, timestampNs, clockTimeNs, x, y, z);
+	}
+
+	private void processSample(int type, long timestampNs, long clockTimeNs,
+			float x, float y, float z) {
+		if (type == FusionEngine.SAMPLE_TYPE_ACCELEROMETER) {
+			this.latestAcc.set(x, y, z);
+			this.tracker.processAcc(this.latestAcc, timestampNs);
+
+			synchronized (this.gyroBiasEstimatorMutex) {
+				if (this.gyroBiasEstimator != null)
+					this.gyroBiasEstimator.processAccelerometer(this.latestAcc,
+							timestampNs);
+			}
+		} else if (type == FusionEngine.SAMPLE_TYPE_GYROSCOPE) {
+			correctGyroBias(x, y, z, timestampNs);
+			this.tracker.processGyro(this.latestGyro, timestampNs);
+			this.latestGyroEventClockTimeNs = clockTimeNs;
+		} else if (type == FusionEngine.SAMPLE_TYPE_MAGNETOMETER) {
+			this.latestMag[0] = x;
+			this.latestMag[1] = y;
+			this.latestMag[2] = z;
+			this.tracker.processMag(this.latestMag, timestampNs);
+		}
+	}
+
+	/**
+	 * Feeds a gyroscope sample to the bias estimator and leaves the bias
+	 * corrected rate in latestGyro. Seeds the estimator with the stored bias
+	 * once it has been set.
+	 */
+	private void correctGyroBias(float x, float y, float z, long timestampNs) {
+		this.latestGyro.set(x, y, z);
+		synchronized (this.gyroBiasEstimatorMutex) {
+			if (this.gyroBiasEstimator != null) {
+				if (this.storedGyroBias != null) {
+					seedGyroBias(this.storedGyroBias);
+					this.storedGyroBias = null;
+				}
+				this.gyroBiasEstimator.processGyroscope(this.latestGyro,
+						timestampNs);
+
+				this.gyroBiasEstimator.getGyroBias(this.gyroBias);
+				Vector3d.sub(this.latestGyro, this.gyroBias, this.latestGyro);
+			}
+		}
+	}
+
+	/**
+	 * Processes all queued samples with a single filter update. The bias
+	 * estimator still sees every sample; the corrected samples are then
+	 * passed to {@link FusionEngine#processSampleBatch}.
+	 */
+	private int processQueuedBatch() {
+		int count = this.sampleQueue.drainTo(this.batchTypes,
+				this.batchTimestampsNs, this.batchClockTimesNs,
+				this.batchValues, SAMPLE_QUEUE_CAPACITY);
+		if (count == 0) {
+			return 0;
+		}
+
+		long lastGyroClockTimeNs = 0L;
+		for (int i = 0; i < count; i++) {
+			float x = this.batchValues[(3 * i)];
+			float y = this.batchValues[(3 * i + 1)];
+			float z = this.batchValues[(3 * i + 2)];
+			if (this.batchTypes[i] == FusionEngine.SAMPLE_TYPE_GYROSCOPE) {
+				correctGyroBias(x, y, z, this.batchTimestampsNs[i]);
+				this.batchXyz[(3 * i)] = this.latestGyro.x;
+				this.batchXyz[(3 * i + 1)] = this.latestGyro.y;
+				this.batchXyz[(3 * i + 2)] = this.latestGyro.z;
+				lastGyroClockTimeNs = this.batchClockTimesNs[i];
+			} else {
+				if (this.batchTypes[i] == FusionEngine.SAMPLE_TYPE_ACCELEROMETER) {
+					synchronized (this.gyroBiasEstimatorMutex) {
+						if (this.gyroBiasEstimator != null)
+							this.gyroBiasEstimator.processAccelerometer(x, y,
+									z, this.batchTimestampsNs[i]);
+					}
+				}
+				this.batchXyz[(3 * i)] = x;
+				this.batchXyz[(3 * i + 1)] = y;
+				this.batchXyz[(3 * i + 2)] = z;
+			}
+		}
+
+		this.tracker.processSampleBatch(this.batchTypes, this.batchXyz,
+				this.batchTimestampsNs, count);
+		if (lastGyroClockTimeNs != 0L) {
+			this.latestGyroEventClockTimeNs = lastGyroClockTimeNs;
+		}
+		return count;
+	}
+
+	private void runFusion(boolean batch) throws InterruptedException {
+		while (true) {
+			int count = batch ? processQueuedBatch() : this.sampleQueue.drain(
+					this.sampleConsumer, SAMPLE_QUEUE_CAPACITY);
+			if (count == 0) {
+				this.sampleQueue.awaitSamples();
+			}
+		}
+	}
+
+	/**
+	 * Prepares for a new stream of samples: resets the bias estimator, the
+	 * uncalibrated gyroscope state, the statistics and the clock domain
+	 * estimate, and starts the fusion thread in the queued modes. The fusion
+	 * engine itself is reset by the caller, which decides about a warm start.
+	 */
+	public void start() {
+		synchronized (this.gyroBiasEstimatorMutex) {
+			if (this.gyroBiasEstimator != null) {
+				this.gyroBiasEstimator.reset();
+			}
+			this.gyroBiasSession += 1;
+			this.storedGyroBias = null;
+		}
+
+		this.firstGyroValue = true;
+		this.initialSystemGyroBias = null;
+		this.sensorStatistics.restart();
+		this.clockDomainEstimator.reset();
+		startFusionThread();
+	}
+
+	/**
+	 * Stops the fusion thread. Samples still queued are discarded.
+	 */
+	public void stop() {
+		stopFusionThread();
+	}
+
+	private void startFusionThread() {
+		if ((this.fusionMode == FUSION_MODE_DIRECT)
+				|| (this.fusionThread != null)) {
+			return;
+		}
+		this.sampleQueue.clear();
+		final boolean batch = this.fusionMode == FUSION_MODE_QUEUED_BATCH;
+		this.fusionThread = new Thread("sensor fusion") {
+			public void run() {
+				try {
+					SensorFusion.this.runFusion(batch);
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		this.fusionThread.start();
+	}
+
+	private void stopFusionThread() {
+		if (this.fusionThread == null) {
+			return;
+		}
+		this.fusionThread.interrupt();
+		try {
+			this.fusionThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.fusionThread = null;
+	}
+
+	/**
+	 * Selects where sensor samples are fused. FUSION_MODE_DIRECT runs the
+	 * filters on the calling thread. FUSION_MODE_QUEUED hands samples to a
+	 * dedicated fusion thread through a lock-free queue, and
+	 * FUSION_MODE_QUEUED_BATCH additionally fuses everything queued since
+	 * the last update in one batch. Takes effect at the next
+	 * {@link #start()}.
+	 */
+	public void setFusionMode(int mode) {
+		if ((mode != FUSION_MODE_DIRECT) && (mode != FUSION_MODE_QUEUED)
+				&& (mode != FUSION_MODE_QUEUED_BATCH)) {
+			throw new IllegalArgumentException("Unknown fusion mode: " + mode);
+		}
+		this.fusionMode = mode;
+	}
+
+	public int getFusionMode() {
+		return this.fusionMode;
+	}
+
+	public FusionEngine getFusionEngine() {
+		return this.tracker;
+	}
+
+	/**
+	 * Returns the estimator that maps gyroscope event timestamps to the
+	 * {@link Clock} of this fusion path, e.g. to read the estimated clock
+	 * offset, drift and delivery delay.
+	 */
+	public ClockDomainEstimator getClockDomainEstimator() {
+		return this.clockDomainEstimator;
+	}
+
+	/**
+	 * Returns the {@link Clock} time of the gyroscope event with timestamp
+	 * gyroTimestampNs. Until the clock domain estimate is ready this is the
+	 * arrival time of the latest fused gyroscope sample.
+	 */
+	public long getGyroEventClockTimeNs(long gyroTimestampNs) {
+		return this.clockDomainEstimator.isReady() ? this.clockDomainEstimator
+				.toClockTimeNs(gyroTimestampNs)
+				: this.latestGyroEventClockTimeNs;
+	}
+
+	/**
+	 * Writes the column-major GL rotation matrix of the engine's orientation
+	 * predicted for targetDisplayTimeNs, given in the time base of this
+	 * fusion path's {@link Clock}. Returns false and leaves result untouched
+	 * until the engine is aligned. Called per frame from the render thread;
+	 * it neither blocks the fusing thread nor allocates.
+	 */
+	public boolean getPredictedGLMatrix(long targetDisplayTimeNs,
+			double[] result) {
+		OrientationSnapshot snapshot = this.tracker.getLatestSnapshot();
+		if (!snapshot.ready) {
+			return false;
+		}
+		long gyroEventClockTimeNs = getGyroEventClockTimeNs(snapshot.gyroTimestampNs);
+		double secondsToPredictForward = (targetDisplayTimeNs - gyroEventClockTimeNs) * 1.0E-009D;
+		snapshot.getPredictedGLMatrix(secondsToPredictForward, result);
+		return true;
+	}
+
+	/**
+	 * Returns a snapshot of the delivery statistics since the last
+	 * {@link #resetSensorStatistics()}, e.g. for telemetry. Each call copies
+	 * the histograms, so it is not meant to be called every frame.
+	 */
+	public SensorStatistics getSensorStatistics() {
+		return this.sensorStatistics.snapshot();
+	}
+
+	/**
+	 * Clears the delivery statistics. May be called from any thread.
+	 */
+	public void resetSensorStatistics() {
+		this.sensorStatistics.reset();
+	}
+
+	/**
+	 * Returns the number of samples dropped because the fusion thread fell
+	 * behind and the sample queue was full.
+	 */
+	public long getDroppedSampleCount() {
+		return this.sampleQueue.getDroppedCount();
+	}
+
+	/**
+	 * Returns how many separate times the sample queue overflowed.
+	 */
+	public long getSampleQueueOverrunCount() {
+		return this.sampleQueue.getOverrunCount();
+	}
+
+	public void setGyroBiasEstimationEnabled(boolean enabled) {
+		synchronized (this.gyroBiasEstimatorMutex) {
+			if (!enabled) {
+				this.gyroBiasEstimator = null;
+			} else if (this.gyroBiasEstimator == null)
+				this.gyroBiasEstimator = new GyroscopeBiasEstimator();
+		}
+	}
+
+	public boolean getGyroBiasEstimationEnabled() {
+		synchronized (this.gyroBiasEstimatorMutex) {
+			return this.gyroBiasEstimator != null;
+		}
+	}
+
+	/**
+	 * Returns an id of the current sample stream, to be passed to
+	 * {@link #setStoredGyroBias}. It changes with every {@link #start()}.
+	 */
+	public int getGyroBiasSession() {
+		synchronized (this.gyroBiasEstimatorMutex) {
+			return this.gyroBiasSession;
+		}
+	}
+
+	/**
+	 * Seeds the bias estimator with a stored absolute bias (x, y, z,
+	 * confidence) at the next gyroscope sample, once the system bias of an
+	 * uncalibrated gyroscope is known. Ignored if the stream has been
+	 * restarted since session was read; may be called from any thread.
+	 */
+	public void setStoredGyroBias(int session, float[] bias) {
+		synchronized (this.gyroBiasEstimatorMutex) {
+			if (session == this.gyroBiasSession)
+				this.storedGyroBias = bias;
+		}
+	}
+
+	/**
+	 * The stored bias is absolute. The estimator of an uncalibrated
+	 * gyroscope only sees the residual after initialSystemGyroBias has been
+	 * subtracted, so it is seeded with the stored bias minus the system bias.
+	 */
+	private void seedGyroBias(float[] stored) {
+		Vector3d bias = new Vector3d(stored[0], stored[1], stored[2]);
+		float[] systemBias = this.initialSystemGyroBias;
+		if (systemBias != null) {
+			bias.x -= systemBias[0];
+			bias.y -= systemBias[1];
+			bias.z -= systemBias[2];
+		}
+		this.gyroBiasEstimator.setInitialBias(bias, stored[3]);
+	}
+
+	/**
+	 * Writes the absolute bias estimate, including initialSystemGyroBias for
+	 * an uncalibrated gyroscope, and its confidence to result as (x, y, z,
+	 * confidence). Returns false if bias estimation is disabled.
+	 */
+	public boolean getAbsoluteGyroBias(float[] result) {
+		Vector3d bias = new Vector3d();
+		synchronized (this.gyroBiasEstimatorMutex) {
+			if (this.gyroBiasEstimator == null) {
+				return false;
+			}
+			this.gyroBiasEstimator.getGyroBias(bias);
+			result[3] = ((float) this.gyroBiasEstimator.getBiasConfidence());
+		}
+		result[0] = ((float) bias.x);
+		result[1] = ((float) bias.y);
+		result[2] = ((float) bias.z);
+		float[] systemBias = this.initialSystemGyroBias;
+		if (systemBias != null) {
+			for (int i = 0; i < 3; i++) {
+				result[i] += systemBias[i];
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the estimator rejected the stored bias it was seeded
+	 * with, i.e. the stored bias should be cleared.
+	 */
+	public boolean isStoredGyroBiasRejected() {
+		synchronized (this.gyroBiasEstimatorMutex) {
+			return (this.gyroBiasEstimator != null)
+					&& (this.gyroBiasEstimator.isInitialBiasRejected());
+		}
+	}
+
+	void setGyroBiasEstimator(GyroscopeBiasEstimator estimator) {
+		synchronized (this.gyroBiasEstimatorMutex) {
+			this.gyroBiasEstimator = estimator;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+/**
+ * Process-wide owner of the hardware sensor registrations. All consumers
+ * (head tracking, the magnet trigger, magnetometer fusion) subscribe here by
+ * sensor type. Each sensor is registered with the SensorManager once, while
+ * it has at least one subscriber, and its events are fanned out to all
+ * subscribers on a single long-lived "sensor" thread that is created on
+ * first use and kept across pause and resume.
+ */
+public class SensorHub {
+	private static final String TAG = SensorHub.class.getSimpleName();
+	private static final int MAX_SENSOR_TYPE = 32;
+	private static final SensorEventListener[] NO_LISTENERS = new SensorEventListener[0];
+	private static SensorHub sInstance;
+	private final SensorManager sensorManager;
+	private final Subscription[] subscriptions = new Subscription[MAX_SENSOR_TYPE + 1];
+	private final Object subscriptionsMutex = new Object();
+	private Handler sensorHandler;
+
+	public static synchronized SensorHub getInstance(SensorManager sensorManager) {
+		if (sInstance == null) {
+			sInstance = new SensorHub(sensorManager);
+		}
+
+		return sInstance;
+	}
+
+	private SensorHub(SensorManager sensorManager) {
+		this.sensorManager = sensorManager;
+	}
+
+	/**
+	 * Subscribes listener to the default sensor of sensorType. Returns false
+	 * if the device has no such sensor.
+	 */
+	public boolean registerListener(int sensorType,
+			SensorEventListener listener) {
+		if ((sensorType < 0) || (sensorType > MAX_SENSOR_TYPE)) {
+			throw new IllegalArgumentException("Unsupported sensor type: "
+					+ sensorType);
+		}
+
+		synchronized (this.subscriptionsMutex) {
+			Subscription subscription = this.subscriptions[sensorType];
+			if (subscription == null) {
+				Sensor sensor = this.sensorManager.getDefaultSensor(sensorType);
+				if (sensor == null) {
+					return false;
+				}
+				subscription = new Subscription(sensor);
+				this.subscriptions[sensorType] = subscription;
+			}
+
+			SensorEventListener[] listeners = subscription.listeners;
+			for (int i = 0; i < listeners.length; i++) {
+				if (listeners[i] == listener) {
+					return true;
+				}
+			}
+			SensorEventListener[] newListeners = new SensorEventListener[listeners.length + 1];
+			System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+			newListeners[listeners.length] = listener;
+			subscription.listeners = newListeners;
+
+			if (listeners.length == 0) {
+				this.sensorManager.registerListener(subscription,
+						subscription.sensor, 0, getSensorHandler());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes listener from sensorType. The sensor is unregistered from the
+	 * SensorManager when its last subscriber leaves.
+	 */
+	public void unregisterListener(int sensorType,
+			SensorEventListener listener) {
+		if ((sensorType < 0) || (sensorType > MAX_SENSOR_TYPE)) {
+			return;
+		}
+
+		synchronized (this.subscriptionsMutex) {
+			Subscription subscription = this.subscriptions[sensorType];
+			if (subscription == null) {
+				return;
+			}
+
+			SensorEventListener[] listeners = subscription.listeners;
+			for (int i = 0; i < listeners.length; i++) {
+				if (listeners[i] == listener) {
+					if (listeners.length == 1) {
+						subscription.listeners = NO_LISTENERS;
+						this.sensorManager.unregisterListener(subscription);
+						return;
+					}
+					SensorEventListener[] newListeners = new SensorEventListener[listeners.length - 1];
+					System.arraycopy(listeners, 0, newListeners, 0, i);
+					System.arraycopy(listeners, i + 1, newListeners, i,
+							listeners.length - i - 1);
+					subscription.listeners = newListeners;
+					return;
+				}
+			}
+		}
+	}
+
+	private Handler getSensorHandler() {
+		if (this.sensorHandler == null) {
+			HandlerThread sensorThread = new HandlerThread("sensor");
+			sensorThread.start();
+			this.sensorHandler = new Handler(sensorThread.getLooper());
+			Log.i(TAG, "Started sensor thread.");
+		}
+		return this.sensorHandler;
+	}
+
+	private static class Subscription implements SensorEventListener {
+		final Sensor sensor;
+		volatile SensorEventListener[] listeners = SensorHub.NO_LISTENERS;
+
+		Subscription(Sensor sensor) {
+			this.sensor = sensor;
+		}
+
+		public void onSensorChanged(SensorEvent event) {
+			SensorEventListener[] listeners = this.listeners;
+			for (int i = 0; i < listeners.length; i++)
+				listeners[i].onSensorChanged(event);
+		}
+
+		public void onAccuracyChanged(Sensor sensor, int accuracy) {
+			SensorEventListener[] listeners = this.listeners;
+			for (int i = 0; i < listeners.length; i++)
+				listeners[i].onAccuracyChanged(sensor, accuracy);
+		}
+	}
+}
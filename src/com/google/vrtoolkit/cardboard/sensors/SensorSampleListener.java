@@ -0,0 +1,13 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+/**
+ * Receives sensor samples as primitives, without Android framework objects.
+ * type is an android.hardware.Sensor type constant (1 accelerometer, 2
+ * magnetometer, 4 gyroscope, 16 uncalibrated gyroscope). extra holds the
+ * values beyond x, y, z, e.g. the estimated bias of an uncalibrated
+ * gyroscope, or is null.
+ */
+public abstract interface SensorSampleListener {
+	public abstract void onSample(int type, long timestampNs, float x,
+			float y, float z, float[] extra);
+}
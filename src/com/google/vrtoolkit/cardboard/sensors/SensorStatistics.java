@@ -0,0 +1,81 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+import com.google.vrtoolkit.cardboard.sensors.internal.LogHistogram;
+
+/**
+ * Snapshot of the delivery statistics of the samples received by a
+ * {@link HeadTracker}, per sensor: delivery latency (clock time at the
+ * callback minus the event timestamp), the interval between consecutive
+ * event timestamps and the number of samples whose timestamp did not
+ * advance. Also reports gyroscope timesteps clamped by the filter, samples
+ * dropped by the fusion queue and how long the filter took to become ready
+ * and stable after starting. A snapshot does not change after it was taken;
+ * see {@link SensorFusion#getSensorStatistics()}.
+ */
+public class SensorStatistics {
+	public static final int SENSOR_ACCELEROMETER = 0;
+	public static final int SENSOR_GYROSCOPE = 1;
+	public static final int SENSOR_MAGNETOMETER = 2;
+	public static final int NUM_SENSORS = 3;
+	final LogHistogram[] deliveryLatency = new LogHistogram[NUM_SENSORS];
+	final LogHistogram[] sampleInterval = new LogHistogram[NUM_SENSORS];
+	final long[] outOfOrderCounts = new long[NUM_SENSORS];
+	long clampedGyroTimestepCount;
+	long droppedSampleCount;
+	long timeToReadyNs;
+	long timeToStableNs;
+
+	SensorStatistics() {
+		for (int i = 0; i < NUM_SENSORS; i++) {
+			this.deliveryLatency[i] = new LogHistogram();
+			this.sampleInterval[i] = new LogHistogram();
+		}
+	}
+
+	/**
+	 * Returns this snapshot's copy of the latency histogram of sensor.
+	 */
+	public LogHistogram getDeliveryLatencyHistogram(int sensor) {
+		return this.deliveryLatency[sensor];
+	}
+
+	/**
+	 * Returns this snapshot's copy of the interval histogram of sensor.
+	 */
+	public LogHistogram getSampleIntervalHistogram(int sensor) {
+		return this.sampleInterval[sensor];
+	}
+
+	public long getOutOfOrderCount(int sensor) {
+		return this.outOfOrderCounts[sensor];
+	}
+
+	/**
+	 * Returns the gyroscope timesteps longer than 40 ms that the filter
+	 * replaced by its filtered timestep.
+	 */
+	public long getClampedGyroTimestepCount() {
+		return this.clampedGyroTimestepCount;
+	}
+
+	/**
+	 * Returns the sensor time from the first accelerometer sample until the
+	 * filter was aligned to gravity, or -1 if it was not aligned yet.
+	 */
+	public long getTimeToReadyNs() {
+		return this.timeToReadyNs;
+	}
+
+	/**
+	 * Returns the sensor time from the first accelerometer sample until the
+	 * accelerometer corrections of the filter became negligible, or -1 if
+	 * they had not yet.
+	 */
+	public long getTimeToStableNs() {
+		return this.timeToStableNs;
+	}
+
+	public long getDroppedSampleCount() {
+		return this.droppedSampleCount;
+	}
+}
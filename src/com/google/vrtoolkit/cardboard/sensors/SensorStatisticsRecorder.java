@@ -0,0 +1,113 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+import com.google.vrtoolkit.cardboard.sensors.internal.FusionEngine;
+import com.google.vrtoolkit.cardboard.sensors.internal.LogHistogram;
+import com.google.vrtoolkit.cardboard.sensors.internal.SensorSampleQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the delivery statistics of a {@link SensorFusion} and copies them
+ * into {@link SensorStatistics} snapshots. Recording happens on the sensor
+ * thread without locking or allocating. It bumps a sequence number before
+ * and after each sample, so a snapshot retries until it has copied the
+ * counters between two samples rather than in the middle of one.
+ */
+class SensorStatisticsRecorder {
+	private final LogHistogram[] deliveryLatency = new LogHistogram[SensorStatistics.NUM_SENSORS];
+	private final LogHistogram[] sampleInterval = new LogHistogram[SensorStatistics.NUM_SENSORS];
+	private final AtomicLongArray outOfOrderCounts = new AtomicLongArray(
+			SensorStatistics.NUM_SENSORS);
+	private final long[] lastTimestampNs = new long[SensorStatistics.NUM_SENSORS];
+	private final FusionEngine tracker;
+	private final SensorSampleQueue sampleQueue;
+	private volatile long sequence;
+	private volatile long clampedGyroTimestepBase;
+	private volatile long droppedSampleBase;
+
+	SensorStatisticsRecorder(FusionEngine tracker, SensorSampleQueue sampleQueue) {
+		this.tracker = tracker;
+		this.sampleQueue = sampleQueue;
+		for (int i = 0; i < SensorStatistics.NUM_SENSORS; i++) {
+			this.deliveryLatency[i] = new LogHistogram();
+			this.sampleInterval[i] = new LogHistogram();
+		}
+	}
+
+	/**
+	 * Records a sample of sensor SENSOR_ constant. Sensor thread only.
+	 */
+	void recordSample(int sensor, long timestampNs, long clockTimeNs) {
+		long s = this.sequence;
+		this.sequence = s + 1L;
+		this.deliveryLatency[sensor].record(clockTimeNs - timestampNs);
+
+		long last = this.lastTimestampNs[sensor];
+		if (last != 0L) {
+			if (timestampNs <= last)
+				this.outOfOrderCounts.incrementAndGet(sensor);
+			else {
+				this.sampleInterval[sensor].record(timestampNs - last);
+			}
+		}
+		if (timestampNs > last) {
+			this.lastTimestampNs[sensor] = timestampNs;
+		}
+		this.sequence = s + 2L;
+	}
+
+	/**
+	 * Forgets the previous timestamps, so that the gap across a stop and
+	 * start of tracking is not recorded as an interval. Sensor thread only,
+	 * or while no samples are delivered.
+	 */
+	void restart() {
+		for (int i = 0; i < SensorStatistics.NUM_SENSORS; i++) {
+			this.lastTimestampNs[i] = 0L;
+		}
+	}
+
+	/**
+	 * Returns a copy of the statistics recorded since the last
+	 * {@link #reset()}. May be called from any thread.
+	 */
+	synchronized SensorStatistics snapshot() {
+		SensorStatistics result = new SensorStatistics();
+		while (true) {
+			long s = this.sequence;
+			if ((s & 1L) != 0L) {
+				Thread.yield();
+				continue;
+			}
+			for (int i = 0; i < SensorStatistics.NUM_SENSORS; i++) {
+				result.deliveryLatency[i].set(this.deliveryLatency[i]);
+				result.sampleInterval[i].set(this.sampleInterval[i]);
+				result.outOfOrderCounts[i] = this.outOfOrderCounts.get(i);
+			}
+			if (this.sequence == s) {
+				break;
+			}
+		}
+		result.clampedGyroTimestepCount = this.tracker
+				.getClampedGyroTimestepCount() - this.clampedGyroTimestepBase;
+		result.droppedSampleCount = this.sampleQueue.getDroppedCount()
+				- this.droppedSampleBase;
+		result.timeToReadyNs = this.tracker.getTimeToReadyNs();
+		result.timeToStableNs = this.tracker.getTimeToStableNs();
+		return result;
+	}
+
+	/**
+	 * Clears all histograms and counters. May be called from any thread;
+	 * samples recorded concurrently may or may not be included afterwards.
+	 */
+	synchronized void reset() {
+		for (int i = 0; i < SensorStatistics.NUM_SENSORS; i++) {
+			this.deliveryLatency[i].reset();
+			this.sampleInterval[i].reset();
+			this.outOfOrderCounts.set(i, 0L);
+		}
+		this.clampedGyroTimestepBase = this.tracker
+				.getClampedGyroTimestepCount();
+		this.droppedSampleBase = this.sampleQueue.getDroppedCount();
+	}
+}
@@ -0,0 +1,104 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential reader for trace files written by {@link SensorTraceWriter}.
+ * The fields describe the current record after each successful
+ * {@link #next()}.
+ */
+class SensorTraceReader {
+	int type;
+	int count;
+	long timestampNs;
+	final float[] values = new float[SensorTraceWriter.MAX_VALUES];
+	private final RandomAccessFile file;
+	private final MappedByteBuffer trace;
+
+	SensorTraceReader(File traceFile) throws IOException {
+		this.file = new RandomAccessFile(traceFile, "r");
+		try {
+			FileChannel channel = this.file.getChannel();
+			this.trace = channel.map(FileChannel.MapMode.READ_ONLY, 0L,
+					channel.size());
+			this.trace.order(ByteOrder.LITTLE_ENDIAN);
+			if ((this.trace.remaining() < SensorTraceWriter.HEADER_SIZE)
+					|| (this.trace.getInt() != SensorTraceWriter.TRACE_MAGIC)
+					|| (this.trace.getInt() != SensorTraceWriter.TRACE_VERSION)) {
+				throw new IOException("Bad sensor trace header.");
+			}
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the next record. Returns false at the end of the file or at a
+	 * zero type byte, which ends a trace that was not closed.
+	 */
+	boolean next() throws IOException {
+		if ((this.trace.remaining() < SensorTraceWriter.RECORD_HEADER_SIZE)
+				|| (this.trace.get(this.trace.position()) == SensorTraceWriter.END_OF_TRACE)) {
+			return false;
+		}
+		this.type = this.trace.get();
+		this.count = this.trace.get();
+		this.timestampNs = this.trace.getLong();
+		if ((this.count < 0) || (this.count > SensorTraceWriter.MAX_VALUES)
+				|| (this.trace.remaining() < 4 * this.count)) {
+			throw new IOException("Bad sensor trace record.");
+		}
+		for (int i = 0; i < this.count; i++) {
+			this.values[i] = this.trace.getFloat();
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the file offset after the last record read.
+	 */
+	long getPosition() {
+		return this.trace.position();
+	}
+
+	void close() throws IOException {
+		this.file.close();
+	}
+
+	/**
+	 * Feeds every sample of a trace to listener on the calling thread, in
+	 * order and as fast as possible. Like {@link HeadTracker#onSensorChanged},
+	 * only six-value samples carry extra values. Returns the number of
+	 * samples replayed.
+	 */
+	static int replaySamples(File traceFile,
+			SensorSampleListener listener) throws IOException {
+		SensorTraceReader reader = new SensorTraceReader(traceFile);
+		try {
+			float[] extra = new float[3];
+			int samples = 0;
+			while (reader.next()) {
+				if (reader.count < 3) {
+					continue;
+				}
+				boolean hasExtra = reader.count == 6;
+				if (hasExtra) {
+					System.arraycopy(reader.values, 3, extra, 0, 3);
+				}
+				listener.onSample(reader.type, reader.timestampNs,
+						reader.values[0], reader.values[1], reader.values[2],
+						hasExtra ? extra : null);
+				samples++;
+			}
+			return samples;
+		} finally {
+			reader.close();
+		}
+	}
+}
\ No newline at end of file
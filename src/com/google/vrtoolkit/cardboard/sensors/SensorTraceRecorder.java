@@ -0,0 +1,133 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * SensorEventProvider that forwards the events of another provider and
+ * appends every accelerometer, gyroscope and magnetometer sample to a trace
+ * file through a {@link SensorTraceWriter}. The trace can be played back
+ * with {@link SensorTraceReplayer}.
+ */
+public class SensorTraceRecorder implements SensorEventProvider,
+		SensorEventListener {
+	private static final String TAG = SensorTraceRecorder.class
+			.getSimpleName();
+	private static final SensorEventListener[] NO_LISTENERS = new SensorEventListener[0];
+	private final SensorEventProvider delegate;
+	private final File traceFile;
+	private final Object registeredListenersMutex = new Object();
+	private volatile SensorEventListener[] registeredListeners = NO_LISTENERS;
+	private final Object traceMutex = new Object();
+	private SensorTraceWriter writer;
+	private boolean isRunning;
+
+	public SensorTraceRecorder(SensorEventProvider delegate, File traceFile) {
+		this.delegate = delegate;
+		this.traceFile = traceFile;
+	}
+
+	public void start() {
+		if (this.isRunning) {
+			return;
+		}
+
+		synchronized (this.traceMutex) {
+			try {
+				this.writer = new SensorTraceWriter(this.traceFile);
+			} catch (IOException e) {
+				Log.e(TAG,
+						"Error opening sensor trace: "
+								+ String.valueOf(e.toString()));
+			}
+		}
+		this.delegate.registerListener(this);
+		this.delegate.start();
+		this.isRunning = true;
+	}
+
+	public void stop() {
+		if (!this.isRunning) {
+			return;
+		}
+
+		this.delegate.unregisterListener(this);
+		this.delegate.stop();
+		synchronized (this.traceMutex) {
+			closeTrace();
+		}
+		this.isRunning = false;
+	}
+
+	public void registerListener(SensorEventListener listener) {
+		synchronized (this.registeredListenersMutex) {
+			SensorEventListener[] listeners = this.registeredListeners;
+			SensorEventListener[] newListeners = new SensorEventListener[listeners.length + 1];
+			System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+			newListeners[listeners.length] = listener;
+			this.registeredListeners = newListeners;
+		}
+	}
+
+	public void unregisterListener(SensorEventListener listener) {
+		synchronized (this.registeredListenersMutex) {
+			SensorEventListener[] listeners = this.registeredListeners;
+			for (int i = 0; i < listeners.length; i++) {
+				if (listeners[i].equals(listener)) {
+					SensorEventListener[] newListeners = new SensorEventListener[listeners.length - 1];
+					System.arraycopy(listeners, 0, newListeners, 0, i);
+					System.arraycopy(listeners, i + 1, newListeners, i,
+							listeners.length - i - 1);
+					this.registeredListeners = newListeners;
+					return;
+				}
+			}
+		}
+	}
+
+	public void onSensorChanged(SensorEvent event) {
+		int type = event.sensor.getType();
+		if ((type == 1) || (type == 2) || (type == 4) || (type == 16)) {
+			synchronized (this.traceMutex) {
+				if (this.writer != null) {
+					try {
+						this.writer.append(type, event.timestamp, event.values);
+					} catch (IOException e) {
+						Log.e(TAG,
+								"Error writing sensor trace: "
+										+ String.valueOf(e.toString()));
+						closeTrace();
+					}
+				}
+			}
+		}
+
+		SensorEventListener[] listeners = this.registeredListeners;
+		for (int i = 0; i < listeners.length; i++)
+			listeners[i].onSensorChanged(event);
+	}
+
+	public void onAccuracyChanged(Sensor sensor, int accuracy) {
+		SensorEventListener[] listeners = this.registeredListeners;
+		for (int i = 0; i < listeners.length; i++)
+			listeners[i].onAccuracyChanged(sensor, accuracy);
+	}
+
+	private void closeTrace() {
+		if (this.writer == null) {
+			return;
+		}
+		try {
+			this.writer.close();
+		} catch (IOException e) {
+			Log.w(TAG,
+					"Error closing sensor trace: "
+							+ String.valueOf(e.toString()));
+		}
+		this.writer = null;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,246 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SensorEventProvider that plays back a trace written by
+ * {@link SensorTraceRecorder} on its own thread. Playback runs at real time,
+ * at a multiple of real time or, with {@link #SPEED_AS_FAST_AS_POSSIBLE},
+ * without pacing. {@link #getClock()} returns a virtual clock in the trace's
+ * time base, to be passed to {@link HeadTracker} together with this
+ * provider. {@link #replaySamples} plays a trace into a
+ * {@link SensorSampleListener} without any Android sensor objects.
+ */
+public class SensorTraceReplayer implements SensorEventProvider {
+	private static final String TAG = SensorTraceReplayer.class
+			.getSimpleName();
+	public static final float SPEED_AS_FAST_AS_POSSIBLE = 0.0F;
+	private static final int MAX_SENSOR_TYPE = 16;
+	private final SensorManager sensorManager;
+	private final File traceFile;
+	private final float speed;
+	private static final SensorEventListener[] NO_LISTENERS = new SensorEventListener[0];
+	private final Object registeredListenersMutex = new Object();
+	private volatile SensorEventListener[] registeredListeners = NO_LISTENERS;
+	private final SensorEvent[] events = new SensorEvent[MAX_SENSOR_TYPE + 1];
+	private final ReplayClock clock = new ReplayClock();
+	private Thread replayThread;
+	private boolean isRunning;
+
+	public SensorTraceReplayer(SensorManager sensorManager, File traceFile,
+			float speed) {
+		if (speed < 0.0F) {
+			throw new IllegalArgumentException("speed should be >= 0.0");
+		}
+		this.sensorManager = sensorManager;
+		this.traceFile = traceFile;
+		this.speed = speed;
+	}
+
+	public Clock getClock() {
+		return this.clock;
+	}
+
+	public void start() {
+		if (this.isRunning) {
+			return;
+		}
+
+		this.replayThread = new Thread("sensor replay") {
+			public void run() {
+				try {
+					SensorTraceReplayer.this.replay();
+				} catch (IOException e) {
+					Log.e(SensorTraceReplayer.TAG,
+							"Error replaying sensor trace: "
+									+ String.valueOf(e.toString()));
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		this.replayThread.start();
+		this.isRunning = true;
+	}
+
+	public void stop() {
+		if (!this.isRunning) {
+			return;
+		}
+
+		this.replayThread.interrupt();
+		try {
+			this.replayThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.replayThread = null;
+		this.isRunning = false;
+	}
+
+	public void registerListener(SensorEventListener listener) {
+		synchronized (this.registeredListenersMutex) {
+			SensorEventListener[] listeners = this.registeredListeners;
+			SensorEventListener[] newListeners = new SensorEventListener[listeners.length + 1];
+			System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+			newListeners[listeners.length] = listener;
+			this.registeredListeners = newListeners;
+		}
+	}
+
+	public void unregisterListener(SensorEventListener listener) {
+		synchronized (this.registeredListenersMutex) {
+			SensorEventListener[] listeners = this.registeredListeners;
+			for (int i = 0; i < listeners.length; i++) {
+				if (listeners[i].equals(listener)) {
+					SensorEventListener[] newListeners = new SensorEventListener[listeners.length - 1];
+					System.arraycopy(listeners, 0, newListeners, 0, i);
+					System.arraycopy(listeners, i + 1, newListeners, i,
+							listeners.length - i - 1);
+					this.registeredListeners = newListeners;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Feeds every sample of a trace to listener on the calling thread, in
+	 * order and as fast as possible. Returns the number of samples replayed.
+	 */
+	public static int replaySamples(File traceFile,
+			SensorSampleListener listener) throws IOException {
+		return SensorTraceReader.replaySamples(traceFile, listener);
+	}
+
+	private void replay() throws IOException, InterruptedException {
+		SensorTraceReader reader = new SensorTraceReader(this.traceFile);
+		try {
+			boolean started = false;
+			long firstTimestampNs = 0L;
+			long wallStartNs = 0L;
+			while (reader.next()) {
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				long timestampNs = reader.timestampNs;
+
+				if (!started) {
+					started = true;
+					firstTimestampNs = timestampNs;
+					wallStartNs = System.nanoTime();
+					this.clock.setOrigin(firstTimestampNs, wallStartNs,
+							this.speed);
+				}
+				if (this.speed != SPEED_AS_FAST_AS_POSSIBLE) {
+					long dueNs = wallStartNs
+							+ (long) ((timestampNs - firstTimestampNs) / this.speed);
+					long waitNs = dueNs - System.nanoTime();
+					if (waitNs > 0L) {
+						TimeUnit.NANOSECONDS.sleep(waitNs);
+					}
+				}
+				this.clock.setLastTimestamp(timestampNs);
+				dispatch(reader.type, timestampNs, reader.values, reader.count);
+			}
+			Log.i(TAG, "Sensor trace replay finished.");
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void dispatch(int type, long timestampNs, float[] values,
+			int count) {
+		if ((type < 0) || (type > MAX_SENSOR_TYPE)) {
+			return;
+		}
+		SensorEvent event = getEvent(type, count);
+		if (event == null) {
+			return;
+		}
+		if (event.sensor.getType() != type) {
+			for (int i = 0; i < 3; i++) {
+				event.values[i] = (values[i] - values[(i + 3)]);
+			}
+		} else {
+			System.arraycopy(values, 0, event.values, 0, count);
+		}
+		event.timestamp = timestampNs;
+
+		SensorEventListener[] listeners = this.registeredListeners;
+		for (int i = 0; i < listeners.length; i++)
+			listeners[i].onSensorChanged(event);
+	}
+
+	/**
+	 * Returns the reusable event for a sensor type. SensorEvent has no public
+	 * constructor, so events are created reflectively once per type. A
+	 * device without an uncalibrated gyroscope gets the recorded samples as
+	 * bias-corrected regular gyroscope events.
+	 */
+	private SensorEvent getEvent(int type, int count) {
+		SensorEvent event = this.events[type];
+		if ((event != null)
+				&& ((event.values.length == count) || (event.sensor
+						.getType() != type))) {
+			return event;
+		}
+
+		Sensor sensor = this.sensorManager.getDefaultSensor(type);
+		int valueCount = count;
+		if ((sensor == null) && (type == 16) && (count == 6)) {
+			sensor = this.sensorManager.getDefaultSensor(4);
+			valueCount = 3;
+		}
+		if (sensor == null) {
+			Log.w(TAG, "No sensor available to replay type " + type);
+			return null;
+		}
+		try {
+			Constructor<SensorEvent> constructor = SensorEvent.class
+					.getDeclaredConstructor(Integer.TYPE);
+			constructor.setAccessible(true);
+			event = constructor.newInstance(Integer.valueOf(valueCount));
+		} catch (Exception e) {
+			Log.e(TAG,
+					"Unable to create sensor events: "
+							+ String.valueOf(e.toString()));
+			return null;
+		}
+		event.sensor = sensor;
+		this.events[type] = event;
+		return event;
+	}
+
+	private static class ReplayClock implements Clock {
+		private volatile long firstTimestampNs;
+		private volatile long wallStartNs;
+		private volatile float speed;
+		private volatile long lastTimestampNs;
+
+		void setOrigin(long firstTimestampNs, long wallStartNs, float speed) {
+			this.firstTimestampNs = firstTimestampNs;
+			this.wallStartNs = wallStartNs;
+			this.speed = speed;
+		}
+
+		void setLastTimestamp(long timestampNs) {
+			this.lastTimestampNs = timestampNs;
+		}
+
+		public long nanoTime() {
+			if (this.speed == SPEED_AS_FAST_AS_POSSIBLE) {
+				return this.lastTimestampNs;
+			}
+			return this.firstTimestampNs
+					+ (long) ((System.nanoTime() - this.wallStartNs) * this.speed);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends sensor samples to a trace file through a memory-mapped
+ * FileChannel. Used by {@link SensorTraceRecorder}; read back with
+ * {@link SensorTraceReader}.
+ *
+ * <p>
+ * File layout (little endian): an int magic and an int version, followed by
+ * records of byte sensorType, byte valueCount, long timestampNs and
+ * valueCount floats. The file grows in mapped regions whose unused part is
+ * zero. The type of each record is written after the rest of it, so a trace
+ * cut off by a crash before {@link #close()} truncated it ends at the first
+ * zero type byte, where readers stop. Opening such a trace again appends
+ * after its last complete record.
+ *
+ * <p>
+ * Records of type TYPE_TRUTH_POSE hold no sensor sample but the true
+ * so3SensorFromWorld at timestampNs as a unit quaternion x, y, z, w, e.g.
+ * from a simulation or a motion capture system sharing the sensor time
+ * base. The recorder never writes them, the replayer skips them and
+ * {@link PredictionEvaluator} scores against them.
+ */
+class SensorTraceWriter {
+	static final int TRACE_MAGIC = 0x43425354;
+	static final int TRACE_VERSION = 1;
+	static final int HEADER_SIZE = 8;
+	static final int MAX_VALUES = 6;
+	static final int RECORD_HEADER_SIZE = 10;
+	static final int END_OF_TRACE = 0;
+	static final int TYPE_TRUTH_POSE = 100;
+	private static final int MAPPED_REGION_SIZE = 1 << 20;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private MappedByteBuffer region;
+	private long regionStart;
+
+	SensorTraceWriter(File traceFile) throws IOException {
+		long end = 0L;
+		if (traceFile.length() > 0L) {
+			SensorTraceReader reader = new SensorTraceReader(traceFile);
+			try {
+				while (reader.next()) {
+				}
+				end = reader.getPosition();
+			} finally {
+				reader.close();
+			}
+		}
+
+		this.file = new RandomAccessFile(traceFile, "rw");
+		try {
+			this.channel = this.file.getChannel();
+			mapRegion(end);
+			if (end == 0L) {
+				this.region.putInt(TRACE_MAGIC);
+				this.region.putInt(TRACE_VERSION);
+			}
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Appends a record with the first MAX_VALUES of values.
+	 */
+	void append(int type, long timestampNs, float[] values)
+			throws IOException {
+		if ((type <= END_OF_TRACE) || (type > Byte.MAX_VALUE)) {
+			throw new IllegalArgumentException("Bad sensor type: " + type);
+		}
+		int count = Math.min(values.length, MAX_VALUES);
+		if (this.region.remaining() < RECORD_HEADER_SIZE + 4 * MAX_VALUES) {
+			mapRegion(this.regionStart + this.region.position());
+		}
+		int start = this.region.position();
+		this.region.position(start + 1);
+		this.region.put((byte) count);
+		this.region.putLong(timestampNs);
+		for (int i = 0; i < count; i++) {
+			this.region.putFloat(values[i]);
+		}
+		this.region.put(start, (byte) type);
+	}
+
+	/**
+	 * Flushes the trace and truncates it after the last record.
+	 */
+	void close() throws IOException {
+		try {
+			long end = this.regionStart + this.region.position();
+			this.region.force();
+			this.region = null;
+			this.channel.truncate(end);
+		} finally {
+			this.file.close();
+		}
+	}
+
+	private void mapRegion(long position) throws IOException {
+		this.region = this.channel.map(FileChannel.MapMode.READ_WRITE,
+				position, MAPPED_REGION_SIZE);
+		this.region.order(ByteOrder.LITTLE_ENDIAN);
+		this.regionStart = position;
+	}
+}
@@ -0,0 +1,37 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Accelerometer measurement noise of the fusion engines. The noise sigma
+ * grows from MIN_SIGMA to MAX_SIGMA with the smoothed change of the
+ * accelerometer norm, so gravity is trusted less while the device
+ * accelerates.
+ */
+class AccelNoiseModel {
+	private static final double MIN_SIGMA = 0.75D;
+	private static final double MAX_SIGMA = 7.0D;
+	private static final double MAX_NORM_CHANGE = 0.15D;
+	private static final double SMOOTHING_FACTOR = 0.5D;
+	private double previousNorm;
+	private double movingAverageNormChange;
+
+	/**
+	 * Adds the norm of an accelerometer sample and returns the noise
+	 * variance to correct with it.
+	 */
+	public double update(double norm) {
+		double normChange = Math.abs(norm - this.previousNorm);
+		this.previousNorm = norm;
+		this.movingAverageNormChange = (SMOOTHING_FACTOR * normChange + (1.0D - SMOOTHING_FACTOR)
+				* this.movingAverageNormChange);
+
+		double normChangeRatio = this.movingAverageNormChange
+				/ MAX_NORM_CHANGE;
+		double sigma = Math.min(MAX_SIGMA, MIN_SIGMA + normChangeRatio
+				* (MAX_SIGMA - MIN_SIGMA));
+		return sigma * sigma;
+	}
+
+	public double getMovingAverageNormChange() {
+		return this.movingAverageNormChange;
+	}
+}
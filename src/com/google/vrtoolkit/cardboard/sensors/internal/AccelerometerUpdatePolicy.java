@@ -0,0 +1,132 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Decides which accelerometer samples {@link OrientationEKF} may skip. A
+ * correction is skipped when it would change little: either the tilt
+ * covariance has converged and the innovation is small, or the accelerometer
+ * norm is changing so fast (heavy linear acceleration) that the measurement
+ * noise is already at its cap. At most maxConsecutiveSkips samples in a row
+ * are skipped, so the filter still corrects at a reduced rate.
+ *
+ * <p>
+ * Thresholds may be changed from any thread. The filter consults the
+ * policy under its lock and the counters are written only from there.
+ */
+public class AccelerometerUpdatePolicy {
+	public static final double DEFAULT_MAX_TILT_VARIANCE = 0.1D;
+	public static final double DEFAULT_MAX_INNOVATION = 0.02D;
+	public static final double DEFAULT_SATURATED_ACCEL_NORM_CHANGE = 0.15D;
+	public static final int DEFAULT_MAX_CONSECUTIVE_SKIPS = 3;
+	private volatile double maxTiltVariance = DEFAULT_MAX_TILT_VARIANCE;
+	private volatile double maxInnovation = DEFAULT_MAX_INNOVATION;
+	private volatile double saturatedAccelNormChange = DEFAULT_SATURATED_ACCEL_NORM_CHANGE;
+	private volatile int maxConsecutiveSkips = DEFAULT_MAX_CONSECUTIVE_SKIPS;
+	private int consecutiveSkips;
+	private volatile long updateCount;
+	private volatile long skippedCount;
+
+	/**
+	 * Sets the variance (rad^2) of the pitch and roll estimate below which
+	 * the filter counts as converged.
+	 */
+	public void setMaxTiltVariance(double variance) {
+		this.maxTiltVariance = variance;
+	}
+
+	public double getMaxTiltVariance() {
+		return this.maxTiltVariance;
+	}
+
+	/**
+	 * Sets the angle in radians between predicted and measured gravity
+	 * below which a converged filter skips the correction.
+	 */
+	public void setMaxInnovation(double angle) {
+		this.maxInnovation = angle;
+	}
+
+	public double getMaxInnovation() {
+		return this.maxInnovation;
+	}
+
+	/**
+	 * Sets the smoothed change of the accelerometer norm (m/s^2 per sample)
+	 * at and above which corrections are skipped. The default is where the
+	 * filter's accelerometer noise reaches its maximum.
+	 */
+	public void setSaturatedAccelNormChange(double normChange) {
+		this.saturatedAccelNormChange = normChange;
+	}
+
+	public double getSaturatedAccelNormChange() {
+		return this.saturatedAccelNormChange;
+	}
+
+	/**
+	 * Sets how many samples in a row may be skipped; 0 disables skipping.
+	 */
+	public void setMaxConsecutiveSkips(int count) {
+		if (count < 0) {
+			throw new IllegalArgumentException("count should be >= 0");
+		}
+		this.maxConsecutiveSkips = count;
+	}
+
+	public int getMaxConsecutiveSkips() {
+		return this.maxConsecutiveSkips;
+	}
+
+	/**
+	 * Returns true if the filter should skip the correction for the current
+	 * sample, and counts the sample. Filter thread only.
+	 */
+	boolean shouldSkipUpdate(double tiltVariance, double innovation,
+			double accelNormChange) {
+		boolean skip = false;
+		if (this.consecutiveSkips < this.maxConsecutiveSkips) {
+			if (accelNormChange >= this.saturatedAccelNormChange)
+				skip = true;
+			else if ((tiltVariance <= this.maxTiltVariance)
+					&& (innovation <= this.maxInnovation)) {
+				skip = true;
+			}
+		}
+
+		if (skip) {
+			this.consecutiveSkips += 1;
+			this.skippedCount += 1L;
+		} else {
+			this.consecutiveSkips = 0;
+			this.updateCount += 1L;
+		}
+		return skip;
+	}
+
+	public long getUpdateCount() {
+		return this.updateCount;
+	}
+
+	public long getSkippedCount() {
+		return this.skippedCount;
+	}
+
+	/**
+	 * Returns the fraction of accelerometer samples skipped so far, or 0 if
+	 * none were seen.
+	 */
+	public double getSkipRatio() {
+		long skipped = this.skippedCount;
+		long total = skipped + this.updateCount;
+		return total == 0L ? 0.0D : (double) skipped / total;
+	}
+
+	/**
+	 * Clears the counters. Filter thread only, or while no samples are
+	 * processed.
+	 */
+	public void resetCounts() {
+		this.consecutiveSkips = 0;
+		this.updateCount = 0L;
+		this.skippedCount = 0L;
+	}
+}
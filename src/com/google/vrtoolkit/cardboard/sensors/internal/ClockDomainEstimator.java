@@ -0,0 +1,193 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Online estimate of the mapping from sensor event timestamps to another
+ * clock, from pairs of (event timestamp, clock time at delivery). Delivery
+ * only ever adds delay, so the lower envelope of the offsets clock - event
+ * timestamp is the offset between the clocks, plus the smallest delivery
+ * latency, which cannot be told apart from it. The estimator keeps the
+ * minimum offset of each SEGMENT_NS of sensor time over a sliding window of
+ * segments and fits offset and drift to those minima by least squares.
+ *
+ * <p>
+ * {@link #addSample} must be called from a single thread. The mapping can be
+ * read from any thread without locking.
+ */
+public class ClockDomainEstimator {
+	private static final long SEGMENT_NS = 500000000L;
+	private static final int NUM_SEGMENTS = 16;
+	private static final double MAX_DRIFT = 0.001D;
+	private static final double DELAY_SMOOTHING_FACTOR = 0.01D;
+	private static final int REFERENCE_TIMESTAMP = 0;
+	private static final int OFFSET = 1;
+	private static final int DRIFT = 2;
+	private static final int MEAN_DELAY = 3;
+	private static final int NUM_SEGMENTS_USED = 4;
+	private final long[] segmentTimestampsNs = new long[NUM_SEGMENTS];
+	private final long[] segmentMinOffsetsNs = new long[NUM_SEGMENTS];
+	private int numSegments;
+	private int nextSegment;
+	private long currentSegmentStartNs;
+	private long currentMinTimestampNs;
+	private long currentMinOffsetNs;
+	private boolean hasCurrentSegment;
+	private double meanDelayNs;
+	private final AtomicLongArray estimate = new AtomicLongArray(5);
+	private volatile int estimateVersion;
+	private volatile boolean ready;
+
+	public ClockDomainEstimator() {
+		reset();
+	}
+
+	/**
+	 * Forgets all samples. Writer thread only.
+	 */
+	public void reset() {
+		this.numSegments = 0;
+		this.nextSegment = 0;
+		this.hasCurrentSegment = false;
+		this.meanDelayNs = 0.0D;
+		this.ready = false;
+		publish(0L, 0L, 0.0D, 0.0D, 0);
+	}
+
+	/**
+	 * Adds a sample with its sensor timestamp and the clock time at which it
+	 * was delivered.
+	 */
+	public void addSample(long sensorTimestampNs, long clockTimeNs) {
+		long offsetNs = clockTimeNs - sensorTimestampNs;
+
+		if (!this.hasCurrentSegment) {
+			startSegment(sensorTimestampNs, offsetNs);
+		} else if (sensorTimestampNs - this.currentSegmentStartNs >= SEGMENT_NS) {
+			this.segmentTimestampsNs[this.nextSegment] = this.currentMinTimestampNs;
+			this.segmentMinOffsetsNs[this.nextSegment] = this.currentMinOffsetNs;
+			this.nextSegment = ((this.nextSegment + 1) % NUM_SEGMENTS);
+			this.numSegments = Math.min(this.numSegments + 1, NUM_SEGMENTS);
+			startSegment(sensorTimestampNs, offsetNs);
+			updateEstimate();
+			this.ready = true;
+		} else if (offsetNs < this.currentMinOffsetNs) {
+			this.currentMinTimestampNs = sensorTimestampNs;
+			this.currentMinOffsetNs = offsetNs;
+		}
+
+		if (this.ready) {
+			double delayNs = clockTimeNs - toClockTimeNs(sensorTimestampNs);
+			this.meanDelayNs += DELAY_SMOOTHING_FACTOR
+					* (delayNs - this.meanDelayNs);
+		}
+	}
+
+	private void startSegment(long sensorTimestampNs, long offsetNs) {
+		this.currentSegmentStartNs = sensorTimestampNs;
+		this.currentMinTimestampNs = sensorTimestampNs;
+		this.currentMinOffsetNs = offsetNs;
+		this.hasCurrentSegment = true;
+	}
+
+	/**
+	 * Fits offset(t) = offset + drift * (t - reference) to the segment
+	 * minima, with the newest minimum as reference.
+	 */
+	private void updateEstimate() {
+		int newest = (this.nextSegment + NUM_SEGMENTS - 1) % NUM_SEGMENTS;
+		long referenceNs = this.segmentTimestampsNs[newest];
+		long referenceOffsetNs = this.segmentMinOffsetsNs[newest];
+
+		double sumX = 0.0D;
+		double sumY = 0.0D;
+		double sumXX = 0.0D;
+		double sumXY = 0.0D;
+		for (int i = 0; i < this.numSegments; i++) {
+			double x = this.segmentTimestampsNs[i] - referenceNs;
+			double y = this.segmentMinOffsetsNs[i] - referenceOffsetNs;
+			sumX += x;
+			sumY += y;
+			sumXX += x * x;
+			sumXY += x * y;
+		}
+		double n = this.numSegments;
+		double drift = 0.0D;
+		double denominator = n * sumXX - sumX * sumX;
+		if ((this.numSegments >= 2) && (denominator > 0.0D)) {
+			drift = (n * sumXY - sumX * sumY) / denominator;
+			drift = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, drift));
+		}
+		double intercept = (sumY - drift * sumX) / n;
+
+		publish(referenceNs, referenceOffsetNs + Math.round(intercept), drift,
+				this.meanDelayNs, this.numSegments);
+	}
+
+	private void publish(long referenceNs, long offsetNs, double drift,
+			double meanDelayNs, int numSegments) {
+		this.estimateVersion += 1;
+		this.estimate.set(REFERENCE_TIMESTAMP, referenceNs);
+		this.estimate.set(OFFSET, offsetNs);
+		this.estimate.set(DRIFT, Double.doubleToRawLongBits(drift));
+		this.estimate.set(MEAN_DELAY, Double.doubleToRawLongBits(meanDelayNs));
+		this.estimate.set(NUM_SEGMENTS_USED, numSegments);
+		this.estimateVersion += 1;
+	}
+
+	/**
+	 * Returns true once at least one full segment of samples was seen.
+	 */
+	public boolean isReady() {
+		return this.ready;
+	}
+
+	/**
+	 * Maps a sensor timestamp to the estimated time of the same instant on
+	 * the other clock. The result includes the smallest delivery latency seen
+	 * in the window, so it is late by that latency, typically a fraction of
+	 * a millisecond. Prediction horizons measured from it are short by the
+	 * same amount; the error is constant while the latency floor is, and
+	 * there is nothing in the samples to correct it with.
+	 */
+	public long toClockTimeNs(long sensorTimestampNs) {
+		while (true) {
+			int version = this.estimateVersion;
+			long referenceNs = this.estimate.get(REFERENCE_TIMESTAMP);
+			long offsetNs = this.estimate.get(OFFSET);
+			double drift = Double.longBitsToDouble(this.estimate.get(DRIFT));
+			if (((version & 1) == 0) && (version == this.estimateVersion)) {
+				return sensorTimestampNs + offsetNs
+						+ Math.round(drift * (sensorTimestampNs - referenceNs));
+			}
+		}
+	}
+
+	/**
+	 * Returns the estimated clock minus sensor timestamp offset at
+	 * sensorTimestampNs.
+	 */
+	public long getOffsetNs(long sensorTimestampNs) {
+		return toClockTimeNs(sensorTimestampNs) - sensorTimestampNs;
+	}
+
+	/**
+	 * Returns the estimated drift of the clock relative to the sensor
+	 * timestamps in parts per million.
+	 */
+	public double getDriftPpm() {
+		return Double.longBitsToDouble(this.estimate.get(DRIFT)) * 1000000.0D;
+	}
+
+	/**
+	 * Returns the smoothed delivery delay, i.e. how long after the estimated
+	 * sample time the samples arrived, as of the last segment.
+	 */
+	public double getMeanDeliveryDelayNs() {
+		return Double.longBitsToDouble(this.estimate.get(MEAN_DELAY));
+	}
+
+	public int getNumSegments() {
+		return (int) this.estimate.get(NUM_SEGMENTS_USED);
+	}
+}
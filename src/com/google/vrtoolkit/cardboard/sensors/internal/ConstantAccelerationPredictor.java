@@ -0,0 +1,86 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Extrapolates with a constant angular acceleration. Velocity and
+ * acceleration are tracked by an alpha-beta filter on the gyroscope rate,
+ * which smooths sample noise while following the start and end of head
+ * turns more closely than a constant velocity. The acceleration is limited
+ * to MAX_ANGULAR_ACCELERATION and the filter restarts after gaps in the
+ * samples.
+ */
+public class ConstantAccelerationPredictor implements MotionPredictor {
+	public static final double DEFAULT_VELOCITY_GAIN = 0.5D;
+	public static final double DEFAULT_ACCELERATION_GAIN = 0.05D;
+	private static final double MAX_ANGULAR_ACCELERATION = 100.0D;
+	private static final double MAX_TIMESTEP = 0.04D;
+	private final double velocityGain;
+	private final double accelerationGain;
+	private final Vector3d velocity = new Vector3d();
+	private final Vector3d acceleration = new Vector3d();
+	private final Vector3d residual = new Vector3d();
+	private long lastTimestampNs;
+
+	public ConstantAccelerationPredictor() {
+		this(DEFAULT_VELOCITY_GAIN, DEFAULT_ACCELERATION_GAIN);
+	}
+
+	/**
+	 * @param velocityGain weight (0 to 1] of a new sample in the velocity.
+	 * @param accelerationGain weight of a new sample's rate change in the
+	 *            acceleration; should be well below velocityGain.
+	 */
+	public ConstantAccelerationPredictor(double velocityGain,
+			double accelerationGain) {
+		if ((velocityGain <= 0.0D) || (velocityGain > 1.0D)) {
+			throw new IllegalArgumentException(
+					"velocityGain should be in (0, 1]");
+		}
+		if (accelerationGain < 0.0D) {
+			throw new IllegalArgumentException(
+					"accelerationGain should be >= 0");
+		}
+		this.velocityGain = velocityGain;
+		this.accelerationGain = accelerationGain;
+	}
+
+	public void reset() {
+		this.velocity.setZero();
+		this.acceleration.setZero();
+		this.lastTimestampNs = 0L;
+	}
+
+	public void addGyroSample(double x, double y, double z, long timestampNs) {
+		double dT = (timestampNs - this.lastTimestampNs) * 1.0E-009D;
+		if ((this.lastTimestampNs == 0L) || (dT <= 0.0D) || (dT > MAX_TIMESTEP)) {
+			this.velocity.set(x, y, z);
+			this.acceleration.setZero();
+			this.lastTimestampNs = timestampNs;
+			return;
+		}
+		this.lastTimestampNs = timestampNs;
+
+		this.residual.set(x - (this.velocity.x + this.acceleration.x * dT), y
+				- (this.velocity.y + this.acceleration.y * dT), z
+				- (this.velocity.z + this.acceleration.z * dT));
+		this.velocity.set(this.velocity.x + this.acceleration.x * dT
+				+ this.velocityGain * this.residual.x, this.velocity.y
+				+ this.acceleration.y * dT + this.velocityGain
+				* this.residual.y, this.velocity.z + this.acceleration.z * dT
+				+ this.velocityGain * this.residual.z);
+
+		double k = this.accelerationGain / dT;
+		this.acceleration.set(this.acceleration.x + k * this.residual.x,
+				this.acceleration.y + k * this.residual.y, this.acceleration.z
+						+ k * this.residual.z);
+		double norm = this.acceleration.length();
+		if (norm > MAX_ANGULAR_ACCELERATION) {
+			this.acceleration.scale(MAX_ANGULAR_ACCELERATION / norm);
+		}
+	}
+
+	public void getState(Vector3d angularVelocity,
+			Vector3d angularAcceleration) {
+		angularVelocity.set(this.velocity);
+		angularAcceleration.set(this.acceleration);
+	}
+}
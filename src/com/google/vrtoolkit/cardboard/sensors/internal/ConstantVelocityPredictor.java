@@ -0,0 +1,24 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Extrapolates with the rate of the last gyroscope sample, unfiltered. This
+ * is the original behavior of the tracker: no lag, but noise in the last
+ * sample is scaled by the whole prediction horizon.
+ */
+public class ConstantVelocityPredictor implements MotionPredictor {
+	private final Vector3d lastGyro = new Vector3d();
+
+	public void reset() {
+		this.lastGyro.setZero();
+	}
+
+	public void addGyroSample(double x, double y, double z, long timestampNs) {
+		this.lastGyro.set(x, y, z);
+	}
+
+	public void getState(Vector3d angularVelocity,
+			Vector3d angularAcceleration) {
+		angularVelocity.set(this.lastGyro);
+		angularAcceleration.setZero();
+	}
+}
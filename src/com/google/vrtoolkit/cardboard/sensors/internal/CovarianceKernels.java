@@ -0,0 +1,379 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Fused covariance operations for 3x3 Kalman filters. Symmetric matrices
+ * are stored packed as the six entries of their upper triangle,
+ * {p00, p01, p02, p11, p12, p22}; only those are computed, and results may
+ * alias the inputs. Noise covariances are isotropic, given as a variance
+ * times the identity, as in {@link OrientationEKF}.
+ *
+ * <p>
+ * Multiplications per call: {@link #propagate} and
+ * {@link #innovationCovariance} 45, {@link #kalmanGain} 75 including the
+ * symmetric inverse, {@link #josephUpdate} 96. The same steps done with
+ * general {@link Matrix3x3d} products take 54, 54, 90 and 117. Each has a
+ * float overload for {@link FloatOrientationEKF}.
+ */
+public class CovarianceKernels {
+	public static final int SIZE = 6;
+	public static final int P00 = 0;
+	public static final int P01 = 1;
+	public static final int P02 = 2;
+	public static final int P11 = 3;
+	public static final int P12 = 4;
+	public static final int P22 = 5;
+
+	/**
+	 * Sets p to variance times the identity.
+	 */
+	public static void setIsotropic(double variance, double[] p) {
+		p[P00] = variance;
+		p[P01] = 0.0D;
+		p[P02] = 0.0D;
+		p[P11] = variance;
+		p[P12] = 0.0D;
+		p[P22] = variance;
+	}
+
+	public static void pack(Matrix3x3d m, double[] result) {
+		result[P00] = m.m00;
+		result[P01] = m.m01;
+		result[P02] = m.m02;
+		result[P11] = m.m11;
+		result[P12] = m.m12;
+		result[P22] = m.m22;
+	}
+
+	public static void unpack(double[] p, Matrix3x3d result) {
+		result.set(p[P00], p[P01], p[P02], p[P01], p[P11], p[P12], p[P02],
+				p[P12], p[P22]);
+	}
+
+	public static double trace(double[] p) {
+		return p[P00] + p[P11] + p[P22];
+	}
+
+	/**
+	 * Returns v^T P v.
+	 */
+	public static double quadraticForm(double[] p, Vector3d v) {
+		return v.x * v.x * p[P00] + v.y * v.y * p[P11] + v.z * v.z * p[P22]
+				+ 2.0D
+				* (v.x * v.y * p[P01] + v.x * v.z * p[P02] + v.y * v.z * p[P12]);
+	}
+
+	/**
+	 * Covariance prediction result = F P F^T + q I.
+	 */
+	public static void propagate(double[] p, Matrix3x3d f, double q,
+			double[] result) {
+		double p00 = p[P00];
+		double p01 = p[P01];
+		double p02 = p[P02];
+		double p11 = p[P11];
+		double p12 = p[P12];
+		double p22 = p[P22];
+
+		double t00 = f.m00 * p00 + f.m01 * p01 + f.m02 * p02;
+		double t01 = f.m00 * p01 + f.m01 * p11 + f.m02 * p12;
+		double t02 = f.m00 * p02 + f.m01 * p12 + f.m02 * p22;
+		double t10 = f.m10 * p00 + f.m11 * p01 + f.m12 * p02;
+		double t11 = f.m10 * p01 + f.m11 * p11 + f.m12 * p12;
+		double t12 = f.m10 * p02 + f.m11 * p12 + f.m12 * p22;
+		double t20 = f.m20 * p00 + f.m21 * p01 + f.m22 * p02;
+		double t21 = f.m20 * p01 + f.m21 * p11 + f.m22 * p12;
+		double t22 = f.m20 * p02 + f.m21 * p12 + f.m22 * p22;
+
+		result[P00] = t00 * f.m00 + t01 * f.m01 + t02 * f.m02 + q;
+		result[P01] = t00 * f.m10 + t01 * f.m11 + t02 * f.m12;
+		result[P02] = t00 * f.m20 + t01 * f.m21 + t02 * f.m22;
+		result[P11] = t10 * f.m10 + t11 * f.m11 + t12 * f.m12 + q;
+		result[P12] = t10 * f.m20 + t11 * f.m21 + t12 * f.m22;
+		result[P22] = t20 * f.m20 + t21 * f.m21 + t22 * f.m22 + q;
+	}
+
+	/**
+	 * Innovation covariance result = H P H^T + r I for measurement noise
+	 * variance r.
+	 */
+	public static void innovationCovariance(double[] p, Matrix3x3d h,
+			double r, double[] result) {
+		propagate(p, h, r, result);
+	}
+
+	/**
+	 * Kalman gain result = P H^T S^-1 for the innovation covariance s.
+	 * Returns false and leaves result untouched if s is not positive
+	 * definite.
+	 */
+	public static boolean kalmanGain(double[] p, Matrix3x3d h, double[] s,
+			Matrix3x3d result) {
+		double s00 = s[P00];
+		double s01 = s[P01];
+		double s02 = s[P02];
+		double s11 = s[P11];
+		double s12 = s[P12];
+		double s22 = s[P22];
+		double c00 = s11 * s22 - s12 * s12;
+		double c01 = s02 * s12 - s01 * s22;
+		double c02 = s01 * s12 - s02 * s11;
+		double c11 = s00 * s22 - s02 * s02;
+		double c12 = s01 * s02 - s00 * s12;
+		double c22 = s00 * s11 - s01 * s01;
+		double det = s00 * c00 + s01 * c01 + s02 * c02;
+		// Sylvester's criterion on the leading minors.
+		if ((s00 <= 0.0D) || (c22 <= 0.0D) || (det <= 0.0D)) {
+			return false;
+		}
+		double invDet = 1.0D / det;
+		c00 *= invDet;
+		c01 *= invDet;
+		c02 *= invDet;
+		c11 *= invDet;
+		c12 *= invDet;
+		c22 *= invDet;
+
+		double p00 = p[P00];
+		double p01 = p[P01];
+		double p02 = p[P02];
+		double p11 = p[P11];
+		double p12 = p[P12];
+		double p22 = p[P22];
+		// U = P H^T
+		double u00 = p00 * h.m00 + p01 * h.m01 + p02 * h.m02;
+		double u01 = p00 * h.m10 + p01 * h.m11 + p02 * h.m12;
+		double u02 = p00 * h.m20 + p01 * h.m21 + p02 * h.m22;
+		double u10 = p01 * h.m00 + p11 * h.m01 + p12 * h.m02;
+		double u11 = p01 * h.m10 + p11 * h.m11 + p12 * h.m12;
+		double u12 = p01 * h.m20 + p11 * h.m21 + p12 * h.m22;
+		double u20 = p02 * h.m00 + p12 * h.m01 + p22 * h.m02;
+		double u21 = p02 * h.m10 + p12 * h.m11 + p22 * h.m12;
+		double u22 = p02 * h.m20 + p12 * h.m21 + p22 * h.m22;
+
+		result.set(u00 * c00 + u01 * c01 + u02 * c02, u00 * c01 + u01 * c11
+				+ u02 * c12, u00 * c02 + u01 * c12 + u02 * c22, u10 * c00
+				+ u11 * c01 + u12 * c02, u10 * c01 + u11 * c11 + u12 * c12,
+				u10 * c02 + u11 * c12 + u12 * c22, u20 * c00 + u21 * c01 + u22
+						* c02, u20 * c01 + u21 * c11 + u22 * c12, u20 * c02
+						+ u21 * c12 + u22 * c22);
+		return true;
+	}
+
+	/**
+	 * Joseph-form covariance update result = (I - K H) P (I - K H)^T +
+	 * r K K^T. Unlike (I - K H) P it keeps the covariance symmetric and
+	 * positive semi-definite for any gain.
+	 */
+	public static void josephUpdate(double[] p, Matrix3x3d k, Matrix3x3d h,
+			double r, double[] result) {
+		// A = I - K H
+		double a00 = 1.0D - (k.m00 * h.m00 + k.m01 * h.m10 + k.m02 * h.m20);
+		double a01 = -(k.m00 * h.m01 + k.m01 * h.m11 + k.m02 * h.m21);
+		double a02 = -(k.m00 * h.m02 + k.m01 * h.m12 + k.m02 * h.m22);
+		double a10 = -(k.m10 * h.m00 + k.m11 * h.m10 + k.m12 * h.m20);
+		double a11 = 1.0D - (k.m10 * h.m01 + k.m11 * h.m11 + k.m12 * h.m21);
+		double a12 = -(k.m10 * h.m02 + k.m11 * h.m12 + k.m12 * h.m22);
+		double a20 = -(k.m20 * h.m00 + k.m21 * h.m10 + k.m22 * h.m20);
+		double a21 = -(k.m20 * h.m01 + k.m21 * h.m11 + k.m22 * h.m21);
+		double a22 = 1.0D - (k.m20 * h.m02 + k.m21 * h.m12 + k.m22 * h.m22);
+
+		double p00 = p[P00];
+		double p01 = p[P01];
+		double p02 = p[P02];
+		double p11 = p[P11];
+		double p12 = p[P12];
+		double p22 = p[P22];
+		// T = A P
+		double t00 = a00 * p00 + a01 * p01 + a02 * p02;
+		double t01 = a00 * p01 + a01 * p11 + a02 * p12;
+		double t02 = a00 * p02 + a01 * p12 + a02 * p22;
+		double t10 = a10 * p00 + a11 * p01 + a12 * p02;
+		double t11 = a10 * p01 + a11 * p11 + a12 * p12;
+		double t12 = a10 * p02 + a11 * p12 + a12 * p22;
+		double t20 = a20 * p00 + a21 * p01 + a22 * p02;
+		double t21 = a20 * p01 + a21 * p11 + a22 * p12;
+		double t22 = a20 * p02 + a21 * p12 + a22 * p22;
+
+		result[P00] = t00 * a00 + t01 * a01 + t02 * a02 + r
+				* (k.m00 * k.m00 + k.m01 * k.m01 + k.m02 * k.m02);
+		result[P01] = t00 * a10 + t01 * a11 + t02 * a12 + r
+				* (k.m00 * k.m10 + k.m01 * k.m11 + k.m02 * k.m12);
+		result[P02] = t00 * a20 + t01 * a21 + t02 * a22 + r
+				* (k.m00 * k.m20 + k.m01 * k.m21 + k.m02 * k.m22);
+		result[P11] = t10 * a10 + t11 * a11 + t12 * a12 + r
+				* (k.m10 * k.m10 + k.m11 * k.m11 + k.m12 * k.m12);
+		result[P12] = t10 * a20 + t11 * a21 + t12 * a22 + r
+				* (k.m10 * k.m20 + k.m11 * k.m21 + k.m12 * k.m22);
+		result[P22] = t20 * a20 + t21 * a21 + t22 * a22 + r
+				* (k.m20 * k.m20 + k.m21 * k.m21 + k.m22 * k.m22);
+	}
+
+	/**
+	 * Single-precision {@link #setIsotropic(double, double[])}.
+	 */
+	public static void setIsotropic(float variance, float[] p) {
+		p[P00] = variance;
+		p[P01] = 0.0F;
+		p[P02] = 0.0F;
+		p[P11] = variance;
+		p[P12] = 0.0F;
+		p[P22] = variance;
+	}
+
+	/**
+	 * Single-precision {@link #trace(double[])}.
+	 */
+	public static float trace(float[] p) {
+		return p[P00] + p[P11] + p[P22];
+	}
+
+	/**
+	 * Single-precision {@link #quadraticForm(double[], Vector3d)}.
+	 */
+	public static float quadraticForm(float[] p, Vector3f v) {
+		return v.x * v.x * p[P00] + v.y * v.y * p[P11] + v.z * v.z * p[P22]
+				+ 2.0F
+				* (v.x * v.y * p[P01] + v.x * v.z * p[P02] + v.y * v.z * p[P12]);
+	}
+
+	/**
+	 * Single-precision {@link #propagate(double[], Matrix3x3d, double, double[])}.
+	 */
+	public static void propagate(float[] p, Matrix3f f, float q,
+			float[] result) {
+		float p00 = p[P00];
+		float p01 = p[P01];
+		float p02 = p[P02];
+		float p11 = p[P11];
+		float p12 = p[P12];
+		float p22 = p[P22];
+
+		float t00 = f.m00 * p00 + f.m01 * p01 + f.m02 * p02;
+		float t01 = f.m00 * p01 + f.m01 * p11 + f.m02 * p12;
+		float t02 = f.m00 * p02 + f.m01 * p12 + f.m02 * p22;
+		float t10 = f.m10 * p00 + f.m11 * p01 + f.m12 * p02;
+		float t11 = f.m10 * p01 + f.m11 * p11 + f.m12 * p12;
+		float t12 = f.m10 * p02 + f.m11 * p12 + f.m12 * p22;
+		float t20 = f.m20 * p00 + f.m21 * p01 + f.m22 * p02;
+		float t21 = f.m20 * p01 + f.m21 * p11 + f.m22 * p12;
+		float t22 = f.m20 * p02 + f.m21 * p12 + f.m22 * p22;
+
+		result[P00] = t00 * f.m00 + t01 * f.m01 + t02 * f.m02 + q;
+		result[P01] = t00 * f.m10 + t01 * f.m11 + t02 * f.m12;
+		result[P02] = t00 * f.m20 + t01 * f.m21 + t02 * f.m22;
+		result[P11] = t10 * f.m10 + t11 * f.m11 + t12 * f.m12 + q;
+		result[P12] = t10 * f.m20 + t11 * f.m21 + t12 * f.m22;
+		result[P22] = t20 * f.m20 + t21 * f.m21 + t22 * f.m22 + q;
+	}
+
+	/**
+	 * Single-precision {@link #innovationCovariance(double[], Matrix3x3d, double, double[])}.
+	 */
+	public static void innovationCovariance(float[] p, Matrix3f h,
+			float r, float[] result) {
+		propagate(p, h, r, result);
+	}
+
+	/**
+	 * Single-precision {@link #kalmanGain(double[], Matrix3x3d, double[], Matrix3x3d)}.
+	 */
+	public static boolean kalmanGain(float[] p, Matrix3f h, float[] s,
+			Matrix3f result) {
+		float s00 = s[P00];
+		float s01 = s[P01];
+		float s02 = s[P02];
+		float s11 = s[P11];
+		float s12 = s[P12];
+		float s22 = s[P22];
+		float c00 = s11 * s22 - s12 * s12;
+		float c01 = s02 * s12 - s01 * s22;
+		float c02 = s01 * s12 - s02 * s11;
+		float c11 = s00 * s22 - s02 * s02;
+		float c12 = s01 * s02 - s00 * s12;
+		float c22 = s00 * s11 - s01 * s01;
+		float det = s00 * c00 + s01 * c01 + s02 * c02;
+		// Sylvester's criterion on the leading minors.
+		if ((s00 <= 0.0F) || (c22 <= 0.0F) || (det <= 0.0F)) {
+			return false;
+		}
+		float invDet = 1.0F / det;
+		c00 *= invDet;
+		c01 *= invDet;
+		c02 *= invDet;
+		c11 *= invDet;
+		c12 *= invDet;
+		c22 *= invDet;
+
+		float p00 = p[P00];
+		float p01 = p[P01];
+		float p02 = p[P02];
+		float p11 = p[P11];
+		float p12 = p[P12];
+		float p22 = p[P22];
+		// U = P H^T
+		float u00 = p00 * h.m00 + p01 * h.m01 + p02 * h.m02;
+		float u01 = p00 * h.m10 + p01 * h.m11 + p02 * h.m12;
+		float u02 = p00 * h.m20 + p01 * h.m21 + p02 * h.m22;
+		float u10 = p01 * h.m00 + p11 * h.m01 + p12 * h.m02;
+		float u11 = p01 * h.m10 + p11 * h.m11 + p12 * h.m12;
+		float u12 = p01 * h.m20 + p11 * h.m21 + p12 * h.m22;
+		float u20 = p02 * h.m00 + p12 * h.m01 + p22 * h.m02;
+		float u21 = p02 * h.m10 + p12 * h.m11 + p22 * h.m12;
+		float u22 = p02 * h.m20 + p12 * h.m21 + p22 * h.m22;
+
+		result.set(u00 * c00 + u01 * c01 + u02 * c02, u00 * c01 + u01 * c11
+				+ u02 * c12, u00 * c02 + u01 * c12 + u02 * c22, u10 * c00
+				+ u11 * c01 + u12 * c02, u10 * c01 + u11 * c11 + u12 * c12,
+				u10 * c02 + u11 * c12 + u12 * c22, u20 * c00 + u21 * c01 + u22
+						* c02, u20 * c01 + u21 * c11 + u22 * c12, u20 * c02
+						+ u21 * c12 + u22 * c22);
+		return true;
+	}
+
+	/**
+	 * Single-precision {@link #josephUpdate(double[], Matrix3x3d, Matrix3x3d, double, double[])}.
+	 */
+	public static void josephUpdate(float[] p, Matrix3f k, Matrix3f h,
+			float r, float[] result) {
+		// A = I - K H
+		float a00 = 1.0F - (k.m00 * h.m00 + k.m01 * h.m10 + k.m02 * h.m20);
+		float a01 = -(k.m00 * h.m01 + k.m01 * h.m11 + k.m02 * h.m21);
+		float a02 = -(k.m00 * h.m02 + k.m01 * h.m12 + k.m02 * h.m22);
+		float a10 = -(k.m10 * h.m00 + k.m11 * h.m10 + k.m12 * h.m20);
+		float a11 = 1.0F - (k.m10 * h.m01 + k.m11 * h.m11 + k.m12 * h.m21);
+		float a12 = -(k.m10 * h.m02 + k.m11 * h.m12 + k.m12 * h.m22);
+		float a20 = -(k.m20 * h.m00 + k.m21 * h.m10 + k.m22 * h.m20);
+		float a21 = -(k.m20 * h.m01 + k.m21 * h.m11 + k.m22 * h.m21);
+		float a22 = 1.0F - (k.m20 * h.m02 + k.m21 * h.m12 + k.m22 * h.m22);
+
+		float p00 = p[P00];
+		float p01 = p[P01];
+		float p02 = p[P02];
+		float p11 = p[P11];
+		float p12 = p[P12];
+		float p22 = p[P22];
+		// T = A P
+		float t00 = a00 * p00 + a01 * p01 + a02 * p02;
+		float t01 = a00 * p01 + a01 * p11 + a02 * p12;
+		float t02 = a00 * p02 + a01 * p12 + a02 * p22;
+		float t10 = a10 * p00 + a11 * p01 + a12 * p02;
+		float t11 = a10 * p01 + a11 * p11 + a12 * p12;
+		float t12 = a10 * p02 + a11 * p12 + a12 * p22;
+		float t20 = a20 * p00 + a21 * p01 + a22 * p02;
+		float t21 = a20 * p01 + a21 * p11 + a22 * p12;
+		float t22 = a20 * p02 + a21 * p12 + a22 * p22;
+
+		result[P00] = t00 * a00 + t01 * a01 + t02 * a02 + r
+				* (k.m00 * k.m00 + k.m01 * k.m01 + k.m02 * k.m02);
+		result[P01] = t00 * a10 + t01 * a11 + t02 * a12 + r
+				* (k.m00 * k.m10 + k.m01 * k.m11 + k.m02 * k.m12);
+		result[P02] = t00 * a20 + t01 * a21 + t02 * a22 + r
+				* (k.m00 * k.m20 + k.m01 * k.m21 + k.m02 * k.m22);
+		result[P11] = t10 * a10 + t11 * a11 + t12 * a12 + r
+				* (k.m10 * k.m10 + k.m11 * k.m11 + k.m12 * k.m12);
+		result[P12] = t10 * a20 + t11 * a21 + t12 * a22 + r
+				* (k.m10 * k.m20 + k.m11 * k.m21 + k.m12 * k.m22);
+		result[P22] = t20 * a20 + t21 * a21 + t22 * a22 + r
+				* (k.m20 * k.m20 + k.m21 * k.m21 + k.m22 * k.m22);
+	}
+}
@@ -0,0 +1,68 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Constant velocity prediction that is faded out when the head is nearly
+ * still. The last gyroscope rate is scaled by a smooth step of the low-pass
+ * filtered speed: below minSpeed nothing is extrapolated, so sensor noise
+ * does not make a resting view jitter, and above maxSpeed the full rate is
+ * used, so turns are predicted without the lag of a smoothed rate.
+ */
+public class DampedVelocityPredictor implements MotionPredictor {
+	public static final double DEFAULT_MIN_SPEED = 0.05D;
+	public static final double DEFAULT_MAX_SPEED = 0.3D;
+	private static final double SPEED_TIME_CONSTANT = 0.02D;
+	private static final double MAX_TIMESTEP = 0.04D;
+	private final double minSpeed;
+	private final double maxSpeed;
+	private final Vector3d lastGyro = new Vector3d();
+	private final Vector3d filteredGyro = new Vector3d();
+	private long lastTimestampNs;
+
+	public DampedVelocityPredictor() {
+		this(DEFAULT_MIN_SPEED, DEFAULT_MAX_SPEED);
+	}
+
+	/**
+	 * @param minSpeed speed in rad/s below which no motion is predicted.
+	 * @param maxSpeed speed in rad/s above which the rate is not damped.
+	 */
+	public DampedVelocityPredictor(double minSpeed, double maxSpeed) {
+		if ((minSpeed < 0.0D) || (maxSpeed <= minSpeed)) {
+			throw new IllegalArgumentException(
+					"Should be 0 <= minSpeed < maxSpeed");
+		}
+		this.minSpeed = minSpeed;
+		this.maxSpeed = maxSpeed;
+	}
+
+	public void reset() {
+		this.lastGyro.setZero();
+		this.filteredGyro.setZero();
+		this.lastTimestampNs = 0L;
+	}
+
+	public void addGyroSample(double x, double y, double z, long timestampNs) {
+		double dT = (timestampNs - this.lastTimestampNs) * 1.0E-009D;
+		this.lastGyro.set(x, y, z);
+		if ((this.lastTimestampNs == 0L) || (dT <= 0.0D) || (dT > MAX_TIMESTEP)) {
+			this.filteredGyro.set(x, y, z);
+		} else {
+			double alpha = dT / (SPEED_TIME_CONSTANT + dT);
+			this.filteredGyro.set(this.filteredGyro.x + alpha
+					* (x - this.filteredGyro.x), this.filteredGyro.y + alpha
+					* (y - this.filteredGyro.y), this.filteredGyro.z + alpha
+					* (z - this.filteredGyro.z));
+		}
+		this.lastTimestampNs = timestampNs;
+	}
+
+	public void getState(Vector3d angularVelocity,
+			Vector3d angularAcceleration) {
+		double t = (this.filteredGyro.length() - this.minSpeed)
+				/ (this.maxSpeed - this.minSpeed);
+		t = Math.max(0.0D, Math.min(1.0D, t));
+		angularVelocity.set(this.lastGyro);
+		angularVelocity.scale(t * t * (3.0D - 2.0D * t));
+		angularAcceleration.setZero();
+	}
+}
@@ -0,0 +1,777 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Single-precision port of {@link OrientationEKF}: the same updates,
+ * analytic and numerical Jacobians, Joseph-form covariance update,
+ * gyroscope pre-integration and accelerometer update policy, with the
+ * state in {@link Matrix3f}, {@link Vector3f} and a packed float
+ * covariance. The sensor values are float to begin with and the head view
+ * is returned as float. Conversions to double happen only at the
+ * {@link FusionEngine} boundary and for the noise model, motion predictor
+ * and gravity alignment shared with the other engines.
+ *
+ * <p>
+ * The one deliberate difference is the step of the numerical Jacobians:
+ * 1e-7 is below float resolution, so they step by the square root of the
+ * float epsilon instead.
+ */
+public class FloatOrientationEKF implements FusionEngine {
+	private static final int POSE_HISTORY_CAPACITY = 1024;
+	private static final float NUMERICAL_JACOBIAN_EPS = 3.45E-004F;
+	private double[] rotationMatrix = new double[16];
+
+	private Matrix3f so3SensorFromWorld = new Matrix3f();
+	private Matrix3f so3LastMotion = new Matrix3f();
+	private float[] mP = new float[CovarianceKernels.SIZE];
+	private float mQ;
+	private float mR;
+	private float mRaccel;
+	private float[] mS = new float[CovarianceKernels.SIZE];
+	private Matrix3f mH = new Matrix3f();
+	private Matrix3f mK = new Matrix3f();
+	private Vector3f mNu = new Vector3f();
+	private Vector3f mz = new Vector3f();
+	private Vector3f mh = new Vector3f();
+	private Vector3f mu = new Vector3f();
+	private Vector3f mx = new Vector3f();
+	private Vector3f down = new Vector3f();
+	private Vector3f north = new Vector3f();
+	private long sensorTimeStampGyro;
+	private final Vector3d lastGyro = new Vector3d();
+	private Matrix3x3d so3SensorFromWorldDouble = new Matrix3x3d();
+
+	private final AccelNoiseModel accelNoiseModel = new AccelNoiseModel();
+	private final GyroTimestepFilter gyroTimestepFilter = new GyroTimestepFilter();
+
+	private Matrix3x3d getPredictedGLMatrixTempM1 = new Matrix3x3d();
+	private Matrix3x3d getPredictedGLMatrixTempM2 = new Matrix3x3d();
+	private Vector3d getPredictedGLMatrixTempV1 = new Vector3d();
+	private Vector3d getPredictedGLMatrixTempV2 = new Vector3d();
+	private MotionPredictor motionPredictor = new ConstantVelocityPredictor();
+
+	private Matrix3f setHeadingDegreesTempM1 = new Matrix3f();
+
+	private Matrix3f processGyroTempM1 = new Matrix3f();
+
+	private Matrix3f processAccTempM1 = new Matrix3f();
+	private Matrix3f processAccTempM2 = new Matrix3f();
+	private Vector3f processAccTempV1 = new Vector3f();
+	private Vector3f processAccTempV2 = new Vector3f();
+	private Vector3f processAccVDelta = new Vector3f();
+	private Vector3f processAccTempV3 = new Vector3f();
+	private AccelerometerUpdatePolicy accelUpdatePolicy;
+
+	private final GravityAlignment gravityAlignment = new GravityAlignment();
+	private double[] gravityAlignmentP = new double[CovarianceKernels.SIZE];
+	private Matrix3x3d gravityAlignmentTempM1 = new Matrix3x3d();
+	private Vector3d gravityAlignmentTempV1 = new Vector3d();
+
+	private Vector3f processMagTempV1 = new Vector3f();
+	private Vector3f processMagTempV2 = new Vector3f();
+	private Vector3f processMagTempV3 = new Vector3f();
+	private Vector3f processMagTempV4 = new Vector3f();
+	private Vector3f processMagTempV5 = new Vector3f();
+	private Vector3f processMagTempV6 = new Vector3f();
+	private Matrix3f processMagTempM1 = new Matrix3f();
+	private Matrix3f processMagTempM2 = new Matrix3f();
+	private Matrix3f processMagTempM4 = new Matrix3f();
+
+	private Matrix3f batchStartSensorFromWorld = new Matrix3f();
+	private float batchedMotionNoiseScale;
+	private boolean hasBatchedMotion;
+	private boolean gyroPreintegrationEnabled;
+	private Matrix3f processBatchTempM1 = new Matrix3f();
+	private Matrix3f processBatchTempM2 = new Matrix3f();
+	private Vector3f processBatchTempV1 = new Vector3f();
+	private Matrix3x3d processBatchTempM3 = new Matrix3x3d();
+
+	private Matrix3f accObservationFunctionForNumericalJacobianTempM = new Matrix3f();
+
+	private Matrix3f magObservationFunctionForNumericalJacobianTempM = new Matrix3f();
+
+	private Vector3f analyticJacobianTempA = new Vector3f();
+	private Vector3f analyticJacobianTempB = new Vector3f();
+	private Vector3f analyticJacobianTempC = new Vector3f();
+	private Vector3f analyticJacobianTempN = new Vector3f();
+	private Vector3f analyticJacobianTempDa = new Vector3f();
+	private Vector3f analyticJacobianTempT = new Vector3f();
+	private Vector3f analyticJacobianTempE = new Vector3f();
+	private boolean analyticJacobianEnabled = true;
+
+	private final So3Util.Workspace so3Workspace = new So3Util.Workspace();
+
+	private final OrientationSnapshotBuffer snapshotBuffer = new OrientationSnapshotBuffer();
+	private final PoseHistory poseHistory = new PoseHistory(
+			POSE_HISTORY_CAPACITY);
+	private boolean alignedToGravity;
+	private boolean alignedToNorth;
+
+	public FloatOrientationEKF() {
+		reset();
+	}
+
+	public synchronized void reset() {
+		resetState(false);
+	}
+
+	private void resetState(boolean warmStart) {
+		this.sensorTimeStampGyro = 0L;
+
+		this.so3SensorFromWorld.setIdentity();
+		this.so3LastMotion.setIdentity();
+
+		CovarianceKernels.setIsotropic(
+				(float) GravityAlignment.INITIAL_VARIANCE, this.mP);
+
+		this.mQ = 1.0F;
+
+		this.mR = 0.0625F;
+
+		this.mRaccel = 0.5625F;
+
+		CovarianceKernels.setIsotropic(0.0F, this.mS);
+		this.mH.setZero();
+		this.mK.setZero();
+		this.mNu.setZero();
+		this.mz.setZero();
+		this.mh.setZero();
+		this.mu.setZero();
+		this.mx.setZero();
+
+		this.down.set(0.0F, 0.0F, 9.81F);
+		this.north.set(0.0F, 1.0F, 0.0F);
+
+		this.alignedToGravity = false;
+		this.alignedToNorth = false;
+
+		this.gravityAlignment.reset(warmStart);
+
+		this.hasBatchedMotion = false;
+		this.poseHistory.clear();
+		this.motionPredictor.reset();
+		publishSnapshot();
+	}
+
+	/**
+	 * Resets the filter, but remembers the current orientation and
+	 * covariance if it was aligned; see
+	 * {@link OrientationEKF#resetWithWarmStart()}.
+	 */
+	public synchronized void resetWithWarmStart() {
+		applyBatchedMotion();
+		boolean aligned = this.alignedToGravity;
+		if (aligned) {
+			this.so3SensorFromWorld.copyTo(this.gravityAlignmentTempM1);
+			copyCovariance(this.mP, this.gravityAlignmentP);
+			this.gravityAlignment.setWarmStart(this.gravityAlignmentTempM1,
+					this.gravityAlignmentP);
+		}
+		resetState(aligned);
+	}
+
+	/**
+	 * Sets how many accelerometer samples are averaged to find gravity
+	 * before the filter is aligned. Takes effect with the next reset.
+	 */
+	public synchronized void setGravityInitSampleCount(int count) {
+		this.gravityAlignment.setSampleCount(count);
+	}
+
+	public synchronized int getGravityInitSampleCount() {
+		return this.gravityAlignment.getSampleCount();
+	}
+
+	public synchronized long getTimeToReadyNs() {
+		return this.gravityAlignment.getTimeToReadyNs();
+	}
+
+	public synchronized long getTimeToStableNs() {
+		return this.gravityAlignment.getTimeToStableNs();
+	}
+
+	public boolean isReady() {
+		return this.alignedToGravity;
+	}
+
+	public float getHeadingDegrees() {
+		float x = this.so3SensorFromWorld.m20;
+		float y = this.so3SensorFromWorld.m21;
+		float mag = (float) Math.sqrt(x * x + y * y);
+
+		if (mag < 0.1F) {
+			return 0.0F;
+		}
+
+		float heading = -90.0F - (float) Math.atan2(y, x) / 3.1415927F
+				* 180.0F;
+		if (heading < 0.0F) {
+			heading += 360.0F;
+		}
+		if (heading >= 360.0F) {
+			heading -= 360.0F;
+		}
+		return heading;
+	}
+
+	public synchronized void setHeadingDegrees(float heading) {
+		applyBatchedMotion();
+		float currentHeading = getHeadingDegrees();
+		float deltaHeading = heading - currentHeading;
+		float s = (float) Math.sin(deltaHeading / 180.0F * 3.1415927F);
+		float c = (float) Math.cos(deltaHeading / 180.0F * 3.1415927F);
+
+		this.setHeadingDegreesTempM1.set(c, -s, 0.0F, s, c, 0.0F, 0.0F, 0.0F,
+				1.0F);
+		Matrix3f.mult(this.so3SensorFromWorld, this.setHeadingDegreesTempM1,
+				this.so3SensorFromWorld);
+
+		publishSnapshot();
+	}
+
+	public double[] getGLMatrix() {
+		this.so3SensorFromWorldDouble.getGLMatrix(this.rotationMatrix);
+		return this.rotationMatrix;
+	}
+
+	/**
+	 * Extrapolates the orientation as of the last published update.
+	 */
+	public synchronized double[] getPredictedGLMatrix(
+			double secondsAfterLastGyroEvent) {
+		double dT = secondsAfterLastGyroEvent;
+		Vector3d pmu = this.getPredictedGLMatrixTempV1;
+		Vector3d acceleration = this.getPredictedGLMatrixTempV2;
+		this.motionPredictor.getState(pmu, acceleration);
+		acceleration.scale(0.5D * dT);
+		Vector3d.add(pmu, acceleration, pmu);
+		pmu.scale(-dT);
+		Matrix3x3d so3PredictedMotion = this.getPredictedGLMatrixTempM1;
+		So3Util.sO3FromMu(pmu, so3PredictedMotion);
+
+		Matrix3x3d so3PredictedState = this.getPredictedGLMatrixTempM2;
+		Matrix3x3d.mult(so3PredictedMotion, this.so3SensorFromWorldDouble,
+				so3PredictedState);
+
+		so3PredictedState.getGLMatrix(this.rotationMatrix);
+		return this.rotationMatrix;
+	}
+
+	/**
+	 * Returns a double copy of the orientation as of the last published
+	 * update. Only the public process methods rewrite the copy, when they
+	 * publish; readers on other threads should use
+	 * {@link #getLatestSnapshot()}.
+	 */
+	public Matrix3x3d getRotationMatrix() {
+		return this.so3SensorFromWorldDouble;
+	}
+
+	/**
+	 * Selects the motion model used for prediction, fed from the next
+	 * gyroscope sample on. The default is a {@link ConstantVelocityPredictor}.
+	 */
+	public synchronized void setMotionPredictor(MotionPredictor predictor) {
+		if (predictor == null) {
+			throw new IllegalArgumentException("predictor should not be null");
+		}
+		predictor.reset();
+		this.motionPredictor = predictor;
+		publishSnapshot();
+	}
+
+	public synchronized MotionPredictor getMotionPredictor() {
+		return this.motionPredictor;
+	}
+
+	/**
+	 * Lets policy skip accelerometer corrections that would change little.
+	 * Null, the default, corrects with every sample. Resets the policy's
+	 * counters.
+	 */
+	public synchronized void setAccelerometerUpdatePolicy(
+			AccelerometerUpdatePolicy policy) {
+		if (policy != null) {
+			policy.resetCounts();
+		}
+		this.accelUpdatePolicy = policy;
+	}
+
+	public synchronized AccelerometerUpdatePolicy getAccelerometerUpdatePolicy() {
+		return this.accelUpdatePolicy;
+	}
+
+	public long getClampedGyroTimestepCount() {
+		return this.gyroTimestepFilter.getClampedCount();
+	}
+
+	public PoseHistory getPoseHistory() {
+		return this.poseHistory;
+	}
+
+	public OrientationSnapshot getLatestSnapshot() {
+		return this.snapshotBuffer.getLatest();
+	}
+
+	public boolean isAlignedToGravity() {
+		return this.alignedToGravity;
+	}
+
+	public boolean isAlignedToNorth() {
+		return this.alignedToNorth;
+	}
+
+	/**
+	 * Selects between the closed-form measurement Jacobians and the
+	 * finite-difference ones, as {@link OrientationEKF} does.
+	 */
+	public synchronized void setAnalyticJacobianEnabled(boolean enabled) {
+		this.analyticJacobianEnabled = enabled;
+	}
+
+	public synchronized boolean getAnalyticJacobianEnabled() {
+		return this.analyticJacobianEnabled;
+	}
+
+	/**
+	 * Propagates the covariance once per run of gyroscope samples; see
+	 * {@link OrientationEKF#setGyroPreintegrationEnabled(boolean)}.
+	 */
+	public synchronized void setGyroPreintegrationEnabled(boolean enabled) {
+		if (!enabled) {
+			applyBatchedMotion();
+		}
+		this.gyroPreintegrationEnabled = enabled;
+	}
+
+	public synchronized boolean getGyroPreintegrationEnabled() {
+		return this.gyroPreintegrationEnabled;
+	}
+
+	public synchronized void processGyro(Vector3d gyro, long sensorTimeStamp) {
+		float x = (float) gyro.x;
+		float y = (float) gyro.y;
+		float z = (float) gyro.z;
+		if (this.gyroPreintegrationEnabled) {
+			integrateGyroSample(x, y, z, sensorTimeStamp);
+			publishSnapshot();
+			return;
+		}
+
+		if (this.sensorTimeStampGyro != 0L) {
+			float dT = this.gyroTimestepFilter.getTimestep(
+					this.sensorTimeStampGyro, sensorTimeStamp);
+
+			this.mu.set(x, y, z);
+			this.mu.scale(-dT);
+			So3Util.sO3FromMu(this.mu, this.so3LastMotion);
+
+			Matrix3f.mult(this.so3LastMotion, this.so3SensorFromWorld,
+					this.processGyroTempM1);
+			this.so3SensorFromWorld.set(this.processGyroTempM1);
+
+			updateCovariancesAfterMotion(this.mQ * dT * dT);
+		}
+		this.sensorTimeStampGyro = sensorTimeStamp;
+		this.lastGyro.set(x, y, z);
+		this.motionPredictor.addGyroSample(x, y, z, sensorTimeStamp);
+		addPose(sensorTimeStamp, x, y, z);
+
+		publishSnapshot();
+	}
+
+	/**
+	 * Processes count consecutive gyroscope samples under a single lock;
+	 * see {@link OrientationEKF#processGyroBatch}.
+	 */
+	public synchronized void processGyroBatch(double[] xyz, long[] timestamps,
+			int count) {
+		for (int i = 0; i < count; i++) {
+			integrateGyroSample((float) xyz[(3 * i)], (float) xyz[(3 * i + 1)],
+					(float) xyz[(3 * i + 2)], timestamps[i]);
+		}
+		if (!this.gyroPreintegrationEnabled) {
+			applyBatchedMotion();
+		}
+		publishSnapshot();
+	}
+
+	public synchronized void processSampleBatch(int[] types, double[] xyz,
+			long[] timestamps, int count) {
+		for (int i = 0; i < count; i++) {
+			float x = (float) xyz[(3 * i)];
+			float y = (float) xyz[(3 * i + 1)];
+			float z = (float) xyz[(3 * i + 2)];
+			switch (types[i]) {
+			case SAMPLE_TYPE_GYROSCOPE:
+				integrateGyroSample(x, y, z, timestamps[i]);
+				break;
+			case SAMPLE_TYPE_ACCELEROMETER:
+				applyBatchedMotion();
+				this.processBatchTempV1.set(x, y, z);
+				processAccSample(this.processBatchTempV1, timestamps[i]);
+				break;
+			case SAMPLE_TYPE_MAGNETOMETER:
+				applyBatchedMotion();
+				processMagSample(x, y, z, timestamps[i]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown sample type: "
+						+ types[i]);
+			}
+		}
+		if (!this.gyroPreintegrationEnabled) {
+			applyBatchedMotion();
+		}
+		publishSnapshot();
+	}
+
+	private void integrateGyroSample(float x, float y, float z,
+			long sensorTimeStamp) {
+		if (this.sensorTimeStampGyro != 0L) {
+			float dT = this.gyroTimestepFilter.getTimestep(
+					this.sensorTimeStampGyro, sensorTimeStamp);
+
+			this.mu.set(x, y, z);
+			this.mu.scale(-dT);
+			So3Util.sO3FromMu(this.mu, this.processBatchTempM1);
+			Matrix3f.mult(this.processBatchTempM1, this.so3SensorFromWorld,
+					this.processBatchTempM2);
+			if (!this.hasBatchedMotion) {
+				this.batchStartSensorFromWorld.set(this.so3SensorFromWorld);
+				this.batchedMotionNoiseScale = 0.0F;
+				this.hasBatchedMotion = true;
+			}
+			this.so3SensorFromWorld.set(this.processBatchTempM2);
+			this.batchedMotionNoiseScale += dT * dT;
+		}
+		this.sensorTimeStampGyro = sensorTimeStamp;
+		this.lastGyro.set(x, y, z);
+		this.motionPredictor.addGyroSample(x, y, z, sensorTimeStamp);
+		addPose(sensorTimeStamp, x, y, z);
+	}
+
+	/**
+	 * Propagates the covariance through the gyroscope motion integrated by
+	 * {@link #integrateGyroSample} since the first pending sample, recovered
+	 * as so3SensorFromWorld * batchStartSensorFromWorld^T.
+	 */
+	private void applyBatchedMotion() {
+		if (!this.hasBatchedMotion) {
+			return;
+		}
+		this.batchStartSensorFromWorld.transpose(this.processBatchTempM1);
+		Matrix3f.mult(this.so3SensorFromWorld, this.processBatchTempM1,
+				this.so3LastMotion);
+		updateCovariancesAfterMotion(this.mQ * this.batchedMotionNoiseScale);
+		this.hasBatchedMotion = false;
+	}
+
+	public synchronized void processAcc(Vector3d acc, long sensorTimeStamp) {
+		applyBatchedMotion();
+		this.processBatchTempV1.set(acc);
+		processAccSample(this.processBatchTempV1, sensorTimeStamp);
+		publishSnapshot();
+	}
+
+	private void processAccSample(Vector3f acc, long sensorTimeStamp) {
+		this.mz.set(acc);
+		this.mRaccel = (float) this.accelNoiseModel.update(this.mz.length());
+
+		if (this.alignedToGravity) {
+			accObservationFunctionForNumericalJacobian(this.so3SensorFromWorld,
+					this.mNu);
+
+			if ((this.accelUpdatePolicy != null)
+					&& (this.accelUpdatePolicy.shouldSkipUpdate(
+							getTiltVariance(), this.mNu.length(),
+							this.accelNoiseModel.getMovingAverageNormChange()))) {
+				return;
+			}
+
+			if (!this.analyticJacobianEnabled
+					|| !observationJacobian(this.mh, this.mz, this.mH)) {
+				computeAccNumericalJacobian();
+			}
+
+			CovarianceKernels.innovationCovariance(this.mP, this.mH,
+					this.mRaccel, this.mS);
+			if (!CovarianceKernels.kalmanGain(this.mP, this.mH, this.mS,
+					this.mK)) {
+				return;
+			}
+
+			Matrix3f.mult(this.mK, this.mNu, this.mx);
+			this.gravityAlignment.addCorrection(this.mx.length(),
+					sensorTimeStamp);
+
+			CovarianceKernels.josephUpdate(this.mP, this.mK, this.mH,
+					this.mRaccel, this.mP);
+
+			So3Util.sO3FromMu(this.mx, this.so3LastMotion);
+
+			Matrix3f.mult(this.so3LastMotion, this.so3SensorFromWorld,
+					this.so3SensorFromWorld);
+
+			updateCovariancesAfterMotion(0.0F);
+		} else {
+			this.alignedToGravity = alignToGravity(sensorTimeStamp);
+		}
+	}
+
+	/**
+	 * Passes mz to gravityAlignment, in double, and once it aligned takes
+	 * the orientation and covariance from it.
+	 */
+	private boolean alignToGravity(long sensorTimeStamp) {
+		this.mz.copyTo(this.gravityAlignmentTempV1);
+		this.so3SensorFromWorld.copyTo(this.gravityAlignmentTempM1);
+		copyCovariance(this.mP, this.gravityAlignmentP);
+		if (!this.gravityAlignment.align(this.gravityAlignmentTempV1,
+				sensorTimeStamp, this.gravityAlignmentTempM1,
+				this.gravityAlignmentP)) {
+			return false;
+		}
+		this.so3SensorFromWorld.set(this.gravityAlignmentTempM1);
+		for (int i = 0; i < CovarianceKernels.SIZE; i++) {
+			this.mP[i] = (float) this.gravityAlignmentP[i];
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the variance of the orientation about the axes perpendicular
+	 * to the predicted gravity direction mh.
+	 */
+	private float getTiltVariance() {
+		Vector3f g = this.processAccTempV3;
+		g.set(this.mh);
+		g.normalize();
+		return CovarianceKernels.trace(this.mP)
+				- CovarianceKernels.quadraticForm(this.mP, g);
+	}
+
+	public synchronized void processMag(float[] mag, long sensorTimeStamp) {
+		applyBatchedMotion();
+		processMagSample(mag[0], mag[1], mag[2], sensorTimeStamp);
+		publishSnapshot();
+	}
+
+	private void processMagSample(float magX, float magY, float magZ,
+			long sensorTimeStamp) {
+		if (!this.alignedToGravity) {
+			return;
+		}
+		this.mz.set(magX, magY, magZ);
+		this.mz.normalize();
+
+		Vector3f downInSensorFrame = this.processMagTempV6;
+		this.so3SensorFromWorld.getColumn(2, downInSensorFrame);
+
+		Vector3f.cross(this.mz, downInSensorFrame, this.processMagTempV1);
+		Vector3f perpToDownAndMag = this.processMagTempV1;
+		perpToDownAndMag.normalize();
+
+		Vector3f.cross(downInSensorFrame, perpToDownAndMag,
+				this.processMagTempV2);
+		Vector3f magHorizontal = this.processMagTempV2;
+
+		magHorizontal.normalize();
+		this.mz.set(magHorizontal);
+
+		if (this.alignedToNorth) {
+			magObservationFunctionForNumericalJacobian(this.so3SensorFromWorld,
+					this.mNu);
+
+			if (!this.analyticJacobianEnabled
+					|| !observationJacobian(this.mh, this.mz, this.mH)) {
+				computeMagNumericalJacobian();
+			}
+
+			CovarianceKernels.innovationCovariance(this.mP, this.mH, this.mR,
+					this.mS);
+			if (!CovarianceKernels.kalmanGain(this.mP, this.mH, this.mS,
+					this.mK)) {
+				return;
+			}
+
+			Matrix3f.mult(this.mK, this.mNu, this.mx);
+
+			CovarianceKernels.josephUpdate(this.mP, this.mK, this.mH,
+					this.mR, this.mP);
+
+			So3Util.sO3FromMu(this.mx, this.so3LastMotion);
+
+			Matrix3f.mult(this.so3LastMotion, this.so3SensorFromWorld,
+					this.processMagTempM4);
+			this.so3SensorFromWorld.set(this.processMagTempM4);
+
+			updateCovariancesAfterMotion(0.0F);
+		} else {
+			magObservationFunctionForNumericalJacobian(this.so3SensorFromWorld,
+					this.mNu);
+			So3Util.sO3FromMu(this.mNu, this.so3LastMotion);
+
+			Matrix3f.mult(this.so3LastMotion, this.so3SensorFromWorld,
+					this.processMagTempM4);
+			this.so3SensorFromWorld.set(this.processMagTempM4);
+
+			updateCovariancesAfterMotion(0.0F);
+			this.alignedToNorth = true;
+		}
+	}
+
+	private void addPose(long sensorTimeStamp, float x, float y, float z) {
+		this.so3SensorFromWorld.copyTo(this.processBatchTempM3);
+		this.poseHistory.add(sensorTimeStamp, this.processBatchTempM3, x, y, z);
+	}
+
+	private void publishSnapshot() {
+		this.so3SensorFromWorld.copyTo(this.so3SensorFromWorldDouble);
+		OrientationSnapshot snapshot = this.snapshotBuffer.getBack();
+		snapshot.so3SensorFromWorld.set(this.so3SensorFromWorldDouble);
+		snapshot.lastGyro.set(this.lastGyro);
+		this.motionPredictor.getState(snapshot.predictedVelocity,
+				snapshot.predictedAcceleration);
+		snapshot.gyroTimestampNs = this.sensorTimeStampGyro;
+		snapshot.ready = this.alignedToGravity;
+		this.snapshotBuffer.publish();
+	}
+
+	private static void copyCovariance(float[] p, double[] result) {
+		for (int i = 0; i < CovarianceKernels.SIZE; i++) {
+			result[i] = p[i];
+		}
+	}
+
+	/**
+	 * Propagates the covariance through so3LastMotion and adds processNoise
+	 * times the identity, then clears the motion.
+	 */
+	private void updateCovariancesAfterMotion(float processNoise) {
+		CovarianceKernels.propagate(this.mP, this.so3LastMotion, processNoise,
+				this.mP);
+		this.so3LastMotion.setIdentity();
+	}
+
+	private void computeAccNumericalJacobian() {
+		float eps = NUMERICAL_JACOBIAN_EPS;
+		for (int dof = 0; dof < 3; dof++) {
+			Vector3f delta = this.processAccVDelta;
+			delta.setZero();
+			delta.setComponent(dof, eps);
+
+			So3Util.sO3FromMu(delta, this.processAccTempM1);
+			Matrix3f.mult(this.processAccTempM1, this.so3SensorFromWorld,
+					this.processAccTempM2);
+
+			accObservationFunctionForNumericalJacobian(
+					this.processAccTempM2, this.processAccTempV1);
+
+			Vector3f withDelta = this.processAccTempV1;
+
+			Vector3f.sub(this.mNu, withDelta, this.processAccTempV2);
+			this.processAccTempV2.scale(1.0F / eps);
+			this.mH.setColumn(dof, this.processAccTempV2);
+		}
+	}
+
+	private void computeMagNumericalJacobian() {
+		float eps = NUMERICAL_JACOBIAN_EPS;
+		for (int dof = 0; dof < 3; dof++) {
+			Vector3f delta = this.processMagTempV3;
+			delta.setZero();
+			delta.setComponent(dof, eps);
+
+			So3Util.sO3FromMu(delta, this.processMagTempM1);
+			Matrix3f.mult(this.processMagTempM1, this.so3SensorFromWorld,
+					this.processMagTempM2);
+
+			magObservationFunctionForNumericalJacobian(
+					this.processMagTempM2, this.processMagTempV4);
+
+			Vector3f withDelta = this.processMagTempV4;
+
+			Vector3f.sub(this.mNu, withDelta, this.processMagTempV5);
+			this.processMagTempV5.scale(1.0F / eps);
+
+			this.mH.setColumn(dof, this.processMagTempV5);
+		}
+	}
+
+	/**
+	 * Closed-form Jacobian of mu = log(R(a, b)); see
+	 * {@link OrientationEKF}'s observationJacobian.
+	 */
+	private boolean observationJacobian(Vector3f predicted, Vector3f measured,
+			Matrix3f result) {
+		Vector3f a = this.analyticJacobianTempA;
+		Vector3f b = this.analyticJacobianTempB;
+		a.set(predicted);
+		b.set(measured);
+		a.normalize();
+		b.normalize();
+
+		Vector3f c = this.analyticJacobianTempC;
+		Vector3f.cross(a, b, c);
+		float sinAngle = c.length();
+		float cosAngle = Vector3f.dot(a, b);
+		if ((sinAngle < 1.0E-006F) && (cosAngle < 0.0F)) {
+			return false;
+		}
+
+		float angleOverSin;
+		float kN;
+		Vector3f n = this.analyticJacobianTempN;
+		if (sinAngle < 1.0E-006F) {
+			angleOverSin = 1.0F + sinAngle * sinAngle / 6.0F;
+			kN = 0.0F;
+			n.setZero();
+		} else {
+			angleOverSin = (float) Math.atan2(sinAngle, cosAngle) / sinAngle;
+			kN = cosAngle - angleOverSin;
+			n.set(c);
+			n.scale(1.0F / sinAngle);
+		}
+
+		Vector3f e = this.analyticJacobianTempE;
+		Vector3f da = this.analyticJacobianTempDa;
+		Vector3f t = this.analyticJacobianTempT;
+		for (int dof = 0; dof < 3; dof++) {
+			e.setZero();
+			e.setComponent(dof, 1.0F);
+			Vector3f.cross(e, a, da);
+			Vector3f.cross(da, b, t);
+
+			float nDotT = Vector3f.dot(n, t);
+			float bDotDa = Vector3f.dot(b, da);
+			t.scale(-angleOverSin);
+			t.set(t.x - kN * nDotT * n.x + bDotDa * c.x, t.y - kN * nDotT
+					* n.y + bDotDa * c.y, t.z - kN * nDotT * n.z + bDotDa
+					* c.z);
+			result.setColumn(dof, t);
+		}
+		return true;
+	}
+
+	private void accObservationFunctionForNumericalJacobian(
+			Matrix3f so3SensorFromWorldPred, Vector3f result) {
+		Matrix3f.mult(so3SensorFromWorldPred, this.down, this.mh);
+		So3Util.sO3FromTwoVec(this.mh, this.mz,
+				this.accObservationFunctionForNumericalJacobianTempM,
+				this.so3Workspace);
+
+		So3Util.muFromSO3(this.accObservationFunctionForNumericalJacobianTempM,
+				result, this.so3Workspace);
+	}
+
+	private void magObservationFunctionForNumericalJacobian(
+			Matrix3f so3SensorFromWorldPred, Vector3f result) {
+		Matrix3f.mult(so3SensorFromWorldPred, this.north, this.mh);
+		So3Util.sO3FromTwoVec(this.mh, this.mz,
+				this.magObservationFunctionForNumericalJacobianTempM,
+				this.so3Workspace);
+
+		So3Util.muFromSO3(this.magObservationFunctionForNumericalJacobianTempM,
+				result, this.so3Workspace);
+	}
+}
@@ -0,0 +1,89 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Sensor fusion filter driven by a {@link com.google.vrtoolkit.cardboard.sensors.HeadTracker}.
+ * The orientation is kept as sensorFromWorld, with the world z axis
+ * pointing up and y pointing to magnetic north once the magnetometer was
+ * used. Samples are passed in timestamp order from a single thread; the
+ * snapshot, pose history and counters may be read from other threads.
+ */
+public abstract interface FusionEngine {
+	public static final int SAMPLE_TYPE_ACCELEROMETER = 1;
+	public static final int SAMPLE_TYPE_MAGNETOMETER = 2;
+	public static final int SAMPLE_TYPE_GYROSCOPE = 4;
+
+	public abstract void reset();
+
+	/**
+	 * Resets the filter, but continues from the current orientation if the
+	 * gravity measured during the next initialization agrees with it.
+	 */
+	public abstract void resetWithWarmStart();
+
+	/**
+	 * Returns true once the filter is aligned to gravity.
+	 */
+	public abstract boolean isReady();
+
+	public abstract void processGyro(Vector3d gyro, long sensorTimeStamp);
+
+	public abstract void processAcc(Vector3d acc, long sensorTimeStamp);
+
+	public abstract void processMag(float[] mag, long sensorTimeStamp);
+
+	/**
+	 * Processes count samples of mixed types in timestamp order. types holds
+	 * one of the SAMPLE_TYPE_ constants per sample and xyz the matching x,
+	 * y, z triples.
+	 */
+	public abstract void processSampleBatch(int[] types, double[] xyz,
+			long[] timestamps, int count);
+
+	/**
+	 * Returns the column-major OpenGL matrix of the orientation extrapolated
+	 * by secondsAfterLastGyroEvent. The array is reused by later calls.
+	 */
+	public abstract double[] getPredictedGLMatrix(
+			double secondsAfterLastGyroEvent);
+
+	/**
+	 * Returns the current sensorFromWorld rotation. Filter thread only.
+	 */
+	public abstract Matrix3x3d getRotationMatrix();
+
+	/**
+	 * Returns the state published by the last completed update. Must only
+	 * be called from a single reader thread.
+	 */
+	public abstract OrientationSnapshot getLatestSnapshot();
+
+	/**
+	 * Returns the history of orientations after each gyroscope update, in
+	 * the sensor time base. Safe to query from any thread.
+	 */
+	public abstract PoseHistory getPoseHistory();
+
+	public abstract void setMotionPredictor(MotionPredictor predictor);
+
+	public abstract MotionPredictor getMotionPredictor();
+
+	/**
+	 * Returns how many gyroscope timesteps exceeded 40 ms and were replaced
+	 * by the filtered timestep since this filter was created. Does not take
+	 * the filter lock.
+	 */
+	public abstract long getClampedGyroTimestepCount();
+
+	/**
+	 * Returns the sensor time from the first accelerometer sample after the
+	 * last reset until the filter was aligned to gravity, or -1.
+	 */
+	public abstract long getTimeToReadyNs();
+
+	/**
+	 * Returns the sensor time from the first accelerometer sample after the
+	 * last reset until the accelerometer corrections became negligible, or
+	 * -1.
+	 */
+	public abstract long getTimeToStableNs();
+}
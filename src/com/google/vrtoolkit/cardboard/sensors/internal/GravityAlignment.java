@@ -0,0 +1,171 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Start-up of the fusion engines after a reset: averages accelerometer
+ * samples with a {@link GravityAverager}, then aligns the orientation to
+ * gravity. After a warm start the first sample that agrees with the warm
+ * start orientation aligns it without averaging. Also tracks the time from the first accelerometer sample until
+ * the engine is aligned and until its corrections have settled.
+ *
+ * <p>
+ * Covariances are packed as in {@link CovarianceKernels}.
+ */
+class GravityAlignment {
+	public static final double INITIAL_VARIANCE = 25.0D;
+	public static final double INITIAL_TILT_VARIANCE = 1.0D;
+	private static final double MAX_WARM_START_TILT_ERROR = 0.1D;
+	private static final double WARM_START_TILT_VARIANCE = 0.01D;
+	private static final double STABLE_CORRECTION_ANGLE = 0.002D;
+	private static final int STABLE_UPDATE_COUNT = 10;
+	private final GravityAverager gravityAverager = new GravityAverager();
+	private final Vector3d down = new Vector3d(0.0D, 0.0D, 9.810000000000001D);
+	private boolean hasWarmStart;
+	private Matrix3x3d warmStartSensorFromWorld = new Matrix3x3d();
+	private double[] warmStartP = new double[CovarianceKernels.SIZE];
+	private long firstAccTimestampNs;
+	private long readyTimestampNs;
+	private long stableTimestampNs;
+	private int numSmallCorrections;
+	private Matrix3x3d alignTempM1 = new Matrix3x3d();
+	private Matrix3x3d alignTempM2 = new Matrix3x3d();
+	private Matrix3x3d alignTempM3 = new Matrix3x3d();
+	private Vector3d alignTempV1 = new Vector3d();
+	private Vector3d alignTempV2 = new Vector3d();
+	private final So3Util.Workspace so3Workspace = new So3Util.Workspace();
+
+	/**
+	 * Drops the samples collected so far and the timestamps. With warmStart
+	 * the next alignment may continue from the orientation last passed to
+	 * {@link #setWarmStart}.
+	 */
+	public void reset(boolean warmStart) {
+		this.gravityAverager.reset();
+		this.hasWarmStart = warmStart;
+		this.firstAccTimestampNs = 0L;
+		this.readyTimestampNs = 0L;
+		this.stableTimestampNs = 0L;
+		this.numSmallCorrections = 0;
+	}
+
+	/**
+	 * Remembers an aligned orientation and its covariance p for a warm
+	 * start.
+	 */
+	public void setWarmStart(Matrix3x3d sensorFromWorld, double[] p) {
+		this.warmStartSensorFromWorld.set(sensorFromWorld);
+		System.arraycopy(p, 0, this.warmStartP, 0, CovarianceKernels.SIZE);
+	}
+
+	/**
+	 * Sets how many accelerometer samples are averaged. 1 aligns to the
+	 * first sample with the initial covariance.
+	 */
+	public void setSampleCount(int count) {
+		this.gravityAverager.setSampleCount(count);
+	}
+
+	public int getSampleCount() {
+		return this.gravityAverager.getSampleCount();
+	}
+
+	/**
+	 * Adds an accelerometer sample of an engine that is not aligned yet.
+	 * sensorFromWorld holds the gyroscope motion since the reset and p the
+	 * covariance. Returns false while samples are being collected; otherwise
+	 * writes the aligned orientation to sensorFromWorld, and to p the
+	 * covariance: the warm start one rotated through the motion, or tilt
+	 * known to INITIAL_TILT_VARIANCE and heading to INITIAL_VARIANCE. A
+	 * single sample keeps p.
+	 *
+	 * <p>
+	 * With a warm start only the first sample is compared with the warm
+	 * start orientation. If it is within MAX_WARM_START_TILT_ERROR it aligns
+	 * the engine at once, with WARM_START_TILT_VARIANCE added to the warm
+	 * start covariance; otherwise the samples are averaged as after a cold
+	 * reset.
+	 */
+	public boolean align(Vector3d acc, long timestampNs,
+			Matrix3x3d sensorFromWorld, double[] p) {
+		if (this.firstAccTimestampNs == 0L) {
+			this.firstAccTimestampNs = timestampNs;
+		}
+		// Until alignment sensorFromWorld only holds the gyroscope motion
+		// since the reset; it takes gravity to the current sensor frame.
+		Matrix3x3d motion = this.alignTempM1;
+		motion.set(sensorFromWorld);
+		Vector3d gravity = this.alignTempV1;
+
+		if (this.hasWarmStart) {
+			this.hasWarmStart = false;
+			gravity.set(acc);
+			gravity.normalize();
+			Vector3d predicted = this.alignTempV2;
+			Matrix3x3d.mult(motion, this.warmStartSensorFromWorld,
+					this.alignTempM2);
+			Matrix3x3d.mult(this.alignTempM2, this.down, predicted);
+			predicted.normalize();
+			double angle = Math.acos(Math.max(-1.0D,
+					Math.min(1.0D, Vector3d.dot(predicted, gravity))));
+			if (angle <= MAX_WARM_START_TILT_ERROR) {
+				So3Util.sO3FromTwoVec(predicted, gravity, this.alignTempM3,
+						this.so3Workspace);
+				Matrix3x3d.mult(this.alignTempM3, this.alignTempM2,
+						sensorFromWorld);
+				CovarianceKernels.propagate(this.warmStartP, motion,
+						WARM_START_TILT_VARIANCE, p);
+				this.readyTimestampNs = timestampNs;
+				return true;
+			}
+		}
+
+		if (!this.gravityAverager.addSample(acc, sensorFromWorld, gravity)) {
+			return false;
+		}
+		Matrix3x3d.mult(motion, gravity, gravity);
+		gravity.normalize();
+
+		So3Util.sO3FromTwoVec(this.down, gravity, sensorFromWorld,
+				this.so3Workspace);
+		if (this.gravityAverager.getSampleCount() > 1) {
+			double h = INITIAL_VARIANCE - INITIAL_TILT_VARIANCE;
+			double x = gravity.x;
+			double y = gravity.y;
+			double z = gravity.z;
+			p[CovarianceKernels.P00] = INITIAL_TILT_VARIANCE + h * x * x;
+			p[CovarianceKernels.P01] = h * x * y;
+			p[CovarianceKernels.P02] = h * x * z;
+			p[CovarianceKernels.P11] = INITIAL_TILT_VARIANCE + h * y * y;
+			p[CovarianceKernels.P12] = h * y * z;
+			p[CovarianceKernels.P22] = INITIAL_TILT_VARIANCE + h * z * z;
+		}
+		this.readyTimestampNs = timestampNs;
+		return true;
+	}
+
+	/**
+	 * Adds the rotation angle of an accelerometer correction after
+	 * alignment. The pose is stable once STABLE_UPDATE_COUNT corrections in
+	 * a row were each smaller than STABLE_CORRECTION_ANGLE.
+	 */
+	public void addCorrection(double angle, long timestampNs) {
+		if (this.stableTimestampNs != 0L) {
+			return;
+		}
+		if (angle < STABLE_CORRECTION_ANGLE) {
+			if (++this.numSmallCorrections >= STABLE_UPDATE_COUNT)
+				this.stableTimestampNs = timestampNs;
+		} else {
+			this.numSmallCorrections = 0;
+		}
+	}
+
+	public long getTimeToReadyNs() {
+		return this.readyTimestampNs == 0L ? -1L : this.readyTimestampNs
+				- this.firstAccTimestampNs;
+	}
+
+	public long getTimeToStableNs() {
+		return this.stableTimestampNs == 0L ? -1L : this.stableTimestampNs
+				- this.firstAccTimestampNs;
+	}
+}
@@ -0,0 +1,109 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Averages the accelerometer samples a filter collects before it is
+ * aligned to gravity. The samples are rotated into a common frame with the
+ * gyroscope motion integrated meanwhile. Samples pointing away from the
+ * average or with an unusual norm are rejected; if more than half are
+ * rejected, the device is assumed to be moving and collection starts over,
+ * up to MAX_ATTEMPTS times.
+ */
+class GravityAverager {
+	public static final int DEFAULT_SAMPLE_COUNT = 10;
+	public static final int MAX_SAMPLE_COUNT = 100;
+	private static final int MAX_ATTEMPTS = 3;
+	private static final double MAX_ANGLE = 0.1D;
+	private static final double MAX_NORM_ERROR = 0.1D;
+	private int sampleCount = DEFAULT_SAMPLE_COUNT;
+	private double[] samples = new double[3 * DEFAULT_SAMPLE_COUNT];
+	private int numSamples;
+	private int attempts;
+	private Matrix3x3d addSampleTempM1 = new Matrix3x3d();
+	private Vector3d addSampleTempV1 = new Vector3d();
+	private Vector3d addSampleTempV2 = new Vector3d();
+
+	public void reset() {
+		this.numSamples = 0;
+		this.attempts = 0;
+	}
+
+	/**
+	 * Sets how many samples are averaged. Drops the samples collected so far.
+	 */
+	public void setSampleCount(int count) {
+		if ((count < 1) || (count > MAX_SAMPLE_COUNT)) {
+			throw new IllegalArgumentException(
+					"count should be between 1 and 100");
+		}
+		this.sampleCount = count;
+		if (this.samples.length < 3 * count) {
+			this.samples = new double[3 * count];
+		}
+		this.numSamples = 0;
+	}
+
+	public int getSampleCount() {
+		return this.sampleCount;
+	}
+
+	/**
+	 * Adds the accelerometer sample acc, measured when the gyroscope motion
+	 * since the reset was so3MotionSinceReset. Returns true and writes the
+	 * averaged gravity direction in the frame at the reset to result once
+	 * sampleCount samples were collected and enough of them agree, or the
+	 * attempts are used up.
+	 */
+	public boolean addSample(Vector3d acc, Matrix3x3d so3MotionSinceReset,
+			Vector3d result) {
+		Vector3d w = this.addSampleTempV1;
+		so3MotionSinceReset.transpose(this.addSampleTempM1);
+		Matrix3x3d.mult(this.addSampleTempM1, acc, w);
+		int i = this.numSamples++;
+		this.samples[(3 * i)] = w.x;
+		this.samples[(3 * i + 1)] = w.y;
+		this.samples[(3 * i + 2)] = w.z;
+		if (this.numSamples < this.sampleCount) {
+			return false;
+		}
+
+		int n = this.numSamples;
+		Vector3d mean = this.addSampleTempV2;
+		mean.setZero();
+		double meanNorm = 0.0D;
+		for (i = 0; i < n; i++) {
+			w.set(this.samples[(3 * i)], this.samples[(3 * i + 1)],
+					this.samples[(3 * i + 2)]);
+			Vector3d.add(mean, w, mean);
+			meanNorm += w.length() / n;
+		}
+		mean.normalize();
+
+		result.setZero();
+		int inliers = 0;
+		for (i = 0; i < n; i++) {
+			w.set(this.samples[(3 * i)], this.samples[(3 * i + 1)],
+					this.samples[(3 * i + 2)]);
+			double norm = w.length();
+			if ((norm == 0.0D)
+					|| (Math.abs(norm - meanNorm) > MAX_NORM_ERROR * meanNorm)) {
+				continue;
+			}
+			double angle = Math.acos(Math.max(-1.0D,
+					Math.min(1.0D, Vector3d.dot(w, mean) / norm)));
+			if (angle > MAX_ANGLE) {
+				continue;
+			}
+			Vector3d.add(result, w, result);
+			inliers++;
+		}
+		this.numSamples = 0;
+		if ((2 * inliers < n) && (++this.attempts < MAX_ATTEMPTS)) {
+			return false;
+		}
+		if (inliers == 0) {
+			result.set(mean);
+		}
+		result.normalize();
+		return true;
+	}
+}
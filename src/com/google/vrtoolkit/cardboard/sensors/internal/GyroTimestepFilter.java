@@ -0,0 +1,50 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Turns gyroscope timestamps into integration timesteps for the fusion
+ * engines. A step longer than MAX_TIMESTEP, e.g. after the sensor was
+ * paused, is replaced by the low-pass filtered length of the regular steps,
+ * so a gap does not become one large rotation.
+ */
+class GyroTimestepFilter {
+	public static final float MAX_TIMESTEP = 0.04F;
+	public static final float DEFAULT_TIMESTEP = 0.01F;
+	private static final float FILTER_COEFF = 0.95F;
+	private static final int MIN_SAMPLES = 10;
+	private float filteredTimestep;
+	private boolean initialized;
+	private int numSamples;
+	private boolean valid = true;
+	private volatile long clampedCount;
+
+	/**
+	 * Returns the timestep in seconds from the gyroscope sample at
+	 * previousTimestampNs to the one at timestampNs.
+	 */
+	public float getTimestep(long previousTimestampNs, long timestampNs) {
+		float dT = (float) (timestampNs - previousTimestampNs) * 1.0E-009F;
+		if (dT > MAX_TIMESTEP) {
+			this.clampedCount += 1L;
+			return this.valid ? this.filteredTimestep : DEFAULT_TIMESTEP;
+		}
+		if (!this.initialized) {
+			this.filteredTimestep = dT;
+			this.numSamples = 1;
+			this.initialized = true;
+		} else {
+			this.filteredTimestep = (FILTER_COEFF * this.filteredTimestep + 0.05000001F * dT);
+			if (++this.numSamples > MIN_SAMPLES)
+				this.valid = true;
+		}
+		return dT;
+	}
+
+	/**
+	 * Returns how many timesteps exceeded MAX_TIMESTEP and were replaced
+	 * since this filter was created. Only the fusing thread writes the
+	 * count, so it may be read from any thread without a lock.
+	 */
+	public long getClampedCount() {
+		return this.clampedCount;
+	}
+}
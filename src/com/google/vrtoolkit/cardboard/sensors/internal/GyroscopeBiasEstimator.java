@@ -17,6 +17,12 @@ public class GyroscopeBiasEstimator {
 	private static final int IS_STATIC_NUM_FRAMES_THRESHOLD = 10;
 	private IsStaticCounter isAccelStatic;
 	private IsStaticCounter isGyroStatic;
+	private static final float INITIAL_BIAS_REJECTION_THRESHOLD = 0.02F;
+	private final Vector3d initialBias = new Vector3d();
+	private double initialBiasConfidence;
+	private boolean initialBiasRejected;
+	private final Vector3d initialBiasTemp = new Vector3d();
+	private final Vector3d processSampleTemp = new Vector3d();
 
 	public GyroscopeBiasEstimator() {
 		reset();
@@ -30,6 +36,39 @@ public class GyroscopeBiasEstimator {
 		this.gyroBiasLowPass = new LowPassFilter(GYRO_BIAS_LOWPASS_FREQ);
 		this.isAccelStatic = new IsStaticCounter(IS_STATIC_NUM_FRAMES_THRESHOLD);
 		this.isGyroStatic = new IsStaticCounter(IS_STATIC_NUM_FRAMES_THRESHOLD);
+		this.initialBias.setZero();
+		this.initialBiasConfidence = 0.0D;
+		this.initialBiasRejected = false;
+	}
+
+	/**
+	 * Seeds the estimator with a bias learned in an earlier session, scaled by
+	 * a confidence in [0, 1]. The seed is returned until enough static samples
+	 * have been collected, then blended out as the new estimate ramps in. It
+	 * is dropped early if the new estimate disagrees with it.
+	 */
+	public void setInitialBias(Vector3d bias, double confidence) {
+		this.initialBias.set(bias);
+		this.initialBiasConfidence = Math.max(0.0D, Math.min(1.0D, confidence));
+		this.initialBiasRejected = false;
+	}
+
+	public boolean isInitialBiasRejected() {
+		return this.initialBiasRejected;
+	}
+
+	/**
+	 * Returns how far the estimate has converged, from 0 before the first
+	 * NUM_GYRO_BIAS_SAMPLES_THRESHOLD static samples to 1 once the initial
+	 * smoothing window is complete.
+	 */
+	public double getBiasConfidence() {
+		int numSamples = this.gyroBiasLowPass.getNumSamples();
+		if (numSamples < NUM_GYRO_BIAS_SAMPLES_THRESHOLD) {
+			return 0.0D;
+		}
+		return Math.min(1.0D, (numSamples - NUM_GYRO_BIAS_SAMPLES_THRESHOLD)
+				/ (double) NUM_GYRO_BIAS_SAMPLES_INITIAL_SMOOTHING);
 	}
 
 	public void processGyroscope(Vector3d gyro, long sensorTimestampNs) {
@@ -45,6 +84,22 @@ public class GyroscopeBiasEstimator {
 			updateGyroBias(gyro, sensorTimestampNs);
 	}
 
+	/**
+	 * Same as {@link #processGyroscope(Vector3d, long)} for callers that hold
+	 * the sample as primitives.
+	 */
+	public void processGyroscope(double x, double y, double z,
+			long sensorTimestampNs) {
+		this.processSampleTemp.set(x, y, z);
+		processGyroscope(this.processSampleTemp, sensorTimestampNs);
+	}
+
+	public void processAccelerometer(double x, double y, double z,
+			long sensorTimestampNs) {
+		this.processSampleTemp.set(x, y, z);
+		processAccelerometer(this.processSampleTemp, sensorTimestampNs);
+	}
+
 	public void processAccelerometer(Vector3d accel, long sensorTimestampNs) {
 		this.accelLowPass.addSample(accel, sensorTimestampNs);
 		Vector3d.sub(accel, this.accelLowPass.getFilteredData(),
@@ -54,7 +109,8 @@ public class GyroscopeBiasEstimator {
 
 	public void getGyroBias(Vector3d result) {
 		if (this.gyroBiasLowPass.getNumSamples() < NUM_GYRO_BIAS_SAMPLES_THRESHOLD) {
-			result.setZero();
+			result.set(this.initialBias);
+			result.scale(this.initialBiasConfidence);
 		} else {
 			result.set(this.gyroBiasLowPass.getFilteredData());
 
@@ -62,6 +118,13 @@ public class GyroscopeBiasEstimator {
 					(this.gyroBiasLowPass.getNumSamples() - NUM_GYRO_BIAS_SAMPLES_THRESHOLD) / NUM_GYRO_BIAS_SAMPLES_INITIAL_SMOOTHING);
 
 			result.scale(rampUpRatio);
+
+			if (this.initialBiasConfidence > 0.0D) {
+				this.initialBiasTemp.set(this.initialBias);
+				this.initialBiasTemp.scale(this.initialBiasConfidence
+						* (1.0D - rampUpRatio));
+				Vector3d.add(result, this.initialBiasTemp, result);
+			}
 		}
 	}
 
@@ -76,6 +139,18 @@ public class GyroscopeBiasEstimator {
 		this.gyroBiasLowPass.addWeightedSample(
 				this.gyroLowPass.getFilteredData(), sensorTimestampNs,
 				updateWeight);
+
+		if ((this.initialBiasConfidence > 0.0D)
+				&& (this.gyroBiasLowPass.getNumSamples() >= NUM_GYRO_BIAS_SAMPLES_THRESHOLD)) {
+			Vector3d.sub(this.gyroBiasLowPass.getFilteredData(),
+					this.initialBias, this.initialBiasTemp);
+			if (this.initialBiasTemp.length() > INITIAL_BIAS_REJECTION_THRESHOLD) {
+				this.initialBiasRejected = true;
+				this.initialBiasConfidence = 0.0D;
+			} else if (getBiasConfidence() >= 1.0D) {
+				this.initialBiasConfidence = 0.0D;
+			}
+		}
 	}
 
 	private static class IsStaticCounter {
@@ -0,0 +1,123 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket histogram of nanosecond durations on a log2 scale. Bucket 0
+ * holds values below 1 us, bucket i (0 < i < NUM_BUCKETS - 1) holds
+ * [2^(i-1), 2^i) us and the last bucket everything above. Negative values
+ * are only counted. Recording is lock-free and allocation-free and may
+ * happen concurrently with reads and {@link #reset()}.
+ */
+public class LogHistogram {
+	public static final int NUM_BUCKETS = 24;
+	private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong negativeCount = new AtomicLong();
+	private final AtomicLong maxNs = new AtomicLong();
+
+	public void record(long valueNs) {
+		if (valueNs < 0L) {
+			this.negativeCount.incrementAndGet();
+			return;
+		}
+		this.buckets.incrementAndGet(getBucket(valueNs));
+
+		long max = this.maxNs.get();
+		while ((valueNs > max) && (!this.maxNs.compareAndSet(max, valueNs))) {
+			max = this.maxNs.get();
+		}
+	}
+
+	public static int getBucket(long valueNs) {
+		long us = valueNs / 1000L;
+		if (us == 0L) {
+			return 0;
+		}
+		return Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(us));
+	}
+
+	/**
+	 * Returns the exclusive upper bound of a bucket in nanoseconds, or
+	 * Long.MAX_VALUE for the last one.
+	 */
+	public static long getBucketUpperBoundNs(int bucket) {
+		if (bucket >= NUM_BUCKETS - 1) {
+			return Long.MAX_VALUE;
+		}
+		return 1000L << bucket;
+	}
+
+	public long getBucketCount(int bucket) {
+		return this.buckets.get(bucket);
+	}
+
+	/**
+	 * Copies the bucket counts to result, which must hold NUM_BUCKETS
+	 * entries, and returns their sum.
+	 */
+	public long getBucketCounts(long[] result) {
+		long total = 0L;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			result[i] = this.buckets.get(i);
+			total += result[i];
+		}
+		return total;
+	}
+
+	public long getCount() {
+		long total = 0L;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			total += this.buckets.get(i);
+		}
+		return total;
+	}
+
+	public long getNegativeCount() {
+		return this.negativeCount.get();
+	}
+
+	public long getMaxNs() {
+		return this.maxNs.get();
+	}
+
+	/**
+	 * Returns the upper bound of the bucket containing the given fraction
+	 * (0 to 1) of the recorded values, or 0 if nothing was recorded.
+	 */
+	public long getPercentileUpperBoundNs(double fraction) {
+		long total = getCount();
+		if (total == 0L) {
+			return 0L;
+		}
+		long target = (long) Math.ceil(fraction * total);
+		long seen = 0L;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += this.buckets.get(i);
+			if (seen >= target) {
+				return getBucketUpperBoundNs(i);
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Copies the counts of other. Values other records meanwhile may or may
+	 * not be included.
+	 */
+	public void set(LogHistogram other) {
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			this.buckets.set(i, other.buckets.get(i));
+		}
+		this.negativeCount.set(other.negativeCount.get());
+		this.maxNs.set(other.maxNs.get());
+	}
+
+	public void reset() {
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			this.buckets.set(i, 0L);
+		}
+		this.negativeCount.set(0L);
+		this.maxNs.set(0L);
+	}
+}
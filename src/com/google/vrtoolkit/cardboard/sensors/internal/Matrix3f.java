@@ -0,0 +1,254 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Single-precision counterpart of {@link Matrix3x3d}, with the entries in
+ * the same scalar fields mRC (row R, column C).
+ */
+public class Matrix3f {
+	public float m00;
+	public float m01;
+	public float m02;
+	public float m10;
+	public float m11;
+	public float m12;
+	public float m20;
+	public float m21;
+	public float m22;
+
+	public Matrix3f() {
+	}
+
+	public void set(float m00, float m01, float m02, float m10, float m11,
+			float m12, float m20, float m21, float m22) {
+		this.m00 = m00;
+		this.m01 = m01;
+		this.m02 = m02;
+		this.m10 = m10;
+		this.m11 = m11;
+		this.m12 = m12;
+		this.m20 = m20;
+		this.m21 = m21;
+		this.m22 = m22;
+	}
+
+	public void set(Matrix3f o) {
+		this.m00 = o.m00;
+		this.m01 = o.m01;
+		this.m02 = o.m02;
+		this.m10 = o.m10;
+		this.m11 = o.m11;
+		this.m12 = o.m12;
+		this.m20 = o.m20;
+		this.m21 = o.m21;
+		this.m22 = o.m22;
+	}
+
+	public void set(Matrix3x3d o) {
+		set((float) o.m00, (float) o.m01, (float) o.m02, (float) o.m10,
+				(float) o.m11, (float) o.m12, (float) o.m20, (float) o.m21,
+				(float) o.m22);
+	}
+
+	public void copyTo(Matrix3x3d result) {
+		result.set(this.m00, this.m01, this.m02, this.m10, this.m11, this.m12,
+				this.m20, this.m21, this.m22);
+	}
+
+	public void setZero() {
+		set(0.0F, 0.0F, 0.0F, 0.0F, 0.0F, 0.0F, 0.0F, 0.0F, 0.0F);
+	}
+
+	public void setIdentity() {
+		set(1.0F, 0.0F, 0.0F, 0.0F, 1.0F, 0.0F, 0.0F, 0.0F, 1.0F);
+	}
+
+	public void setSameDiagonal(float d) {
+		this.m00 = d;
+		this.m11 = d;
+		this.m22 = d;
+	}
+
+	public float get(int row, int col) {
+		switch (3 * row + col) {
+		case 0:
+			return this.m00;
+		case 1:
+			return this.m01;
+		case 2:
+			return this.m02;
+		case 3:
+			return this.m10;
+		case 4:
+			return this.m11;
+		case 5:
+			return this.m12;
+		case 6:
+			return this.m20;
+		case 7:
+			return this.m21;
+		case 8:
+			return this.m22;
+		}
+		throw new IndexOutOfBoundsException("row " + row + ", col " + col);
+	}
+
+	public void set(int row, int col, float value) {
+		switch (3 * row + col) {
+		case 0:
+			this.m00 = value;
+			return;
+		case 1:
+			this.m01 = value;
+			return;
+		case 2:
+			this.m02 = value;
+			return;
+		case 3:
+			this.m10 = value;
+			return;
+		case 4:
+			this.m11 = value;
+			return;
+		case 5:
+			this.m12 = value;
+			return;
+		case 6:
+			this.m20 = value;
+			return;
+		case 7:
+			this.m21 = value;
+			return;
+		case 8:
+			this.m22 = value;
+			return;
+		}
+		throw new IndexOutOfBoundsException("row " + row + ", col " + col);
+	}
+
+	public void getColumn(int col, Vector3f v) {
+		if (col == 0)
+			v.set(this.m00, this.m10, this.m20);
+		else if (col == 1)
+			v.set(this.m01, this.m11, this.m21);
+		else
+			v.set(this.m02, this.m12, this.m22);
+	}
+
+	public void setColumn(int col, Vector3f v) {
+		if (col == 0) {
+			this.m00 = v.x;
+			this.m10 = v.y;
+			this.m20 = v.z;
+		} else if (col == 1) {
+			this.m01 = v.x;
+			this.m11 = v.y;
+			this.m21 = v.z;
+		} else {
+			this.m02 = v.x;
+			this.m12 = v.y;
+			this.m22 = v.z;
+		}
+	}
+
+	public void scale(float s) {
+		this.m00 *= s;
+		this.m01 *= s;
+		this.m02 *= s;
+		this.m10 *= s;
+		this.m11 *= s;
+		this.m12 *= s;
+		this.m20 *= s;
+		this.m21 *= s;
+		this.m22 *= s;
+	}
+
+	public void plusEquals(Matrix3f b) {
+		this.m00 += b.m00;
+		this.m01 += b.m01;
+		this.m02 += b.m02;
+		this.m10 += b.m10;
+		this.m11 += b.m11;
+		this.m12 += b.m12;
+		this.m20 += b.m20;
+		this.m21 += b.m21;
+		this.m22 += b.m22;
+	}
+
+	public void minusEquals(Matrix3f b) {
+		this.m00 -= b.m00;
+		this.m01 -= b.m01;
+		this.m02 -= b.m02;
+		this.m10 -= b.m10;
+		this.m11 -= b.m11;
+		this.m12 -= b.m12;
+		this.m20 -= b.m20;
+		this.m21 -= b.m21;
+		this.m22 -= b.m22;
+	}
+
+	public void transpose() {
+		float tmp = this.m01;
+		this.m01 = this.m10;
+		this.m10 = tmp;
+
+		tmp = this.m02;
+		this.m02 = this.m20;
+		this.m20 = tmp;
+
+		tmp = this.m12;
+		this.m12 = this.m21;
+		this.m21 = tmp;
+	}
+
+	public void transpose(Matrix3f result) {
+		result.set(this.m00, this.m10, this.m20, this.m01, this.m11,
+				this.m21, this.m02, this.m12, this.m22);
+	}
+
+	public static void mult(Matrix3f a, Matrix3f b, Matrix3f result) {
+		result.set(a.m00 * b.m00 + a.m01 * b.m10 + a.m02 * b.m20, a.m00
+				* b.m01 + a.m01 * b.m11 + a.m02 * b.m21, a.m00 * b.m02
+				+ a.m01 * b.m12 + a.m02 * b.m22, a.m10 * b.m00 + a.m11
+				* b.m10 + a.m12 * b.m20, a.m10 * b.m01 + a.m11 * b.m11
+				+ a.m12 * b.m21, a.m10 * b.m02 + a.m11 * b.m12 + a.m12
+				* b.m22, a.m20 * b.m00 + a.m21 * b.m10 + a.m22 * b.m20,
+				a.m20 * b.m01 + a.m21 * b.m11 + a.m22 * b.m21, a.m20 * b.m02
+						+ a.m21 * b.m12 + a.m22 * b.m22);
+	}
+
+	public static void mult(Matrix3f a, Vector3f v, Vector3f result) {
+		float x = a.m00 * v.x + a.m01 * v.y + a.m02 * v.z;
+		float y = a.m10 * v.x + a.m11 * v.y + a.m12 * v.z;
+		float z = a.m20 * v.x + a.m21 * v.y + a.m22 * v.z;
+		result.x = x;
+		result.y = y;
+		result.z = z;
+	}
+
+	public float determinant() {
+		return this.m00 * (this.m11 * this.m22 - this.m21 * this.m12)
+				- this.m01 * (this.m10 * this.m22 - this.m12 * this.m20)
+				+ this.m02 * (this.m10 * this.m21 - this.m11 * this.m20);
+	}
+
+	public boolean invert(Matrix3f result) {
+		float d = determinant();
+		if (d == 0.0F) {
+			return false;
+		}
+
+		float invdet = 1.0F / d;
+
+		result.set((this.m11 * this.m22 - this.m21 * this.m12) * invdet,
+				-(this.m01 * this.m22 - this.m02 * this.m21) * invdet,
+				(this.m01 * this.m12 - this.m02 * this.m11) * invdet,
+				-(this.m10 * this.m22 - this.m12 * this.m20) * invdet,
+				(this.m00 * this.m22 - this.m02 * this.m20) * invdet,
+				-(this.m00 * this.m12 - this.m10 * this.m02) * invdet,
+				(this.m10 * this.m21 - this.m20 * this.m11) * invdet,
+				-(this.m00 * this.m21 - this.m20 * this.m01) * invdet,
+				(this.m00 * this.m11 - this.m10 * this.m01) * invdet);
+
+		return true;
+	}
+}
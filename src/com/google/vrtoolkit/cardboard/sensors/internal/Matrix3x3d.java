@@ -1,203 +1,289 @@
 package com.google.vrtoolkit.cardboard.sensors.internal;
 
+/**
+ * 3x3 matrix of doubles. The entries are kept in nine scalar fields mRC
+ * (row R, column C) rather than an array, so accesses need no bounds checks
+ * or indirection and the JIT can keep short-lived matrices in registers.
+ * {@link #get(double[], int)} and {@link #set(double[], int)} convert from
+ * and to the row-major array layout used before.
+ */
 public class Matrix3x3d {
-	public double[] m = new double[9];
+	public double m00;
+	public double m01;
+	public double m02;
+	public double m10;
+	public double m11;
+	public double m12;
+	public double m20;
+	public double m21;
+	public double m22;
 
 	public Matrix3x3d() {
 	}
 
 	public Matrix3x3d(double m00, double m01, double m02, double m10,
 			double m11, double m12, double m20, double m21, double m22) {
-		this.m[0] = m00;
-		this.m[1] = m01;
-		this.m[2] = m02;
-		this.m[3] = m10;
-		this.m[4] = m11;
-		this.m[5] = m12;
-		this.m[6] = m20;
-		this.m[7] = m21;
-		this.m[8] = m22;
+		set(m00, m01, m02, m10, m11, m12, m20, m21, m22);
 	}
 
 	public Matrix3x3d(Matrix3x3d o) {
-		this.m[0] = o.m[0];
-		this.m[1] = o.m[1];
-		this.m[2] = o.m[2];
-		this.m[3] = o.m[3];
-		this.m[4] = o.m[4];
-		this.m[5] = o.m[5];
-		this.m[6] = o.m[6];
-		this.m[7] = o.m[7];
-		this.m[8] = o.m[8];
+		set(o);
 	}
 
 	public void set(double m00, double m01, double m02, double m10, double m11,
 			double m12, double m20, double m21, double m22) {
-		this.m[0] = m00;
-		this.m[1] = m01;
-		this.m[2] = m02;
-		this.m[3] = m10;
-		this.m[4] = m11;
-		this.m[5] = m12;
-		this.m[6] = m20;
-		this.m[7] = m21;
-		this.m[8] = m22;
+		this.m00 = m00;
+		this.m01 = m01;
+		this.m02 = m02;
+		this.m10 = m10;
+		this.m11 = m11;
+		this.m12 = m12;
+		this.m20 = m20;
+		this.m21 = m21;
+		this.m22 = m22;
 	}
 
 	public void set(Matrix3x3d o) {
-		this.m[0] = o.m[0];
-		this.m[1] = o.m[1];
-		this.m[2] = o.m[2];
-		this.m[3] = o.m[3];
-		this.m[4] = o.m[4];
-		this.m[5] = o.m[5];
-		this.m[6] = o.m[6];
-		this.m[7] = o.m[7];
-		this.m[8] = o.m[8];
+		this.m00 = o.m00;
+		this.m01 = o.m01;
+		this.m02 = o.m02;
+		this.m10 = o.m10;
+		this.m11 = o.m11;
+		this.m12 = o.m12;
+		this.m20 = o.m20;
+		this.m21 = o.m21;
+		this.m22 = o.m22;
+	}
+
+	/**
+	 * Sets the matrix from nine row-major values starting at offset.
+	 */
+	public void set(double[] values, int offset) {
+		set(values[offset], values[(offset + 1)], values[(offset + 2)],
+				values[(offset + 3)], values[(offset + 4)],
+				values[(offset + 5)], values[(offset + 6)],
+				values[(offset + 7)], values[(offset + 8)]);
+	}
+
+	/**
+	 * Writes the entries row-major to result starting at offset.
+	 */
+	public void get(double[] result, int offset) {
+		result[offset] = this.m00;
+		result[(offset + 1)] = this.m01;
+		result[(offset + 2)] = this.m02;
+		result[(offset + 3)] = this.m10;
+		result[(offset + 4)] = this.m11;
+		result[(offset + 5)] = this.m12;
+		result[(offset + 6)] = this.m20;
+		result[(offset + 7)] = this.m21;
+		result[(offset + 8)] = this.m22;
+	}
+
+	/**
+	 * Writes the matrix to result as the rotation part of a column-major
+	 * 4x4 OpenGL matrix without translation.
+	 */
+	public void getGLMatrix(double[] result) {
+		result[0] = this.m00;
+		result[1] = this.m10;
+		result[2] = this.m20;
+		result[3] = 0.0D;
+		result[4] = this.m01;
+		result[5] = this.m11;
+		result[6] = this.m21;
+		result[7] = 0.0D;
+		result[8] = this.m02;
+		result[9] = this.m12;
+		result[10] = this.m22;
+		result[11] = 0.0D;
+		result[12] = 0.0D;
+		result[13] = 0.0D;
+		result[14] = 0.0D;
+		result[15] = 1.0D;
 	}
 
 	public void setZero() {
-		double tmp63_62 = (this.m[2] = this.m[3] = this.m[4] = this.m[5] = this.m[6] = this.m[7] = this.m[8] = 0.0D);
-		this.m[1] = tmp63_62;
-		this.m[0] = tmp63_62;
+		set(0.0D, 0.0D, 0.0D, 0.0D, 0.0D, 0.0D, 0.0D, 0.0D, 0.0D);
 	}
 
 	public void setIdentity() {
-		double tmp41_40 = (this.m[3] = this.m[5] = this.m[6] = this.m[7] = 0.0D);
-		this.m[2] = tmp41_40;
-		this.m[1] = tmp41_40;
-		double tmp63_62 = (this.m[8] = 1.0D);
-		this.m[4] = tmp63_62;
-		this.m[0] = tmp63_62;
+		set(1.0D, 0.0D, 0.0D, 0.0D, 1.0D, 0.0D, 0.0D, 0.0D, 1.0D);
 	}
 
 	public void setSameDiagonal(double d) {
-		double tmp19_18 = (this.m[8] = d);
-		this.m[4] = tmp19_18;
-		this.m[0] = tmp19_18;
+		this.m00 = d;
+		this.m11 = d;
+		this.m22 = d;
 	}
 
 	public double get(int row, int col) {
-		return this.m[(3 * row + col)];
+		switch (3 * row + col) {
+		case 0:
+			return this.m00;
+		case 1:
+			return this.m01;
+		case 2:
+			return this.m02;
+		case 3:
+			return this.m10;
+		case 4:
+			return this.m11;
+		case 5:
+			return this.m12;
+		case 6:
+			return this.m20;
+		case 7:
+			return this.m21;
+		case 8:
+			return this.m22;
+		}
+		throw new IndexOutOfBoundsException("row " + row + ", col " + col);
 	}
 
 	public void set(int row, int col, double value) {
-		this.m[(3 * row + col)] = value;
+		switch (3 * row + col) {
+		case 0:
+			this.m00 = value;
+			return;
+		case 1:
+			this.m01 = value;
+			return;
+		case 2:
+			this.m02 = value;
+			return;
+		case 3:
+			this.m10 = value;
+			return;
+		case 4:
+			this.m11 = value;
+			return;
+		case 5:
+			this.m12 = value;
+			return;
+		case 6:
+			this.m20 = value;
+			return;
+		case 7:
+			this.m21 = value;
+			return;
+		case 8:
+			this.m22 = value;
+			return;
+		}
+		throw new IndexOutOfBoundsException("row " + row + ", col " + col);
 	}
 
 	public void getColumn(int col, Vector3d v) {
-		v.x = this.m[col];
-		v.y = this.m[(col + 3)];
-		v.z = this.m[(col + 6)];
+		if (col == 0)
+			v.set(this.m00, this.m10, this.m20);
+		else if (col == 1)
+			v.set(this.m01, this.m11, this.m21);
+		else
+			v.set(this.m02, this.m12, this.m22);
 	}
 
 	public void setColumn(int col, Vector3d v) {
-		this.m[col] = v.x;
-		this.m[(col + 3)] = v.y;
-		this.m[(col + 6)] = v.z;
+		if (col == 0) {
+			this.m00 = v.x;
+			this.m10 = v.y;
+			this.m20 = v.z;
+		} else if (col == 1) {
+			this.m01 = v.x;
+			this.m11 = v.y;
+			this.m21 = v.z;
+		} else {
+			this.m02 = v.x;
+			this.m12 = v.y;
+			this.m22 = v.z;
+		}
 	}
 
 	public void scale(double s) {
-		this.m[0] *= s;
-		this.m[1] *= s;
-		this.m[2] *= s;
-		this.m[3] *= s;
-		this.m[4] *= s;
-		this.m[5] *= s;
-		this.m[6] *= s;
-		this.m[7] *= s;
-		this.m[8] *= s;
+		this.m00 *= s;
+		this.m01 *= s;
+		this.m02 *= s;
+		this.m10 *= s;
+		this.m11 *= s;
+		this.m12 *= s;
+		this.m20 *= s;
+		this.m21 *= s;
+		this.m22 *= s;
 	}
 
 	public void plusEquals(Matrix3x3d b) {
-		this.m[0] += b.m[0];
-		this.m[1] += b.m[1];
-		this.m[2] += b.m[2];
-		this.m[3] += b.m[3];
-		this.m[4] += b.m[4];
-		this.m[5] += b.m[5];
-		this.m[6] += b.m[6];
-		this.m[7] += b.m[7];
-		this.m[8] += b.m[8];
+		this.m00 += b.m00;
+		this.m01 += b.m01;
+		this.m02 += b.m02;
+		this.m10 += b.m10;
+		this.m11 += b.m11;
+		this.m12 += b.m12;
+		this.m20 += b.m20;
+		this.m21 += b.m21;
+		this.m22 += b.m22;
 	}
 
 	public void minusEquals(Matrix3x3d b) {
-		this.m[0] -= b.m[0];
-		this.m[1] -= b.m[1];
-		this.m[2] -= b.m[2];
-		this.m[3] -= b.m[3];
-		this.m[4] -= b.m[4];
-		this.m[5] -= b.m[5];
-		this.m[6] -= b.m[6];
-		this.m[7] -= b.m[7];
-		this.m[8] -= b.m[8];
+		this.m00 -= b.m00;
+		this.m01 -= b.m01;
+		this.m02 -= b.m02;
+		this.m10 -= b.m10;
+		this.m11 -= b.m11;
+		this.m12 -= b.m12;
+		this.m20 -= b.m20;
+		this.m21 -= b.m21;
+		this.m22 -= b.m22;
 	}
 
 	public void transpose() {
-		double tmp = this.m[1];
-		this.m[1] = this.m[3];
-		this.m[3] = tmp;
+		double tmp = this.m01;
+		this.m01 = this.m10;
+		this.m10 = tmp;
 
-		tmp = this.m[2];
-		this.m[2] = this.m[6];
-		this.m[6] = tmp;
+		tmp = this.m02;
+		this.m02 = this.m20;
+		this.m20 = tmp;
 
-		tmp = this.m[5];
-		this.m[5] = this.m[7];
-		this.m[7] = tmp;
+		tmp = this.m12;
+		this.m12 = this.m21;
+		this.m21 = tmp;
 	}
 
 	public void transpose(Matrix3x3d result) {
-		double m1 = this.m[1];
-		double m2 = this.m[2];
-		double m5 = this.m[5];
-		result.m[0] = this.m[0];
-		result.m[1] = this.m[3];
-		result.m[2] = this.m[6];
-		result.m[3] = m1;
-		result.m[4] = this.m[4];
-		result.m[5] = this.m[7];
-		result.m[6] = m2;
-		result.m[7] = m5;
-		result.m[8] = this.m[8];
+		result.set(this.m00, this.m10, this.m20, this.m01, this.m11,
+				this.m21, this.m02, this.m12, this.m22);
 	}
 
 	public static void add(Matrix3x3d a, Matrix3x3d b, Matrix3x3d result) {
-		a.m[0] += b.m[0];
-		a.m[1] += b.m[1];
-		a.m[2] += b.m[2];
-		a.m[3] += b.m[3];
-		a.m[4] += b.m[4];
-		a.m[5] += b.m[5];
-		a.m[6] += b.m[6];
-		a.m[7] += b.m[7];
-		a.m[8] += b.m[8];
+		result.set(a.m00 + b.m00, a.m01 + b.m01, a.m02 + b.m02, a.m10 + b.m10,
+				a.m11 + b.m11, a.m12 + b.m12, a.m20 + b.m20, a.m21 + b.m21,
+				a.m22 + b.m22);
 	}
 
 	public static void mult(Matrix3x3d a, Matrix3x3d b, Matrix3x3d result) {
-		result.set(a.m[0] * b.m[0] + a.m[1] * b.m[3] + a.m[2] * b.m[6], a.m[0]
-				* b.m[1] + a.m[1] * b.m[4] + a.m[2] * b.m[7], a.m[0] * b.m[2]
-				+ a.m[1] * b.m[5] + a.m[2] * b.m[8], a.m[3] * b.m[0] + a.m[4]
-				* b.m[3] + a.m[5] * b.m[6], a.m[3] * b.m[1] + a.m[4] * b.m[4]
-				+ a.m[5] * b.m[7], a.m[3] * b.m[2] + a.m[4] * b.m[5] + a.m[5]
-				* b.m[8], a.m[6] * b.m[0] + a.m[7] * b.m[3] + a.m[8] * b.m[6],
-				a.m[6] * b.m[1] + a.m[7] * b.m[4] + a.m[8] * b.m[7], a.m[6]
-						* b.m[2] + a.m[7] * b.m[5] + a.m[8] * b.m[8]);
+		result.set(a.m00 * b.m00 + a.m01 * b.m10 + a.m02 * b.m20, a.m00
+				* b.m01 + a.m01 * b.m11 + a.m02 * b.m21, a.m00 * b.m02
+				+ a.m01 * b.m12 + a.m02 * b.m22, a.m10 * b.m00 + a.m11
+				* b.m10 + a.m12 * b.m20, a.m10 * b.m01 + a.m11 * b.m11
+				+ a.m12 * b.m21, a.m10 * b.m02 + a.m11 * b.m12 + a.m12
+				* b.m22, a.m20 * b.m00 + a.m21 * b.m10 + a.m22 * b.m20,
+				a.m20 * b.m01 + a.m21 * b.m11 + a.m22 * b.m21, a.m20 * b.m02
+						+ a.m21 * b.m12 + a.m22 * b.m22);
 	}
 
 	public static void mult(Matrix3x3d a, Vector3d v, Vector3d result) {
-		double x = a.m[0] * v.x + a.m[1] * v.y + a.m[2] * v.z;
-		double y = a.m[3] * v.x + a.m[4] * v.y + a.m[5] * v.z;
-		double z = a.m[6] * v.x + a.m[7] * v.y + a.m[8] * v.z;
+		double x = a.m00 * v.x + a.m01 * v.y + a.m02 * v.z;
+		double y = a.m10 * v.x + a.m11 * v.y + a.m12 * v.z;
+		double z = a.m20 * v.x + a.m21 * v.y + a.m22 * v.z;
 		result.x = x;
 		result.y = y;
 		result.z = z;
 	}
 
 	public double determinant() {
-		return get(0, 0) * (get(1, 1) * get(2, 2) - get(2, 1) * get(1, 2))
-				- get(0, 1) * (get(1, 0) * get(2, 2) - get(1, 2) * get(2, 0))
-				+ get(0, 2) * (get(1, 0) * get(2, 1) - get(1, 1) * get(2, 0));
+		return this.m00 * (this.m11 * this.m22 - this.m21 * this.m12)
+				- this.m01 * (this.m10 * this.m22 - this.m12 * this.m20)
+				+ this.m02 * (this.m10 * this.m21 - this.m11 * this.m20);
 	}
 
 	public boolean invert(Matrix3x3d result) {
@@ -208,24 +294,27 @@ public class Matrix3x3d {
 
 		double invdet = 1.0D / d;
 
-		result.set((this.m[4] * this.m[8] - this.m[7] * this.m[5]) * invdet,
-				-(this.m[1] * this.m[8] - this.m[2] * this.m[7]) * invdet,
-				(this.m[1] * this.m[5] - this.m[2] * this.m[4]) * invdet,
-				-(this.m[3] * this.m[8] - this.m[5] * this.m[6]) * invdet,
-				(this.m[0] * this.m[8] - this.m[2] * this.m[6]) * invdet,
-				-(this.m[0] * this.m[5] - this.m[3] * this.m[2]) * invdet,
-				(this.m[3] * this.m[7] - this.m[6] * this.m[4]) * invdet,
-				-(this.m[0] * this.m[7] - this.m[6] * this.m[1]) * invdet,
-				(this.m[0] * this.m[4] - this.m[3] * this.m[1]) * invdet);
+		result.set((this.m11 * this.m22 - this.m21 * this.m12) * invdet,
+				-(this.m01 * this.m22 - this.m02 * this.m21) * invdet,
+				(this.m01 * this.m12 - this.m02 * this.m11) * invdet,
+				-(this.m10 * this.m22 - this.m12 * this.m20) * invdet,
+				(this.m00 * this.m22 - this.m02 * this.m20) * invdet,
+				-(this.m00 * this.m12 - this.m10 * this.m02) * invdet,
+				(this.m10 * this.m21 - this.m20 * this.m11) * invdet,
+				-(this.m00 * this.m21 - this.m20 * this.m01) * invdet,
+				(this.m00 * this.m11 - this.m10 * this.m01) * invdet);
 
 		return true;
 	}
 
 	public double maxNorm() {
-		double maxVal = Math.abs(this.m[0]);
-		for (int i = 1; i < this.m.length; i++) {
-			maxVal = Math.max(maxVal, Math.abs(this.m[i]));
-		}
-		return maxVal;
+		return Math.max(
+				Math.max(Math.max(Math.abs(this.m00), Math.abs(this.m01)),
+						Math.max(Math.abs(this.m02), Math.abs(this.m10))),
+				Math.max(
+						Math.max(Math.abs(this.m11), Math.abs(this.m12)),
+						Math.max(Math.abs(this.m20),
+								Math.max(Math.abs(this.m21),
+										Math.abs(this.m22)))));
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,22 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Model of the head motion used to extrapolate the orientation past the
+ * last gyroscope sample. A predictor is fed the bias-corrected gyroscope
+ * samples in order and summarizes them as an angular velocity and an
+ * angular acceleration at the last sample; the orientation t seconds later
+ * is exp(-(velocity * t + acceleration * t^2 / 2)) * so3SensorFromWorld.
+ *
+ * <p>
+ * Implementations are only called by the thread that updates the filter and
+ * need no synchronization of their own.
+ */
+public abstract interface MotionPredictor {
+	public abstract void reset();
+
+	public abstract void addGyroSample(double x, double y, double z,
+			long timestampNs);
+
+	public abstract void getState(Vector3d angularVelocity,
+			Vector3d angularAcceleration);
+}
@@ -1,18 +1,18 @@
 package com.google.vrtoolkit.cardboard.sensors.internal;
 
-public class OrientationEKF {
+public class OrientationEKF implements FusionEngine {
+	private static final int POSE_HISTORY_CAPACITY = 1024;
 	private static final float NS2S = 1.0E-009F;
-	private static final double MIN_ACCEL_NOISE_SIGMA = 0.75D;
-	private static final double MAX_ACCEL_NOISE_SIGMA = 7.0D;
+	public static final int DEFAULT_GRAVITY_INIT_SAMPLES = GravityAverager.DEFAULT_SAMPLE_COUNT;
 	private double[] rotationMatrix = new double[16];
 
 	private Matrix3x3d so3SensorFromWorld = new Matrix3x3d();
 	private Matrix3x3d so3LastMotion = new Matrix3x3d();
-	private Matrix3x3d mP = new Matrix3x3d();
-	private Matrix3x3d mQ = new Matrix3x3d();
-	private Matrix3x3d mR = new Matrix3x3d();
-	private Matrix3x3d mRaccel = new Matrix3x3d();
-	private Matrix3x3d mS = new Matrix3x3d();
+	private double[] mP = new double[CovarianceKernels.SIZE];
+	private double mQ;
+	private double mR;
+	private double mRaccel;
+	private double[] mS = new double[CovarianceKernels.SIZE];
 	private Matrix3x3d mH = new Matrix3x3d();
 	private Matrix3x3d mK = new Matrix3x3d();
 	private Vector3d mNu = new Vector3d();
@@ -25,49 +25,65 @@ public class OrientationEKF {
 	private long sensorTimeStampGyro;
 	private final Vector3d lastGyro = new Vector3d();
 
-	private double previousAccelNorm = 0.0D;
-
-	private double movingAverageAccelNormChange = 0.0D;
-	private float filteredGyroTimestep;
-	private boolean timestepFilterInit = false;
-	private int numGyroTimestepSamples;
-	private boolean gyroFilterValid = true;
+	private final AccelNoiseModel accelNoiseModel = new AccelNoiseModel();
+	private final GyroTimestepFilter gyroTimestepFilter = new GyroTimestepFilter();
 
 	private Matrix3x3d getPredictedGLMatrixTempM1 = new Matrix3x3d();
 	private Matrix3x3d getPredictedGLMatrixTempM2 = new Matrix3x3d();
 	private Vector3d getPredictedGLMatrixTempV1 = new Vector3d();
+	private Vector3d getPredictedGLMatrixTempV2 = new Vector3d();
+	private MotionPredictor motionPredictor = new ConstantVelocityPredictor();
 
 	private Matrix3x3d setHeadingDegreesTempM1 = new Matrix3x3d();
 
 	private Matrix3x3d processGyroTempM1 = new Matrix3x3d();
-	private Matrix3x3d processGyroTempM2 = new Matrix3x3d();
 
 	private Matrix3x3d processAccTempM1 = new Matrix3x3d();
 	private Matrix3x3d processAccTempM2 = new Matrix3x3d();
-	private Matrix3x3d processAccTempM3 = new Matrix3x3d();
-	private Matrix3x3d processAccTempM4 = new Matrix3x3d();
-	private Matrix3x3d processAccTempM5 = new Matrix3x3d();
 	private Vector3d processAccTempV1 = new Vector3d();
 	private Vector3d processAccTempV2 = new Vector3d();
 	private Vector3d processAccVDelta = new Vector3d();
+	private Vector3d processAccTempV3 = new Vector3d();
+	private AccelerometerUpdatePolicy accelUpdatePolicy;
+
+	private final GravityAlignment gravityAlignment = new GravityAlignment();
 
 	private Vector3d processMagTempV1 = new Vector3d();
 	private Vector3d processMagTempV2 = new Vector3d();
 	private Vector3d processMagTempV3 = new Vector3d();
 	private Vector3d processMagTempV4 = new Vector3d();
 	private Vector3d processMagTempV5 = new Vector3d();
+	private Vector3d processMagTempV6 = new Vector3d();
 	private Matrix3x3d processMagTempM1 = new Matrix3x3d();
 	private Matrix3x3d processMagTempM2 = new Matrix3x3d();
 	private Matrix3x3d processMagTempM4 = new Matrix3x3d();
-	private Matrix3x3d processMagTempM5 = new Matrix3x3d();
-	private Matrix3x3d processMagTempM6 = new Matrix3x3d();
 
-	private Matrix3x3d updateCovariancesAfterMotionTempM1 = new Matrix3x3d();
-	private Matrix3x3d updateCovariancesAfterMotionTempM2 = new Matrix3x3d();
+	private Matrix3x3d batchStartSensorFromWorld = new Matrix3x3d();
+	private double batchedMotionNoiseScale;
+	private boolean hasBatchedMotion;
+	private boolean gyroPreintegrationEnabled;
+	private Matrix3x3d processBatchTempM1 = new Matrix3x3d();
+	private Matrix3x3d processBatchTempM2 = new Matrix3x3d();
+	private Vector3d processBatchTempV1 = new Vector3d();
 
 	private Matrix3x3d accObservationFunctionForNumericalJacobianTempM = new Matrix3x3d();
 
 	private Matrix3x3d magObservationFunctionForNumericalJacobianTempM = new Matrix3x3d();
+
+	private Vector3d analyticJacobianTempA = new Vector3d();
+	private Vector3d analyticJacobianTempB = new Vector3d();
+	private Vector3d analyticJacobianTempC = new Vector3d();
+	private Vector3d analyticJacobianTempN = new Vector3d();
+	private Vector3d analyticJacobianTempDa = new Vector3d();
+	private Vector3d analyticJacobianTempT = new Vector3d();
+	private Vector3d analyticJacobianTempE = new Vector3d();
+	private boolean analyticJacobianEnabled = true;
+
+	private final So3Util.Workspace so3Workspace = new So3Util.Workspace();
+
+	private final OrientationSnapshotBuffer snapshotBuffer = new OrientationSnapshotBuffer();
+	private final PoseHistory poseHistory = new PoseHistory(
+			POSE_HISTORY_CAPACITY);
 	private boolean alignedToGravity;
 	private boolean alignedToNorth;
 
@@ -76,6 +92,10 @@ public class OrientationEKF {
 	}
 
 	public synchronized void reset() {
+		resetState(false);
+	}
+
+	private void resetState(boolean warmStart) {
 		this.sensorTimeStampGyro = 0L;
 
 		this.so3SensorFromWorld.setIdentity();
@@ -83,21 +103,18 @@ public class OrientationEKF {
 
 		double initialSigmaP = 5.0D;
 
-		this.mP.setZero();
-		this.mP.setSameDiagonal(25.0D);
+		CovarianceKernels.setIsotropic(GravityAlignment.INITIAL_VARIANCE,
+				this.mP);
 
 		double initialSigmaQ = 1.0D;
-		this.mQ.setZero();
-		this.mQ.setSameDiagonal(1.0D);
+		this.mQ = 1.0D;
 
 		double initialSigmaR = 0.25D;
-		this.mR.setZero();
-		this.mR.setSameDiagonal(0.0625D);
+		this.mR = 0.0625D;
 
-		this.mRaccel.setZero();
-		this.mRaccel.setSameDiagonal(0.5625D);
+		this.mRaccel = 0.5625D;
 
-		this.mS.setZero();
+		CovarianceKernels.setIsotropic(0.0D, this.mS);
 		this.mH.setZero();
 		this.mK.setZero();
 		this.mNu.setZero();
@@ -111,6 +128,63 @@ public class OrientationEKF {
 
 		this.alignedToGravity = false;
 		this.alignedToNorth = false;
+
+		this.gravityAlignment.reset(warmStart);
+
+		this.hasBatchedMotion = false;
+		this.poseHistory.clear();
+		this.motionPredictor.reset();
+		publishSnapshot();
+	}
+
+	/**
+	 * Resets the filter, but remembers the current orientation and
+	 * covariance if it was aligned. If the gravity measured during the next
+	 * initialization agrees with the remembered orientation, tracking
+	 * continues from it, keeping the heading; otherwise the filter starts
+	 * over as after {@link #reset()}.
+	 */
+	public synchronized void resetWithWarmStart() {
+		applyBatchedMotion();
+		boolean aligned = this.alignedToGravity;
+		if (aligned) {
+			this.gravityAlignment.setWarmStart(this.so3SensorFromWorld, this.mP);
+		}
+		resetState(aligned);
+	}
+
+	/**
+	 * Sets how many accelerometer samples are averaged to find gravity
+	 * before the filter is aligned. 1 aligns to the first sample with the
+	 * initial covariance, as before averaging was added. Takes effect with
+	 * the next reset.
+	 */
+	public synchronized void setGravityInitSampleCount(int count) {
+		this.gravityAlignment.setSampleCount(count);
+	}
+
+	public synchronized int getGravityInitSampleCount() {
+		return this.gravityAlignment.getSampleCount();
+	}
+
+	/**
+	 * Returns the sensor time from the first accelerometer sample after the
+	 * last reset until the filter was aligned to gravity, or -1 if it is not
+	 * aligned yet.
+	 */
+	public synchronized long getTimeToReadyNs() {
+		return this.gravityAlignment.getTimeToReadyNs();
+	}
+
+	/**
+	 * Returns the sensor time from the first accelerometer sample after the
+	 * last reset until the pose was stable, or -1 if it is not stable yet.
+	 * The pose is stable once STABLE_UPDATE_COUNT accelerometer corrections
+	 * in a row each rotated it by less than STABLE_CORRECTION_ANGLE, see
+	 * {@link GravityAlignment#addCorrection}.
+	 */
+	public synchronized long getTimeToStableNs() {
+		return this.gravityAlignment.getTimeToStableNs();
 	}
 
 	public boolean isReady() {
@@ -118,8 +192,8 @@ public class OrientationEKF {
 	}
 
 	public double getHeadingDegrees() {
-		double x = this.so3SensorFromWorld.get(2, 0);
-		double y = this.so3SensorFromWorld.get(2, 1);
+		double x = this.so3SensorFromWorld.m20;
+		double y = this.so3SensorFromWorld.m21;
 		double mag = Math.sqrt(x * x + y * y);
 
 		if (mag < 0.1D) {
@@ -138,6 +212,7 @@ public class OrientationEKF {
 	}
 
 	public synchronized void setHeadingDegrees(double heading) {
+		applyBatchedMotion();
 		double currentHeading = getHeadingDegrees();
 		double deltaHeading = heading - currentHeading;
 		double s = Math.sin(deltaHeading / 180.0D * 3.141592653589793D);
@@ -149,16 +224,22 @@ public class OrientationEKF {
 		arrayAssign(deltaHeadingRotationVals, this.setHeadingDegreesTempM1);
 		Matrix3x3d.mult(this.so3SensorFromWorld, this.setHeadingDegreesTempM1,
 				this.so3SensorFromWorld);
+
+		publishSnapshot();
 	}
 
 	public double[] getGLMatrix() {
 		return glMatrixFromSo3(this.so3SensorFromWorld);
 	}
 
-	public double[] getPredictedGLMatrix(double secondsAfterLastGyroEvent) {
+	public synchronized double[] getPredictedGLMatrix(
+			double secondsAfterLastGyroEvent) {
 		double dT = secondsAfterLastGyroEvent;
 		Vector3d pmu = this.getPredictedGLMatrixTempV1;
-		pmu.set(this.lastGyro);
+		Vector3d acceleration = this.getPredictedGLMatrixTempV2;
+		this.motionPredictor.getState(pmu, acceleration);
+		acceleration.scale(0.5D * dT);
+		Vector3d.add(pmu, acceleration, pmu);
 		pmu.scale(-dT);
 		Matrix3x3d so3PredictedMotion = this.getPredictedGLMatrixTempM1;
 		So3Util.sO3FromMu(pmu, so3PredictedMotion);
@@ -174,6 +255,65 @@ public class OrientationEKF {
 		return this.so3SensorFromWorld;
 	}
 
+	/**
+	 * Selects the motion model used for prediction, fed from the next
+	 * gyroscope sample on. The default is a {@link ConstantVelocityPredictor}.
+	 */
+	public synchronized void setMotionPredictor(MotionPredictor predictor) {
+		if (predictor == null) {
+			throw new IllegalArgumentException("predictor should not be null");
+		}
+		predictor.reset();
+		this.motionPredictor = predictor;
+		publishSnapshot();
+	}
+
+	public synchronized MotionPredictor getMotionPredictor() {
+		return this.motionPredictor;
+	}
+
+	/**
+	 * Lets policy skip accelerometer corrections that would change little.
+	 * Null, the default, corrects with every sample. Resets the policy's
+	 * counters.
+	 */
+	public synchronized void setAccelerometerUpdatePolicy(
+			AccelerometerUpdatePolicy policy) {
+		if (policy != null) {
+			policy.resetCounts();
+		}
+		this.accelUpdatePolicy = policy;
+	}
+
+	public synchronized AccelerometerUpdatePolicy getAccelerometerUpdatePolicy() {
+		return this.accelUpdatePolicy;
+	}
+
+	/**
+	 * Returns how many gyroscope timesteps exceeded 40 ms and were replaced
+	 * by the filtered timestep since this filter was created.
+	 */
+	public long getClampedGyroTimestepCount() {
+		return this.gyroTimestepFilter.getClampedCount();
+	}
+
+	/**
+	 * Returns the history of orientations after each gyroscope update, in
+	 * the sensor time base. Safe to query from any thread.
+	 */
+	public PoseHistory getPoseHistory() {
+		return this.poseHistory;
+	}
+
+	/**
+	 * Returns the state published by the last completed update without
+	 * taking the filter lock. Must only be called from a single reader
+	 * thread; see {@link OrientationSnapshotBuffer}.
+	 */
+	public OrientationSnapshot getLatestSnapshot() {
+		return this.snapshotBuffer.getLatest();
+	}
+
 	public static void arrayAssign(double[][] data, Matrix3x3d m) {
 		assert (3 == data.length);
 		assert (3 == data[0].length);
@@ -191,16 +331,47 @@ public class OrientationEKF {
 		return this.alignedToNorth;
 	}
 
+	/**
+	 * Selects between the closed-form measurement Jacobians and the original
+	 * finite-difference ones, which are kept as a reference implementation.
+	 */
+	public synchronized void setAnalyticJacobianEnabled(boolean enabled) {
+		this.analyticJacobianEnabled = enabled;
+	}
+
+	public synchronized boolean getAnalyticJacobianEnabled() {
+		return this.analyticJacobianEnabled;
+	}
+
+	/**
+	 * In pre-integration mode each gyroscope sample only updates the
+	 * orientation; the motion and process noise of consecutive samples are
+	 * accumulated and propagated into the covariance once, before the next
+	 * accelerometer or magnetometer update. This makes gyroscope updates
+	 * cheaper at high sample rates with the same result as the per-sample
+	 * path, see {@link #processGyroBatch}.
+	 */
+	public synchronized void setGyroPreintegrationEnabled(boolean enabled) {
+		if (!enabled) {
+			applyBatchedMotion();
+		}
+		this.gyroPreintegrationEnabled = enabled;
+	}
+
+	public synchronized boolean getGyroPreintegrationEnabled() {
+		return this.gyroPreintegrationEnabled;
+	}
+
 	public synchronized void processGyro(Vector3d gyro, long sensorTimeStamp) {
-		float kTimeThreshold = 0.04F;
-		float kdTdefault = 0.01F;
+		if (this.gyroPreintegrationEnabled) {
+			integrateGyroSample(gyro.x, gyro.y, gyro.z, sensorTimeStamp);
+			publishSnapshot();
+			return;
+		}
+
 		if (this.sensorTimeStampGyro != 0L) {
-			float dT = (float) (sensorTimeStamp - this.sensorTimeStampGyro) * 1.0E-009F;
-			if (dT > 0.04F)
-				dT = this.gyroFilterValid ? this.filteredGyroTimestep : 0.01F;
-			else {
-				filterGyroTimestep(dT);
-			}
+			float dT = this.gyroTimestepFilter.getTimestep(
+					this.sensorTimeStampGyro, sensorTimeStamp);
 
 			this.mu.set(gyro);
 			this.mu.scale(-dT);
@@ -211,103 +382,200 @@ public class OrientationEKF {
 					this.processGyroTempM1);
 			this.so3SensorFromWorld.set(this.processGyroTempM1);
 
-			updateCovariancesAfterMotion();
-
-			this.processGyroTempM2.set(this.mQ);
-			this.processGyroTempM2.scale(dT * dT);
-			this.mP.plusEquals(this.processGyroTempM2);
+			updateCovariancesAfterMotion(this.mQ * dT * dT);
 		}
 		this.sensorTimeStampGyro = sensorTimeStamp;
 		this.lastGyro.set(gyro);
+		this.motionPredictor.addGyroSample(gyro.x, gyro.y, gyro.z,
+				sensorTimeStamp);
+		this.poseHistory.add(sensorTimeStamp, this.so3SensorFromWorld, gyro.x,
+				gyro.y, gyro.z);
+
+		publishSnapshot();
 	}
 
-	private void updateAccelCovariance(double currentAccelNorm) {
-		double currentAccelNormChange = Math.abs(currentAccelNorm
-				- this.previousAccelNorm);
-		this.previousAccelNorm = currentAccelNorm;
+	/**
+	 * Processes count consecutive gyroscope samples under a single lock.
+	 * Samples are packed as x, y, z triples in xyz. The orientation is
+	 * updated per sample, while the per-sample rotations are composed into
+	 * one motion and the covariance is propagated once for the whole batch.
+	 * This is equivalent to calling processGyro per sample because mQ is
+	 * isotropic, so the rotated process noise terms sum to mQ * sum(dT^2).
+	 */
+	public synchronized void processGyroBatch(double[] xyz, long[] timestamps,
+			int count) {
+		for (int i = 0; i < count; i++) {
+			integrateGyroSample(xyz[(3 * i)], xyz[(3 * i + 1)],
+					xyz[(3 * i + 2)], timestamps[i]);
+		}
+		if (!this.gyroPreintegrationEnabled) {
+			applyBatchedMotion();
+		}
+		publishSnapshot();
+	}
 
-		double kSmoothingFactor = 0.5D;
-		this.movingAverageAccelNormChange = (0.5D * currentAccelNormChange + 0.5D * this.movingAverageAccelNormChange);
+	/**
+	 * Processes count samples of mixed types in timestamp order under a
+	 * single lock. types holds one of the SAMPLE_TYPE_ constants per sample
+	 * and xyz holds the matching x, y, z triples. Runs of gyroscope samples
+	 * are integrated as in {@link #processGyroBatch}; their motion is
+	 * propagated into the covariance before each accelerometer or
+	 * magnetometer update.
+	 */
+	public synchronized void processSampleBatch(int[] types, double[] xyz,
+			long[] timestamps, int count) {
+		for (int i = 0; i < count; i++) {
+			double x = xyz[(3 * i)];
+			double y = xyz[(3 * i + 1)];
+			double z = xyz[(3 * i + 2)];
+			switch (types[i]) {
+			case SAMPLE_TYPE_GYROSCOPE:
+				integrateGyroSample(x, y, z, timestamps[i]);
+				break;
+			case SAMPLE_TYPE_ACCELEROMETER:
+				applyBatchedMotion();
+				this.processBatchTempV1.set(x, y, z);
+				processAccSample(this.processBatchTempV1, timestamps[i]);
+				break;
+			case SAMPLE_TYPE_MAGNETOMETER:
+				applyBatchedMotion();
+				processMagSample(x, y, z, timestamps[i]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown sample type: "
+						+ types[i]);
+			}
+		}
+		if (!this.gyroPreintegrationEnabled) {
+			applyBatchedMotion();
+		}
+		publishSnapshot();
+	}
 
-		double kMaxAccelNormChange = 0.15D;
+	private void integrateGyroSample(double x, double y, double z,
+			long sensorTimeStamp) {
+		if (this.sensorTimeStampGyro != 0L) {
+			float dT = this.gyroTimestepFilter.getTimestep(
+					this.sensorTimeStampGyro, sensorTimeStamp);
 
-		double normChangeRatio = this.movingAverageAccelNormChange / 0.15D;
-		double accelNoiseSigma = Math
-				.min(7.0D, 0.75D + normChangeRatio * 6.25D);
+			this.mu.set(x, y, z);
+			this.mu.scale(-dT);
+			So3Util.sO3FromMu(this.mu, this.processBatchTempM1);
+			Matrix3x3d.mult(this.processBatchTempM1, this.so3SensorFromWorld,
+					this.processBatchTempM2);
+			if (!this.hasBatchedMotion) {
+				this.batchStartSensorFromWorld.set(this.so3SensorFromWorld);
+				this.batchedMotionNoiseScale = 0.0D;
+				this.hasBatchedMotion = true;
+			}
+			this.so3SensorFromWorld.set(this.processBatchTempM2);
+			this.batchedMotionNoiseScale += dT * dT;
+		}
+		this.sensorTimeStampGyro = sensorTimeStamp;
+		this.lastGyro.set(x, y, z);
+		this.motionPredictor.addGyroSample(x, y, z, sensorTimeStamp);
+		this.poseHistory.add(sensorTimeStamp, this.so3SensorFromWorld, x, y,
+				z);
+	}
 
-		this.mRaccel.setSameDiagonal(accelNoiseSigma * accelNoiseSigma);
+	/**
+	 * Propagates the covariance through the gyroscope motion integrated by
+	 * {@link #integrateGyroSample} since the first pending sample. The
+	 * orientation already includes that motion, so it is recovered as
+	 * so3SensorFromWorld * batchStartSensorFromWorld^T instead of being
+	 * composed sample by sample.
+	 */
+	private void applyBatchedMotion() {
+		if (!this.hasBatchedMotion) {
+			return;
+		}
+		this.batchStartSensorFromWorld.transpose(this.processBatchTempM1);
+		Matrix3x3d.mult(this.so3SensorFromWorld, this.processBatchTempM1,
+				this.so3LastMotion);
+		updateCovariancesAfterMotion(this.mQ * this.batchedMotionNoiseScale);
+		this.hasBatchedMotion = false;
 	}
 
 	public synchronized void processAcc(Vector3d acc, long sensorTimeStamp) {
+		applyBatchedMotion();
+		processAccSample(acc, sensorTimeStamp);
+		publishSnapshot();
+	}
+
+	private void processAccSample(Vector3d acc, long sensorTimeStamp) {
 		this.mz.set(acc);
-		updateAccelCovariance(this.mz.length());
+		this.mRaccel = this.accelNoiseModel.update(this.mz.length());
 
 		if (this.alignedToGravity) {
 			accObservationFunctionForNumericalJacobian(this.so3SensorFromWorld,
 					this.mNu);
 
-			double eps = 1.0E-007D;
-			for (int dof = 0; dof < 3; dof++) {
-				Vector3d delta = this.processAccVDelta;
-				delta.setZero();
-				delta.setComponent(dof, eps);
-
-				So3Util.sO3FromMu(delta, this.processAccTempM1);
-				Matrix3x3d.mult(this.processAccTempM1, this.so3SensorFromWorld,
-						this.processAccTempM2);
-
-				accObservationFunctionForNumericalJacobian(
-						this.processAccTempM2, this.processAccTempV1);
-
-				Vector3d withDelta = this.processAccTempV1;
-
-				Vector3d.sub(this.mNu, withDelta, this.processAccTempV2);
-				this.processAccTempV2.scale(1.0D / eps);
-				this.mH.setColumn(dof, this.processAccTempV2);
+			if ((this.accelUpdatePolicy != null)
+					&& (this.accelUpdatePolicy.shouldSkipUpdate(
+							getTiltVariance(), this.mNu.length(),
+							this.accelNoiseModel.getMovingAverageNormChange()))) {
+				return;
 			}
 
-			this.mH.transpose(this.processAccTempM3);
-			Matrix3x3d.mult(this.mP, this.processAccTempM3,
-					this.processAccTempM4);
-			Matrix3x3d.mult(this.mH, this.processAccTempM4,
-					this.processAccTempM5);
-			Matrix3x3d.add(this.processAccTempM5, this.mRaccel, this.mS);
+			if (!this.analyticJacobianEnabled
+					|| !observationJacobian(this.mh, this.mz, this.mH)) {
+				computeAccNumericalJacobian();
+			}
 
-			this.mS.invert(this.processAccTempM3);
-			this.mH.transpose(this.processAccTempM4);
-			Matrix3x3d.mult(this.processAccTempM4, this.processAccTempM3,
-					this.processAccTempM5);
-			Matrix3x3d.mult(this.mP, this.processAccTempM5, this.mK);
+			CovarianceKernels.innovationCovariance(this.mP, this.mH,
+					this.mRaccel, this.mS);
+			if (!CovarianceKernels.kalmanGain(this.mP, this.mH, this.mS,
+					this.mK)) {
+				return;
+			}
 
 			Matrix3x3d.mult(this.mK, this.mNu, this.mx);
+			this.gravityAlignment.addCorrection(this.mx.length(),
+					sensorTimeStamp);
 
-			Matrix3x3d.mult(this.mK, this.mH, this.processAccTempM3);
-			this.processAccTempM4.setIdentity();
-			this.processAccTempM4.minusEquals(this.processAccTempM3);
-			Matrix3x3d.mult(this.processAccTempM4, this.mP,
-					this.processAccTempM3);
-			this.mP.set(this.processAccTempM3);
+			CovarianceKernels.josephUpdate(this.mP, this.mK, this.mH,
+					this.mRaccel, this.mP);
 
 			So3Util.sO3FromMu(this.mx, this.so3LastMotion);
 
 			Matrix3x3d.mult(this.so3LastMotion, this.so3SensorFromWorld,
 					this.so3SensorFromWorld);
 
-			updateCovariancesAfterMotion();
+			updateCovariancesAfterMotion(0.0D);
 		} else {
-			So3Util.sO3FromTwoVec(this.down, this.mz, this.so3SensorFromWorld);
-			this.alignedToGravity = true;
+			this.alignedToGravity = this.gravityAlignment.align(this.mz,
+					sensorTimeStamp, this.so3SensorFromWorld, this.mP);
 		}
 	}
 
+	/**
+	 * Returns the variance of the orientation about the axes perpendicular
+	 * to the predicted gravity direction mh, i.e. of the part the
+	 * accelerometer observes.
+	 */
+	private double getTiltVariance() {
+		Vector3d g = this.processAccTempV3;
+		g.set(this.mh);
+		g.normalize();
+		return CovarianceKernels.trace(this.mP)
+				- CovarianceKernels.quadraticForm(this.mP, g);
+	}
+
 	public synchronized void processMag(float[] mag, long sensorTimeStamp) {
+		applyBatchedMotion();
+		processMagSample(mag[0], mag[1], mag[2], sensorTimeStamp);
+		publishSnapshot();
+	}
+
+	private void processMagSample(double magX, double magY, double magZ,
+			long sensorTimeStamp) {
 		if (!this.alignedToGravity) {
 			return;
 		}
-		this.mz.set(mag[0], mag[1], mag[2]);
+		this.mz.set(magX, magY, magZ);
 		this.mz.normalize();
 
-		Vector3d downInSensorFrame = new Vector3d();
+		Vector3d downInSensorFrame = this.processMagTempV6;
 		this.so3SensorFromWorld.getColumn(2, downInSensorFrame);
 
 		Vector3d.cross(this.mz, downInSensorFrame, this.processMagTempV1);
@@ -325,48 +593,22 @@ public class OrientationEKF {
 			magObservationFunctionForNumericalJacobian(this.so3SensorFromWorld,
 					this.mNu);
 
-			double eps = 1.0E-007D;
-			for (int dof = 0; dof < 3; dof++) {
-				Vector3d delta = this.processMagTempV3;
-				delta.setZero();
-				delta.setComponent(dof, eps);
-
-				So3Util.sO3FromMu(delta, this.processMagTempM1);
-				Matrix3x3d.mult(this.processMagTempM1, this.so3SensorFromWorld,
-						this.processMagTempM2);
-
-				magObservationFunctionForNumericalJacobian(
-						this.processMagTempM2, this.processMagTempV4);
-
-				Vector3d withDelta = this.processMagTempV4;
-
-				Vector3d.sub(this.mNu, withDelta, this.processMagTempV5);
-				this.processMagTempV5.scale(1.0D / eps);
-
-				this.mH.setColumn(dof, this.processMagTempV5);
+			if (!this.analyticJacobianEnabled
+					|| !observationJacobian(this.mh, this.mz, this.mH)) {
+				computeMagNumericalJacobian();
 			}
 
-			this.mH.transpose(this.processMagTempM4);
-			Matrix3x3d.mult(this.mP, this.processMagTempM4,
-					this.processMagTempM5);
-			Matrix3x3d.mult(this.mH, this.processMagTempM5,
-					this.processMagTempM6);
-			Matrix3x3d.add(this.processMagTempM6, this.mR, this.mS);
-
-			this.mS.invert(this.processMagTempM4);
-			this.mH.transpose(this.processMagTempM5);
-			Matrix3x3d.mult(this.processMagTempM5, this.processMagTempM4,
-					this.processMagTempM6);
-			Matrix3x3d.mult(this.mP, this.processMagTempM6, this.mK);
+			CovarianceKernels.innovationCovariance(this.mP, this.mH, this.mR,
+					this.mS);
+			if (!CovarianceKernels.kalmanGain(this.mP, this.mH, this.mS,
+					this.mK)) {
+				return;
+			}
 
 			Matrix3x3d.mult(this.mK, this.mNu, this.mx);
 
-			Matrix3x3d.mult(this.mK, this.mH, this.processMagTempM4);
-			this.processMagTempM5.setIdentity();
-			this.processMagTempM5.minusEquals(this.processMagTempM4);
-			Matrix3x3d.mult(this.processMagTempM5, this.mP,
-					this.processMagTempM4);
-			this.mP.set(this.processMagTempM4);
+			CovarianceKernels.josephUpdate(this.mP, this.mK, this.mH,
+					this.mR, this.mP);
 
 			So3Util.sO3FromMu(this.mx, this.so3LastMotion);
 
@@ -374,7 +616,7 @@ public class OrientationEKF {
 					this.processMagTempM4);
 			this.so3SensorFromWorld.set(this.processMagTempM4);
 
-			updateCovariancesAfterMotion();
+			updateCovariancesAfterMotion(0.0D);
 		} else {
 			magObservationFunctionForNumericalJacobian(this.so3SensorFromWorld,
 					this.mNu);
@@ -384,70 +626,205 @@ public class OrientationEKF {
 					this.processMagTempM4);
 			this.so3SensorFromWorld.set(this.processMagTempM4);
 
-			updateCovariancesAfterMotion();
+			updateCovariancesAfterMotion(0.0D);
 			this.alignedToNorth = true;
 		}
 	}
 
 	private double[] glMatrixFromSo3(Matrix3x3d so3) {
-		for (int r = 0; r < 3; r++)
-			for (int c = 0; c < 3; c++) {
-				this.rotationMatrix[(4 * c + r)] = so3.get(r, c);
-			}
-		double tmp62_61 = (this.rotationMatrix[11] = 0.0D);
-		this.rotationMatrix[7] = tmp62_61;
-		this.rotationMatrix[3] = tmp62_61;
-		double tmp86_85 = (this.rotationMatrix[14] = 0.0D);
-		this.rotationMatrix[13] = tmp86_85;
-		this.rotationMatrix[12] = tmp86_85;
+		so3.getGLMatrix(this.rotationMatrix);
+		return this.rotationMatrix;
+	}
+
+	private void publishSnapshot() {
+		OrientationSnapshot snapshot = this.snapshotBuffer.getBack();
+		snapshot.so3SensorFromWorld.set(this.so3SensorFromWorld);
+		snapshot.lastGyro.set(this.lastGyro);
+		this.motionPredictor.getState(snapshot.predictedVelocity,
+				snapshot.predictedAcceleration);
+		snapshot.gyroTimestampNs = this.sensorTimeStampGyro;
+		snapshot.ready = this.alignedToGravity;
+		this.snapshotBuffer.publish();
+	}
 
-		this.rotationMatrix[15] = 1.0D;
+	/**
+	 * Propagates the covariance through so3LastMotion and adds processNoise
+	 * times the identity, then clears the motion.
+	 */
+	private void updateCovariancesAfterMotion(double processNoise) {
+		CovarianceKernels.propagate(this.mP, this.so3LastMotion, processNoise,
+				this.mP);
+		this.so3LastMotion.setIdentity();
+	}
 
-		return this.rotationMatrix;
+	private void computeAccNumericalJacobian() {
+		double eps = 1.0E-007D;
+		for (int dof = 0; dof < 3; dof++) {
+			Vector3d delta = this.processAccVDelta;
+			delta.setZero();
+			delta.setComponent(dof, eps);
+
+			So3Util.sO3FromMu(delta, this.processAccTempM1);
+			Matrix3x3d.mult(this.processAccTempM1, this.so3SensorFromWorld,
+					this.processAccTempM2);
+
+			accObservationFunctionForNumericalJacobian(
+					this.processAccTempM2, this.processAccTempV1);
+
+			Vector3d withDelta = this.processAccTempV1;
+
+			Vector3d.sub(this.mNu, withDelta, this.processAccTempV2);
+			this.processAccTempV2.scale(1.0D / eps);
+			this.mH.setColumn(dof, this.processAccTempV2);
+		}
 	}
 
-	private void filterGyroTimestep(float timeStep) {
-		float kFilterCoeff = 0.95F;
-		float kMinSamples = 10.0F;
-		if (!this.timestepFilterInit) {
-			this.filteredGyroTimestep = timeStep;
-			this.numGyroTimestepSamples = 1;
-			this.timestepFilterInit = true;
-		} else {
-			this.filteredGyroTimestep = (0.95F * this.filteredGyroTimestep + 0.05000001F * timeStep);
+	private void computeMagNumericalJacobian() {
+		double eps = 1.0E-007D;
+		for (int dof = 0; dof < 3; dof++) {
+			Vector3d delta = this.processMagTempV3;
+			delta.setZero();
+			delta.setComponent(dof, eps);
+
+			So3Util.sO3FromMu(delta, this.processMagTempM1);
+			Matrix3x3d.mult(this.processMagTempM1, this.so3SensorFromWorld,
+					this.processMagTempM2);
+
+			magObservationFunctionForNumericalJacobian(
+					this.processMagTempM2, this.processMagTempV4);
+
+			Vector3d withDelta = this.processMagTempV4;
+
+			Vector3d.sub(this.mNu, withDelta, this.processMagTempV5);
+			this.processMagTempV5.scale(1.0D / eps);
+
+			this.mH.setColumn(dof, this.processMagTempV5);
+		}
+	}
+
+	/**
+	 * Writes the covariance, packed as in {@link CovarianceKernels}, to
+	 * result.
+	 */
+	synchronized void getCovarianceForTest(double[] result) {
+		applyBatchedMotion();
+		System.arraycopy(this.mP, 0, result, 0, CovarianceKernels.SIZE);
+	}
 
-			if (++this.numGyroTimestepSamples > 10.0F)
-				this.gyroFilterValid = true;
+	/**
+	 * Sets the orientation to sensorFromWorld and writes the Jacobian that
+	 * an accelerometer update with acc would use to result, selected as by
+	 * {@link #setAnalyticJacobianEnabled}.
+	 */
+	synchronized void computeAccJacobianForTest(Matrix3x3d sensorFromWorld,
+			Vector3d acc, Matrix3x3d result) {
+		this.so3SensorFromWorld.set(sensorFromWorld);
+		this.mz.set(acc);
+		accObservationFunctionForNumericalJacobian(this.so3SensorFromWorld,
+				this.mNu);
+		if (!this.analyticJacobianEnabled
+				|| !observationJacobian(this.mh, this.mz, this.mH)) {
+			computeAccNumericalJacobian();
 		}
+		result.set(this.mH);
 	}
 
-	private void updateCovariancesAfterMotion() {
-		this.so3LastMotion.transpose(this.updateCovariancesAfterMotionTempM1);
-		Matrix3x3d.mult(this.mP, this.updateCovariancesAfterMotionTempM1,
-				this.updateCovariancesAfterMotionTempM2);
+	/**
+	 * Magnetometer counterpart of {@link #computeAccJacobianForTest}; mag is
+	 * used as the horizontal field direction without projecting it.
+	 */
+	synchronized void computeMagJacobianForTest(Matrix3x3d sensorFromWorld,
+			Vector3d mag, Matrix3x3d result) {
+		this.so3SensorFromWorld.set(sensorFromWorld);
+		this.mz.set(mag);
+		this.mz.normalize();
+		magObservationFunctionForNumericalJacobian(this.so3SensorFromWorld,
+				this.mNu);
+		if (!this.analyticJacobianEnabled
+				|| !observationJacobian(this.mh, this.mz, this.mH)) {
+			computeMagNumericalJacobian();
+		}
+		result.set(this.mH);
+	}
 
-		Matrix3x3d.mult(this.so3LastMotion,
-				this.updateCovariancesAfterMotionTempM2, this.mP);
-		this.so3LastMotion.setIdentity();
+	/**
+	 * Closed-form Jacobian of mu = log(R(a, b)), where R(a, b) is the
+	 * rotation taking the predicted direction a onto the measurement b, with
+	 * respect to a left perturbation exp(delta) of the state. Matches the
+	 * sign convention of the numerical Jacobian (h(x) - h(x + delta)) / eps.
+	 * Returns false near the antiparallel singularity, where callers fall
+	 * back to the numerical Jacobian.
+	 */
+	private boolean observationJacobian(Vector3d predicted,
+			Vector3d measured, Matrix3x3d result) {
+		Vector3d a = this.analyticJacobianTempA;
+		Vector3d b = this.analyticJacobianTempB;
+		a.set(predicted);
+		b.set(measured);
+		a.normalize();
+		b.normalize();
+
+		Vector3d c = this.analyticJacobianTempC;
+		Vector3d.cross(a, b, c);
+		double sinAngle = c.length();
+		double cosAngle = Vector3d.dot(a, b);
+		if ((sinAngle < 1.0E-006D) && (cosAngle < 0.0D)) {
+			return false;
+		}
+
+		double angleOverSin;
+		double kN;
+		Vector3d n = this.analyticJacobianTempN;
+		if (sinAngle < 1.0E-006D) {
+			angleOverSin = 1.0D + sinAngle * sinAngle / 6.0D;
+			kN = 0.0D;
+			n.setZero();
+		} else {
+			angleOverSin = Math.atan2(sinAngle, cosAngle) / sinAngle;
+			kN = cosAngle - angleOverSin;
+			n.set(c);
+			n.scale(1.0D / sinAngle);
+		}
+
+		Vector3d e = this.analyticJacobianTempE;
+		Vector3d da = this.analyticJacobianTempDa;
+		Vector3d t = this.analyticJacobianTempT;
+		for (int dof = 0; dof < 3; dof++) {
+			e.setZero();
+			e.setComponent(dof, 1.0D);
+			Vector3d.cross(e, a, da);
+			Vector3d.cross(da, b, t);
+
+			double nDotT = Vector3d.dot(n, t);
+			double bDotDa = Vector3d.dot(b, da);
+			t.scale(-angleOverSin);
+			t.set(t.x - kN * nDotT * n.x + bDotDa * c.x, t.y - kN * nDotT
+					* n.y + bDotDa * c.y, t.z - kN * nDotT * n.z + bDotDa
+					* c.z);
+			result.setColumn(dof, t);
+		}
+		return true;
 	}
 
 	private void accObservationFunctionForNumericalJacobian(
 			Matrix3x3d so3SensorFromWorldPred, Vector3d result) {
 		Matrix3x3d.mult(so3SensorFromWorldPred, this.down, this.mh);
 		So3Util.sO3FromTwoVec(this.mh, this.mz,
-				this.accObservationFunctionForNumericalJacobianTempM);
+				this.accObservationFunctionForNumericalJacobianTempM,
+				this.so3Workspace);
 
 		So3Util.muFromSO3(this.accObservationFunctionForNumericalJacobianTempM,
-				result);
+				result, this.so3Workspace);
 	}
 
 	private void magObservationFunctionForNumericalJacobian(
 			Matrix3x3d so3SensorFromWorldPred, Vector3d result) {
 		Matrix3x3d.mult(so3SensorFromWorldPred, this.north, this.mh);
 		So3Util.sO3FromTwoVec(this.mh, this.mz,
-				this.magObservationFunctionForNumericalJacobianTempM);
+				this.magObservationFunctionForNumericalJacobianTempM,
+				this.so3Workspace);
 
 		So3Util.muFromSO3(this.magObservationFunctionForNumericalJacobianTempM,
-				result);
+				result, this.so3Workspace);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,57 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Copy of the fused orientation state published by {@link OrientationEKF}
+ * for lock-free readers. Instances handed out by
+ * {@link OrientationSnapshotBuffer#getLatest()} belong to the reading thread
+ * until its next call, so the prediction temporaries below are not shared.
+ */
+public class OrientationSnapshot {
+	public final Matrix3x3d so3SensorFromWorld = new Matrix3x3d();
+	public final Vector3d lastGyro = new Vector3d();
+	public final Vector3d predictedVelocity = new Vector3d();
+	public final Vector3d predictedAcceleration = new Vector3d();
+	public long gyroTimestampNs;
+	public boolean ready;
+
+	private Matrix3x3d getPredictedGLMatrixTempM1 = new Matrix3x3d();
+	private Matrix3x3d getPredictedGLMatrixTempM2 = new Matrix3x3d();
+	private Vector3d getPredictedGLMatrixTempV1 = new Vector3d();
+
+	public void set(OrientationSnapshot other) {
+		this.so3SensorFromWorld.set(other.so3SensorFromWorld);
+		this.lastGyro.set(other.lastGyro);
+		this.predictedVelocity.set(other.predictedVelocity);
+		this.predictedAcceleration.set(other.predictedAcceleration);
+		this.gyroTimestampNs = other.gyroTimestampNs;
+		this.ready = other.ready;
+	}
+
+	/**
+	 * Extrapolates so3SensorFromWorld with the motion model published by the
+	 * filter's {@link MotionPredictor}.
+	 */
+	public void getPredictedRotation(double secondsAfterLastGyroEvent,
+			Matrix3x3d result) {
+		double dT = secondsAfterLastGyroEvent;
+		Vector3d pmu = this.getPredictedGLMatrixTempV1;
+		pmu.set(this.predictedVelocity.x + 0.5D * dT
+				* this.predictedAcceleration.x, this.predictedVelocity.y
+				+ 0.5D * dT * this.predictedAcceleration.y,
+				this.predictedVelocity.z + 0.5D * dT
+						* this.predictedAcceleration.z);
+		pmu.scale(-dT);
+		Matrix3x3d so3PredictedMotion = this.getPredictedGLMatrixTempM1;
+		So3Util.sO3FromMu(pmu, so3PredictedMotion);
+
+		Matrix3x3d.mult(so3PredictedMotion, this.so3SensorFromWorld, result);
+	}
+
+	public void getPredictedGLMatrix(double secondsAfterLastGyroEvent,
+			double[] result) {
+		Matrix3x3d so3PredictedState = this.getPredictedGLMatrixTempM2;
+		getPredictedRotation(secondsAfterLastGyroEvent, so3PredictedState);
+
+		so3PredictedState.getGLMatrix(result);
+	}
+}
@@ -0,0 +1,45 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wait-free triple buffer between the thread that updates the filter and a
+ * single reader thread (normally the GL thread). Neither side ever blocks or
+ * allocates: the writer fills its back buffer and swaps it with the middle
+ * one, and the reader swaps the middle buffer in only when it holds newer
+ * data.
+ */
+public class OrientationSnapshotBuffer {
+	private static final int INDEX_MASK = 3;
+	private static final int DIRTY = 4;
+	private final OrientationSnapshot[] buffers = new OrientationSnapshot[] {
+			new OrientationSnapshot(), new OrientationSnapshot(),
+			new OrientationSnapshot() };
+
+	private final AtomicInteger middle = new AtomicInteger(1);
+	private int back = 0;
+	private int front = 2;
+
+	/**
+	 * Returns the buffer the writer may fill. Only valid on the writer thread
+	 * until the next {@link #publish()}.
+	 */
+	public OrientationSnapshot getBack() {
+		return this.buffers[this.back];
+	}
+
+	public void publish() {
+		this.back = (this.middle.getAndSet(this.back | DIRTY) & INDEX_MASK);
+	}
+
+	/**
+	 * Returns the most recently published snapshot. The returned object must
+	 * only be used by the reader thread and only until its next call.
+	 */
+	public OrientationSnapshot getLatest() {
+		if ((this.middle.get() & DIRTY) != 0) {
+			this.front = (this.middle.getAndSet(this.front) & INDEX_MASK);
+		}
+		return this.buffers[this.front];
+	}
+}
@@ -0,0 +1,277 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-capacity ring buffer of timestamped orientations, written by the
+ * thread that updates the filter and readable from any number of threads.
+ * Each entry holds the sensor timestamp, the quaternion of so3SensorFromWorld
+ * (x, y, z, w) and the gyroscope rate at that time.
+ *
+ * <p>
+ * Readers never block the writer. They read a range of entries between two
+ * reads of the write count and retry if the writer overwrote one of the
+ * entries they used in the meantime. Writes must be serialized by the caller.
+ */
+public class PoseHistory {
+	private static final int ENTRY_SIZE = 8;
+	private static final int TIMESTAMP = 0;
+	private static final int QUATERNION = 1;
+	private static final int GYRO = 5;
+	private static final double SLERP_LINEAR_THRESHOLD = 0.9995D;
+	private final int capacity;
+	private final AtomicLongArray entries;
+	private final AtomicLong writeCount = new AtomicLong();
+	private volatile long clearedCount;
+	private long lastTimestampNs;
+	private final double[] addTemp = new double[4];
+
+	public PoseHistory(int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("capacity should be >= 2");
+		}
+		this.capacity = capacity;
+		this.entries = new AtomicLongArray(capacity * ENTRY_SIZE);
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Drops all entries. Like {@link #add}, must be called by the writer.
+	 */
+	public void clear() {
+		this.clearedCount = this.writeCount.get();
+		this.lastTimestampNs = 0L;
+	}
+
+	/**
+	 * Appends the orientation so3SensorFromWorld at timestampNs together with
+	 * the gyroscope rate used to extrapolate past it. Samples that are not
+	 * newer than the last one are ignored.
+	 */
+	public void add(long timestampNs, Matrix3x3d so3SensorFromWorld,
+			double gyroX, double gyroY, double gyroZ) {
+		if ((this.writeCount.get() != this.clearedCount)
+				&& (timestampNs <= this.lastTimestampNs)) {
+			return;
+		}
+		double[] q = this.addTemp;
+		quaternionFromSO3(so3SensorFromWorld, q);
+		add(timestampNs, q[0], q[1], q[2], q[3], gyroX, gyroY, gyroZ);
+	}
+
+	/**
+	 * Like {@link #add(long, Matrix3x3d, double, double, double)}, for an
+	 * orientation given as unit quaternion (x, y, z, w).
+	 */
+	public void add(long timestampNs, double qx, double qy, double qz,
+			double qw, double gyroX, double gyroY, double gyroZ) {
+		if ((this.writeCount.get() != this.clearedCount)
+				&& (timestampNs <= this.lastTimestampNs)) {
+			return;
+		}
+		this.lastTimestampNs = timestampNs;
+
+		long index = this.writeCount.get();
+		int base = (int) (index % this.capacity) * ENTRY_SIZE;
+		this.entries.set(base + TIMESTAMP, timestampNs);
+		this.entries.set(base + QUATERNION, Double.doubleToRawLongBits(qx));
+		this.entries.set(base + QUATERNION + 1, Double.doubleToRawLongBits(qy));
+		this.entries.set(base + QUATERNION + 2, Double.doubleToRawLongBits(qz));
+		this.entries.set(base + QUATERNION + 3, Double.doubleToRawLongBits(qw));
+		this.entries.set(base + GYRO, Double.doubleToRawLongBits(gyroX));
+		this.entries.set(base + GYRO + 1, Double.doubleToRawLongBits(gyroY));
+		this.entries.set(base + GYRO + 2, Double.doubleToRawLongBits(gyroZ));
+		this.writeCount.set(index + 1L);
+	}
+
+	/**
+	 * Writes the orientation at timestampNs (sensor time base) to quatOut as
+	 * x, y, z, w. Times between two entries are interpolated by SLERP, times
+	 * after the newest entry are extrapolated with its gyroscope rate and
+	 * times before the oldest entry return the oldest orientation. Returns
+	 * false and leaves quatOut untouched if the history is empty.
+	 */
+	public boolean poseAt(long timestampNs, float[] quatOut) {
+		if (quatOut.length < 4) {
+			throw new IllegalArgumentException(
+					"Not enough space to write the result");
+		}
+
+		while (true) {
+			long end = this.writeCount.get();
+			long begin = Math.max(this.clearedCount, end - this.capacity + 1L);
+			if (begin >= end) {
+				return false;
+			}
+
+			long lo = begin;
+			long hi = end - 1L;
+			long used;
+			if (timestampNs >= getTimestamp(hi)) {
+				used = hi;
+				extrapolate(hi, timestampNs, quatOut);
+			} else if (timestampNs <= getTimestamp(lo)) {
+				used = lo;
+				copyQuaternion(lo, quatOut);
+			} else {
+				while (hi - lo > 1L) {
+					long mid = lo + (hi - lo) / 2L;
+					if (getTimestamp(mid) <= timestampNs)
+						lo = mid;
+					else {
+						hi = mid;
+					}
+				}
+				used = lo;
+				interpolate(lo, hi, timestampNs, quatOut);
+			}
+
+			long written = this.writeCount.get();
+			if ((used > written - this.capacity)
+					&& (used >= this.clearedCount)) {
+				return true;
+			}
+		}
+	}
+
+	private int entryBase(long index) {
+		return (int) (index % this.capacity) * ENTRY_SIZE;
+	}
+
+	private long getTimestamp(long index) {
+		return this.entries.get(entryBase(index) + TIMESTAMP);
+	}
+
+	private double getDouble(long index, int field) {
+		return Double.longBitsToDouble(this.entries.get(entryBase(index)
+				+ field));
+	}
+
+	private void copyQuaternion(long index, float[] quatOut) {
+		for (int i = 0; i < 4; i++) {
+			quatOut[i] = (float) getDouble(index, QUATERNION + i);
+		}
+	}
+
+	private void interpolate(long index0, long index1, long timestampNs,
+			float[] quatOut) {
+		long t0 = getTimestamp(index0);
+		long t1 = getTimestamp(index1);
+		double t = t1 > t0 ? (double) (timestampNs - t0) / (t1 - t0) : 0.0D;
+
+		double x0 = getDouble(index0, QUATERNION);
+		double y0 = getDouble(index0, QUATERNION + 1);
+		double z0 = getDouble(index0, QUATERNION + 2);
+		double w0 = getDouble(index0, QUATERNION + 3);
+		double x1 = getDouble(index1, QUATERNION);
+		double y1 = getDouble(index1, QUATERNION + 1);
+		double z1 = getDouble(index1, QUATERNION + 2);
+		double w1 = getDouble(index1, QUATERNION + 3);
+
+		double dot = x0 * x1 + y0 * y1 + z0 * z1 + w0 * w1;
+		if (dot < 0.0D) {
+			dot = -dot;
+			x1 = -x1;
+			y1 = -y1;
+			z1 = -z1;
+			w1 = -w1;
+		}
+
+		double s0;
+		double s1;
+		if (dot > SLERP_LINEAR_THRESHOLD) {
+			s0 = 1.0D - t;
+			s1 = t;
+		} else {
+			double theta = Math.acos(dot);
+			double sinTheta = Math.sin(theta);
+			s0 = Math.sin((1.0D - t) * theta) / sinTheta;
+			s1 = Math.sin(t * theta) / sinTheta;
+		}
+
+		double x = s0 * x0 + s1 * x1;
+		double y = s0 * y0 + s1 * y1;
+		double z = s0 * z0 + s1 * z1;
+		double w = s0 * w0 + s1 * w1;
+		double norm = Math.sqrt(x * x + y * y + z * z + w * w);
+		quatOut[0] = (float) (x / norm);
+		quatOut[1] = (float) (y / norm);
+		quatOut[2] = (float) (z / norm);
+		quatOut[3] = (float) (w / norm);
+	}
+
+	/**
+	 * Rotates the entry's orientation by its gyroscope rate over the time
+	 * since the entry, matching the motion model of OrientationEKF.
+	 */
+	private void extrapolate(long index, long timestampNs, float[] quatOut) {
+		double dT = (timestampNs - getTimestamp(index)) * 1.0E-009D;
+		double mx = -getDouble(index, GYRO) * dT;
+		double my = -getDouble(index, GYRO + 1) * dT;
+		double mz = -getDouble(index, GYRO + 2) * dT;
+		double x = getDouble(index, QUATERNION);
+		double y = getDouble(index, QUATERNION + 1);
+		double z = getDouble(index, QUATERNION + 2);
+		double w = getDouble(index, QUATERNION + 3);
+
+		double angle = Math.sqrt(mx * mx + my * my + mz * mz);
+		if (angle == 0.0D) {
+			quatOut[0] = (float) x;
+			quatOut[1] = (float) y;
+			quatOut[2] = (float) z;
+			quatOut[3] = (float) w;
+			return;
+		}
+		double s = Math.sin(0.5D * angle) / angle;
+		double dx = mx * s;
+		double dy = my * s;
+		double dz = mz * s;
+		double dw = Math.cos(0.5D * angle);
+
+		quatOut[0] = (float) (dw * x + dx * w + dy * z - dz * y);
+		quatOut[1] = (float) (dw * y - dx * z + dy * w + dz * x);
+		quatOut[2] = (float) (dw * z + dx * y - dy * x + dz * w);
+		quatOut[3] = (float) (dw * w - dx * x - dy * y - dz * z);
+	}
+
+	/**
+	 * Writes the unit quaternion (x, y, z, w) of so3 to result.
+	 */
+	static void quaternionFromSO3(Matrix3x3d so3, double[] result) {
+		double t = so3.m00 + so3.m11 + so3.m22;
+		double s;
+		if (t >= 0.0D) {
+			s = Math.sqrt(t + 1.0D);
+			result[3] = 0.5D * s;
+			s = 0.5D / s;
+			result[0] = (so3.m21 - so3.m12) * s;
+			result[1] = (so3.m02 - so3.m20) * s;
+			result[2] = (so3.m10 - so3.m01) * s;
+		} else if ((so3.m00 > so3.m11) && (so3.m00 > so3.m22)) {
+			s = Math.sqrt(1.0D + so3.m00 - so3.m11 - so3.m22);
+			result[0] = 0.5D * s;
+			s = 0.5D / s;
+			result[1] = (so3.m10 + so3.m01) * s;
+			result[2] = (so3.m02 + so3.m20) * s;
+			result[3] = (so3.m21 - so3.m12) * s;
+		} else if (so3.m11 > so3.m22) {
+			s = Math.sqrt(1.0D + so3.m11 - so3.m00 - so3.m22);
+			result[1] = 0.5D * s;
+			s = 0.5D / s;
+			result[0] = (so3.m10 + so3.m01) * s;
+			result[2] = (so3.m21 + so3.m12) * s;
+			result[3] = (so3.m02 - so3.m20) * s;
+		} else {
+			s = Math.sqrt(1.0D + so3.m22 - so3.m00 - so3.m11);
+			result[2] = 0.5D * s;
+			s = 0.5D / s;
+			result[0] = (so3.m02 + so3.m20) * s;
+			result[1] = (so3.m21 + so3.m12) * s;
+			result[3] = (so3.m10 - so3.m01) * s;
+		}
+	}
+}
@@ -0,0 +1,506 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Multiplicative error-state Kalman filter with the orientation kept as a
+ * unit quaternion. Like {@link OrientationEKF} the error is a rotation
+ * vector applied on the left of sensorFromWorld, with its covariance in the
+ * sensor frame, and uses the same noise model, initialization and
+ * magnetometer handling, so the two filters can be compared on the same
+ * samples.
+ *
+ * <p>
+ * Each gyroscope sample costs a quaternion product and an explicit
+ * renormalization, which keeps the state on the unit sphere without the
+ * accumulated rounding of a matrix state. The covariance is propagated
+ * through the gyroscope motion once before each accelerometer or
+ * magnetometer update, as in the EKF's pre-integration mode. Corrections
+ * use the measurement Jacobian linearized at zero innovation, I - h h^T
+ * for the predicted direction h.
+ */
+public class QuaternionFusionEngine implements FusionEngine {
+	private static final int POSE_HISTORY_CAPACITY = 1024;
+	private static final double MAG_NOISE_VARIANCE = 0.0625D;
+	private double[] rotationMatrix = new double[16];
+
+	private double qx;
+	private double qy;
+	private double qz;
+	private double qw;
+	private Matrix3x3d so3SensorFromWorld = new Matrix3x3d();
+	private Matrix3x3d mP = new Matrix3x3d();
+	private Vector3d down = new Vector3d();
+	private Vector3d north = new Vector3d();
+
+	private double startQx;
+	private double startQy;
+	private double startQz;
+	private double startQw;
+	private double pendingNoiseScale;
+	private boolean hasPendingMotion;
+
+	private long sensorTimeStampGyro;
+	private final Vector3d lastGyro = new Vector3d();
+	private final GyroTimestepFilter gyroTimestepFilter = new GyroTimestepFilter();
+	private final AccelNoiseModel accelNoiseModel = new AccelNoiseModel();
+
+	private final GravityAlignment gravityAlignment = new GravityAlignment();
+	private double[] packedP = new double[CovarianceKernels.SIZE];
+	private boolean alignedToGravity;
+	private boolean alignedToNorth;
+
+	private Matrix3x3d applyPendingMotionTempM1 = new Matrix3x3d();
+	private Matrix3x3d applyPendingMotionTempM2 = new Matrix3x3d();
+	private Matrix3x3d rotateCovarianceTempM1 = new Matrix3x3d();
+	private Matrix3x3d rotateCovarianceTempM2 = new Matrix3x3d();
+	private Matrix3x3d correctTempM1 = new Matrix3x3d();
+	private Matrix3x3d correctTempM2 = new Matrix3x3d();
+	private Matrix3x3d correctTempM3 = new Matrix3x3d();
+	private Matrix3x3d correctTempM4 = new Matrix3x3d();
+	private Vector3d correctTempV1 = new Vector3d();
+	private Vector3d correctTempV2 = new Vector3d();
+	private Vector3d correctTempV3 = new Vector3d();
+	private Vector3d processAccTempV1 = new Vector3d();
+	private Vector3d processAccTempV2 = new Vector3d();
+	private Vector3d processMagTempV1 = new Vector3d();
+	private Vector3d processMagTempV2 = new Vector3d();
+	private Vector3d processMagTempV3 = new Vector3d();
+	private Vector3d processMagTempV4 = new Vector3d();
+	private Vector3d processBatchTempV1 = new Vector3d();
+	private double[] alignToGravityTempQ = new double[4];
+	private Matrix3x3d getPredictedGLMatrixTempM1 = new Matrix3x3d();
+	private Matrix3x3d getPredictedGLMatrixTempM2 = new Matrix3x3d();
+	private Vector3d getPredictedGLMatrixTempV1 = new Vector3d();
+	private Vector3d getPredictedGLMatrixTempV2 = new Vector3d();
+	private MotionPredictor motionPredictor = new ConstantVelocityPredictor();
+
+	private final OrientationSnapshotBuffer snapshotBuffer = new OrientationSnapshotBuffer();
+	private final PoseHistory poseHistory = new PoseHistory(
+			POSE_HISTORY_CAPACITY);
+
+	public QuaternionFusionEngine() {
+		reset();
+	}
+
+	public synchronized void reset() {
+		resetState(false);
+	}
+
+	private void resetState(boolean warmStart) {
+		this.sensorTimeStampGyro = 0L;
+		this.qx = 0.0D;
+		this.qy = 0.0D;
+		this.qz = 0.0D;
+		this.qw = 1.0D;
+		this.so3SensorFromWorld.setIdentity();
+		this.mP.setZero();
+		this.mP.setSameDiagonal(GravityAlignment.INITIAL_VARIANCE);
+		this.down.set(0.0D, 0.0D, 9.810000000000001D);
+		this.north.set(0.0D, 1.0D, 0.0D);
+		this.hasPendingMotion = false;
+
+		this.alignedToGravity = false;
+		this.alignedToNorth = false;
+		this.gravityAlignment.reset(warmStart);
+
+		this.poseHistory.clear();
+		this.motionPredictor.reset();
+		publishSnapshot();
+	}
+
+	public synchronized void resetWithWarmStart() {
+		applyPendingMotion();
+		boolean aligned = this.alignedToGravity;
+		if (aligned) {
+			updateRotationMatrix();
+			CovarianceKernels.pack(this.mP, this.packedP);
+			this.gravityAlignment.setWarmStart(this.so3SensorFromWorld,
+					this.packedP);
+		}
+		resetState(aligned);
+	}
+
+	/**
+	 * Sets how many accelerometer samples are averaged to find gravity
+	 * before the filter is aligned. Takes effect with the next reset.
+	 */
+	public synchronized void setGravityInitSampleCount(int count) {
+		this.gravityAlignment.setSampleCount(count);
+	}
+
+	public synchronized int getGravityInitSampleCount() {
+		return this.gravityAlignment.getSampleCount();
+	}
+
+	public boolean isReady() {
+		return this.alignedToGravity;
+	}
+
+	public synchronized long getTimeToReadyNs() {
+		return this.gravityAlignment.getTimeToReadyNs();
+	}
+
+	public synchronized long getTimeToStableNs() {
+		return this.gravityAlignment.getTimeToStableNs();
+	}
+
+	public long getClampedGyroTimestepCount() {
+		return this.gyroTimestepFilter.getClampedCount();
+	}
+
+	/**
+	 * Selects the motion model used for prediction, fed from the next
+	 * gyroscope sample on. The default is a {@link ConstantVelocityPredictor}.
+	 */
+	public synchronized void setMotionPredictor(MotionPredictor predictor) {
+		if (predictor == null) {
+			throw new IllegalArgumentException("predictor should not be null");
+		}
+		predictor.reset();
+		this.motionPredictor = predictor;
+		publishSnapshot();
+	}
+
+	public synchronized MotionPredictor getMotionPredictor() {
+		return this.motionPredictor;
+	}
+
+	public PoseHistory getPoseHistory() {
+		return this.poseHistory;
+	}
+
+	public OrientationSnapshot getLatestSnapshot() {
+		return this.snapshotBuffer.getLatest();
+	}
+
+	public Matrix3x3d getRotationMatrix() {
+		return this.so3SensorFromWorld;
+	}
+
+	/**
+	 * Writes the current orientation as unit quaternion (x, y, z, w) to
+	 * result.
+	 */
+	public synchronized void getQuaternion(double[] result) {
+		result[0] = this.qx;
+		result[1] = this.qy;
+		result[2] = this.qz;
+		result[3] = this.qw;
+	}
+
+	public synchronized double[] getPredictedGLMatrix(
+			double secondsAfterLastGyroEvent) {
+		double dT = secondsAfterLastGyroEvent;
+		Vector3d pmu = this.getPredictedGLMatrixTempV1;
+		Vector3d acceleration = this.getPredictedGLMatrixTempV2;
+		this.motionPredictor.getState(pmu, acceleration);
+		acceleration.scale(0.5D * dT);
+		Vector3d.add(pmu, acceleration, pmu);
+		pmu.scale(-dT);
+		Matrix3x3d so3PredictedMotion = this.getPredictedGLMatrixTempM1;
+		So3Util.sO3FromMu(pmu, so3PredictedMotion);
+
+		Matrix3x3d so3PredictedState = this.getPredictedGLMatrixTempM2;
+		Matrix3x3d.mult(so3PredictedMotion, this.so3SensorFromWorld,
+				so3PredictedState);
+
+		so3PredictedState.getGLMatrix(this.rotationMatrix);
+		return this.rotationMatrix;
+	}
+
+	public synchronized void processGyro(Vector3d gyro, long sensorTimeStamp) {
+		integrateGyroSample(gyro.x, gyro.y, gyro.z, sensorTimeStamp);
+		publishSnapshot();
+	}
+
+	public synchronized void processAcc(Vector3d acc, long sensorTimeStamp) {
+		processAccSample(acc, sensorTimeStamp);
+		publishSnapshot();
+	}
+
+	public synchronized void processMag(float[] mag, long sensorTimeStamp) {
+		processMagSample(mag[0], mag[1], mag[2], sensorTimeStamp);
+		publishSnapshot();
+	}
+
+	public synchronized void processSampleBatch(int[] types, double[] xyz,
+			long[] timestamps, int count) {
+		for (int i = 0; i < count; i++) {
+			double x = xyz[(3 * i)];
+			double y = xyz[(3 * i + 1)];
+			double z = xyz[(3 * i + 2)];
+			switch (types[i]) {
+			case SAMPLE_TYPE_GYROSCOPE:
+				integrateGyroSample(x, y, z, timestamps[i]);
+				break;
+			case SAMPLE_TYPE_ACCELEROMETER:
+				this.processBatchTempV1.set(x, y, z);
+				processAccSample(this.processBatchTempV1, timestamps[i]);
+				break;
+			case SAMPLE_TYPE_MAGNETOMETER:
+				processMagSample(x, y, z, timestamps[i]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown sample type: "
+						+ types[i]);
+			}
+		}
+		publishSnapshot();
+	}
+
+	private void integrateGyroSample(double x, double y, double z,
+			long sensorTimeStamp) {
+		if (this.sensorTimeStampGyro != 0L) {
+			float dT = this.gyroTimestepFilter.getTimestep(
+					this.sensorTimeStampGyro, sensorTimeStamp);
+
+			if (!this.hasPendingMotion) {
+				this.startQx = this.qx;
+				this.startQy = this.qy;
+				this.startQz = this.qz;
+				this.startQw = this.qw;
+				this.pendingNoiseScale = 0.0D;
+				this.hasPendingMotion = true;
+			}
+			rotate(-x * dT, -y * dT, -z * dT);
+			this.pendingNoiseScale += dT * dT;
+		}
+		this.sensorTimeStampGyro = sensorTimeStamp;
+		this.lastGyro.set(x, y, z);
+		this.motionPredictor.addGyroSample(x, y, z, sensorTimeStamp);
+		this.poseHistory.add(sensorTimeStamp, this.qx, this.qy, this.qz,
+				this.qw, x, y, z);
+	}
+
+	/**
+	 * Applies the rotation vector (rx, ry, rz) on the left of the state,
+	 * q = exp(r) * q, and renormalizes q.
+	 */
+	private void rotate(double rx, double ry, double rz) {
+		double angleSquared = rx * rx + ry * ry + rz * rz;
+		double s;
+		double c;
+		if (angleSquared < 1.0E-008D) {
+			s = 0.5D - angleSquared / 48.0D;
+			c = 1.0D - angleSquared / 8.0D;
+		} else {
+			double angle = Math.sqrt(angleSquared);
+			s = Math.sin(0.5D * angle) / angle;
+			c = Math.cos(0.5D * angle);
+		}
+		double dx = s * rx;
+		double dy = s * ry;
+		double dz = s * rz;
+		double x = c * this.qx + dx * this.qw + dy * this.qz - dz * this.qy;
+		double y = c * this.qy - dx * this.qz + dy * this.qw + dz * this.qx;
+		double z = c * this.qz + dx * this.qy - dy * this.qx + dz * this.qw;
+		double w = c * this.qw - dx * this.qx - dy * this.qy - dz * this.qz;
+		double scale = 1.0D / Math.sqrt(x * x + y * y + z * z + w * w);
+		this.qx = x * scale;
+		this.qy = y * scale;
+		this.qz = z * scale;
+		this.qw = w * scale;
+	}
+
+	/**
+	 * Propagates the covariance through the gyroscope motion integrated
+	 * since the first pending sample, q * qStart^-1, and adds the process
+	 * noise. The process noise is isotropic, so the per-sample terms sum to
+	 * I * sum(dT^2).
+	 */
+	private void applyPendingMotion() {
+		if (!this.hasPendingMotion) {
+			return;
+		}
+		double x = -this.qw * this.startQx + this.qx * this.startQw
+				- this.qy * this.startQz + this.qz * this.startQy;
+		double y = -this.qw * this.startQy + this.qx * this.startQz
+				+ this.qy * this.startQw - this.qz * this.startQx;
+		double z = -this.qw * this.startQz - this.qx * this.startQy
+				+ this.qy * this.startQx + this.qz * this.startQw;
+		double w = this.qw * this.startQw + this.qx * this.startQx
+				+ this.qy * this.startQy + this.qz * this.startQz;
+		Matrix3x3d motion = this.applyPendingMotionTempM1;
+		so3FromQuaternion(x, y, z, w, motion);
+		rotateCovariance(motion);
+
+		this.applyPendingMotionTempM2.setIdentity();
+		this.applyPendingMotionTempM2.scale(this.pendingNoiseScale);
+		this.mP.plusEquals(this.applyPendingMotionTempM2);
+		this.hasPendingMotion = false;
+	}
+
+	private void rotateCovariance(Matrix3x3d so3Motion) {
+		so3Motion.transpose(this.rotateCovarianceTempM1);
+		Matrix3x3d.mult(this.mP, this.rotateCovarianceTempM1,
+				this.rotateCovarianceTempM2);
+		Matrix3x3d.mult(so3Motion, this.rotateCovarianceTempM2, this.mP);
+	}
+
+	private void processAccSample(Vector3d acc, long sensorTimeStamp) {
+		applyPendingMotion();
+		double accelNoiseVariance = this.accelNoiseModel.update(acc.length());
+		updateRotationMatrix();
+		if (!this.alignedToGravity) {
+			alignToGravity(acc, sensorTimeStamp);
+			return;
+		}
+
+		Vector3d predicted = this.processAccTempV1;
+		Matrix3x3d.mult(this.so3SensorFromWorld, this.down, predicted);
+		Vector3d correction = this.processAccTempV2;
+		correct(predicted, acc, accelNoiseVariance, correction);
+		this.gravityAlignment.addCorrection(correction.length(),
+				sensorTimeStamp);
+	}
+
+	private void processMagSample(double magX, double magY, double magZ,
+			long sensorTimeStamp) {
+		if (!this.alignedToGravity) {
+			return;
+		}
+		applyPendingMotion();
+		updateRotationMatrix();
+
+		Vector3d measured = this.processMagTempV1;
+		measured.set(magX, magY, magZ);
+		measured.normalize();
+		Vector3d downInSensorFrame = this.processMagTempV2;
+		this.so3SensorFromWorld.getColumn(2, downInSensorFrame);
+		Vector3d perpToDownAndMag = this.processMagTempV3;
+		Vector3d.cross(measured, downInSensorFrame, perpToDownAndMag);
+		perpToDownAndMag.normalize();
+		Vector3d.cross(downInSensorFrame, perpToDownAndMag, measured);
+		measured.normalize();
+
+		Vector3d predicted = this.processMagTempV4;
+		Matrix3x3d.mult(this.so3SensorFromWorld, this.north, predicted);
+		if (this.alignedToNorth) {
+			correct(predicted, measured, MAG_NOISE_VARIANCE,
+					this.processMagTempV2);
+		} else {
+			Vector3d nu = this.processMagTempV2;
+			rotationVectorBetween(predicted, measured, nu);
+			rotate(nu.x, nu.y, nu.z);
+			So3Util.sO3FromMu(nu, this.correctTempM1);
+			rotateCovariance(this.correctTempM1);
+			this.alignedToNorth = true;
+		}
+	}
+
+	/**
+	 * Corrects the orientation so that the predicted direction moves
+	 * towards the measured one, with isotropic measurement noise of the
+	 * given variance. Writes the applied correction to result.
+	 */
+	private void correct(Vector3d predicted, Vector3d measured,
+			double noiseVariance, Vector3d result) {
+		Vector3d nu = this.correctTempV1;
+		rotationVectorBetween(predicted, measured, nu);
+
+		Vector3d h = this.correctTempV2;
+		h.set(predicted);
+		h.normalize();
+		Matrix3x3d mH = this.correctTempM1;
+		mH.set(1.0D - h.x * h.x, -h.x * h.y, -h.x * h.z, -h.y * h.x,
+				1.0D - h.y * h.y, -h.y * h.z, -h.z * h.x, -h.z * h.y,
+				1.0D - h.z * h.z);
+
+		// H is symmetric: S = H P H + R, K = P H S^-1.
+		Matrix3x3d pH = this.correctTempM2;
+		Matrix3x3d.mult(this.mP, mH, pH);
+		Matrix3x3d mS = this.correctTempM3;
+		Matrix3x3d.mult(mH, pH, mS);
+		mS.m00 += noiseVariance;
+		mS.m11 += noiseVariance;
+		mS.m22 += noiseVariance;
+		Matrix3x3d sInverse = this.correctTempM4;
+		if (!mS.invert(sInverse)) {
+			result.setZero();
+			return;
+		}
+		Matrix3x3d mK = this.correctTempM3;
+		Matrix3x3d.mult(pH, sInverse, mK);
+		Matrix3x3d.mult(mK, nu, result);
+
+		Matrix3x3d kH = this.correctTempM4;
+		Matrix3x3d.mult(mK, mH, kH);
+		Matrix3x3d mIkH = this.correctTempM2;
+		mIkH.setIdentity();
+		mIkH.minusEquals(kH);
+		Matrix3x3d.mult(mIkH, this.mP, kH);
+		this.mP.set(kH);
+
+		rotate(result.x, result.y, result.z);
+		So3Util.sO3FromMu(result, this.correctTempM1);
+		rotateCovariance(this.correctTempM1);
+	}
+
+	/**
+	 * Writes the rotation vector of the shortest rotation taking direction
+	 * a onto direction b to result.
+	 */
+	private void rotationVectorBetween(Vector3d a, Vector3d b, Vector3d result) {
+		Vector3d.cross(a, b, result);
+		double sinAngle = result.length();
+		double cosAngle = Vector3d.dot(a, b);
+		if (sinAngle < 1.0E-012D * a.length() * b.length()) {
+			result.setZero();
+			return;
+		}
+		result.scale(Math.atan2(sinAngle, cosAngle) / sinAngle);
+	}
+
+	/**
+	 * Passes acc to gravityAlignment and, once it aligned the rotation
+	 * matrix, takes the quaternion and covariance from it.
+	 */
+	private void alignToGravity(Vector3d acc, long sensorTimeStamp) {
+		CovarianceKernels.pack(this.mP, this.packedP);
+		if (!this.gravityAlignment.align(acc, sensorTimeStamp,
+				this.so3SensorFromWorld, this.packedP)) {
+			return;
+		}
+		CovarianceKernels.unpack(this.packedP, this.mP);
+		double[] q = this.alignToGravityTempQ;
+		PoseHistory.quaternionFromSO3(this.so3SensorFromWorld, q);
+		double scale = 1.0D / Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2]
+				* q[2] + q[3] * q[3]);
+		this.qx = q[0] * scale;
+		this.qy = q[1] * scale;
+		this.qz = q[2] * scale;
+		this.qw = q[3] * scale;
+		this.alignedToGravity = true;
+	}
+
+	private void updateRotationMatrix() {
+		so3FromQuaternion(this.qx, this.qy, this.qz, this.qw,
+				this.so3SensorFromWorld);
+	}
+
+	private static void so3FromQuaternion(double x, double y, double z,
+			double w, Matrix3x3d result) {
+		double xx = 2.0D * x * x;
+		double yy = 2.0D * y * y;
+		double zz = 2.0D * z * z;
+		double xy = 2.0D * x * y;
+		double xz = 2.0D * x * z;
+		double yz = 2.0D * y * z;
+		double xw = 2.0D * x * w;
+		double yw = 2.0D * y * w;
+		double zw = 2.0D * z * w;
+		result.set(1.0D - yy - zz, xy - zw, xz + yw, xy + zw, 1.0D - xx - zz,
+				yz - xw, xz - yw, yz + xw, 1.0D - xx - yy);
+	}
+
+	private void publishSnapshot() {
+		updateRotationMatrix();
+		OrientationSnapshot snapshot = this.snapshotBuffer.getBack();
+		snapshot.so3SensorFromWorld.set(this.so3SensorFromWorld);
+		snapshot.lastGyro.set(this.lastGyro);
+		this.motionPredictor.getState(snapshot.predictedVelocity,
+				snapshot.predictedAcceleration);
+		snapshot.gyroTimestampNs = this.sensorTimeStampGyro;
+		snapshot.ready = this.alignedToGravity;
+		this.snapshotBuffer.publish();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,172 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer, single-consumer queue of sensor samples stored in
+ * primitive arrays. The producer (the sensor callback) copies a sample in
+ * and returns without blocking or allocating; when the queue is full the
+ * new sample is dropped and counted. The consumer drains samples one at a
+ * time or in bulk and can park until samples arrive.
+ */
+public class SensorSampleQueue {
+	public static abstract interface Consumer {
+		public abstract void onSample(int type, long timestampNs,
+				long clockTimeNs, float x, float y, float z);
+	}
+
+	private final int mask;
+	private final int[] types;
+	private final long[] timestampsNs;
+	private final long[] clockTimesNs;
+	private final float[] values;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private volatile Thread waitingConsumer;
+	private volatile long droppedCount;
+	private volatile long overrunCount;
+	private boolean overflowing;
+	private long cachedHead;
+
+	/**
+	 * @param capacity number of samples the queue holds, rounded up to a
+	 *            power of two.
+	 */
+	public SensorSampleQueue(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity should be >= 1");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.mask = (size - 1);
+		this.types = new int[size];
+		this.timestampsNs = new long[size];
+		this.clockTimesNs = new long[size];
+		this.values = new float[3 * size];
+	}
+
+	public int getCapacity() {
+		return this.mask + 1;
+	}
+
+	/**
+	 * Appends a sample. Producer thread only. Returns false and counts the
+	 * sample as dropped if the queue is full.
+	 */
+	public boolean offer(int type, long timestampNs, long clockTimeNs,
+			float x, float y, float z) {
+		long t = this.tail.get();
+		if (t - this.cachedHead > this.mask) {
+			this.cachedHead = this.head.get();
+			if (t - this.cachedHead > this.mask) {
+				this.droppedCount += 1L;
+				if (!this.overflowing) {
+					this.overflowing = true;
+					this.overrunCount += 1L;
+				}
+				return false;
+			}
+		}
+		this.overflowing = false;
+
+		int slot = (int) t & this.mask;
+		this.types[slot] = type;
+		this.timestampsNs[slot] = timestampNs;
+		this.clockTimesNs[slot] = clockTimeNs;
+		this.values[(3 * slot)] = x;
+		this.values[(3 * slot + 1)] = y;
+		this.values[(3 * slot + 2)] = z;
+		// A full volatile store, so that it cannot be reordered with the read
+		// of waitingConsumer and a consumer about to park is always woken.
+		this.tail.set(t + 1L);
+
+		Thread consumer = this.waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+		return true;
+	}
+
+	/**
+	 * Passes up to maxCount queued samples to consumer in order and returns
+	 * how many were consumed. Consumer thread only.
+	 */
+	public int drain(Consumer consumer, int maxCount) {
+		long h = this.head.get();
+		int count = (int) Math.min(this.tail.get() - h, maxCount);
+		for (int i = 0; i < count; i++) {
+			int slot = (int) (h + i) & this.mask;
+			consumer.onSample(this.types[slot], this.timestampsNs[slot],
+					this.clockTimesNs[slot], this.values[(3 * slot)],
+					this.values[(3 * slot + 1)], this.values[(3 * slot + 2)]);
+			this.head.lazySet(h + i + 1L);
+		}
+		return count;
+	}
+
+	/**
+	 * Copies up to maxCount queued samples into the given arrays, xyz holding
+	 * x, y, z triples, and returns how many were copied. Consumer thread
+	 * only.
+	 */
+	public int drainTo(int[] types, long[] timestampsNs, long[] clockTimesNs,
+			float[] xyz, int maxCount) {
+		long h = this.head.get();
+		int count = (int) Math.min(this.tail.get() - h, maxCount);
+		for (int i = 0; i < count; i++) {
+			int slot = (int) (h + i) & this.mask;
+			types[i] = this.types[slot];
+			timestampsNs[i] = this.timestampsNs[slot];
+			clockTimesNs[i] = this.clockTimesNs[slot];
+			System.arraycopy(this.values, 3 * slot, xyz, 3 * i, 3);
+		}
+		this.head.lazySet(h + count);
+		return count;
+	}
+
+	/**
+	 * Discards all queued samples. Consumer thread only.
+	 */
+	public void clear() {
+		this.head.lazySet(this.tail.get());
+	}
+
+	public boolean isEmpty() {
+		return this.tail.get() == this.head.get();
+	}
+
+	/**
+	 * Parks the consumer thread until at least one sample is queued.
+	 */
+	public void awaitSamples() throws InterruptedException {
+		this.waitingConsumer = Thread.currentThread();
+		try {
+			while (isEmpty()) {
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				LockSupport.park(this);
+			}
+		} finally {
+			this.waitingConsumer = null;
+		}
+	}
+
+	/**
+	 * Returns the number of samples dropped because the queue was full.
+	 */
+	public long getDroppedCount() {
+		return this.droppedCount;
+	}
+
+	/**
+	 * Returns how many times the queue filled up, i.e. how many separate runs
+	 * of dropped samples there were.
+	 */
+	public long getOverrunCount() {
+		return this.overrunCount;
+	}
+}
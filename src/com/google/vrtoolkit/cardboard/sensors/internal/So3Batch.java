@@ -0,0 +1,215 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * A batch of rotations in structure-of-arrays layout: lane i holds the
+ * rotation vector (x[i], y[i], z[i]) and the matrix entries mRC[i].
+ * {@link #sO3FromMu} and {@link #muFromSO3} convert between the two for a
+ * range of lanes and give bit-for-bit the results of the
+ * {@link So3Util} methods of the same name.
+ *
+ * <p>
+ * The lanes avoid an object per rotation and keep the inputs contiguous
+ * for replaying recorded sessions. They are not faster per rotation than
+ * looping over the {@link So3Util} methods: {@link #muFromSO3} splits off
+ * the branch-free part into its own loop, but the trigonometry dominates
+ * both conversions. A batch must only be used by one thread at a time.
+ */
+public class So3Batch {
+	public final double[] x;
+	public final double[] y;
+	public final double[] z;
+	public final double[] m00;
+	public final double[] m01;
+	public final double[] m02;
+	public final double[] m10;
+	public final double[] m11;
+	public final double[] m12;
+	public final double[] m20;
+	public final double[] m21;
+	public final double[] m22;
+	private final double[] cosAngle;
+
+	public So3Batch(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity must be >= 0");
+		}
+		this.x = new double[capacity];
+		this.y = new double[capacity];
+		this.z = new double[capacity];
+		this.m00 = new double[capacity];
+		this.m01 = new double[capacity];
+		this.m02 = new double[capacity];
+		this.m10 = new double[capacity];
+		this.m11 = new double[capacity];
+		this.m12 = new double[capacity];
+		this.m20 = new double[capacity];
+		this.m21 = new double[capacity];
+		this.m22 = new double[capacity];
+		this.cosAngle = new double[capacity];
+	}
+
+	public int capacity() {
+		return this.x.length;
+	}
+
+	public void setMu(int i, Vector3d w) {
+		this.x[i] = w.x;
+		this.y[i] = w.y;
+		this.z[i] = w.z;
+	}
+
+	public void getMu(int i, Vector3d result) {
+		result.set(this.x[i], this.y[i], this.z[i]);
+	}
+
+	public void setSO3(int i, Matrix3x3d so3) {
+		this.m00[i] = so3.m00;
+		this.m01[i] = so3.m01;
+		this.m02[i] = so3.m02;
+		this.m10[i] = so3.m10;
+		this.m11[i] = so3.m11;
+		this.m12[i] = so3.m12;
+		this.m20[i] = so3.m20;
+		this.m21[i] = so3.m21;
+		this.m22[i] = so3.m22;
+	}
+
+	public void getSO3(int i, Matrix3x3d result) {
+		result.set(this.m00[i], this.m01[i], this.m02[i], this.m10[i],
+				this.m11[i], this.m12[i], this.m20[i], this.m21[i],
+				this.m22[i]);
+	}
+
+	/**
+	 * Sets the matrices of lanes [offset, offset + count) to the
+	 * exponentials of their rotation vectors.
+	 */
+	public void sO3FromMu(int offset, int count) {
+		checkRange(offset, count);
+		int end = offset + count;
+		double[] x = this.x;
+		double[] y = this.y;
+		double[] z = this.z;
+		for (int i = offset; i < end; i++) {
+			double wx = x[i];
+			double wy = y[i];
+			double wz = z[i];
+			double thetaSq = wx * wx + wy * wy + wz * wz;
+			double kA;
+			double kB;
+			if (thetaSq < 1.0E-008D) {
+				kA = 1.0D - 0.16666667163372D * thetaSq;
+				kB = 0.5D;
+			} else if (thetaSq < 1.0E-006D) {
+				kB = 0.5D - 0.0416666679084301D * thetaSq;
+				kA = 1.0D - thetaSq * 0.16666667163372D
+						* (1.0D - 0.16666667163372D * thetaSq);
+			} else {
+				double theta = Math.sqrt(thetaSq);
+				double invTheta = 1.0D / theta;
+				kA = Math.sin(theta) * invTheta;
+				kB = (1.0D - Math.cos(theta)) * (invTheta * invTheta);
+			}
+			double wx2 = wx * wx;
+			double wy2 = wy * wy;
+			double wz2 = wz * wz;
+			this.m00[i] = 1.0D - kB * (wy2 + wz2);
+			this.m11[i] = 1.0D - kB * (wx2 + wz2);
+			this.m22[i] = 1.0D - kB * (wx2 + wy2);
+			double bxy = kB * (wx * wy);
+			double bxz = kB * (wx * wz);
+			double byz = kB * (wy * wz);
+			this.m01[i] = bxy - kA * wz;
+			this.m10[i] = bxy + kA * wz;
+			this.m02[i] = bxz + kA * wy;
+			this.m20[i] = bxz - kA * wy;
+			this.m12[i] = byz - kA * wx;
+			this.m21[i] = byz + kA * wx;
+		}
+	}
+
+	/**
+	 * Sets the rotation vectors of lanes [offset, offset + count) to the
+	 * logarithms of their matrices.
+	 */
+	public void muFromSO3(int offset, int count) {
+		checkRange(offset, count);
+		int end = offset + count;
+		double[] x = this.x;
+		double[] y = this.y;
+		double[] z = this.z;
+		double[] cosAngle = this.cosAngle;
+		for (int i = offset; i < end; i++) {
+			cosAngle[i] = (this.m00[i] + this.m11[i] + this.m22[i] - 1.0D) * 0.5D;
+			x[i] = (this.m21[i] - this.m12[i]) / 2.0D;
+			y[i] = (this.m02[i] - this.m20[i]) / 2.0D;
+			z[i] = (this.m10[i] - this.m01[i]) / 2.0D;
+		}
+		for (int i = offset; i < end; i++) {
+			double c = cosAngle[i];
+			double sinAngleAbs = Math.sqrt(x[i] * x[i] + y[i] * y[i] + z[i]
+					* z[i]);
+			if (c > 0.7071067811865476D) {
+				if (sinAngleAbs > 0.0D) {
+					double s = Math.asin(sinAngleAbs) / sinAngleAbs;
+					x[i] *= s;
+					y[i] *= s;
+					z[i] *= s;
+				}
+			} else if (c > -0.7071067811865476D) {
+				double s = Math.acos(c) / sinAngleAbs;
+				x[i] *= s;
+				y[i] *= s;
+				z[i] *= s;
+			} else {
+				muNearPi(i, c, 3.141592653589793D - Math.asin(sinAngleAbs));
+			}
+		}
+	}
+
+	private void muNearPi(int i, double cosAngle, double angle) {
+		double d0 = this.m00[i] - cosAngle;
+		double d1 = this.m11[i] - cosAngle;
+		double d2 = this.m22[i] - cosAngle;
+		double rx;
+		double ry;
+		double rz;
+		if ((d0 * d0 > d1 * d1) && (d0 * d0 > d2 * d2)) {
+			rx = d0;
+			ry = (this.m10[i] + this.m01[i]) / 2.0D;
+			rz = (this.m02[i] + this.m20[i]) / 2.0D;
+		} else if (d1 * d1 > d2 * d2) {
+			rx = (this.m10[i] + this.m01[i]) / 2.0D;
+			ry = d1;
+			rz = (this.m21[i] + this.m12[i]) / 2.0D;
+		} else {
+			rx = (this.m02[i] + this.m20[i]) / 2.0D;
+			ry = (this.m21[i] + this.m12[i]) / 2.0D;
+			rz = d2;
+		}
+		if (rx * this.x[i] + ry * this.y[i] + rz * this.z[i] < 0.0D) {
+			rx *= -1.0D;
+			ry *= -1.0D;
+			rz *= -1.0D;
+		}
+		// Same zero guard and reciprocal scaling as Vector3d.normalize, so
+		// the result matches So3Util bit for bit.
+		double d = Math.sqrt(rx * rx + ry * ry + rz * rz);
+		if (d != 0.0D) {
+			double s = 1.0D / d;
+			rx *= s;
+			ry *= s;
+			rz *= s;
+		}
+		this.x[i] = rx * angle;
+		this.y[i] = ry * angle;
+		this.z[i] = rz * angle;
+	}
+
+	private void checkRange(int offset, int count) {
+		if ((offset < 0) || (count < 0) || (offset + count > this.x.length)) {
+			throw new IndexOutOfBoundsException("offset " + offset
+					+ ", count " + count + ", capacity " + this.x.length);
+		}
+	}
+}
@@ -4,17 +4,50 @@ public class So3Util {
 	private static final double M_SQRT1_2 = 0.7071067811865476D;
 	private static final double ONE_6TH = 0.16666667163372D;
 	private static final double ONE_20TH = 0.16666667163372D;
-	private static Vector3d temp31 = new Vector3d();
-	private static Vector3d sO3FromTwoVecN = new Vector3d();
-	private static Vector3d sO3FromTwoVecA = new Vector3d();
-	private static Vector3d sO3FromTwoVecB = new Vector3d();
-	private static Vector3d sO3FromTwoVecRotationAxis = new Vector3d();
-	private static Matrix3x3d sO3FromTwoVec33R1 = new Matrix3x3d();
-	private static Matrix3x3d sO3FromTwoVec33R2 = new Matrix3x3d();
-	private static Vector3d muFromSO3R2 = new Vector3d();
-	private static Vector3d rotationPiAboutAxisTemp = new Vector3d();
+	private static final ThreadLocal<Workspace> threadWorkspace = new ThreadLocal<Workspace>() {
+		protected Workspace initialValue() {
+			return new Workspace();
+		}
+	};
+
+	/**
+	 * Scratch storage for the methods below. A workspace must only be used by
+	 * one thread at a time; owners such as {@link OrientationEKF} keep their
+	 * own so that independent filters can run concurrently without sharing
+	 * state. The overloads without a workspace argument use one per thread.
+	 */
+	public static class Workspace {
+		private final Vector3d temp31 = new Vector3d();
+		private final Vector3d sO3FromTwoVecN = new Vector3d();
+		private final Vector3d sO3FromTwoVecA = new Vector3d();
+		private final Vector3d sO3FromTwoVecB = new Vector3d();
+		private final Vector3d sO3FromTwoVecRotationAxis = new Vector3d();
+		private final Matrix3x3d sO3FromTwoVec33R1 = new Matrix3x3d();
+		private final Matrix3x3d sO3FromTwoVec33R2 = new Matrix3x3d();
+		private final Vector3d muFromSO3R2 = new Vector3d();
+		private final Vector3d rotationPiAboutAxisTemp = new Vector3d();
+		private final Vector3f temp31f = new Vector3f();
+		private final Vector3f sO3FromTwoVecNf = new Vector3f();
+		private final Vector3f sO3FromTwoVecAf = new Vector3f();
+		private final Vector3f sO3FromTwoVecBf = new Vector3f();
+		private final Vector3f sO3FromTwoVecRotationAxisf = new Vector3f();
+		private final Matrix3f sO3FromTwoVec33R1f = new Matrix3f();
+		private final Matrix3f sO3FromTwoVec33R2f = new Matrix3f();
+		private final Vector3f muFromSO3R2f = new Vector3f();
+		private final Vector3f rotationPiAboutAxisTempf = new Vector3f();
+	}
 
 	public static void sO3FromTwoVec(Vector3d a, Vector3d b, Matrix3x3d result) {
+		sO3FromTwoVec(a, b, result, threadWorkspace.get());
+	}
+
+	public static void sO3FromTwoVec(Vector3d a, Vector3d b,
+			Matrix3x3d result, Workspace ws) {
+		Vector3d temp31 = ws.temp31;
+		Vector3d sO3FromTwoVecN = ws.sO3FromTwoVecN;
+		Vector3d sO3FromTwoVecA = ws.sO3FromTwoVecA;
+		Vector3d sO3FromTwoVecB = ws.sO3FromTwoVecB;
+		Vector3d sO3FromTwoVecRotationAxis = ws.sO3FromTwoVecRotationAxis;
 		Vector3d.cross(a, b, sO3FromTwoVecN);
 		if (sO3FromTwoVecN.length() == 0.0D) {
 			double dot = Vector3d.dot(a, b);
@@ -22,7 +55,7 @@ public class So3Util {
 				result.setIdentity();
 			} else {
 				Vector3d.ortho(a, sO3FromTwoVecRotationAxis);
-				rotationPiAboutAxis(sO3FromTwoVecRotationAxis, result);
+				rotationPiAboutAxis(sO3FromTwoVecRotationAxis, result, ws);
 			}
 			return;
 		}
@@ -34,13 +67,13 @@ public class So3Util {
 		sO3FromTwoVecA.normalize();
 		sO3FromTwoVecB.normalize();
 
-		Matrix3x3d r1 = sO3FromTwoVec33R1;
+		Matrix3x3d r1 = ws.sO3FromTwoVec33R1;
 		r1.setColumn(0, sO3FromTwoVecA);
 		r1.setColumn(1, sO3FromTwoVecN);
 		Vector3d.cross(sO3FromTwoVecN, sO3FromTwoVecA, temp31);
 		r1.setColumn(2, temp31);
 
-		Matrix3x3d r2 = sO3FromTwoVec33R2;
+		Matrix3x3d r2 = ws.sO3FromTwoVec33R2;
 		r2.setColumn(0, sO3FromTwoVecB);
 		r2.setColumn(1, sO3FromTwoVecN);
 		Vector3d.cross(sO3FromTwoVecN, sO3FromTwoVecB, temp31);
@@ -50,7 +83,9 @@ public class So3Util {
 		Matrix3x3d.mult(r2, r1, result);
 	}
 
-	private static void rotationPiAboutAxis(Vector3d v, Matrix3x3d result) {
+	private static void rotationPiAboutAxis(Vector3d v, Matrix3x3d result,
+			Workspace ws) {
+		Vector3d rotationPiAboutAxisTemp = ws.rotationPiAboutAxisTemp;
 		rotationPiAboutAxisTemp.set(v);
 		rotationPiAboutAxisTemp
 				.scale(3.141592653589793D / rotationPiAboutAxisTemp.length());
@@ -62,6 +97,64 @@ public class So3Util {
 		rodriguesSo3Exp(rotationPiAboutAxisTemp, kA, kB, result);
 	}
 
+	/**
+	 * Single-precision {@link #sO3FromTwoVec(Vector3d, Vector3d, Matrix3x3d, Workspace)}.
+	 */
+	public static void sO3FromTwoVec(Vector3f a, Vector3f b, Matrix3f result,
+			Workspace ws) {
+		Vector3f temp31 = ws.temp31f;
+		Vector3f sO3FromTwoVecN = ws.sO3FromTwoVecNf;
+		Vector3f sO3FromTwoVecA = ws.sO3FromTwoVecAf;
+		Vector3f sO3FromTwoVecB = ws.sO3FromTwoVecBf;
+		Vector3f sO3FromTwoVecRotationAxis = ws.sO3FromTwoVecRotationAxisf;
+		Vector3f.cross(a, b, sO3FromTwoVecN);
+		if (sO3FromTwoVecN.length() == 0.0F) {
+			float dot = Vector3f.dot(a, b);
+			if (dot >= 0.0F) {
+				result.setIdentity();
+			} else {
+				Vector3f.ortho(a, sO3FromTwoVecRotationAxis);
+				rotationPiAboutAxis(sO3FromTwoVecRotationAxis, result, ws);
+			}
+			return;
+		}
+
+		sO3FromTwoVecA.set(a);
+		sO3FromTwoVecB.set(b);
+
+		sO3FromTwoVecN.normalize();
+		sO3FromTwoVecA.normalize();
+		sO3FromTwoVecB.normalize();
+
+		Matrix3f r1 = ws.sO3FromTwoVec33R1f;
+		r1.setColumn(0, sO3FromTwoVecA);
+		r1.setColumn(1, sO3FromTwoVecN);
+		Vector3f.cross(sO3FromTwoVecN, sO3FromTwoVecA, temp31);
+		r1.setColumn(2, temp31);
+
+		Matrix3f r2 = ws.sO3FromTwoVec33R2f;
+		r2.setColumn(0, sO3FromTwoVecB);
+		r2.setColumn(1, sO3FromTwoVecN);
+		Vector3f.cross(sO3FromTwoVecN, sO3FromTwoVecB, temp31);
+		r2.setColumn(2, temp31);
+
+		r1.transpose();
+		Matrix3f.mult(r2, r1, result);
+	}
+
+	private static void rotationPiAboutAxis(Vector3f v, Matrix3f result,
+			Workspace ws) {
+		Vector3f rotationPiAboutAxisTemp = ws.rotationPiAboutAxisTempf;
+		rotationPiAboutAxisTemp.set(v);
+		rotationPiAboutAxisTemp
+				.scale(3.1415927F / rotationPiAboutAxisTemp.length());
+
+		float kA = 0.0F;
+
+		float kB = 0.20264237F;
+		rodriguesSo3Exp(rotationPiAboutAxisTemp, kA, kB, result);
+	}
+
 	public static void sO3FromMu(Vector3d w, Matrix3x3d result) {
 		double thetaSq = Vector3d.dot(w, w);
 		double theta = Math.sqrt(thetaSq);
@@ -84,11 +177,34 @@ public class So3Util {
 		rodriguesSo3Exp(w, kA, kB, result);
 	}
 
+	/**
+	 * Single-precision {@link #sO3FromMu(Vector3d, Matrix3x3d)}.
+	 */
+	public static void sO3FromMu(Vector3f w, Matrix3f result) {
+		float thetaSq = Vector3f.dot(w, w);
+		float kB;
+		float kA;
+		if (thetaSq < 1.0E-006F) {
+			kB = 0.5F - 0.041666668F * thetaSq;
+			kA = 1.0F - 0.16666667F * thetaSq;
+		} else {
+			double theta = Math.sqrt(thetaSq);
+			kA = (float) (Math.sin(theta) / theta);
+			kB = (float) ((1.0D - Math.cos(theta)) / thetaSq);
+		}
+		rodriguesSo3Exp(w, kA, kB, result);
+	}
+
 	public static void muFromSO3(Matrix3x3d so3, Vector3d result) {
-		double cosAngle = (so3.get(0, 0) + so3.get(1, 1) + so3.get(2, 2) - 1.0D) * 0.5D;
-		result.set((so3.get(2, 1) - so3.get(1, 2)) / 2.0D,
-				(so3.get(0, 2) - so3.get(2, 0)) / 2.0D,
-				(so3.get(1, 0) - so3.get(0, 1)) / 2.0D);
+		muFromSO3(so3, result, threadWorkspace.get());
+	}
+
+	public static void muFromSO3(Matrix3x3d so3, Vector3d result,
+			Workspace ws) {
+		double cosAngle = (so3.m00 + so3.m11 + so3.m22 - 1.0D) * 0.5D;
+		result.set((so3.m21 - so3.m12) / 2.0D,
+				(so3.m02 - so3.m20) / 2.0D,
+				(so3.m10 - so3.m01) / 2.0D);
 
 		double sinAngleAbs = result.length();
 		if (cosAngle > 0.7071067811865476D) {
@@ -99,20 +215,20 @@ public class So3Util {
 			result.scale(angle / sinAngleAbs);
 		} else {
 			double angle = 3.141592653589793D - Math.asin(sinAngleAbs);
-			double d0 = so3.get(0, 0) - cosAngle;
-			double d1 = so3.get(1, 1) - cosAngle;
-			double d2 = so3.get(2, 2) - cosAngle;
+			double d0 = so3.m00 - cosAngle;
+			double d1 = so3.m11 - cosAngle;
+			double d2 = so3.m22 - cosAngle;
 
-			Vector3d r2 = muFromSO3R2;
+			Vector3d r2 = ws.muFromSO3R2;
 			if ((d0 * d0 > d1 * d1) && (d0 * d0 > d2 * d2)) {
-				r2.set(d0, (so3.get(1, 0) + so3.get(0, 1)) / 2.0D,
-						(so3.get(0, 2) + so3.get(2, 0)) / 2.0D);
+				r2.set(d0, (so3.m10 + so3.m01) / 2.0D,
+						(so3.m02 + so3.m20) / 2.0D);
 			} else if (d1 * d1 > d2 * d2) {
-				r2.set((so3.get(1, 0) + so3.get(0, 1)) / 2.0D, d1,
-						(so3.get(2, 1) + so3.get(1, 2)) / 2.0D);
+				r2.set((so3.m10 + so3.m01) / 2.0D, d1,
+						(so3.m21 + so3.m12) / 2.0D);
 			} else {
-				r2.set((so3.get(0, 2) + so3.get(2, 0)) / 2.0D,
-						(so3.get(2, 1) + so3.get(1, 2)) / 2.0D, d2);
+				r2.set((so3.m02 + so3.m20) / 2.0D,
+						(so3.m21 + so3.m12) / 2.0D, d2);
 			}
 
 			if (Vector3d.dot(r2, result) < 0.0D) {
@@ -124,26 +240,90 @@ public class So3Util {
 		}
 	}
 
+	/**
+	 * Single-precision {@link #muFromSO3(Matrix3x3d, Vector3d, Workspace)}.
+	 */
+	public static void muFromSO3(Matrix3f so3, Vector3f result, Workspace ws) {
+		float cosAngle = (so3.m00 + so3.m11 + so3.m22 - 1.0F) * 0.5F;
+		result.set((so3.m21 - so3.m12) / 2.0F, (so3.m02 - so3.m20) / 2.0F,
+				(so3.m10 - so3.m01) / 2.0F);
+
+		float sinAngleAbs = result.length();
+		if (cosAngle > 0.70710677F) {
+			if (sinAngleAbs > 0.0F)
+				result.scale((float) Math.asin(sinAngleAbs) / sinAngleAbs);
+		} else if (cosAngle > -0.70710677F) {
+			float angle = (float) Math.acos(cosAngle);
+			result.scale(angle / sinAngleAbs);
+		} else {
+			float angle = 3.1415927F - (float) Math.asin(sinAngleAbs);
+			float d0 = so3.m00 - cosAngle;
+			float d1 = so3.m11 - cosAngle;
+			float d2 = so3.m22 - cosAngle;
+
+			Vector3f r2 = ws.muFromSO3R2f;
+			if ((d0 * d0 > d1 * d1) && (d0 * d0 > d2 * d2)) {
+				r2.set(d0, (so3.m10 + so3.m01) / 2.0F,
+						(so3.m02 + so3.m20) / 2.0F);
+			} else if (d1 * d1 > d2 * d2) {
+				r2.set((so3.m10 + so3.m01) / 2.0F, d1,
+						(so3.m21 + so3.m12) / 2.0F);
+			} else {
+				r2.set((so3.m02 + so3.m20) / 2.0F,
+						(so3.m21 + so3.m12) / 2.0F, d2);
+			}
+
+			if (Vector3f.dot(r2, result) < 0.0F) {
+				r2.scale(-1.0F);
+			}
+			r2.normalize();
+			r2.scale(angle);
+			result.set(r2);
+		}
+	}
+
 	private static void rodriguesSo3Exp(Vector3d w, double kA, double kB,
 			Matrix3x3d result) {
 		double wx2 = w.x * w.x;
 		double wy2 = w.y * w.y;
 		double wz2 = w.z * w.z;
-		result.set(0, 0, 1.0D - kB * (wy2 + wz2));
-		result.set(1, 1, 1.0D - kB * (wx2 + wz2));
-		result.set(2, 2, 1.0D - kB * (wx2 + wy2));
+		result.m00 = (1.0D - kB * (wy2 + wz2));
+		result.m11 = (1.0D - kB * (wx2 + wz2));
+		result.m22 = (1.0D - kB * (wx2 + wy2));
 		double a = kA * w.z;
 		double b = kB * (w.x * w.y);
-		result.set(0, 1, b - a);
-		result.set(1, 0, b + a);
+		result.m01 = (b - a);
+		result.m10 = (b + a);
+		a = kA * w.y;
+		b = kB * (w.x * w.z);
+		result.m02 = (b + a);
+		result.m20 = (b - a);
+		a = kA * w.x;
+		b = kB * (w.y * w.z);
+		result.m12 = (b - a);
+		result.m21 = (b + a);
+	}
+
+	private static void rodriguesSo3Exp(Vector3f w, float kA, float kB,
+			Matrix3f result) {
+		float wx2 = w.x * w.x;
+		float wy2 = w.y * w.y;
+		float wz2 = w.z * w.z;
+		result.m00 = (1.0F - kB * (wy2 + wz2));
+		result.m11 = (1.0F - kB * (wx2 + wz2));
+		result.m22 = (1.0F - kB * (wx2 + wy2));
+		float a = kA * w.z;
+		float b = kB * (w.x * w.y);
+		result.m01 = (b - a);
+		result.m10 = (b + a);
 		a = kA * w.y;
 		b = kB * (w.x * w.z);
-		result.set(0, 2, b + a);
-		result.set(2, 0, b - a);
+		result.m02 = (b + a);
+		result.m20 = (b - a);
 		a = kA * w.x;
 		b = kB * (w.y * w.z);
-		result.set(1, 2, b - a);
-		result.set(2, 1, b + a);
+		result.m12 = (b - a);
+		result.m21 = (b + a);
 	}
 
 	public static void generatorField(int i, Matrix3x3d pos, Matrix3x3d result) {
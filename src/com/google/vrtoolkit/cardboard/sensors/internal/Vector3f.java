@@ -0,0 +1,122 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+/**
+ * Single-precision counterpart of {@link Vector3d}.
+ */
+public class Vector3f {
+	public float x;
+	public float y;
+	public float z;
+
+	public Vector3f() {
+	}
+
+	public Vector3f(float xx, float yy, float zz) {
+		set(xx, yy, zz);
+	}
+
+	public void set(float xx, float yy, float zz) {
+		this.x = xx;
+		this.y = yy;
+		this.z = zz;
+	}
+
+	public void setComponent(int i, float val) {
+		if (i == 0)
+			this.x = val;
+		else if (i == 1)
+			this.y = val;
+		else
+			this.z = val;
+	}
+
+	public void setZero() {
+		this.x = (this.y = this.z = 0.0F);
+	}
+
+	public void set(Vector3f other) {
+		this.x = other.x;
+		this.y = other.y;
+		this.z = other.z;
+	}
+
+	public void set(Vector3d other) {
+		this.x = ((float) other.x);
+		this.y = ((float) other.y);
+		this.z = ((float) other.z);
+	}
+
+	public void copyTo(Vector3d result) {
+		result.set(this.x, this.y, this.z);
+	}
+
+	public void scale(float s) {
+		this.x *= s;
+		this.y *= s;
+		this.z *= s;
+	}
+
+	public void normalize() {
+		float d = length();
+		if (d != 0.0F)
+			scale(1.0F / d);
+	}
+
+	public static float dot(Vector3f a, Vector3f b) {
+		return a.x * b.x + a.y * b.y + a.z * b.z;
+	}
+
+	public float length() {
+		return (float) Math.sqrt(this.x * this.x + this.y * this.y + this.z
+				* this.z);
+	}
+
+	public static void add(Vector3f a, Vector3f b, Vector3f result) {
+		result.set(a.x + b.x, a.y + b.y, a.z + b.z);
+	}
+
+	public static void sub(Vector3f a, Vector3f b, Vector3f result) {
+		result.set(a.x - b.x, a.y - b.y, a.z - b.z);
+	}
+
+	public static void cross(Vector3f a, Vector3f b, Vector3f result) {
+		result.set(a.y * b.z - a.z * b.y, a.z * b.x - a.x * b.z, a.x * b.y
+				- a.y * b.x);
+	}
+
+	public static void ortho(Vector3f v, Vector3f result) {
+		int k = largestAbsComponent(v) - 1;
+		if (k < 0) {
+			k = 2;
+		}
+		result.setZero();
+		result.setComponent(k, 1.0F);
+
+		cross(v, result, result);
+		result.normalize();
+	}
+
+	public static int largestAbsComponent(Vector3f v) {
+		float xAbs = Math.abs(v.x);
+		float yAbs = Math.abs(v.y);
+		float zAbs = Math.abs(v.z);
+
+		if (xAbs > yAbs) {
+			if (xAbs > zAbs) {
+				return 0;
+			}
+			return 2;
+		}
+
+		if (yAbs > zAbs) {
+			return 1;
+		}
+		return 2;
+	}
+
+	public String toString() {
+		return String.format("%+05f %+05f %+05f",
+				new Object[] { Float.valueOf(this.x), Float.valueOf(this.y),
+						Float.valueOf(this.z) });
+	}
+}
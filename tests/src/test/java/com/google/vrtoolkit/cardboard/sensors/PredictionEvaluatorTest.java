@@ -0,0 +1,168 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.vrtoolkit.cardboard.sensors.internal.ConstantAccelerationPredictor;
+import com.google.vrtoolkit.cardboard.sensors.internal.ConstantVelocityPredictor;
+import com.google.vrtoolkit.cardboard.sensors.internal.MotionPredictor;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Evaluates predictors on synthetic traces of a phone lying flat and
+ * turning about the vertical axis, so the accelerometer always reads
+ * gravity and the fused orientation follows the gyroscope.
+ */
+public class PredictionEvaluatorTest {
+	private static final int SECONDS = 5;
+	private static final long GYRO_PERIOD_NS = 2500000L;
+	private static final double[] HORIZONS = { 0.0D, 0.02D, 0.1D };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * At a constant rate the last gyroscope sample predicts every horizon,
+	 * and a zero horizon scores the fused orientation against itself.
+	 */
+	@Test
+	public void testConstantRate() throws IOException {
+		PredictionEvaluator evaluator = new PredictionEvaluator(
+				new MotionPredictor[] { new ConstantVelocityPredictor(),
+						new ConstantAccelerationPredictor() }, HORIZONS);
+		int samples = evaluator.evaluate(writeTrace(false));
+
+		assertEquals(SECONDS * 600, samples);
+		assertEquals(2, evaluator.getNumPredictors());
+		assertEquals(3, evaluator.getNumHorizons());
+		for (int p = 0; p < 2; p++) {
+			for (int h = 0; h < 3; h++) {
+				assertTrue(evaluator.getCount(p, h) > SECONDS * 300);
+			}
+			assertEquals(0.0D, evaluator.getMeanErrorDegrees(p, 0), 0.05D);
+		}
+		assertEquals(0.0D, evaluator.getMeanErrorDegrees(0, 2), 0.1D);
+	}
+
+	/**
+	 * With a changing rate, constant velocity extrapolation falls behind
+	 * more the further it predicts.
+	 */
+	@Test
+	public void testErrorGrowsWithHorizon() throws IOException {
+		PredictionEvaluator evaluator = new PredictionEvaluator(
+				new MotionPredictor[] { new ConstantVelocityPredictor() },
+				HORIZONS);
+		evaluator.evaluate(writeTrace(true));
+
+		double shortError = evaluator.getMeanErrorDegrees(0, 1);
+		double longError = evaluator.getMeanErrorDegrees(0, 2);
+		assertTrue(shortError > 0.05D);
+		assertTrue(longError > 4.0D * shortError);
+		assertTrue(evaluator.getMaxErrorDegrees(0, 2) >= longError);
+		assertTrue(evaluator.getRmsErrorDegrees(0, 2) >= longError);
+		assertEquals(3, evaluator.getReport().split("\n").length);
+	}
+
+	/**
+	 * A gyroscope reading 10% high is followed by the fused orientation,
+	 * so only the truth poses show the 0.1 rad/s the predictions are off.
+	 */
+	@Test
+	public void testScoresAgainstTruthPoses() throws IOException {
+		PredictionEvaluator evaluator = new PredictionEvaluator(
+				new MotionPredictor[] { new ConstantVelocityPredictor() },
+				HORIZONS);
+		evaluator.evaluate(writeTrace(false, 1.1F, 0.0F, true));
+
+		for (int h = 0; h < HORIZONS.length; h++) {
+			assertTrue(evaluator.getCount(0, h) > SECONDS * 300);
+			assertEquals(Math.toDegrees(0.1D * HORIZONS[h]),
+					evaluator.getMeanErrorDegrees(0, h), 0.01D);
+		}
+	}
+
+	/**
+	 * The samples of an uncalibrated gyroscope are corrected by the system
+	 * bias in their extra values before they are fused and predicted from.
+	 */
+	@Test
+	public void testUncalibratedGyroscopeBiasIsRemoved() throws IOException {
+		PredictionEvaluator evaluator = new PredictionEvaluator(
+				new MotionPredictor[] { new ConstantVelocityPredictor() },
+				HORIZONS);
+		evaluator.evaluate(writeTrace(false, 1.0F, 0.05F, true));
+
+		for (int h = 0; h < HORIZONS.length; h++) {
+			assertTrue(evaluator.getCount(0, h) > SECONDS * 300);
+			assertEquals(0.0D, evaluator.getMeanErrorDegrees(0, h), 0.01D);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsLongHorizon() {
+		new PredictionEvaluator(
+				new MotionPredictor[] { new ConstantVelocityPredictor() },
+				new double[] { 1.5D });
+	}
+
+	private File writeTrace(boolean varyingRate) throws IOException {
+		return writeTrace(varyingRate, 1.0F, 0.0F, false);
+	}
+
+	/**
+	 * Writes gyroscope samples at 400 Hz, turning at 1 rad/s or at
+	 * 2 sin(pi t) rad/s, and accelerometer samples at 200 Hz. The gyroscope
+	 * reads gyroScale times the rate; with a nonzero systemBias it is an
+	 * uncalibrated one reading the rate plus systemBias about z. With truth
+	 * the true orientation follows each gyroscope sample.
+	 */
+	private File writeTrace(boolean varyingRate, float gyroScale,
+			float systemBias, boolean truth) throws IOException {
+		File traceFile = new File(this.folder.getRoot(), "trace.bin");
+		traceFile.delete();
+		SensorTraceWriter writer = new SensorTraceWriter(traceFile);
+		try {
+			float[] gyro = new float[3];
+			float[] uncalibratedGyro = { 0.0F, 0.0F, 0.0F, 0.0F, 0.0F,
+					systemBias };
+			float[] acc = { 0.0F, 0.0F, 9.81F };
+			float[] pose = new float[4];
+			double angle = 0.0D;
+			for (int i = 0; i < SECONDS * 400; i++) {
+				long timestampNs = 1000000000L + i * GYRO_PERIOD_NS;
+				double time = i * GYRO_PERIOD_NS * 1.0E-9D;
+				double rate = varyingRate ? 2.0D * Math.sin(Math.PI * time)
+						: 1.0D;
+				if (systemBias != 0.0F) {
+					uncalibratedGyro[2] = (float) (gyroScale * rate + systemBias);
+					writer.append(16, timestampNs, uncalibratedGyro);
+				} else {
+					gyro[2] = (float) (gyroScale * rate);
+					writer.append(4, timestampNs, gyro);
+				}
+				if (truth) {
+					// sensorFromWorld turns by -rate about z.
+					if (i > 0) {
+						angle += rate * GYRO_PERIOD_NS * 1.0E-9D;
+					}
+					pose[2] = (float) Math.sin(-0.5D * angle);
+					pose[3] = (float) Math.cos(-0.5D * angle);
+					writer.append(SensorTraceWriter.TYPE_TRUTH_POSE,
+							timestampNs, pose);
+				}
+				if (i % 2 == 0) {
+					writer.append(1, timestampNs + 1000L, acc);
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		return traceFile;
+	}
+}
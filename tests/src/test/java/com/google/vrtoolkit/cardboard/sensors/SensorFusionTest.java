@@ -0,0 +1,216 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.vrtoolkit.cardboard.sensors.internal.Matrix3x3d;
+import com.google.vrtoolkit.cardboard.sensors.internal.OrientationEKF;
+import com.google.vrtoolkit.cardboard.sensors.internal.Vector3d;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Runs the Android-free fusion path of {@link HeadTracker} on a plain JVM.
+ */
+public class SensorFusionTest {
+	private static final long START_NS = 1000000000L;
+	private static final long GYRO_PERIOD_NS = 2500000L;
+
+	private final Clock clock = new Clock() {
+		public long nanoTime() {
+			return SensorFusionTest.this.nowNs;
+		}
+	};
+	private long nowNs = START_NS;
+
+	@Test
+	public void testDirectModeMatchesEngine() {
+		OrientationEKF engine = new OrientationEKF();
+		SensorFusion fusion = new SensorFusion(engine, this.clock);
+		fusion.setGyroBiasEstimationEnabled(false);
+		fusion.start();
+		OrientationEKF expected = new OrientationEKF();
+
+		float[] mag = new float[3];
+		for (int i = 0; i < 2000; i++) {
+			long timestampNs = START_NS + i * GYRO_PERIOD_NS;
+			this.nowNs = timestampNs + 1000000L;
+			float x = (float) (0.8D * Math.sin(i * 0.01D));
+			float y = (float) (0.5D * Math.cos(i * 0.013D));
+			float z = 0.3F;
+			fusion.onSample(4, timestampNs, x, y, z, null);
+			expected.processGyro(new Vector3d(x, y, z), timestampNs);
+			if (i % 2 == 1) {
+				fusion.onSample(1, timestampNs, 0.1F, 0.2F, 9.8F, null);
+				expected.processAcc(new Vector3d(0.1F, 0.2F, 9.8F),
+						timestampNs);
+			}
+			if (i % 8 == 3) {
+				mag[0] = 0.0F;
+				mag[1] = 40.0F;
+				mag[2] = -25.0F;
+				fusion.onSample(2, timestampNs, mag[0], mag[1], mag[2], null);
+				expected.processMag(mag, timestampNs);
+			}
+		}
+		fusion.stop();
+
+		assertMatrixEquals(expected.getRotationMatrix(),
+				engine.getRotationMatrix(), 0.0D);
+		assertEquals(0L, fusion.getSensorStatistics().getOutOfOrderCount(
+				SensorStatistics.SENSOR_GYROSCOPE));
+		assertTrue(fusion.getClockDomainEstimator().isReady());
+	}
+
+	/**
+	 * Gyroscope events arrive on a clock with an offset, a 100 ppm drift and
+	 * exponential delivery jitter. Until the clock domain estimate is ready
+	 * an event maps to the arrival of the latest sample; after that to its
+	 * own time on the clock plus the minimum delivery latency.
+	 */
+	@Test
+	public void testGyroEventClockTime() {
+		SensorFusion fusion = new SensorFusion(new OrientationEKF(), this.clock);
+		fusion.start();
+		Random random = new Random(8L);
+		long offsetNs = 5000000000L;
+		long minLatencyNs = 300000L;
+		double drift = 100.0E-6D;
+		for (int i = 0; i < 4000; i++) {
+			long timestampNs = START_NS + i * GYRO_PERIOD_NS;
+			long expectedNs = timestampNs + offsetNs + minLatencyNs
+					+ Math.round(drift * (timestampNs - START_NS));
+			this.nowNs = expectedNs
+					+ Math.round(-1000000.0D * Math.log(1.0D - random.nextDouble()));
+			fusion.onSample(4, timestampNs, 0.0F, 0.0F, 0.0F, null);
+			if (i == 0) {
+				assertFalse(fusion.getClockDomainEstimator().isReady());
+				assertEquals(this.nowNs, fusion.getGyroEventClockTimeNs(START_NS));
+			} else if (i >= 2000) {
+				assertEquals(expectedNs,
+						fusion.getGyroEventClockTimeNs(timestampNs), 100000.0D);
+			}
+		}
+	}
+
+	/**
+	 * The system bias of the first uncalibrated sample is subtracted from
+	 * every later one, like the rates of a calibrated gyroscope.
+	 */
+	@Test
+	public void testUncalibratedGyroSubtractsInitialSystemBias() {
+		OrientationEKF calibrated = new OrientationEKF();
+		SensorFusion calibratedFusion = new SensorFusion(calibrated, this.clock);
+		calibratedFusion.setGyroBiasEstimationEnabled(false);
+		calibratedFusion.start();
+		OrientationEKF uncalibrated = new OrientationEKF();
+		SensorFusion uncalibratedFusion = new SensorFusion(uncalibrated,
+				this.clock);
+		uncalibratedFusion.setGyroBiasEstimationEnabled(false);
+		uncalibratedFusion.start();
+
+		float[] systemBias = { 0.02F, -0.01F, 0.005F };
+		float[] laterBias = { 0.5F, 0.5F, 0.5F };
+		for (int i = 0; i < 500; i++) {
+			long timestampNs = START_NS + i * GYRO_PERIOD_NS;
+			float x = (float) Math.sin(i * 0.02D);
+			float y = 0.25F;
+			float z = -0.1F;
+			calibratedFusion.onSample(4, timestampNs, x, y, z, null);
+			uncalibratedFusion.onSample(16, timestampNs, x + systemBias[0], y
+					+ systemBias[1], z + systemBias[2], i == 0 ? systemBias
+					: laterBias);
+			calibratedFusion.onSample(1, timestampNs, 0.0F, 0.0F, 9.81F, null);
+			uncalibratedFusion.onSample(1, timestampNs, 0.0F, 0.0F, 9.81F,
+					null);
+		}
+
+		assertMatrixEquals(calibrated.getRotationMatrix(),
+				uncalibrated.getRotationMatrix(), 1.0E-5D);
+	}
+
+	@Test
+	public void testStoredGyroBiasIsAbsolute() {
+		SensorFusion fusion = new SensorFusion(new OrientationEKF(), this.clock);
+		fusion.start();
+		fusion.setStoredGyroBias(fusion.getGyroBiasSession(), new float[] {
+				0.03F, 0.02F, 0.01F, 1.0F });
+		float[] systemBias = { 0.01F, 0.01F, 0.01F };
+		fusion.onSample(16, START_NS, 0.0F, 0.0F, 0.0F, systemBias);
+
+		float[] bias = new float[4];
+		assertTrue(fusion.getAbsoluteGyroBias(bias));
+		assertArrayEquals(new float[] { 0.03F, 0.02F, 0.01F, 0.0F }, bias,
+				1.0E-6F);
+	}
+
+	@Test
+	public void testStoredGyroBiasOfEarlierSessionIsIgnored() {
+		SensorFusion fusion = new SensorFusion(new OrientationEKF(), this.clock);
+		fusion.start();
+		int session = fusion.getGyroBiasSession();
+		fusion.start();
+		fusion.setStoredGyroBias(session,
+				new float[] { 0.03F, 0.02F, 0.01F, 1.0F });
+		float[] systemBias = { 0.01F, 0.01F, 0.01F };
+		fusion.onSample(16, START_NS, 0.0F, 0.0F, 0.0F, systemBias);
+
+		float[] bias = new float[4];
+		assertTrue(fusion.getAbsoluteGyroBias(bias));
+		assertArrayEquals(new float[] { 0.01F, 0.01F, 0.01F, 0.0F }, bias,
+				1.0E-6F);
+	}
+
+	/**
+	 * A snapshot keeps its values while more samples arrive; a reset clears
+	 * the recorder but not earlier snapshots.
+	 */
+	@Test
+	public void testSensorStatisticsSnapshot() {
+		SensorFusion fusion = new SensorFusion(new OrientationEKF(), this.clock);
+		fusion.start();
+		for (int i = 0; i < 10; i++) {
+			long timestampNs = START_NS + i * GYRO_PERIOD_NS;
+			this.nowNs = timestampNs + 1000000L;
+			fusion.onSample(4, timestampNs, 0.0F, 0.0F, 0.0F, null);
+		}
+		SensorStatistics first = fusion.getSensorStatistics();
+		for (int i = 10; i < 20; i++) {
+			long timestampNs = START_NS + i * GYRO_PERIOD_NS;
+			this.nowNs = timestampNs + 1000000L;
+			fusion.onSample(4, timestampNs, 0.0F, 0.0F, 0.0F, null);
+		}
+		fusion.onSample(4, START_NS, 0.0F, 0.0F, 0.0F, null);
+
+		assertEquals(10L, first.getDeliveryLatencyHistogram(
+				SensorStatistics.SENSOR_GYROSCOPE).getCount());
+		assertEquals(9L, first.getSampleIntervalHistogram(
+				SensorStatistics.SENSOR_GYROSCOPE).getCount());
+		assertEquals(0L,
+				first.getOutOfOrderCount(SensorStatistics.SENSOR_GYROSCOPE));
+		SensorStatistics second = fusion.getSensorStatistics();
+		assertEquals(21L, second.getDeliveryLatencyHistogram(
+				SensorStatistics.SENSOR_GYROSCOPE).getCount());
+		assertEquals(1L,
+				second.getOutOfOrderCount(SensorStatistics.SENSOR_GYROSCOPE));
+
+		fusion.resetSensorStatistics();
+		assertEquals(0L, fusion.getSensorStatistics()
+				.getDeliveryLatencyHistogram(SensorStatistics.SENSOR_GYROSCOPE)
+				.getCount());
+		assertEquals(21L, second.getDeliveryLatencyHistogram(
+				SensorStatistics.SENSOR_GYROSCOPE).getCount());
+	}
+
+	private static void assertMatrixEquals(Matrix3x3d expected,
+			Matrix3x3d actual, double delta) {
+		double[] expectedEntries = new double[9];
+		double[] actualEntries = new double[9];
+		expected.get(expectedEntries, 0);
+		actual.get(actualEntries, 0);
+		assertArrayEquals(expectedEntries, actualEntries, delta);
+	}
+}
@@ -0,0 +1,92 @@
+package com.google.vrtoolkit.cardboard.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SensorTraceWriterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testClosedTraceIsTruncated() throws IOException {
+		File traceFile = this.folder.newFile("trace.bin");
+		traceFile.delete();
+		SensorTraceWriter writer = new SensorTraceWriter(traceFile);
+		appendSamples(writer, 0, 100);
+		writer.close();
+
+		assertEquals(SensorTraceWriter.HEADER_SIZE + 100
+				* (SensorTraceWriter.RECORD_HEADER_SIZE + 12),
+				traceFile.length());
+		assertSamples(traceFile, 100);
+	}
+
+	/**
+	 * A writer that is never closed leaves the zero padding of its mapped
+	 * region behind, as after a crash. Readers must stop at it, and a new
+	 * writer must append after the last record.
+	 */
+	@Test
+	public void testUnclosedTraceEndsAtLastRecord() throws IOException {
+		File traceFile = this.folder.newFile("trace.bin");
+		traceFile.delete();
+		SensorTraceWriter crashed = new SensorTraceWriter(traceFile);
+		appendSamples(crashed, 0, 50);
+		assertTrue(traceFile.length() > SensorTraceWriter.HEADER_SIZE + 50
+				* (SensorTraceWriter.RECORD_HEADER_SIZE + 12));
+		assertSamples(traceFile, 50);
+
+		SensorTraceWriter writer = new SensorTraceWriter(traceFile);
+		appendSamples(writer, 50, 30);
+		writer.close();
+		assertSamples(traceFile, 80);
+	}
+
+	@Test
+	public void testLongTraceSpansMappedRegions() throws IOException {
+		File traceFile = this.folder.newFile("trace.bin");
+		traceFile.delete();
+		SensorTraceWriter writer = new SensorTraceWriter(traceFile);
+		appendSamples(writer, 0, 60000);
+		writer.close();
+		assertSamples(traceFile, 60000);
+	}
+
+	private static void appendSamples(SensorTraceWriter writer, int first,
+			int count) throws IOException {
+		float[] values = new float[3];
+		for (int i = first; i < first + count; i++) {
+			values[0] = i;
+			values[1] = -i;
+			values[2] = 0.5F * i;
+			writer.append(i % 2 == 0 ? 4 : 1, 1000L * i, values);
+		}
+	}
+
+	private static void assertSamples(File traceFile, int count)
+			throws IOException {
+		SensorTraceReader reader = new SensorTraceReader(traceFile);
+		try {
+			for (int i = 0; i < count; i++) {
+				assertTrue(reader.next());
+				assertEquals(i % 2 == 0 ? 4 : 1, reader.type);
+				assertEquals(3, reader.count);
+				assertEquals(1000L * i, reader.timestampNs);
+				assertEquals(i, reader.values[0], 0.0F);
+				assertEquals(-i, reader.values[1], 0.0F);
+				assertEquals(0.5F * i, reader.values[2], 0.0F);
+			}
+			assertFalse(reader.next());
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the packed kernels against naive {@link Matrix3x3d} products on
+ * random inputs, and pins the Kalman gain the filter computes.
+ */
+public class CovarianceKernelsTest {
+	private static final int ITERATIONS = 10000;
+	private static final double TOLERANCE = 1.0E-12D;
+	/**
+	 * The gain inverts S, so it loses precision with the condition number
+	 * of the random inputs.
+	 */
+	private static final double GAIN_TOLERANCE = 1.0E-8D;
+
+	@Test
+	public void testPropagateMatchesReference() {
+		Random random = new Random(1L);
+		double[] p = new double[CovarianceKernels.SIZE];
+		double[] result = new double[CovarianceKernels.SIZE];
+		Matrix3x3d f = new Matrix3x3d();
+		Matrix3x3d expected = new Matrix3x3d();
+		for (int i = 0; i < ITERATIONS; i++) {
+			randomCovariance(random, p);
+			randomMatrix(random, f);
+			double q = random.nextDouble();
+			CovarianceKernels.propagate(p, f, q, result);
+			naiveSandwich(p, f, q, expected);
+			assertPackedEquals(expected, result, TOLERANCE);
+
+			// The result may alias p.
+			CovarianceKernels.propagate(p, f, q, p);
+			assertPackedEquals(expected, p, TOLERANCE);
+		}
+	}
+
+	@Test
+	public void testInnovationCovarianceMatchesReference() {
+		Random random = new Random(2L);
+		double[] p = new double[CovarianceKernels.SIZE];
+		double[] result = new double[CovarianceKernels.SIZE];
+		Matrix3x3d h = new Matrix3x3d();
+		Matrix3x3d expected = new Matrix3x3d();
+		for (int i = 0; i < ITERATIONS; i++) {
+			randomCovariance(random, p);
+			randomMatrix(random, h);
+			double r = random.nextDouble();
+			CovarianceKernels.innovationCovariance(p, h, r, result);
+			naiveSandwich(p, h, r, expected);
+			assertPackedEquals(expected, result, TOLERANCE);
+		}
+	}
+
+	@Test
+	public void testKalmanGainMatchesReference() {
+		Random random = new Random(3L);
+		double[] p = new double[CovarianceKernels.SIZE];
+		double[] s = new double[CovarianceKernels.SIZE];
+		Matrix3x3d h = new Matrix3x3d();
+		Matrix3x3d k = new Matrix3x3d();
+		Matrix3x3d expected = new Matrix3x3d();
+		for (int i = 0; i < ITERATIONS; i++) {
+			randomCovariance(random, p);
+			randomMatrix(random, h);
+			double r = 0.01D + random.nextDouble();
+			CovarianceKernels.innovationCovariance(p, h, r, s);
+			assertTrue(CovarianceKernels.kalmanGain(p, h, s, k));
+			naiveGain(p, h, s, expected);
+			assertMatrixEquals(expected, k, GAIN_TOLERANCE);
+		}
+	}
+
+	@Test
+	public void testKalmanGainRejectsIndefiniteS() {
+		Random random = new Random(4L);
+		double[] p = new double[CovarianceKernels.SIZE];
+		Matrix3x3d h = new Matrix3x3d();
+		Matrix3x3d k = new Matrix3x3d();
+		randomCovariance(random, p);
+		randomMatrix(random, h);
+		k.set(1.0D, 2.0D, 3.0D, 4.0D, 5.0D, 6.0D, 7.0D, 8.0D, 9.0D);
+
+		double[] zero = new double[CovarianceKernels.SIZE];
+		assertFalse(CovarianceKernels.kalmanGain(p, h, zero, k));
+		double[] indefinite = { 1.0D, 0.0D, 0.0D, -1.0D, 0.0D, 1.0D };
+		assertFalse(CovarianceKernels.kalmanGain(p, h, indefinite, k));
+		double[] singular = { 1.0D, 1.0D, 0.0D, 1.0D, 0.0D, 1.0D };
+		assertFalse(CovarianceKernels.kalmanGain(p, h, singular, k));
+		assertEquals(5.0D, k.m11, 0.0D);
+	}
+
+	@Test
+	public void testJosephUpdateMatchesReference() {
+		Random random = new Random(5L);
+		double[] p = new double[CovarianceKernels.SIZE];
+		double[] s = new double[CovarianceKernels.SIZE];
+		double[] result = new double[CovarianceKernels.SIZE];
+		Matrix3x3d h = new Matrix3x3d();
+		Matrix3x3d k = new Matrix3x3d();
+		Matrix3x3d expected = new Matrix3x3d();
+		for (int i = 0; i < ITERATIONS; i++) {
+			randomCovariance(random, p);
+			randomMatrix(random, h);
+			double r = 0.01D + random.nextDouble();
+			// Any gain keeps the Joseph form symmetric, not only the optimal
+			// one.
+			if (i % 2 == 0) {
+				randomMatrix(random, k);
+			} else {
+				CovarianceKernels.innovationCovariance(p, h, r, s);
+				assertTrue(CovarianceKernels.kalmanGain(p, h, s, k));
+			}
+			CovarianceKernels.josephUpdate(p, k, h, r, result);
+			naiveJoseph(p, k, h, r, expected);
+			assertPackedEquals(expected, result, TOLERANCE);
+			assertPositiveDefinite(result);
+		}
+	}
+
+	/**
+	 * Pins the gain for the accelerometer correction at zero innovation,
+	 * where H = I - a a^T projects out the predicted gravity direction a.
+	 * With P = p I the innovation covariance is p H + r I, which is r
+	 * along a and nonzero everywhere, and the gain is p / (p + r) H.
+	 */
+	@Test
+	public void testKalmanGainOfIsotropicProjection() {
+		double variance = 25.0D;
+		double r = 0.5625D;
+		double ax = 0.6D;
+		double az = 0.8D;
+		Matrix3x3d h = new Matrix3x3d(1.0D - ax * ax, 0.0D, -ax * az, 0.0D,
+				1.0D, 0.0D, -az * ax, 0.0D, 1.0D - az * az);
+		double[] p = new double[CovarianceKernels.SIZE];
+		double[] s = new double[CovarianceKernels.SIZE];
+		CovarianceKernels.setIsotropic(variance, p);
+		CovarianceKernels.innovationCovariance(p, h, r, s);
+
+		assertEquals(variance * 0.64D + r, s[CovarianceKernels.P00], 1.0E-12D);
+		assertEquals(-variance * 0.48D, s[CovarianceKernels.P02], 1.0E-12D);
+		assertEquals(variance + r, s[CovarianceKernels.P11], 1.0E-12D);
+		assertEquals(variance * 0.36D + r, s[CovarianceKernels.P22], 1.0E-12D);
+		Vector3d a = new Vector3d(ax, 0.0D, az);
+		assertEquals(r, CovarianceKernels.quadraticForm(s, a), 1.0E-12D);
+
+		Matrix3x3d k = new Matrix3x3d();
+		assertTrue(CovarianceKernels.kalmanGain(p, h, s, k));
+		Matrix3x3d expected = new Matrix3x3d(h);
+		expected.scale(variance / (variance + r));
+		assertMatrixEquals(expected, k, 1.0E-12D);
+	}
+
+	/**
+	 * The first correction of a filter aligned to a single sample, so still
+	 * at the isotropic initial covariance, rotates it by
+	 * p / (p + r) of a small tilt. The accelerometer noise variance r is
+	 * 49 here, the norm of the first sample having jumped from zero. While
+	 * Matrix3x3d.add left its result unset, S stayed zero and no gain was
+	 * computed.
+	 */
+	@Test
+	public void testFirstAccelerometerCorrection() {
+		OrientationEKF ekf = new OrientationEKF();
+		ekf.setGravityInitSampleCount(1);
+		ekf.reset();
+		ekf.processAcc(new Vector3d(0.0D, 0.0D, 9.81D), 1000000000L);
+		assertTrue(ekf.isReady());
+		Matrix3x3d before = new Matrix3x3d(ekf.getRotationMatrix());
+
+		double tilt = 0.01D;
+		ekf.processAcc(new Vector3d(0.0D, 9.81D * Math.sin(tilt),
+				9.81D * Math.cos(tilt)), 1005000000L);
+		Matrix3x3d after = ekf.getRotationMatrix();
+		double trace = before.m00 * after.m00 + before.m01 * after.m01
+				+ before.m02 * after.m02 + before.m10 * after.m10 + before.m11
+				* after.m11 + before.m12 * after.m12 + before.m20 * after.m20
+				+ before.m21 * after.m21 + before.m22 * after.m22;
+		double angle = Math.acos(Math.min(1.0D, 0.5D * (trace - 1.0D)));
+		assertEquals(tilt * 25.0D / (25.0D + 49.0D), angle, 1.0E-3D * tilt);
+	}
+
+	/**
+	 * Sets p to a random positive definite covariance A A^T + 0.01 I with
+	 * entries of A spanning two orders of magnitude.
+	 */
+	private static void randomCovariance(Random random, double[] p) {
+		Matrix3x3d a = new Matrix3x3d();
+		randomMatrix(random, a);
+		a.scale(Math.pow(10.0D, random.nextDouble() * 2.0D - 1.0D));
+		Matrix3x3d at = new Matrix3x3d();
+		a.transpose(at);
+		Matrix3x3d aat = new Matrix3x3d();
+		Matrix3x3d.mult(a, at, aat);
+		aat.m00 += 0.01D;
+		aat.m11 += 0.01D;
+		aat.m22 += 0.01D;
+		CovarianceKernels.pack(aat, p);
+	}
+
+	private static void randomMatrix(Random random, Matrix3x3d m) {
+		m.set(random.nextGaussian(), random.nextGaussian(),
+				random.nextGaussian(), random.nextGaussian(),
+				random.nextGaussian(), random.nextGaussian(),
+				random.nextGaussian(), random.nextGaussian(),
+				random.nextGaussian());
+	}
+
+	/**
+	 * result = F P F^T + q I.
+	 */
+	private static void naiveSandwich(double[] p, Matrix3x3d f, double q,
+			Matrix3x3d result) {
+		Matrix3x3d full = new Matrix3x3d();
+		CovarianceKernels.unpack(p, full);
+		Matrix3x3d ft = new Matrix3x3d();
+		f.transpose(ft);
+		Matrix3x3d fp = new Matrix3x3d();
+		Matrix3x3d.mult(f, full, fp);
+		Matrix3x3d.mult(fp, ft, result);
+		Matrix3x3d noise = new Matrix3x3d();
+		noise.setSameDiagonal(q);
+		Matrix3x3d.add(result, noise, result);
+	}
+
+	/**
+	 * result = P H^T S^-1.
+	 */
+	private static void naiveGain(double[] p, Matrix3x3d h, double[] s,
+			Matrix3x3d result) {
+		Matrix3x3d full = new Matrix3x3d();
+		CovarianceKernels.unpack(p, full);
+		Matrix3x3d sFull = new Matrix3x3d();
+		CovarianceKernels.unpack(s, sFull);
+		Matrix3x3d sInverse = new Matrix3x3d();
+		assertTrue(sFull.invert(sInverse));
+		Matrix3x3d ht = new Matrix3x3d();
+		h.transpose(ht);
+		Matrix3x3d pht = new Matrix3x3d();
+		Matrix3x3d.mult(full, ht, pht);
+		Matrix3x3d.mult(pht, sInverse, result);
+	}
+
+	/**
+	 * result = (I - K H) P (I - K H)^T + r K K^T.
+	 */
+	private static void naiveJoseph(double[] p, Matrix3x3d k, Matrix3x3d h,
+			double r, Matrix3x3d result) {
+		Matrix3x3d a = new Matrix3x3d();
+		Matrix3x3d.mult(k, h, a);
+		a.scale(-1.0D);
+		a.m00 += 1.0D;
+		a.m11 += 1.0D;
+		a.m22 += 1.0D;
+		naiveSandwich(p, a, 0.0D, result);
+		Matrix3x3d kt = new Matrix3x3d();
+		k.transpose(kt);
+		Matrix3x3d kkt = new Matrix3x3d();
+		Matrix3x3d.mult(k, kt, kkt);
+		kkt.scale(r);
+		Matrix3x3d.add(result, kkt, result);
+	}
+
+	private static void assertPackedEquals(Matrix3x3d expected,
+			double[] actual, double relativeTolerance) {
+		Matrix3x3d unpacked = new Matrix3x3d();
+		CovarianceKernels.unpack(actual, unpacked);
+		assertMatrixEquals(expected, unpacked, relativeTolerance);
+	}
+
+	/**
+	 * Compares entries relative to the largest entry of expected.
+	 */
+	private static void assertMatrixEquals(Matrix3x3d expected,
+			Matrix3x3d actual, double relativeTolerance) {
+		double delta = relativeTolerance * Math.max(1.0D, expected.maxNorm());
+		for (int row = 0; row < 3; row++) {
+			for (int col = 0; col < 3; col++) {
+				assertEquals("(" + row + ", " + col + ")",
+						expected.get(row, col), actual.get(row, col), delta);
+			}
+		}
+	}
+
+	/**
+	 * Sylvester's criterion on the leading minors.
+	 */
+	private static void assertPositiveDefinite(double[] p) {
+		Matrix3x3d full = new Matrix3x3d();
+		CovarianceKernels.unpack(p, full);
+		assertTrue(full.m00 > 0.0D);
+		assertTrue(full.m00 * full.m11 - full.m01 * full.m01 > 0.0D);
+		assertTrue(full.determinant() > 0.0D);
+	}
+}
@@ -0,0 +1,79 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Runs independent filters on concurrent threads and checks that each ends
+ * in bit-for-bit the state of a single-threaded run, i.e. that the filters
+ * share no scratch state through {@link So3Util}.
+ */
+public class OrientationEKFConcurrencyTest {
+	private static final int THREADS = 8;
+	private static final int ROUNDS = 3;
+
+	private static final SyntheticTrace TRACE = new SyntheticTrace(10, 42L,
+			0.01D);
+
+	@Test
+	public void testConcurrentFiltersMatchSingleThreadedRun() throws Exception {
+		final double[] expected = replay();
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+			for (int i = 0; i < THREADS * ROUNDS; i++) {
+				results.add(executor.submit(new Callable<double[]>() {
+					public double[] call() throws Exception {
+						start.await();
+						return replay();
+					}
+				}));
+			}
+			start.countDown();
+			for (int i = 0; i < results.size(); i++) {
+				double[] actual = results.get(i).get(60L, TimeUnit.SECONDS);
+				assertTrue("run " + i + " differs: " + Arrays.toString(actual),
+						Arrays.equals(expected, actual));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Replays the trace through a new filter and returns its final
+	 * orientation, covariance, predicted GL matrix and rotation vector.
+	 */
+	private static double[] replay() {
+		OrientationEKF ekf = new OrientationEKF();
+		TRACE.feedAll(ekf);
+
+		double[] state = new double[9 + CovarianceKernels.SIZE + 16 + 3];
+		ekf.getRotationMatrix().get(state, 0);
+		double[] p = new double[CovarianceKernels.SIZE];
+		ekf.getCovarianceForTest(p);
+		System.arraycopy(p, 0, state, 9, CovarianceKernels.SIZE);
+		double[] gl = ekf.getPredictedGLMatrix(0.02D);
+		System.arraycopy(gl, 0, state, 9 + CovarianceKernels.SIZE, 16);
+		Vector3d mu = new Vector3d();
+		So3Util.muFromSO3(ekf.getRotationMatrix(), mu);
+		int offset = 9 + CovarianceKernels.SIZE + 16;
+		state[offset] = mu.x;
+		state[(offset + 1)] = mu.y;
+		state[(offset + 2)] = mu.z;
+		return state;
+	}
+}
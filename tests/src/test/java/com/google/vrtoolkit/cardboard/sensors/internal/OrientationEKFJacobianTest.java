@@ -0,0 +1,144 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the closed-form measurement Jacobians of {@link OrientationEKF}
+ * with the finite-difference reference over random orientations and
+ * measurements.
+ */
+public class OrientationEKFJacobianTest {
+	private static final Vector3d DOWN = new Vector3d(0.0D, 0.0D,
+			9.810000000000001D);
+	private static final Vector3d NORTH = new Vector3d(0.0D, 1.0D, 0.0D);
+	private static final int TRIALS = 2000;
+
+	private OrientationEKF analytic;
+	private OrientationEKF numerical;
+	private Random random;
+
+	@Before
+	public void setUp() {
+		this.analytic = new OrientationEKF();
+		this.numerical = new OrientationEKF();
+		this.numerical.setAnalyticJacobianEnabled(false);
+		this.random = new Random(1234L);
+	}
+
+	@Test
+	public void testAccJacobianMatchesNumerical() {
+		for (int i = 0; i < TRIALS; i++) {
+			double angle = Math.PI * this.random.nextDouble();
+			checkAcc(randomRotation(Math.PI), angle);
+		}
+	}
+
+	@Test
+	public void testMagJacobianMatchesNumerical() {
+		for (int i = 0; i < TRIALS; i++) {
+			double angle = Math.PI * this.random.nextDouble();
+			checkMag(randomRotation(Math.PI), angle);
+		}
+	}
+
+	@Test
+	public void testSmallInnovation() {
+		double[] angles = { 1.0E-9D, 1.0E-7D, 1.0E-6D, 1.0E-5D, 1.0E-3D };
+		for (int i = 0; i < angles.length; i++) {
+			for (int j = 0; j < 50; j++) {
+				Matrix3x3d so3 = randomRotation(Math.PI);
+				checkAcc(so3, angles[i]);
+				checkMag(so3, angles[i]);
+			}
+		}
+	}
+
+	@Test
+	public void testNearAntiparallel() {
+		double[] gaps = { 1.0E-2D, 1.0E-3D, 1.0E-4D, 1.0E-5D, 1.0E-6D,
+				1.0E-7D, 0.0D };
+		for (int i = 0; i < gaps.length; i++) {
+			for (int j = 0; j < 50; j++) {
+				Matrix3x3d so3 = randomRotation(Math.PI);
+				checkAcc(so3, Math.PI - gaps[i]);
+				checkMag(so3, Math.PI - gaps[i]);
+			}
+		}
+	}
+
+	private void checkAcc(Matrix3x3d so3, double innovationAngle) {
+		Vector3d acc = new Vector3d();
+		measurement(so3, DOWN, innovationAngle, acc);
+		Matrix3x3d expected = new Matrix3x3d();
+		Matrix3x3d actual = new Matrix3x3d();
+		this.numerical.computeAccJacobianForTest(so3, acc, expected);
+		this.analytic.computeAccJacobianForTest(so3, acc, actual);
+		assertClose("acc", innovationAngle, expected, actual);
+	}
+
+	private void checkMag(Matrix3x3d so3, double innovationAngle) {
+		Vector3d mag = new Vector3d();
+		measurement(so3, NORTH, innovationAngle, mag);
+		Matrix3x3d expected = new Matrix3x3d();
+		Matrix3x3d actual = new Matrix3x3d();
+		this.numerical.computeMagJacobianForTest(so3, mag, expected);
+		this.analytic.computeMagJacobianForTest(so3, mag, actual);
+		assertClose("mag", innovationAngle, expected, actual);
+	}
+
+	/**
+	 * Writes the predicted direction so3 * world, rotated by angle about a
+	 * random axis perpendicular to it, to result.
+	 */
+	private void measurement(Matrix3x3d so3, Vector3d world, double angle,
+			Vector3d result) {
+		Vector3d predicted = new Vector3d();
+		Matrix3x3d.mult(so3, world, predicted);
+		Vector3d axis = new Vector3d();
+		Vector3d.cross(predicted, randomUnitVector(), axis);
+		axis.normalize();
+		axis.scale(angle);
+		Matrix3x3d rotation = new Matrix3x3d();
+		So3Util.sO3FromMu(axis, rotation);
+		Matrix3x3d.mult(rotation, predicted, result);
+	}
+
+	/**
+	 * The Jacobian grows as 1 / (pi - angle) towards the antiparallel
+	 * singularity, and with it the error of the finite differences; measured
+	 * errors stay below a tenth of the tolerance. Within 1e-6 of pi both
+	 * filters use the finite differences.
+	 */
+	private static void assertClose(String sensor, double innovationAngle,
+			Matrix3x3d expected, Matrix3x3d actual) {
+		double gap = Math.max(Math.PI - innovationAngle, 1.0E-6D);
+		double tolerance = 1.0E-6D / gap;
+		Matrix3x3d difference = new Matrix3x3d(actual);
+		difference.minusEquals(expected);
+		double error = difference.maxNorm()
+				/ Math.max(1.0D, expected.maxNorm());
+		assertTrue(sensor + " Jacobian differs by " + error
+				+ " at innovation angle " + innovationAngle,
+				error <= tolerance);
+	}
+
+	private Matrix3x3d randomRotation(double maxAngle) {
+		Vector3d mu = randomUnitVector();
+		mu.scale(maxAngle * this.random.nextDouble());
+		Matrix3x3d result = new Matrix3x3d();
+		So3Util.sO3FromMu(mu, result);
+		return result;
+	}
+
+	private Vector3d randomUnitVector() {
+		Vector3d v = new Vector3d(this.random.nextGaussian(),
+				this.random.nextGaussian(), this.random.nextGaussian());
+		v.normalize();
+		return v;
+	}
+}
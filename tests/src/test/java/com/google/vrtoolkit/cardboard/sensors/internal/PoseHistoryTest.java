@@ -0,0 +1,187 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Lookups in a {@link PoseHistory}: interpolation between poses,
+ * extrapolation past the newest one, lookups before the oldest one and a
+ * reader racing the writer.
+ */
+public class PoseHistoryTest {
+	private static final long START_NS = 1000000000L;
+	private static final long STEP_NS = 1000L;
+	private static final float EPSILON = 1.0E-6F;
+
+	/**
+	 * A lookup a quarter of the way from a pose to one rotated 90 degrees
+	 * about z returns the rotation by 22.5 degrees.
+	 */
+	@Test
+	public void testSlerpBetweenPoses() {
+		PoseHistory history = new PoseHistory(4);
+		history.add(START_NS, 0.0D, 0.0D, 0.0D, 1.0D, 0.0D, 0.0D, 0.0D);
+		double half = Math.PI / 4.0D;
+		history.add(START_NS + 4000L, 0.0D, 0.0D, Math.sin(half),
+				Math.cos(half), 0.0D, 0.0D, 0.0D);
+
+		float[] q = new float[4];
+		assertTrue(history.poseAt(START_NS + 1000L, q));
+		assertQuaternionEquals(0.0D, 0.0D, Math.sin(half / 4.0D),
+				Math.cos(half / 4.0D), q);
+	}
+
+	/**
+	 * Past the newest pose the gyroscope rate is integrated like
+	 * {@link OrientationEKF} does: sensorFromWorld = exp(-gyro dT)
+	 * sensorFromWorld.
+	 */
+	@Test
+	public void testExtrapolatesWithGyroscopeRate() {
+		Matrix3x3d sensorFromWorld = new Matrix3x3d();
+		So3Util.sO3FromMu(new Vector3d(0.3D, -0.2D, 0.1D), sensorFromWorld);
+		PoseHistory history = new PoseHistory(4);
+		history.add(START_NS, sensorFromWorld, 0.5D, 1.0D, -2.0D);
+
+		Matrix3x3d motion = new Matrix3x3d();
+		So3Util.sO3FromMu(new Vector3d(-0.05D, -0.1D, 0.2D), motion);
+		Matrix3x3d expected = new Matrix3x3d();
+		Matrix3x3d.mult(motion, sensorFromWorld, expected);
+		double[] e = new double[4];
+		PoseHistory.quaternionFromSO3(expected, e);
+
+		float[] q = new float[4];
+		assertTrue(history.poseAt(START_NS + 100000000L, q));
+		assertQuaternionEquals(e[0], e[1], e[2], e[3], q);
+	}
+
+	/**
+	 * Only capacity - 1 poses can be read; a lookup before them returns the
+	 * oldest readable pose.
+	 */
+	@Test
+	public void testLookupOlderThanCapacity() {
+		PoseHistory history = new PoseHistory(4);
+		float[] q = new float[4];
+		assertFalse(history.poseAt(START_NS, q));
+		for (int i = 0; i < 10; i++) {
+			addAboutZ(history, i);
+		}
+		assertTrue(history.poseAt(START_NS, q));
+		assertQuaternionEquals(0.0D, 0.0D, Math.sin(0.5D * angle(7)),
+				Math.cos(0.5D * angle(7)), q);
+		assertTrue(history.poseAt(START_NS + 6 * STEP_NS, q));
+		assertQuaternionEquals(0.0D, 0.0D, Math.sin(0.5D * angle(7)),
+				Math.cos(0.5D * angle(7)), q);
+
+		history.clear();
+		assertFalse(history.poseAt(START_NS, q));
+	}
+
+	/**
+	 * One thread keeps appending poses about z whose angle grows linearly
+	 * with the timestamp while another looks poses up around the newest
+	 * one. A consistent read returns the angle of the requested time, or
+	 * that of the oldest readable pose if the writer has moved past it; a
+	 * pose torn between two writes would mix angles capacity steps apart.
+	 */
+	@Test
+	public void testConcurrentReaderSeesNoTornPose() throws Exception {
+		final int capacity = 8;
+		final int poses = 200000;
+		final PoseHistory history = new PoseHistory(capacity);
+		final AtomicLong written = new AtomicLong(-1L);
+		Thread writer = new Thread("pose writer") {
+			public void run() {
+				for (int i = 0; i < poses; i++) {
+					addAboutZ(history, i);
+					written.set(i);
+				}
+			}
+		};
+		final AtomicReference<String> failure = new AtomicReference<String>();
+		Thread reader = new Thread("pose reader") {
+			public void run() {
+				Random random = new Random(1L);
+				float[] q = new float[4];
+				while ((written.get() < poses - 1) && (failure.get() == null)) {
+					long newest = written.get();
+					if (newest < 0L) {
+						continue;
+					}
+					long timestampNs = START_NS + (newest - capacity) * STEP_NS
+							+ (long) (random.nextDouble() * (capacity + 2) * STEP_NS);
+					if (!history.poseAt(timestampNs, q)) {
+						failure.set("no pose at " + timestampNs);
+						return;
+					}
+					String error = checkPose(timestampNs, q, written.get());
+					if (error != null) {
+						failure.set(error);
+					}
+				}
+			}
+		};
+		writer.start();
+		reader.start();
+		writer.join(60000L);
+		reader.join(60000L);
+		assertNull(failure.get(), failure.get());
+	}
+
+	private static String checkPose(long timestampNs, float[] q, long newest) {
+		double norm = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3]
+				* q[3]);
+		if ((Math.abs(q[0]) > EPSILON) || (Math.abs(q[1]) > EPSILON)
+				|| (Math.abs(norm - 1.0D) > 1.0E-5D)) {
+			return "not a rotation about z at " + timestampNs;
+		}
+		double actual = 2.0D * Math.atan2(q[2], q[3]);
+		double expected = angle(0) + (timestampNs - START_NS)
+				* (angle(1) - angle(0)) / STEP_NS;
+		if (actual < expected - EPSILON) {
+			return "pose at " + timestampNs + " is older than requested: "
+					+ actual + " < " + expected;
+		}
+		if (actual > expected + EPSILON) {
+			double index = (actual - angle(0)) / (angle(1) - angle(0));
+			if ((Math.abs(index - Math.rint(index)) > 0.1D)
+					|| (Math.rint(index) > newest)) {
+				return "pose at " + timestampNs + " is no stored pose: "
+						+ actual + " vs " + expected;
+			}
+		}
+		return null;
+	}
+
+	private static double angle(long index) {
+		return 1.0E-5D * index;
+	}
+
+	/**
+	 * Adds pose i, rotated by angle(i) about z, with the gyroscope rate that
+	 * continues the motion.
+	 */
+	private static void addAboutZ(PoseHistory history, long i) {
+		double a = angle(i);
+		double rate = (angle(1) - angle(0)) / (STEP_NS * 1.0E-009D);
+		history.add(START_NS + i * STEP_NS, 0.0D, 0.0D, Math.sin(0.5D * a),
+				Math.cos(0.5D * a), 0.0D, 0.0D, -rate);
+	}
+
+	private static void assertQuaternionEquals(double x, double y, double z,
+			double w, float[] q) {
+		assertEquals(x, q[0], EPSILON);
+		assertEquals(y, q[1], EPSILON);
+		assertEquals(z, q[2], EPSILON);
+		assertEquals(w, q[3], EPSILON);
+	}
+}
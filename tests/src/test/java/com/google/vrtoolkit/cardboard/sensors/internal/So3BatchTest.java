@@ -0,0 +1,249 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link So3Batch} gives bit-for-bit the results of
+ * {@link So3Util}, with most lanes near the branch points: angle 0, the
+ * small-angle thresholds of the exponential and angle pi.
+ */
+public class So3BatchTest {
+	private static final int RANDOM_LANES = 1000;
+	private static final double[] SMALL_ANGLES = { 0.0D, 1.0E-12D,
+			1.0E-9D, Math.nextDown(1.0E-4D), 1.0E-4D, Math.nextUp(1.0E-4D),
+			5.0E-4D, Math.nextDown(1.0E-3D), 1.0E-3D, Math.nextUp(1.0E-3D),
+			2.0E-3D };
+	private static final double[] NEAR_PI_OFFSETS = { 0.0D, 1.0E-12D,
+			1.0E-9D, 1.0E-6D, 1.0E-3D, 0.1D };
+	private static final double MAX_ROUND_TRIP_ERROR = 1.0E-15D;
+	private static final double MAX_ROUND_TRIP_ERROR_NEAR_PI = 1.0E-7D;
+
+	/**
+	 * Exponentials of rotation vectors whose squared length sits on and
+	 * around the 1e-8 and 1e-6 thresholds.
+	 */
+	@Test
+	public void testSO3FromMuMatchesSo3UtilAtSmallAngles() {
+		Random random = new Random(1L);
+		Vector3d[] mus = new Vector3d[SMALL_ANGLES.length * 3 + 2];
+		int n = 0;
+		for (double angle : SMALL_ANGLES) {
+			for (int k = 0; k < 3; k++) {
+				mus[n++] = scaled(randomAxis(random), angle);
+			}
+		}
+		// Squared lengths exactly on the thresholds.
+		mus[n++] = new Vector3d(0.0D, 0.0D, Math.sqrt(1.0E-008D));
+		mus[n++] = new Vector3d(0.0D, Math.sqrt(1.0E-006D), 0.0D);
+		assertSO3FromMuMatches(mus);
+	}
+
+	@Test
+	public void testSO3FromMuMatchesSo3UtilNearPi() {
+		Random random = new Random(2L);
+		Vector3d[] mus = new Vector3d[NEAR_PI_OFFSETS.length * 2];
+		int n = 0;
+		for (double offset : NEAR_PI_OFFSETS) {
+			mus[n++] = scaled(randomAxis(random), Math.PI - offset);
+			mus[n++] = scaled(randomAxis(random), Math.PI + offset);
+		}
+		assertSO3FromMuMatches(mus);
+	}
+
+	@Test
+	public void testSO3FromMuMatchesSo3UtilAtRandomAngles() {
+		Random random = new Random(3L);
+		Vector3d[] mus = new Vector3d[RANDOM_LANES];
+		for (int i = 0; i < mus.length; i++) {
+			mus[i] = scaled(randomAxis(random), Math.PI * random.nextDouble());
+		}
+		assertSO3FromMuMatches(mus);
+	}
+
+	/**
+	 * Logarithms of the identity and of small rotations, which take the
+	 * asin branch, including the sinAngleAbs == 0 case.
+	 */
+	@Test
+	public void testMuFromSO3MatchesSo3UtilAtSmallAngles() {
+		Random random = new Random(4L);
+		Matrix3x3d[] so3s = new Matrix3x3d[SMALL_ANGLES.length * 3];
+		int n = 0;
+		for (double angle : SMALL_ANGLES) {
+			for (int k = 0; k < 3; k++) {
+				so3s[n++] = exp(scaled(randomAxis(random), angle));
+			}
+		}
+		assertMuFromSO3Matches(so3s);
+	}
+
+	/**
+	 * Logarithms near pi, where the axis comes from the diagonal instead of
+	 * the skew part, and at exactly pi, where the skew part vanishes.
+	 */
+	@Test
+	public void testMuFromSO3MatchesSo3UtilNearPi() {
+		Random random = new Random(5L);
+		Matrix3x3d[] so3s = new Matrix3x3d[NEAR_PI_OFFSETS.length * 3 + 3];
+		int n = 0;
+		for (double offset : NEAR_PI_OFFSETS) {
+			for (int k = 0; k < 3; k++) {
+				so3s[n++] = exp(scaled(randomAxis(random), Math.PI - offset));
+			}
+		}
+		// Half turns about the axes pick each diagonal entry in turn.
+		so3s[n++] = new Matrix3x3d(1.0D, 0.0D, 0.0D, 0.0D, -1.0D, 0.0D, 0.0D,
+				0.0D, -1.0D);
+		so3s[n++] = new Matrix3x3d(-1.0D, 0.0D, 0.0D, 0.0D, 1.0D, 0.0D, 0.0D,
+				0.0D, -1.0D);
+		so3s[n++] = new Matrix3x3d(-1.0D, 0.0D, 0.0D, 0.0D, -1.0D, 0.0D,
+				0.0D, 0.0D, 1.0D);
+		assertMuFromSO3Matches(so3s);
+	}
+
+	/**
+	 * Angles on both sides of the cos 45 and cos 135 degree branch points.
+	 */
+	@Test
+	public void testMuFromSO3MatchesSo3UtilAtBranchPoints() {
+		Random random = new Random(6L);
+		double[] angles = { Math.PI / 4.0D, 3.0D * Math.PI / 4.0D };
+		double[] offsets = { -1.0E-9D, 0.0D, 1.0E-9D };
+		Matrix3x3d[] so3s = new Matrix3x3d[angles.length * offsets.length];
+		int n = 0;
+		for (double angle : angles) {
+			for (double offset : offsets) {
+				so3s[n++] = exp(scaled(randomAxis(random), angle + offset));
+			}
+		}
+		assertMuFromSO3Matches(so3s);
+	}
+
+	@Test
+	public void testMuFromSO3MatchesSo3UtilAtRandomAngles() {
+		Random random = new Random(7L);
+		Matrix3x3d[] so3s = new Matrix3x3d[RANDOM_LANES];
+		for (int i = 0; i < so3s.length; i++) {
+			so3s[i] = exp(scaled(randomAxis(random),
+					Math.PI * random.nextDouble()));
+		}
+		assertMuFromSO3Matches(so3s);
+	}
+
+	/**
+	 * log(exp(mu)) returns mu. Near pi the axis comes from the diagonal,
+	 * whose error grows like the square root of the rounding error.
+	 */
+	@Test
+	public void testRoundTripAccuracy() {
+		Random random = new Random(8L);
+		double[] angles = new double[SMALL_ANGLES.length
+				+ NEAR_PI_OFFSETS.length - 1];
+		int n = 0;
+		for (double angle : SMALL_ANGLES) {
+			angles[n++] = angle;
+		}
+		for (double offset : NEAR_PI_OFFSETS) {
+			if (offset > 0.0D) {
+				angles[n++] = Math.PI - offset;
+			}
+		}
+		So3Batch batch = new So3Batch(angles.length);
+		Vector3d[] mus = new Vector3d[angles.length];
+		for (int i = 0; i < angles.length; i++) {
+			mus[i] = scaled(randomAxis(random), angles[i]);
+			batch.setMu(i, mus[i]);
+		}
+		batch.sO3FromMu(0, angles.length);
+		batch.muFromSO3(0, angles.length);
+		Vector3d actual = new Vector3d();
+		for (int i = 0; i < angles.length; i++) {
+			batch.getMu(i, actual);
+			double tolerance = angles[i] < 3.0D ? MAX_ROUND_TRIP_ERROR
+					: MAX_ROUND_TRIP_ERROR_NEAR_PI;
+			assertEquals("angle " + angles[i], mus[i].x, actual.x, tolerance);
+			assertEquals("angle " + angles[i], mus[i].y, actual.y, tolerance);
+			assertEquals("angle " + angles[i], mus[i].z, actual.z, tolerance);
+		}
+	}
+
+	/**
+	 * Converting a subrange leaves the other lanes alone.
+	 */
+	@Test
+	public void testRangeLeavesOtherLanes() {
+		So3Batch batch = new So3Batch(4);
+		for (int i = 0; i < batch.capacity(); i++) {
+			batch.setMu(i, new Vector3d(0.1D * (i + 1), 0.0D, 0.0D));
+		}
+		batch.sO3FromMu(1, 2);
+		assertEquals(0.0D, batch.m00[0], 0.0D);
+		assertEquals(0.0D, batch.m00[3], 0.0D);
+		assertEquals(Math.cos(0.2D), batch.m11[1], 1.0E-15D);
+		assertEquals(Math.cos(0.3D), batch.m11[2], 1.0E-15D);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testRangePastCapacityIsRejected() {
+		new So3Batch(4).muFromSO3(2, 3);
+	}
+
+	private static void assertSO3FromMuMatches(Vector3d[] mus) {
+		So3Batch batch = new So3Batch(mus.length);
+		for (int i = 0; i < mus.length; i++) {
+			batch.setMu(i, mus[i]);
+		}
+		batch.sO3FromMu(0, mus.length);
+		Matrix3x3d expected = new Matrix3x3d();
+		Matrix3x3d actual = new Matrix3x3d();
+		double[] expectedValues = new double[9];
+		double[] actualValues = new double[9];
+		for (int i = 0; i < mus.length; i++) {
+			So3Util.sO3FromMu(mus[i], expected);
+			batch.getSO3(i, actual);
+			expected.get(expectedValues, 0);
+			actual.get(actualValues, 0);
+			assertArrayEquals("lane " + i, expectedValues, actualValues, 0.0D);
+		}
+	}
+
+	private static void assertMuFromSO3Matches(Matrix3x3d[] so3s) {
+		So3Batch batch = new So3Batch(so3s.length);
+		for (int i = 0; i < so3s.length; i++) {
+			batch.setSO3(i, so3s[i]);
+		}
+		batch.muFromSO3(0, so3s.length);
+		Vector3d expected = new Vector3d();
+		Vector3d actual = new Vector3d();
+		for (int i = 0; i < so3s.length; i++) {
+			So3Util.muFromSO3(so3s[i], expected);
+			batch.getMu(i, actual);
+			assertEquals("lane " + i, expected.x, actual.x, 0.0D);
+			assertEquals("lane " + i, expected.y, actual.y, 0.0D);
+			assertEquals("lane " + i, expected.z, actual.z, 0.0D);
+		}
+	}
+
+	private static Vector3d randomAxis(Random random) {
+		Vector3d axis = new Vector3d(random.nextGaussian(),
+				random.nextGaussian(), random.nextGaussian());
+		axis.normalize();
+		return axis;
+	}
+
+	private static Vector3d scaled(Vector3d v, double s) {
+		v.scale(s);
+		return v;
+	}
+
+	private static Matrix3x3d exp(Vector3d mu) {
+		Matrix3x3d so3 = new Matrix3x3d();
+		So3Util.sO3FromMu(mu, so3);
+		return so3;
+	}
+}
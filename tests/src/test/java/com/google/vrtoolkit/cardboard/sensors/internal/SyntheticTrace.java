@@ -0,0 +1,165 @@
+package com.google.vrtoolkit.cardboard.sensors.internal;
+
+import java.util.Random;
+
+/**
+ * Sensor samples of a smooth synthetic head motion, in timestamp order:
+ * gyroscope at 400 Hz, accelerometer at 200 Hz and magnetometer at 50 Hz.
+ * The gyroscope and accelerometer carry Gaussian noise; the true
+ * sensorFromWorld at each sample is kept in truth, nine row-major entries
+ * per sample. The head may hold still in every other segment of
+ * stillSeconds, marked per sample in still.
+ */
+final class SyntheticTrace {
+	private static final long TICK_NS = 250000L;
+	private static final double TICK_S = 2.5E-4D;
+	private static final double ACCEL_NOISE = 0.2D;
+	private static final long TIMESTAMP_JITTER_NS = 10000L;
+
+	final int count;
+	final int[] types;
+	final double[] xyz;
+	final long[] timestamps;
+	final double[] truth;
+	final boolean[] still;
+
+	SyntheticTrace(int seconds, long seed, double gyroNoise) {
+		this(seconds, seed, gyroNoise, 0);
+	}
+
+	/**
+	 * Moves for stillSeconds, holds still for stillSeconds and so on; 0
+	 * moves all the time.
+	 */
+	SyntheticTrace(int seconds, long seed, double gyroNoise, int stillSeconds) {
+		Random random = new Random(seed);
+		int capacity = seconds * 700;
+		this.types = new int[capacity];
+		this.xyz = new double[3 * capacity];
+		this.timestamps = new long[capacity];
+		this.truth = new double[9 * capacity];
+		this.still = new boolean[capacity];
+
+		Matrix3x3d sensorFromWorld = new Matrix3x3d();
+		sensorFromWorld.setIdentity();
+		Matrix3x3d motion = new Matrix3x3d();
+		Vector3d mu = new Vector3d();
+		Vector3d gravity = new Vector3d(0.0D, 0.0D, 9.81D);
+		Vector3d field = new Vector3d(0.0D, 40.0D, -25.0D);
+		Vector3d v = new Vector3d();
+		long timestamp = 1000000000L;
+		int n = 0;
+		for (long tick = 0L; (tick < seconds * 4000L) && (n < capacity); tick++) {
+			timestamp += TICK_NS;
+			double time = tick * TICK_S;
+			double wx = 1.5D * Math.sin(time * 2.1D) + 0.5D
+					* Math.sin(time * 7.3D);
+			double wy = Math.sin(time * 1.3D + 1.0D);
+			double wz = 0.8D * Math.sin(time * 3.1D + 2.0D);
+			boolean holdingStill = (stillSeconds > 0)
+					&& (tick / (stillSeconds * 4000L) % 2L == 1L);
+			if (holdingStill) {
+				wx = 0.0D;
+				wy = 0.0D;
+				wz = 0.0D;
+			}
+			mu.set(-wx * TICK_S, -wy * TICK_S, -wz * TICK_S);
+			So3Util.sO3FromMu(mu, motion);
+			Matrix3x3d.mult(motion, sensorFromWorld, sensorFromWorld);
+
+			int type;
+			if (tick % 10L == 0L) {
+				type = FusionEngine.SAMPLE_TYPE_GYROSCOPE;
+				v.set(wx + gyroNoise * random.nextGaussian(), wy + gyroNoise
+						* random.nextGaussian(), wz + gyroNoise
+						* random.nextGaussian());
+				this.timestamps[n] = timestamp;
+			} else if (tick % 20L == 5L) {
+				type = FusionEngine.SAMPLE_TYPE_ACCELEROMETER;
+				Matrix3x3d.mult(sensorFromWorld, gravity, v);
+				v.set(v.x + ACCEL_NOISE * random.nextGaussian(), v.y
+						+ ACCEL_NOISE * random.nextGaussian(), v.z
+						+ ACCEL_NOISE * random.nextGaussian());
+				this.timestamps[n] = timestamp
+						+ (long) (random.nextGaussian() * TIMESTAMP_JITTER_NS);
+			} else if (tick % 80L == 7L) {
+				type = FusionEngine.SAMPLE_TYPE_MAGNETOMETER;
+				Matrix3x3d.mult(sensorFromWorld, field, v);
+				this.timestamps[n] = timestamp
+						+ (long) (random.nextGaussian() * TIMESTAMP_JITTER_NS);
+			} else {
+				continue;
+			}
+			this.types[n] = type;
+			this.still[n] = holdingStill;
+			this.xyz[(3 * n)] = v.x;
+			this.xyz[(3 * n + 1)] = v.y;
+			this.xyz[(3 * n + 2)] = v.z;
+			sensorFromWorld.get(this.truth, 9 * n);
+			n++;
+		}
+		this.count = n;
+	}
+
+	/**
+	 * Passes sample i to engine through the single-sample methods.
+	 */
+	void feed(FusionEngine engine, int i) {
+		feed(engine, i, 0L);
+	}
+
+	/**
+	 * Passes sample i to engine with its timestamp moved by
+	 * timestampOffsetNs.
+	 */
+	void feed(FusionEngine engine, int i, long timestampOffsetNs) {
+		long timestamp = this.timestamps[i] + timestampOffsetNs;
+		double x = this.xyz[(3 * i)];
+		double y = this.xyz[(3 * i + 1)];
+		double z = this.xyz[(3 * i + 2)];
+		switch (this.types[i]) {
+		case FusionEngine.SAMPLE_TYPE_GYROSCOPE:
+			engine.processGyro(new Vector3d(x, y, z), timestamp);
+			break;
+		case FusionEngine.SAMPLE_TYPE_ACCELEROMETER:
+			engine.processAcc(new Vector3d(x, y, z), timestamp);
+			break;
+		default:
+			engine.processMag(new float[] { (float) x, (float) y, (float) z },
+					timestamp);
+		}
+	}
+
+	void feedAll(FusionEngine engine) {
+		for (int i = 0; i < this.count; i++) {
+			feed(engine, i);
+		}
+	}
+
+	/**
+	 * Returns the angle in radians between so3 and the true orientation of
+	 * sample i.
+	 */
+	double angleToTruth(Matrix3x3d so3, int i) {
+		Matrix3x3d truth = new Matrix3x3d();
+		truth.set(this.truth, 9 * i);
+		return angleBetween(so3, truth);
+	}
+
+	/**
+	 * Returns the angle in radians of the rotation a * b^T, from atan2 of its
+	 * antisymmetric part and its trace rather than from the trace alone, so
+	 * that a scale error of a float matrix does not read as a rotation.
+	 */
+	static double angleBetween(Matrix3x3d a, Matrix3x3d b) {
+		Matrix3x3d bt = new Matrix3x3d();
+		b.transpose(bt);
+		Matrix3x3d r = new Matrix3x3d();
+		Matrix3x3d.mult(a, bt, r);
+		double x = r.m21 - r.m12;
+		double y = r.m02 - r.m20;
+		double z = r.m10 - r.m01;
+		return Math.atan2(0.5D * Math.sqrt(x * x + y * y + z * z),
+				0.5D * (r.m00 + r.m11 + r.m22 - 1.0D));
+	}
+}